@@ -20,18 +20,29 @@ import java.awt.Component;
 
 import javax.swing.*;
 import javax.swing.border.Border;
+import javax.swing.plaf.basic.BasicHTML;
 import javax.swing.table.DefaultTableCellRenderer;
 
 
+/**
+ * Renders table cells with the application's font and colours. It does not
+ * delegate to {@link DefaultTableCellRenderer#getTableCellRendererComponent},
+ * which looks up the look and feel's colours and borders for every cell
+ * painted. Font and border are set once, subclasses decide the text of each
+ * cell through {@link #toText(JTable, Object, int, int)}.
+ */
 public class CellRenderer extends DefaultTableCellRenderer {
     private static final Border EMPTY_BORDER = BorderFactory.createEmptyBorder();
 
-    @Override
-    public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int rowIdx, int colIdx) {
-        super.getTableCellRendererComponent(table, value, isSelected, hasFocus, rowIdx, colIdx);
+    public CellRenderer() {
         setFont(GTk.TABLE_CELL_FONT);
         setBorder(EMPTY_BORDER);
+    }
+
+    @Override
+    public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int rowIdx, int colIdx) {
         if (rowIdx > -1 && rowIdx < table.getModel().getRowCount()) {
+            setText(toText(table, value, rowIdx, colIdx));
             if (isSelected) {
                 setBackground(GTk.EDITOR_MATCH_FOREGROUND_COLOR);
                 setForeground(GTk.QUEST_APP_BACKGROUND_COLOR);
@@ -43,4 +54,30 @@ public class CellRenderer extends DefaultTableCellRenderer {
         }
         throw new IndexOutOfBoundsException(String.format("row %d does not exist, there are [0..%d] rows", rowIdx, table.getModel().getRowCount() - 1));
     }
+
+    /**
+     * The label's UI listens to text changes only to render HTML. Notifying it of
+     * every cell painted would allocate an event each time, which is skipped
+     * unless HTML is involved.
+     */
+    @Override
+    protected void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
+        if ("text".equals(propertyName)
+            && getClientProperty(BasicHTML.propertyKey) == null
+            && !(newValue instanceof String text && BasicHTML.isHTMLString(text))) {
+            return;
+        }
+        super.firePropertyChange(propertyName, oldValue, newValue);
+    }
+
+    /**
+     * @param table  the table
+     * @param value  value of the cell
+     * @param rowIdx row index, in view coordinates
+     * @param colIdx column index, in view coordinates
+     * @return text of the cell, by default that of the value
+     */
+    protected String toText(JTable table, Object value, int rowIdx, int colIdx) {
+        return value != null ? value.toString() : "";
+    }
 }
@@ -53,6 +53,7 @@ public final class GTk {
             ctrl^.            run QuestDB in the background
             ctrl^m            open metadata files explorer
             ctrl^j            open plot on results, if two numeric columns
+            ctrl^e            open query history, with timings
             ctrl^t            open connection assigner/editor
             ctrl^o            open assigned connection
             ctrl^h            open documentation in a browser tab
@@ -60,6 +61,7 @@ public final class GTk {
             ctrl^d            copy line under caret & paste it under current line
             ctrl^x            remove line under caret (upward direction)
             ctrl^c            copy selection to clipboard
+            ctrl+shift^c      export selected results to a file
             ctrl^v            paste the content of the clipboard
             ctrl^z            undo last edit
             ctrl^y            redo last undo
@@ -72,8 +74,9 @@ public final class GTk {
             ctrl^l            execute line under caret
             ctrl^enter        execute selection, or full content of editor
             ctrl^w            abort current execution
-            ctrl^p            prev page in results table
-            ctrl^n            next page in results table
+            ctrl^p            scroll results table up a page
+            ctrl^n            scroll results table down a page
+            ctrl^k            diff results with those of the previous execution
 
             ctrl^up           go to top
             ctrl^down         go to bottom
@@ -184,46 +187,8 @@ public final class GTk {
 
     public static void setupTableCmdKeyActions(JTable table) {
         addCmdKeyAction(KeyEvent.VK_A, table, e -> table.selectAll()); // cmd-a, select all
-        final StringBuilder sb = new StringBuilder();
-        addCmdKeyAction(KeyEvent.VK_C, table, e -> { // cmd-c, copy selection/all to clipboard
-            int[] selectedRows = table.getSelectedRows();
-            int[] selectedCols = table.getSelectedColumns();
-            if (selectedRows.length == 0) {
-                table.selectAll();
-                selectedRows = table.getSelectedRows();
-            }
-            int[] widths = new int[selectedCols.length];
-            for (int c = 0; c < selectedCols.length; c++) {
-                for (int r = 0; r < selectedRows.length; r++) {
-                    int len = table.getValueAt(r, c).toString().length();
-                    if (widths[c] < len) {
-                        widths[c] = len;
-                    }
-                }
-            }
-            sb.setLength(0);
-            int rowIdx;
-            int colIdx;
-            for (int selectedRow : selectedRows) {
-                rowIdx = selectedRow;
-                for (int c = 0; c < selectedCols.length; c++) {
-                    colIdx = selectedCols[c];
-                    if (!table.getColumnName(colIdx).equals(Table.ROWID_COL_NAME)) {
-                        String value = table.getValueAt(rowIdx, colIdx).toString();
-                        int len = value.length();
-                        sb.append(value);
-                        sb.append(" ".repeat(Math.max(0, widths[c] - len)));
-                        sb.append(", ");
-                    }
-                }
-                sb.setLength(sb.length() - 2);
-                sb.append("\n");
-            }
-            if (sb.length() > 0) {
-                sb.setLength(sb.length() - 1); // last \n
-                setClipboardContent(sb.toString());
-            }
-        });
+        addCmdKeyAction(KeyEvent.VK_C, table, e -> SelectionCopier.copyToClipboard(table)); // cmd-c, copy selection/all to clipboard
+        addCmdShiftKeyAction(KeyEvent.VK_C, table, e -> SelectionCopier.exportToFile(table)); // cmd-shift-c, export selection/all to file
     }
 
     public static void showErrorDialog(Component owner, String message) {
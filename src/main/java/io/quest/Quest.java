@@ -19,20 +19,34 @@ package io.quest;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 import javax.swing.*;
 
 import io.quest.conns.Conn;
+import io.quest.history.History;
+import io.quest.history.QueryHistory;
 import io.quest.sql.SQLExecutor;
 import io.quest.sql.SQLExecutionRequest;
 import io.quest.sql.SQLExecutionResponse;
 import io.quest.metadata.Metadata;
 import io.quest.plot.Plot;
 import io.quest.plot.TableColumn;
-import io.quest.results.SQLPagedTableModel;
+import io.quest.results.SQLTableModel;
 import io.quest.sql.SQLType;
+import io.quest.sql.Table;
+import io.quest.sql.TableDiff;
 import io.quest.store.Store;
 import io.questdb.ServerMain;
 import io.questdb.log.Log;
@@ -41,6 +55,7 @@ import io.questdb.std.Misc;
 
 import io.quest.editor.QuestsEditor;
 import io.quest.conns.Conns;
+import io.quest.results.ResultsTabs;
 import io.quest.results.SQLResultsTable;
 
 import static io.quest.GTk.menuItem;
@@ -49,32 +64,40 @@ import static io.quest.GTk.Icon;
 
 public final class Quest {
     private static final Log LOG = LogFactory.getLog(Quest.class);
+    private static final int MAX_SNAPSHOTS = 8;
 
     private final JFrame frame;
     private final QuestsEditor commands;
     private final Conns conns;
-    private final SQLResultsTable results;
+    private final ResultsTabs results;
     private final SQLExecutor executor;
     private final Metadata meta;
     private final Plot plot;
+    private final QueryHistory history;
+    private final History historyView;
     private final JMenuItem toggleConns;
     private final JMenuItem togglePlot;
     private final JMenuItem toggleQuestDB;
     private final JMenuItem toggleMeta;
+    private final JMenuItem toggleHistory;
     private final JMenuItem toggleAssignedConn;
     private ServerMain questDb;
+    private final Deque<SQLExecutionResponse> snapshots; // completed, most recent first, kept for diffing
 
     private Quest() {
         frame = GTk.frame(String.format("%s [store: %s]", GTk.QUEST_APP_NAME, Store.ROOT_PATH));
         frame.setIconImage(Icon.QUEST.icon().getImage());
         int dividerHeight = (int) (frame.getHeight() * 0.6);
         executor = new SQLExecutor();
+        snapshots = new ArrayDeque<>();
         meta = new Metadata(frame, "Metadata Files", this::dispatchEvent);
         plot = new Plot(frame, "Plot", this::dispatchEvent);
+        history = new QueryHistory(Store.ROOT_PATH, QueryHistory.DEFAULT_MAX_BYTES, this::dispatchEvent);
+        historyView = new History(frame, "Query History", history, this::dispatchEvent);
         conns = new Conns(frame, this::dispatchEvent);
         commands = new QuestsEditor(this::dispatchEvent);
         commands.setPreferredSize(new Dimension(0, dividerHeight));
-        results = new SQLResultsTable(frame.getWidth(), dividerHeight);
+        results = new ResultsTabs(executor, this::isSnapshot, frame.getWidth(), dividerHeight);
         JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, true, commands, results);
         splitPane.setDividerLocation(dividerHeight);
         splitPane.setDividerSize(5);
@@ -84,6 +107,7 @@ public final class Quest {
         toggleQuestDB = new JMenuItem();
         toggleMeta = new JMenuItem();
         togglePlot = new JMenuItem();
+        toggleHistory = new JMenuItem();
         frame.setJMenuBar(createMenuBar());
         Runtime.getRuntime().addShutdownHook(new Thread(this::close, "shutdown-hook"));
         LOG.info().$('\n').$(GTk.BANNER).$('\n').$();
@@ -110,18 +134,26 @@ public final class Quest {
         JMenu connsMenu = GTk.menu(Icon.CONNS, "Connections");
         connsMenu.add(menuItem(toggleConns, Icon.CONN_SHOW, "Connections", KeyEvent.VK_T, this::onToggleConns));
         connsMenu.add(menuItem(toggleAssignedConn, Icon.CONN_CONNECT, "Connect", KeyEvent.VK_O, this::onToggleAssignedConn));
+        connsMenu.add(GTk.menuItem(Icon.CONN_CONNECT, "Connect All", GTk.NO_KEY_EVENT, this::onConnectAll));
 
         JMenu commandsMenu = GTk.menu(Icon.COMMANDS, "Commands");
         commandsMenu.add(GTk.menuItem(Icon.COMMAND_EXEC_LINE, "L.Exec", KeyEvent.VK_L, commands::onExecLine));
         commandsMenu.add(GTk.menuItem(Icon.COMMAND_EXEC, "Exec", KeyEvent.VK_ENTER, commands::onExec));
+        commandsMenu.add(GTk.menuItem(Icon.COMMAND_EXEC, "Fan-out Exec", "Exec on several connections, merging the results", GTk.NO_KEY_EVENT, this::onExecFanOut));
         commandsMenu.add(GTk.menuItem(Icon.COMMAND_EXEC_ABORT, "Abort", KeyEvent.VK_W, commands::fireCancelEvent));
         commandsMenu.addSeparator();
         commandsMenu.add(GTk.menuItem(Icon.COMMAND_FIND, "Find", KeyEvent.VK_F, e -> commands.onFind()));
         commandsMenu.add(GTk.menuItem(Icon.COMMAND_REPLACE, "Replace", KeyEvent.VK_R, e -> commands.onReplace()));
 
         JMenu resultsMenu = GTk.menu(Icon.RESULTS, "Results");
-        resultsMenu.add(GTk.menuItem(Icon.RESULTS_PREV, "PREV", KeyEvent.VK_B, results::onPrevButton));
-        resultsMenu.add(GTk.menuItem(Icon.RESULTS_NEXT, "NEXT", KeyEvent.VK_N, results::onNextButton));
+        resultsMenu.add(GTk.menuItem(Icon.RESULTS_PREV, "PAGE UP", KeyEvent.VK_B, e -> results.getSelected().onPageUp(e)));
+        resultsMenu.add(GTk.menuItem(Icon.RESULTS_NEXT, "PAGE DOWN", KeyEvent.VK_N, e -> results.getSelected().onPageDown(e)));
+        resultsMenu.addSeparator();
+        resultsMenu.add(menuItem(new JCheckBoxMenuItem(), Icon.RESULTS, "Lazy fetch", GTk.NO_KEY_EVENT, this::onToggleLazyFetch));
+        resultsMenu.add(GTk.menuItem(Icon.RESULTS_NEXT, "Fetch all", GTk.NO_KEY_EVENT, e -> results.fetchAllSelected()));
+        resultsMenu.addSeparator();
+        resultsMenu.add(GTk.menuItem(Icon.RESULTS, "Diff", "Diff with the previous results of the quest", KeyEvent.VK_K, this::onDiff));
+        resultsMenu.add(GTk.menuItem(Icon.RESULTS, "Diff with...", "Diff with chosen previous results", GTk.NO_KEY_EVENT, this::onDiffWith));
 
         JMenu menu = GTk.menu(Icon.MENU);
         menu.add(commands.getQuestsMenu());
@@ -132,6 +164,8 @@ public final class Quest {
         menu.addSeparator();
         menu.add(menuItem(togglePlot, Icon.PLOT, "Plot", KeyEvent.VK_J, this::onTogglePlot));
         menu.addSeparator();
+        menu.add(menuItem(toggleHistory, Icon.COMMANDS, "Query History", KeyEvent.VK_E, this::onToggleHistory));
+        menu.addSeparator();
         menu.add(connsMenu);
         menu.add(commandsMenu);
         menu.add(resultsMenu);
@@ -147,7 +181,39 @@ public final class Quest {
     private void onToggleAssignedConn(ActionEvent event) {
         Conn conn = commands.getConnection();
         conns.onConnectEvent(conn);
-        toggleAssignedConn.setText(conn != null && conn.isOpen() ? "Connect" : "Disconnect");
+        if (conns.isConnecting(conn)) {
+            toggleAssignedConn.setText("Cancel Connect");
+        } // otherwise the text follows the event fired by conns
+    }
+
+    private void onConnectAll(ActionEvent event) {
+        conns.connectAll();
+    }
+
+    private void onExecFanOut(ActionEvent event) {
+        List<Conn> all = conns.getConns();
+        if (all.isEmpty()) {
+            GTk.showErrorDialog(frame, "There are no connections");
+            return;
+        }
+        JList<String> names = new JList<>(all.stream().map(Conn::getName).toArray(String[]::new));
+        names.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        names.setSelectedIndices(IntStream.range(0, all.size()).filter(i -> all.get(i).isOpen()).toArray());
+        int option = JOptionPane.showConfirmDialog(
+            frame,
+            new JScrollPane(names),
+            "Fan-out Exec on",
+            JOptionPane.OK_CANCEL_OPTION,
+            JOptionPane.PLAIN_MESSAGE);
+        int[] selected = names.getSelectedIndices();
+        if (option != JOptionPane.OK_OPTION || selected.length == 0) {
+            return;
+        }
+        commands.onExecFanOut(Arrays.stream(selected).mapToObj(all::get).toList());
+    }
+
+    private void onToggleLazyFetch(ActionEvent event) {
+        results.setLazyFetch(((JCheckBoxMenuItem) event.getSource()).isSelected());
     }
 
     private void onToggleConns(ActionEvent event) {
@@ -161,32 +227,46 @@ public final class Quest {
         onToggleDialog(meta, wasVisible -> toggleMeta.setText(wasVisible ? "Meta Explorer" : "Close Meta Explorer"));
     }
 
+    private void onToggleHistory(ActionEvent event) {
+        onToggleDialog(historyView, wasVisible -> toggleHistory.setText(wasVisible ? "Query History" : "Close Query History"));
+    }
+
     private void onTogglePlot(ActionEvent event) {
         if (plot.isVisible()) {
             plot.setVisible(false);
             togglePlot.setText("Plot");
         } else {
-            SQLPagedTableModel table = results.getTable();
-            if (table == null) {
+            SQLTableModel table = results.getSelected().getTable();
+            SQLExecutionResponse lastResponse = results.getSelectedResponse();
+            if (table == null || lastResponse == null) {
                 GTk.showErrorDialog(frame, "No results to plot");
                 return;
             }
-            if (table.getColumnCount() != 3) { // #, x, y
-                GTk.showErrorDialog(frame, "Select only two columns");
+            int colCount = table.getColumnCount();
+            if (colCount != 2 && colCount != 3) { // #, x[, y]
+                GTk.showErrorDialog(frame, "Select only one or two columns");
                 return;
             }
             if (SQLType.isNotNumeric(table.getColumnType(1))) {
                 GTk.showErrorDialog(frame, "Column X is not numeric");
                 return;
             }
-            if (!SQLType.isNotNumeric(table.getColumnType(2))) {
+            if (colCount == 3 && SQLType.isNotNumeric(table.getColumnType(2))) {
                 GTk.showErrorDialog(frame, "Column Y is not numeric");
                 return;
             }
-            plot.setDataSet(
-                new TableColumn("x", table, 1, Color.WHITE),
-                new TableColumn("y", table, 2, GTk.EDITOR_MATCH_FOREGROUND_COLOR)
-            );
+            Table source = lastResponse.getTable();
+            if (colCount == 3) {
+                TableColumn x = new TableColumn("x", table, 1, Color.WHITE);
+                TableColumn y = new TableColumn("y", table, 2, GTk.EDITOR_MATCH_FOREGROUND_COLOR);
+                int xType = table.getColumnType(1);
+                if (xType == Types.TIMESTAMP || xType == Types.TIMESTAMP_WITH_TIMEZONE) {
+                    plot.setDataSet(x, y, lastResponse, source.getColumnName(1), source.getColumnName(2));
+                } else {
+                    plot.setDataSet(x, y);
+                }
+            }
+            plot.setDensityDataSet(source, 1, colCount == 3 ? 2 : -1, results.isSelectedCompleted());
             plot.setVisible(true);
             togglePlot.setText("Close Plot");
         }
@@ -203,7 +283,7 @@ public final class Quest {
                     onToggleAssignedConn(null);
                 }
             } finally {
-                results.displayMessage("QuestDB is UP");
+                results.getSelected().displayMessage("QuestDB is UP");
             }
         } else {
             if (JOptionPane.YES_OPTION == JOptionPane.showConfirmDialog(
@@ -215,13 +295,16 @@ public final class Quest {
                 questDb.close();
                 questDb = null;
                 toggleQuestDB.setText("Run QuestDB");
-                results.displayMessage("QuestDB is DOWN");
+                results.getSelected().displayMessage("QuestDB is DOWN");
                 onToggleAssignedConn(null);
             }
         }
     }
 
     private void dispatchEvent(EventProducer<?> source, Enum<?> event, Object data) {
+        if (source instanceof SQLExecutor) {
+            history.record(EventProducer.eventType(event), (SQLExecutionResponse) data); // off the EDT
+        }
         GTk.invokeLater(() -> {
             if (source instanceof QuestsEditor) {
                 onCommandEvent(EventProducer.eventType(event), (SQLExecutionRequest) data);
@@ -233,6 +316,10 @@ public final class Quest {
                 onMetaEvent(EventProducer.eventType(event));
             } else if (source instanceof Plot) {
                 onPlotEvent(EventProducer.eventType(event));
+            } else if (source instanceof QueryHistory) {
+                historyView.onEntryAdded((QueryHistory.Entry) data);
+            } else if (source instanceof History) {
+                onToggleHistory(null);
             }
         });
     }
@@ -240,34 +327,150 @@ public final class Quest {
     private void onCommandEvent(QuestsEditor.EventType event, SQLExecutionRequest req) {
         switch (event) {
             case COMMAND_AVAILABLE -> {
+                if (req.isFanOut()) {
+                    // nodes that do not connect are reported as failed by the executor
+                    CompletableFuture<?>[] connecting = req.getFanOut().stream()
+                        .filter(conn -> !conn.isOpen())
+                        .map(conns::connect)
+                        .toArray(CompletableFuture[]::new);
+                    CompletableFuture.allOf(connecting).whenComplete((ignore, error) -> GTk.invokeLater(
+                        () -> results.submit(req, this::dispatchEvent)));
+                    return;
+                }
                 Conn conn = commands.getConnection();
-                if (conn == null || !conn.isValid()) {
+                if (conn == null) {
                     onToggleAssignedConn(null);
+                } else if (!conn.isOpen()) {
+                    toggleAssignedConn.setText("Cancel Connect");
+                    conns.connect(conn).whenComplete((ignore, error) -> GTk.invokeLater(
+                        () -> results.submit(req, this::dispatchEvent))); // fails fast if it did not connect
+                    return;
                 }
-                results.close();
-                executor.submit(req, this::dispatchEvent);
+                // validated by the executor off the EDT, which fires FAILURE if it is not valid
+                results.submit(req, this::dispatchEvent);
             }
             case COMMAND_CANCEL -> {
-                executor.cancelExistingRequest(req);
-                onToggleAssignedConn(null);
+                // the statement is cancelled, other tabs on the connection carry on
+                SQLExecutionRequest selected = results.getSelectedFetchingRequest();
+                executor.cancelExistingRequest(selected != null ? selected : req);
             }
             case CONNECTION_STATUS_CLICKED -> onToggleConns(null);
         }
     }
 
     private void onSQLExecutorEvent(SQLExecutor.EventType event, SQLExecutionResponse res) {
-        results.updateStats(event.name(), res);
+        if (!results.onExecutorEvent(event, res)) {
+            switch (event) {
+                case COMPLETED, CANCELLED, FAILURE -> res.getTable().close(); // its tab was closed while fetching
+            }
+            return;
+        }
         switch (event) {
-            case STARTED -> results.onResultsStarted();
-            case FIRST_ROW_AVAILABLE -> results.onMetadataAvailable(res);
-            case ROWS_AVAILABLE -> results.onRowsAvailable(res);
-            case COMPLETED -> results.onRowsCompleted(res);
-            case CANCELLED -> results.close();
-            case FAILURE -> {
-                results.close();
-                results.displayError(res.getError());
+            case ROWS_AVAILABLE -> plot.onRowsAvailable(res.getTable(), false);
+            case COMPLETED -> {
+                addSnapshot(res);
+                plot.onRowsAvailable(res.getTable(), true);
+            }
+        }
+    }
+
+    private void addSnapshot(SQLExecutionResponse res) {
+        snapshots.addFirst(res);
+        while (snapshots.size() > MAX_SNAPSHOTS) {
+            Table evicted = snapshots.removeLast().getTable();
+            if (!results.isDisplayed(evicted)) {
+                evicted.close();
+            } // otherwise closed with its tab
+        }
+    }
+
+    private boolean isSnapshot(Table table) {
+        for (SQLExecutionResponse snapshot : snapshots) {
+            if (snapshot.getTable() == table) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onDiff(ActionEvent event) {
+        SQLExecutionResponse after = snapshots.peekFirst();
+        if (!canDiff(after)) {
+            return;
+        }
+        for (SQLExecutionResponse before : snapshots) {
+            if (before != after && before.getSourceId().equals(after.getSourceId())) {
+                diff(before, after);
+                return;
             }
         }
+        GTk.showErrorDialog(frame, "Execute the quest again to diff its results");
+    }
+
+    private void onDiffWith(ActionEvent event) {
+        SQLExecutionResponse after = snapshots.peekFirst();
+        if (!canDiff(after)) {
+            return;
+        }
+        List<SQLExecutionResponse> candidates = new ArrayList<>(snapshots);
+        candidates.remove(after);
+        if (candidates.isEmpty()) {
+            GTk.showErrorDialog(frame, "There are no previous results to diff with");
+            return;
+        }
+        String[] choices = new String[candidates.size()];
+        for (int i = 0; i < choices.length; i++) {
+            SQLExecutionResponse res = candidates.get(i);
+            String query = res.getSqlCommand().replaceAll("\\s+", " ").trim();
+            choices[i] = String.format("%d. %s [%d rows, %d ms]",
+                i + 1,
+                query.length() > 60 ? query.substring(0, 60) + "..." : query,
+                res.getTable().size(),
+                res.getTotalMillis());
+        }
+        Object choice = JOptionPane.showInputDialog(
+            frame,
+            "Diff the latest results with:",
+            "Diff",
+            JOptionPane.PLAIN_MESSAGE,
+            null,
+            choices,
+            choices[0]);
+        for (int i = 0; i < choices.length; i++) {
+            if (choices[i].equals(choice)) {
+                diff(candidates.get(i), after);
+                return;
+            }
+        }
+    }
+
+    private boolean canDiff(SQLExecutionResponse after) {
+        if (after == null) {
+            GTk.showErrorDialog(frame, "No results to diff");
+            return false;
+        }
+        return true;
+    }
+
+    private void diff(SQLExecutionResponse before, SQLExecutionResponse after) {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        SQLResultsTable diffResults = results.open("diff", () -> cancelled.set(true));
+        diffResults.onResultsStarted();
+        CompletableFuture
+            .supplyAsync(() -> TableDiff.diff(before.getTable(), after.getTable(), cancelled::get))
+            .whenComplete((diff, error) -> GTk.invokeLater(() -> {
+                if (cancelled.get()) {
+                    return; // its tab was closed
+                }
+                if (error != null) {
+                    diffResults.displayError(error instanceof CompletionException ? error.getCause() : error);
+                } else {
+                    diffResults.displayDiff(diff, before, after);
+                }
+            }));
+        LOG.info().$("Diffing [before=").$(before.getUniqueId())
+            .$(", after=").$(after.getUniqueId())
+            .I$();
     }
 
     private void onMetaEvent(Metadata.EventType event) {
@@ -309,17 +512,27 @@ public final class Quest {
                     }
                 }
             }
-            case CONNECTION_FAILED -> results.displayError(String.format("Server is down: %s%n", data));
+            case CONNECTION_FAILED -> {
+                Conn current = commands.getConnection();
+                if (current != null && current.equals(data)) {
+                    toggleAssignedConn.setText("Connect");
+                }
+                results.getSelected().displayError(String.format("Server is down: %s%n", data));
+            }
             case HIDE_REQUEST -> onToggleConns(null);
         }
     }
 
     private void close() {
+        Misc.free(results); // cancels the fetches of the tabs
         Misc.free(executor);
         Misc.free(conns);
         Misc.free(commands);
-        Misc.free(results);
+        snapshots.forEach(snapshot -> snapshot.getTable().close());
+        snapshots.clear();
         Misc.free(meta);
+        Misc.free(plot);
+        Misc.free(history);
         Misc.free(questDb);
     }
 }
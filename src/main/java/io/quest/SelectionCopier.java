@@ -0,0 +1,347 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest;
+
+import io.quest.results.SQLTableModel;
+import io.quest.sql.Table;
+import io.questdb.log.Log;
+import io.questdb.log.LogFactory;
+
+import java.awt.Toolkit;
+import java.awt.datatransfer.Clipboard;
+import java.awt.datatransfer.ClipboardOwner;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import javax.swing.*;
+import javax.swing.table.TableModel;
+
+
+/**
+ * Copies the selected cells of a table, as text with the values of each column
+ * padded to the same width, to the clipboard, or exports them to a file. The
+ * selection is taken in the EDT, the text is written in the background, twice
+ * over the values, first to measure the columns, with a progress monitor that
+ * can cancel it.
+ * <p>
+ * Small selections are copied to the clipboard as a string. Large ones are
+ * streamed to a temporary file through a bounded buffer, and the clipboard is
+ * given the file, only as a file: AWT converts every flavor offered as soon as
+ * the contents are set on some platforms, so offering the text too would read
+ * it whole into memory, on the EDT.
+ * <p>
+ * The rows of a {@link SQLTableModel} are resolved to rows of its {@link Table}
+ * in the EDT, and their values are read from the table in the background, so
+ * that sorting, filtering or new rows meanwhile do not change what is copied.
+ * Other models are read directly, and must not change while being copied.
+ */
+public final class SelectionCopier {
+    private static final Log LOG = LogFactory.getLog(SelectionCopier.class);
+    private static final int IN_MEMORY_MAX_CELLS = 100_000;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int PROGRESS_EVERY_ROWS = 1 << 12;
+    private static final long IDLE_MILLIS = 10_000L;
+    private static final String SEPARATOR = ", ";
+    private static final IntConsumer NO_PROGRESS = done -> {
+    };
+    private static final ThreadPoolExecutor EXECUTOR;
+
+    static {
+        String name = SelectionCopier.class.getSimpleName();
+        EXECUTOR = new ThreadPoolExecutor(1, 1, IDLE_MILLIS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread t = Executors.defaultThreadFactory().newThread(runnable);
+            t.setDaemon(true);
+            t.setName(name);
+            return t;
+        });
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private SelectionCopier() {
+        throw new IllegalStateException("not meant to be instantiated");
+    }
+
+    /**
+     * Copies the selection, or the whole table when nothing is selected, to the
+     * clipboard. Called in the EDT.
+     *
+     * @param table the table
+     */
+    public static void copyToClipboard(JTable table) {
+        Selection selection = select(table);
+        if (selection.isEmpty()) {
+            return;
+        }
+        if ((long) selection.rows.length * selection.cols.length <= IN_MEMORY_MAX_CELLS) {
+            run(table, "Copying", selection, () -> {
+                StringWriter out = new StringWriter();
+                boolean completed = write(selection, out, selection.progress, selection.cancelled::get);
+                return completed ? () -> GTk.setClipboardContent(out.toString()) : null;
+            });
+        } else {
+            run(table, "Copying", selection, () -> {
+                Path file = Files.createTempFile("quest-copy-", ".txt");
+                file.toFile().deleteOnExit();
+                boolean completed = writeToFile(selection, file, selection.progress, selection.cancelled::get);
+                if (!completed) {
+                    Files.deleteIfExists(file);
+                    return null;
+                }
+                return () -> {
+                    FileSelection contents = new FileSelection(file);
+                    Toolkit.getDefaultToolkit().getSystemClipboard().setContents(contents, contents);
+                };
+            });
+        }
+    }
+
+    /**
+     * Exports the selection, or the whole table when nothing is selected, to a
+     * file chosen by the user. Called in the EDT.
+     *
+     * @param table the table
+     */
+    public static void exportToFile(JTable table) {
+        Selection selection = select(table);
+        if (selection.isEmpty()) {
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Export selection");
+        chooser.setSelectedFile(new File("results.txt"));
+        if (chooser.showSaveDialog(table) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = chooser.getSelectedFile().toPath();
+        run(table, "Exporting to " + file, selection, () -> {
+            boolean completed = writeToFile(selection, file, selection.progress, selection.cancelled::get);
+            if (!completed) {
+                Files.deleteIfExists(file);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Writes the selection, columns padded to the width of their widest value,
+     * values separated by ", ", rows by a new line.
+     *
+     * @param selection the cells
+     * @param out       destination
+     * @param progress  receives the rows processed, out of twice as many rows as
+     *                  there are in the selection
+     * @param cancelled polled between rows
+     * @return false if cancelled
+     * @throws IOException writing failed
+     */
+    static boolean write(Selection selection, Writer out, IntConsumer progress, BooleanSupplier cancelled) throws IOException {
+        int[] rows = selection.rows;
+        int[] cols = selection.cols;
+        Cells cells = selection.cells;
+        int[] widths = new int[cols.length];
+        for (int r = 0; r < rows.length; r++) {
+            if (r % PROGRESS_EVERY_ROWS == 0) {
+                if (cancelled.getAsBoolean()) {
+                    return false;
+                }
+                progress.accept(r);
+            }
+            for (int c = 0; c < cols.length; c++) {
+                widths[c] = Math.max(widths[c], text(cells.valueAt(rows[r], cols[c])).length());
+            }
+        }
+        for (int r = 0; r < rows.length; r++) {
+            if (r % PROGRESS_EVERY_ROWS == 0) {
+                if (cancelled.getAsBoolean()) {
+                    return false;
+                }
+                progress.accept(rows.length + r);
+            }
+            if (r > 0) {
+                out.write('\n');
+            }
+            for (int c = 0; c < cols.length; c++) {
+                String value = text(cells.valueAt(rows[r], cols[c]));
+                out.write(value);
+                if (c < cols.length - 1) {
+                    for (int i = value.length(); i < widths[c]; i++) {
+                        out.write(' ');
+                    }
+                    out.write(SEPARATOR);
+                }
+            }
+        }
+        progress.accept(2 * rows.length);
+        return true;
+    }
+
+    private static boolean writeToFile(Selection selection, Path file, IntConsumer progress, BooleanSupplier cancelled) throws IOException {
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            return write(selection, out, progress, cancelled);
+        }
+    }
+
+    private static String text(Object value) {
+        return value != null ? value.toString() : "";
+    }
+
+    /**
+     * Takes the selection, in the EDT.
+     */
+    static Selection select(JTable table) {
+        if (table.getSelectedRowCount() == 0) {
+            table.selectAll();
+        }
+        int[] viewCols = table.getSelectedColumns();
+        if (viewCols.length == 0) {
+            viewCols = IntStream.range(0, table.getColumnCount()).toArray();
+        }
+        int[] cols = IntStream.of(viewCols)
+            .filter(viewCol -> !Table.ROWID_COL_NAME.equals(table.getColumnName(viewCol)))
+            .map(table::convertColumnIndexToModel)
+            .toArray();
+        IntStream rows = IntStream.of(table.getSelectedRows()).map(table::convertRowIndexToModel);
+        TableModel model = table.getModel();
+        if (model instanceof SQLTableModel sqlModel) {
+            Table source = sqlModel.getTable();
+            if (source == null) {
+                return new Selection((row, col) -> null, new int[0], cols);
+            }
+            // resolved now, the view's index changes with sorting, filtering and new rows
+            return new Selection(source::getValueAt, rows.map(sqlModel::toTableRowIdx).filter(row -> row >= 0).toArray(), cols);
+        }
+        return new Selection(model::getValueAt, rows.toArray(), cols);
+    }
+
+    /**
+     * Runs the task in the background, with a progress monitor, then runs what it
+     * returns, if anything, in the EDT.
+     */
+    private static void run(JTable table, String note, Selection selection, Task task) {
+        ProgressMonitor monitor = new ProgressMonitor(table, note, null, 0, 2 * selection.rows.length);
+        selection.progress = done -> GTk.invokeLater(() -> {
+            if (monitor.isCanceled()) {
+                selection.cancelled.set(true);
+            } else {
+                monitor.setProgress(done);
+            }
+        });
+        long start = System.nanoTime();
+        EXECUTOR.execute(() -> {
+            try {
+                Runnable onCompletion = task.call();
+                LOG.info().$(note).$(" [rows=").$(selection.rows.length)
+                    .$(", cols=").$(selection.cols.length)
+                    .$(", cancelled=").$(selection.cancelled.get())
+                    .$(", ms=").$(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                    .I$();
+                GTk.invokeLater(monitor::close, onCompletion);
+            } catch (IOException | RuntimeException fail) {
+                LOG.error().$(note).$(" [e=").$(fail.getMessage()).I$();
+                GTk.invokeLater(monitor::close, () -> GTk.showErrorDialog(table, note + " failed: " + fail.getMessage()));
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        Runnable call() throws IOException;
+    }
+
+    /**
+     * Values of the cells, read in the background.
+     */
+    @FunctionalInterface
+    interface Cells {
+        Object valueAt(int row, int col);
+    }
+
+    static final class Selection {
+        private final Cells cells;
+        private final int[] rows;
+        private final int[] cols;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private volatile IntConsumer progress = NO_PROGRESS;
+
+        Selection(Cells cells, int[] rows, int[] cols) {
+            this.cells = cells;
+            this.rows = rows;
+            this.cols = cols;
+        }
+
+        private boolean isEmpty() {
+            return rows.length == 0 || cols.length == 0;
+        }
+    }
+
+    /**
+     * Clipboard contents backed by a file, offered as a file list only, deleted
+     * when the clipboard is taken over.
+     */
+    static final class FileSelection implements Transferable, ClipboardOwner {
+        private static final DataFlavor[] FLAVORS = {DataFlavor.javaFileListFlavor};
+        private final Path file;
+
+        FileSelection(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        public DataFlavor[] getTransferDataFlavors() {
+            return FLAVORS.clone();
+        }
+
+        @Override
+        public boolean isDataFlavorSupported(DataFlavor flavor) {
+            return DataFlavor.javaFileListFlavor.equals(flavor);
+        }
+
+        @Override
+        public Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException {
+            if (DataFlavor.javaFileListFlavor.equals(flavor)) {
+                return List.of(file.toFile());
+            }
+            throw new UnsupportedFlavorException(flavor);
+        }
+
+        @Override
+        public void lostOwnership(Clipboard clipboard, Transferable contents) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignore) {
+                // deleted on exit
+            }
+        }
+    }
+}
@@ -24,7 +24,9 @@ import java.io.Closeable;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Database connection, extends {@link ConnAttrs} which provides persistence
@@ -42,6 +44,8 @@ public class Conn extends ConnAttrs implements Closeable {
     // non persistent attributes, transient:
     private final transient Log log;
     private final transient AtomicBoolean isOpen;
+    private final transient AtomicLong session = new AtomicLong();
+    private transient volatile long latencyMicros = -1L;
     private transient Connection conn;
 
     public Conn(String name) {
@@ -106,6 +110,21 @@ public class Conn extends ConnAttrs implements Closeable {
         return conn;
     }
 
+    /**
+     * @return a number that changes every time the connection is opened or closed
+     */
+    public long getSession() {
+        return session.get();
+    }
+
+    /**
+     * @return round trip time of the last {@link #isValid()} that succeeded since
+     * the connection was opened, -1 if none
+     */
+    public long getLatencyMicros() {
+        return latencyMicros;
+    }
+
     /**
      * Returns true if the connection has not been closed and is still valid. The
      * driver shall submit a query on the connection or use some other mechanism
@@ -122,7 +141,11 @@ public class Conn extends ConnAttrs implements Closeable {
      */
     public boolean isValid() {
         try {
+            long start = System.nanoTime();
             isOpen.set(conn != null && conn.isValid(IS_VALID_TIMEOUT_SECS));
+            if (isOpen.get()) {
+                latencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            }
         } catch (SQLException e) {
             isOpen.set(false);
             conn = null;
@@ -136,18 +159,42 @@ public class Conn extends ConnAttrs implements Closeable {
      * @return the connection
      * @throws SQLException when the connection cannot be established
      */
-    public synchronized Connection open() throws SQLException {
+    public Connection open() throws SQLException {
+        return open(LOGIN_TIMEOUT_SECS);
+    }
+
+    /**
+     * Opens the connection, sets it to auto commit true.
+     *
+     * @param loginTimeoutSecs how long to wait for the connection to be established
+     * @return the connection
+     * @throws SQLException when the connection cannot be established, or the
+     *                      calling thread was interrupted while waiting
+     */
+    public synchronized Connection open(int loginTimeoutSecs) throws SQLException {
         if (isOpen.get()) {
             return conn;
         }
         log.info().$("Connecting").$();
-        conn = DriverManager.getConnection(getUri(), loginProperties());
+        conn = DriverManager.getConnection(getUri(), loginProperties(loginTimeoutSecs));
         conn.setAutoCommit(true);
         isOpen.set(true);
+        session.incrementAndGet();
         log.info().$("Connected").$();
         return conn;
     }
 
+    /**
+     * Opens a new connection with the same attributes, which is neither shared
+     * nor tracked by this instance, for the caller to close.
+     *
+     * @return the connection, in auto commit mode
+     * @throws SQLException when the connection cannot be established
+     */
+    public Connection openUnshared() throws SQLException {
+        return DriverManager.getConnection(getUri(), loginProperties(LOGIN_TIMEOUT_SECS));
+    }
+
     /**
      * Closes the connection.
      */
@@ -164,6 +211,8 @@ public class Conn extends ConnAttrs implements Closeable {
         } finally {
             conn = null;
             isOpen.set(false);
+            latencyMicros = -1L;
+            session.incrementAndGet();
         }
     }
 
@@ -175,14 +224,26 @@ public class Conn extends ConnAttrs implements Closeable {
      * @throws SQLException if the connection cannot be established
      */
     public void testConnectivity() throws SQLException {
+        testConnectivity(LOGIN_TIMEOUT_SECS);
+    }
+
+    /**
+     * Like {@link #testConnectivity()}, waiting at most the given time for the
+     * connection to be established and then for it to be validated.
+     *
+     * @param timeoutSecs time budget of each step
+     * @throws SQLException if the connection cannot be established
+     */
+    public void testConnectivity(int timeoutSecs) throws SQLException {
         Connection testConn = null;
+        int validTimeoutSecs = Math.max(1, Math.min(timeoutSecs, IS_VALID_TIMEOUT_SECS));
         try {
-            testConn = DriverManager.getConnection(getUri(), loginProperties());
-            if (!testConn.isValid(IS_VALID_TIMEOUT_SECS)) {
+            testConn = DriverManager.getConnection(getUri(), loginProperties(timeoutSecs));
+            if (!testConn.isValid(validTimeoutSecs)) {
                 throw new SQLException(String.format(
                         "connection with %s is not valid (tried for %d secs)",
                         this,
-                        IS_VALID_TIMEOUT_SECS
+                        validTimeoutSecs
                 ));
             }
         } finally {
@@ -32,6 +32,7 @@ public class ConnAttrs extends StoreEntry {
     private static final String DEFAULT_DATABASE = "main";
     private static final String DEFAULT_USERNAME = "admin";
     private static final String DEFAULT_PASSWORD = "quest";
+    static final int LOGIN_TIMEOUT_SECS = 20;
 
     /**
      * Shallow copy constructor, used by the store, attributes are a reference to
@@ -78,6 +79,15 @@ public class ConnAttrs extends StoreEntry {
     }
 
     public Properties loginProperties() {
+        return loginProperties(LOGIN_TIMEOUT_SECS);
+    }
+
+    /**
+     * @param loginTimeoutSecs how long the driver waits for the connection to be
+     *                         established, at least 1 second
+     * @return the properties of the connection
+     */
+    public Properties loginProperties(int loginTimeoutSecs) {
         // https://jdbc.postgresql.org/documentation/head/connect.html
         Properties props = new Properties();
         props.put("user", getUsername());
@@ -125,7 +135,7 @@ public class ConnAttrs extends StoreEntry {
 
         // Specify how long to wait for establishment of a database connection.
         // The timeout is specified in seconds.
-        props.put("loginTimeout", 20); // seconds
+        props.put("loginTimeout", Math.max(1, loginTimeoutSecs)); // seconds
 
         // The timeout value used for socket read operations. If reading from
         // the server takes longer than this value, the connection is closed.
@@ -0,0 +1,262 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.conns;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.questdb.log.Log;
+import io.questdb.log.LogFactory;
+
+
+/**
+ * Opens and tests connections off the event dispatch thread. Each operation runs
+ * on a pool of daemon threads and has its own deadline: the driver is asked to
+ * give up by then, and the returned future fails with a {@link TimeoutException}
+ * when the deadline expires regardless. Cancelling the future, or it timing out,
+ * interrupts the thread waiting on the driver, and a connection established too
+ * late is closed again, unless a later open has reported it open. Operations on
+ * different connections run in parallel, at most one open is in flight per
+ * connection.
+ */
+final class Connector implements Closeable {
+    private static final int MAX_THREADS = 16;
+    private static final long KEEP_ALIVE_SECS = 30L;
+    private static final Log LOG = LogFactory.getLog(Connector.class);
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor deadlines;
+    private final Map<Conn, CompletableFuture<Conn>> opening; // by identity, guarded by itself
+    private final Map<Conn, Long> reported; // session last reported, by identity, guarded by opening
+
+    Connector() {
+        executor = new ThreadPoolExecutor(
+                MAX_THREADS,
+                MAX_THREADS,
+                KEEP_ALIVE_SECS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+                    thread.setDaemon(true);
+                    thread.setName(Connector.class.getSimpleName());
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        deadlines = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+            thread.setDaemon(true);
+            thread.setName(Connector.class.getSimpleName() + "-deadlines");
+            return thread;
+        });
+        deadlines.setRemoveOnCancelPolicy(true);
+        opening = new IdentityHashMap<>();
+        reported = new IdentityHashMap<>();
+    }
+
+    /**
+     * Opens the connection, unless it is open already.
+     *
+     * @param conn          the connection
+     * @param timeoutMillis deadline, from now
+     * @return completes with the connection once it is open, the open already in
+     * flight for the connection if there is one
+     */
+    CompletableFuture<Conn> open(Conn conn, long timeoutMillis) {
+        synchronized (opening) {
+            CompletableFuture<Conn> inFlight = opening.get(conn);
+            if (inFlight != null) {
+                return inFlight;
+            }
+            CompletableFuture<Conn> future = submit(conn, "connect", timeoutMillis, timeoutSecs -> {
+                synchronized (conn) { // ordered with the close of an open established too late
+                    if (!conn.isOpen()) {
+                        conn.open(timeoutSecs);
+                        return true;
+                    }
+                    return false;
+                }
+            });
+            if (!future.isDone()) {
+                opening.put(conn, future);
+                future.whenComplete((ignore, error) -> {
+                    synchronized (opening) {
+                        opening.remove(conn, future);
+                    }
+                });
+            }
+            return future;
+        }
+    }
+
+    /**
+     * Opens all the connections in parallel, the whole takes as long as the
+     * slowest of them, bounded by the deadline.
+     *
+     * @param conns         the connections
+     * @param timeoutMillis deadline, from now, of each connection
+     * @return one future per connection, in the same order
+     */
+    List<CompletableFuture<Conn>> openAll(List<Conn> conns, long timeoutMillis) {
+        List<CompletableFuture<Conn>> futures = new ArrayList<>(conns.size());
+        for (Conn conn : conns) {
+            futures.add(open(conn, timeoutMillis));
+        }
+        return futures;
+    }
+
+    /**
+     * Checks that the connection could be opened, see {@link Conn#testConnectivity(int)}.
+     *
+     * @param conn          the connection
+     * @param timeoutMillis deadline, from now
+     * @return completes with the connection when the test succeeds
+     */
+    CompletableFuture<Conn> test(Conn conn, long timeoutMillis) {
+        return submit(conn, "test", timeoutMillis, timeoutSecs -> {
+            conn.testConnectivity(timeoutSecs);
+            return false;
+        });
+    }
+
+    boolean isOpening(Conn conn) {
+        synchronized (opening) {
+            return opening.containsKey(conn);
+        }
+    }
+
+    /**
+     * @param conn the connection
+     * @return true if an open in flight was cancelled
+     */
+    boolean cancel(Conn conn) {
+        CompletableFuture<Conn> inFlight;
+        synchronized (opening) {
+            inFlight = opening.get(conn);
+        }
+        return inFlight != null && inFlight.cancel(true);
+    }
+
+    @Override
+    public void close() {
+        List<CompletableFuture<Conn>> inFlight;
+        synchronized (opening) {
+            inFlight = new ArrayList<>(opening.values());
+        }
+        inFlight.forEach(future -> future.cancel(true));
+        executor.shutdownNow();
+        deadlines.shutdownNow();
+    }
+
+    private CompletableFuture<Conn> submit(Conn conn, String what, long timeoutMillis, Operation operation) {
+        CompletableFuture<Conn> result = new CompletableFuture<>();
+        int timeoutSecs = (int) Math.max(1L, TimeUnit.MILLISECONDS.toSeconds(timeoutMillis + 999L));
+        Future<?> task;
+        try {
+            task = executor.submit(() -> {
+                if (result.isDone()) {
+                    return; // cancelled or expired while queued
+                }
+                try {
+                    boolean opened = operation.run(timeoutSecs);
+                    long session = conn.getSession();
+                    synchronized (opening) {
+                        if (!result.isDone()) {
+                            reported.put(conn, session);
+                        }
+                    }
+                    if (!result.complete(conn) && opened) {
+                        closeIfAbandoned(conn, session, result);
+                    }
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        ScheduledFuture<?> deadline;
+        try {
+            deadline = deadlines.schedule(() -> result.completeExceptionally(
+                    new TimeoutException(String.format("%s to %s did not complete within %d ms", what, conn.getUri(), timeoutMillis))
+            ), timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        result.whenComplete((ignore, error) -> {
+            deadline.cancel(false);
+            if (error instanceof TimeoutException || error instanceof CancellationException) {
+                task.cancel(true); // unblocks the driver
+                LOG.info().$("Abandoned [conn=").$(conn.getUniqueId())
+                        .$(", op=").$(what)
+                        .$(", e=").$(error.getMessage())
+                        .I$();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Closes the connection opened by an abandoned operation, unless it was
+     * closed or opened anew since, or another operation is reporting it open, or
+     * has reported it open already.
+     *
+     * @param conn      the connection
+     * @param session   the session the abandoned operation opened
+     * @param abandoned the result of the abandoned operation
+     */
+    private void closeIfAbandoned(Conn conn, long session, CompletableFuture<Conn> abandoned) {
+        synchronized (conn) {
+            synchronized (opening) {
+                CompletableFuture<Conn> inFlight = opening.get(conn);
+                Long lastReported = reported.get(conn);
+                if (conn.getSession() != session || (inFlight != null && inFlight != abandoned)
+                        || (lastReported != null && lastReported == session)) {
+                    return;
+                }
+            }
+            LOG.info().$("Closing, established too late [conn=").$(conn.getUniqueId()).I$();
+            conn.close();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        /**
+         * @param timeoutSecs time budget for the driver
+         * @return true if it opened the connection
+         * @throws Exception the operation failed
+         */
+        boolean run(int timeoutSecs) throws Exception;
+    }
+}
@@ -21,6 +21,10 @@ import java.awt.event.ActionEvent;
 import java.io.Closeable;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.*;
 import javax.swing.event.ListSelectionEvent;
@@ -41,18 +45,22 @@ import static io.quest.GTk.Icon;
 public class Conns extends JDialog implements EventProducer<Conns.EventType>, Closeable {
 
     public static final String STORE_FILE_NAME = "connections.json";
+    private static final long CONNECT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(ConnAttrs.LOGIN_TIMEOUT_SECS);
+    private static final long TEST_TIMEOUT_MILLIS = 10_000L;
     private static final Log LOG = LogFactory.getLog(Conns.class);
     private final EventConsumer<Conns, Object> eventConsumer;
     private final Store<Conn> store;
     private final JButton assignButton;
     private final JButton testButton;
     private final JButton connectButton;
+    private final JButton connectAllButton;
     private final JButton cloneButton;
     private final JButton removeButton;
     private final JButton reloadButton;
     private final JTable table;
     private final ConnsTableModel tableModel;
     private final ConnsChecker connsValidityChecker;
+    private final Connector connector;
 
     public Conns(Frame owner, EventConsumer<Conns, Object> eventConsumer) {
         super(owner, "Connections", false); // does not block use of the main app
@@ -81,13 +89,16 @@ public class Conns extends JDialog implements EventProducer<Conns.EventType>, Cl
                 JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED,
                 JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
         tableScrollPanel.getViewport().setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
-        connsValidityChecker = new ConnsChecker(tableModel::getConns, this::onLostConnsEvent);
+        connsValidityChecker = new ConnsChecker(tableModel::getConns, this::onCheckerEvent);
+        connector = new Connector();
         reloadButton = button(Icon.COMMAND_RELOAD, "Reload last saved connections", this::onReload);
         cloneButton = button(Icon.CONN_CLONE, "Clone selected connection", this::onCloneConn);
         JButton addButton = button(Icon.CONN_ADD, "Add connection", this::onAddConn);
         removeButton = button(Icon.CONN_REMOVE, "Remove selected connection", this::onRemove);
         testButton = button(Icon.CONN_TEST, "Test selected connection", this::onTest);
         connectButton = button(Icon.CONN_CONNECT, "Connect selected connection", this::onConnect);
+        connectAllButton = button(Icon.CONN_CONNECT, "Connect all connections in parallel", this::onConnectAll);
+        connectAllButton.setText("Connect all");
         assignButton = button(Icon.CONN_ASSIGN, "Assign selected connection", this::onAssign);
         JPanel buttons = flowPanel(
                 BorderFactory.createLineBorder(Color.WHITE, 1, true),
@@ -95,13 +106,20 @@ public class Conns extends JDialog implements EventProducer<Conns.EventType>, Cl
                 50,
                 0,
                 flowPanel(reloadButton, cloneButton, addButton, removeButton),
-                flowPanel(testButton, connectButton, assignButton));
+                flowPanel(testButton, connectButton, connectAllButton, assignButton));
         Container contentPane = getContentPane();
         contentPane.setLayout(new BorderLayout());
         contentPane.add(tableScrollPanel, BorderLayout.CENTER);
         contentPane.add(buttons, BorderLayout.SOUTH);
     }
 
+    /**
+     * @return the connections, in the order of the table
+     */
+    public List<Conn> getConns() {
+        return tableModel.getConns();
+    }
+
     public Conn getSelectedConn() {
         int rowIdx = table.getSelectedRow();
         return rowIdx != -1 ? tableModel.getValueAt(rowIdx) : null;
@@ -128,6 +146,7 @@ public class Conns extends JDialog implements EventProducer<Conns.EventType>, Cl
     @Override
     public void close() {
         connsValidityChecker.close();
+        connector.close();
         tableModel.close();
         store.close();
     }
@@ -144,14 +163,10 @@ public class Conns extends JDialog implements EventProducer<Conns.EventType>, Cl
         if (!tableModel.containsConn(conn)) {
             return;
         }
-        if (!conn.isOpen()) {
-            try {
-                conn.open();
-                eventConsumer.onSourceEvent(this, EventType.CONNECTION_ESTABLISHED, conn);
-            } catch (Exception e) {
-                LOG.error().$("Connect [e=").$(e.getMessage()).I$();
-                eventConsumer.onSourceEvent(this, EventType.CONNECTION_FAILED, conn);
-            }
+        if (connector.isOpening(conn)) {
+            connector.cancel(conn);
+        } else if (!conn.isOpen()) {
+            connect(conn);
         } else {
             try {
                 conn.close();
@@ -164,6 +179,84 @@ public class Conns extends JDialog implements EventProducer<Conns.EventType>, Cl
         toggleComponents();
     }
 
+    /**
+     * Opens the connection without blocking the caller. When it completes,
+     * {@link EventType#CONNECTION_ESTABLISHED} is fired if it succeeded,
+     * {@link EventType#CONNECTION_CLOSED} if it was cancelled, and
+     * {@link EventType#CONNECTION_FAILED} otherwise.
+     *
+     * @param conn the connection
+     * @return completes once the connection is open, the open already in flight
+     * if there is one
+     */
+    public CompletableFuture<Conn> connect(Conn conn) {
+        boolean inFlight = connector.isOpening(conn);
+        CompletableFuture<Conn> future = connector.open(conn, CONNECT_TIMEOUT_MILLIS);
+        if (!inFlight) {
+            future.whenComplete((ignore, error) -> invokeLater(() -> {
+                if (error == null) {
+                    connsValidityChecker.watch(conn);
+                    eventConsumer.onSourceEvent(this, EventType.CONNECTION_ESTABLISHED, conn);
+                } else if (error instanceof CancellationException) {
+                    eventConsumer.onSourceEvent(this, EventType.CONNECTION_CLOSED, conn);
+                } else {
+                    LOG.error().$("Connect [conn=").$(conn.getUniqueId()).$(", e=").$(errorMessage(error)).I$();
+                    eventConsumer.onSourceEvent(this, EventType.CONNECTION_FAILED, conn);
+                }
+                tableModel.fireConnUpdated(conn);
+                toggleComponents();
+            }));
+            toggleComponents();
+        }
+        return future;
+    }
+
+    /**
+     * Opens all the connections that are not open, in parallel.
+     *
+     * @return completes when all of them have either opened or failed
+     */
+    public CompletableFuture<Void> connectAll() {
+        List<CompletableFuture<Conn>> futures = tableModel.getConns().stream()
+                .filter(conn -> !conn.isOpen())
+                .map(this::connect)
+                .toList();
+        long start = System.nanoTime();
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .handle((ignore, error) -> {
+                    long failed = futures.stream().filter(CompletableFuture::isCompletedExceptionally).count();
+                    LOG.info().$("Connect all [conns=").$(futures.size())
+                            .$(", failed=").$(failed)
+                            .$(", millis=").$(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                            .I$();
+                    return null;
+                });
+    }
+
+    public boolean isConnecting(Conn conn) {
+        return conn != null && connector.isOpening(conn);
+    }
+
+    private static String errorMessage(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    private void onCheckerEvent(ConnsChecker source, Enum<?> event, Object data) {
+        switch ((ConnsChecker.EventType) EventProducer.eventType(event)) {
+            case CONNECTIONS_LOST -> {
+                @SuppressWarnings("unchecked") Set<Conn> lostConns = (Set<Conn>) data;
+                onLostConnsEvent(lostConns);
+            }
+            case CONNECTION_REESTABLISHED -> invokeLater(() -> {
+                tableModel.fireConnUpdated((Conn) data);
+                toggleComponents();
+                eventConsumer.onSourceEvent(this, EventType.CONNECTION_ESTABLISHED, data);
+            });
+            case CONNECTION_PROBED -> invokeLater(() -> tableModel.fireConnUpdated((Conn) data));
+        }
+    }
+
     private void onLostConnsEvent(Set<Conn> lostConns) {
         StringBuilder sb = new StringBuilder();
         for (Conn conn : lostConns) {
@@ -183,6 +276,10 @@ public class Conns extends JDialog implements EventProducer<Conns.EventType>, Cl
         onConnectEvent(getSelectedConn());
     }
 
+    private void onConnectAll(ActionEvent event) {
+        connectAll();
+    }
+
     private void onListSelection(ListSelectionEvent event) {
         toggleComponents();
     }
@@ -271,6 +368,7 @@ public class Conns extends JDialog implements EventProducer<Conns.EventType>, Cl
         int rowIdx = table.getSelectedRow();
         if (-1 != rowIdx) {
             Conn removed = tableModel.removeConn(rowIdx);
+            connector.cancel(removed);
             if (removed.isOpen()) {
                 removed.close();
             }
@@ -290,31 +388,35 @@ public class Conns extends JDialog implements EventProducer<Conns.EventType>, Cl
 
     private void onTest(ActionEvent event) {
         Conn conn = getSelectedConn();
-        try {
-            if (conn != null) {
-                conn.testConnectivity();
+        if (conn == null) {
+            JOptionPane.showMessageDialog(
+                    this,
+                    "Connection not set",
+                    "Connection Failed",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        testButton.setEnabled(false);
+        connector.test(conn, TEST_TIMEOUT_MILLIS).whenComplete((ignore, error) -> invokeLater(() -> {
+            toggleComponents();
+            if (error == null) {
                 JOptionPane.showMessageDialog(
                         this,
                         "Connection Successful");
             } else {
                 JOptionPane.showMessageDialog(
                         this,
-                        "Connection not set",
+                        errorMessage(error),
                         "Connection Failed",
                         JOptionPane.ERROR_MESSAGE);
             }
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(
-                    this,
-                    e.getMessage(),
-                    "Connection Failed",
-                    JOptionPane.ERROR_MESSAGE);
-        }
+        }));
     }
 
     private void toggleComponents() {
         if (0 == tableModel.getRowCount()) {
             testButton.setEnabled(false);
+            connectAllButton.setEnabled(false);
             assignButton.setEnabled(false);
             connectButton.setText("Connect");
             connectButton.setIcon(Icon.CONN_CONNECT.icon());
@@ -322,14 +424,17 @@ public class Conns extends JDialog implements EventProducer<Conns.EventType>, Cl
             removeButton.setEnabled(false);
         } else {
             Conn conn = getSelectedConn();
-            boolean isSetButNotOpen = conn != null && !conn.isOpen();
+            boolean isConnecting = isConnecting(conn);
+            boolean isSetButNotOpen = conn != null && !conn.isOpen() && !isConnecting;
             assignButton.setEnabled(conn != null);
             cloneButton.setEnabled(conn != null);
             testButton.setEnabled(isSetButNotOpen);
             removeButton.setEnabled(isSetButNotOpen);
-            connectButton.setText(conn != null && conn.isOpen() ? "Disconnect" : "Connect");
-            connectButton.setIcon((conn != null && conn.isOpen() ? Icon.CONN_DISCONNECT : Icon.CONN_CONNECT).icon());
-            reloadButton.setEnabled(tableModel.getConns().stream().noneMatch(Conn::isOpen));
+            connectButton.setText(isConnecting ? "Cancel" : conn != null && conn.isOpen() ? "Disconnect" : "Connect");
+            connectButton.setIcon((isConnecting || (conn != null && conn.isOpen()) ? Icon.CONN_DISCONNECT : Icon.CONN_CONNECT).icon());
+            List<Conn> conns = tableModel.getConns();
+            connectAllButton.setEnabled(conns.stream().anyMatch(c -> !c.isOpen() && !connector.isOpening(c)));
+            reloadButton.setEnabled(conns.stream().noneMatch(c -> c.isOpen() || connector.isOpening(c)));
         }
         table.repaint();
         validate();
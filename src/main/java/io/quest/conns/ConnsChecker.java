@@ -17,18 +17,21 @@
 package io.quest.conns;
 
 import java.io.Closeable;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+import io.quest.EventConsumer;
+import io.quest.EventProducer;
 import io.quest.GTk;
 import io.questdb.log.Log;
 import io.questdb.log.LogFactory;
@@ -38,33 +41,75 @@ import io.questdb.log.LogFactory;
  * A connection is not valid when it was previously open and then it became
  * unresponsive perhaps due to a server side failure, or network latency.
  * <p>
- * Connections are provided by a supplier. A predefined number of threads are
- * in charge of periodically checking the validity of the supplied database
- * connections. <b>Only</b> connections that are <b>open</b> participate in
- * the validity check.
- * Checks are done concurrently, as any may block for up to 10 secs.
- * When connections are detected to be invalid they are closed and collected
- * into a set which is given back as a callback to a consumer.
- * Supplier and consumer references are provided to the constructor of this
- * class.
+ * Connections are provided by a supplier. <b>Only</b> connections that are
+ * <b>open</b> participate in the validity check, each on its own schedule:
+ * those open when the checker starts, and those {@link #watch(Conn) watched}
+ * once opened. Probes run in a pool of threads, as any may block for up to 10
+ * secs, and the completion of each probe schedules the next one for its
+ * connection: in {@link #PERIOD_SECS} when the connection is healthy, in
+ * {@link #SUSPECT_PERIOD_SECS} when its round trip, recorded by the connection,
+ * see {@link Conn#getLatencyMicros()}, took longer than {@link #SLOW_MILLIS}.
+ * There is no periodic sweep over all the connections, and no thread waits on
+ * a probe. A connection stops being checked when it is closed by its user, or
+ * no longer supplied.
+ * <p>
+ * Connections found not to be valid are closed and notified with
+ * {@link EventType#CONNECTIONS_LOST}. The checker then reopens them in the
+ * background, backing off exponentially up to {@link #PERIOD_SECS} between
+ * attempts, and notifies {@link EventType#CONNECTION_REESTABLISHED} when it
+ * succeeds, so that they are ready before the next query. Connections closed
+ * by their users are not reopened. Every probe is notified with
+ * {@link EventType#CONNECTION_PROBED}. Events are notified from the threads of
+ * the checker.
  *
  * @see Conn#isValid()
  */
-public class ConnsChecker implements Closeable {
+public class ConnsChecker implements EventProducer<ConnsChecker.EventType>, Closeable {
     private static final int PERIOD_SECS = 30; // validity period
-    private static final int NUM_THREADS = 2;
+    private static final int SUSPECT_PERIOD_SECS = 5;
+    private static final long SLOW_MILLIS = 500L;
+    private static final int MAX_RECONNECT_ATTEMPTS = 20;
+    private static final int RECONNECT_TIMEOUT_SECS = 5; // a dead node does not pin a probe thread
+    private static final int NUM_THREADS = 4;
+    private static final long STOP = -1L;
     private static final Log LOG = LogFactory.getLog(ConnsChecker.class);
 
     private final Supplier<List<Conn>> connsSupplier;
-    private final Consumer<Set<Conn>> lostConnsConsumer;
-    private final AtomicBoolean isChecking;
+    private final EventConsumer<ConnsChecker, Object> eventConsumer;
+    private final long secMillis; // length of a second of the schedule
+    private final Map<Conn, Probe> probes; // by identity, guarded by this
     private ScheduledExecutorService scheduler;
+    private ExecutorService prober;
 
+    public ConnsChecker(Supplier<List<Conn>> connsSupplier, EventConsumer<ConnsChecker, Object> eventConsumer) {
+        this(connsSupplier, eventConsumer, 1000L);
+    }
 
-    public ConnsChecker(Supplier<List<Conn>> connsSupplier, Consumer<Set<Conn>> lostConnsConsumer) {
+    /**
+     * @param secMillis length in millis of a second of the schedule, shorter in tests
+     */
+    ConnsChecker(Supplier<List<Conn>> connsSupplier, EventConsumer<ConnsChecker, Object> eventConsumer, long secMillis) {
         this.connsSupplier = connsSupplier;
-        this.lostConnsConsumer = lostConnsConsumer;
-        this.isChecking = new AtomicBoolean();
+        this.eventConsumer = eventConsumer;
+        this.secMillis = secMillis;
+        probes = new IdentityHashMap<>();
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+            thread.setDaemon(true);
+            thread.setName(name);
+            return thread;
+        };
+    }
+
+    /**
+     * @param attempts failed reconnect attempts so far, 1 or more
+     * @return seconds to wait before the next one, doubling up to {@link #PERIOD_SECS}
+     */
+    static long backoffSecs(int attempts) {
+        return Math.min(PERIOD_SECS, 1L << Math.min(attempts - 1, 5));
     }
 
     public synchronized boolean isRunning() {
@@ -73,47 +118,31 @@ public class ConnsChecker implements Closeable {
 
     public synchronized void start() {
         if (scheduler == null) {
-            scheduler = Executors.newScheduledThreadPool(NUM_THREADS);
-            scheduler.scheduleAtFixedRate(this::dbConnsValidityCheck, PERIOD_SECS, PERIOD_SECS, TimeUnit.SECONDS);
-            LOG.info().$("Check every [period=").$(PERIOD_SECS).$(", unit=sec").I$();
+            String name = getClass().getSimpleName();
+            scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads(name));
+            prober = Executors.newFixedThreadPool(NUM_THREADS, daemonThreads(name + "-probe"));
+            for (Conn conn : connsSupplier.get()) {
+                if (conn.isOpen()) {
+                    watch(conn);
+                }
+            }
+            LOG.info().$("Check every [period=").$(PERIOD_SECS)
+                    .$(", suspectPeriod=").$(SUSPECT_PERIOD_SECS)
+                    .$(", unit=sec").I$();
         }
     }
 
-    private void dbConnsValidityCheck() {
-        if (isChecking.compareAndSet(false, true)) {
-            try {
-                List<ScheduledFuture<Conn>> notValid = connsSupplier.get()
-                        .stream()
-                        .filter(Conn::isOpen).map(conn -> scheduler.schedule(
-                                () -> !conn.isValid() ? conn : null, 0, TimeUnit.SECONDS
-                        )).toList();
-                while (notValid.size() > 0) {
-                    Set<Conn> notValidSet = new HashSet<>();
-                    for (Iterator<ScheduledFuture<Conn>> it = notValid.iterator(); it.hasNext(); ) {
-                        ScheduledFuture<Conn> invalidConnFuture = it.next();
-                        if (invalidConnFuture.isDone()) {
-                            Conn conn = null;
-                            try {
-                                conn = invalidConnFuture.get();
-                            } catch (Exception unexpected) {
-                                LOG.error().$("Unexpected error [e=").$(unexpected.getMessage()).I$();
-                            } finally {
-                                if (conn != null) {
-                                    notValidSet.add(conn);
-                                }
-                                it.remove();
-                            }
-                        } else if (invalidConnFuture.isCancelled()) {
-                            it.remove();
-                        }
-                    }
-                    if (!notValidSet.isEmpty()) {
-                        lostConnsConsumer.accept(notValidSet);
-                    }
-                }
-            } finally {
-                isChecking.set(false);
-            }
+    /**
+     * Starts checking the connection, which has just been opened, unless it is
+     * being checked already.
+     *
+     * @param conn the connection
+     */
+    public synchronized void watch(Conn conn) {
+        if (scheduler != null && conn != null && !probes.containsKey(conn)) {
+            Probe probe = new Probe(conn);
+            probes.put(conn, probe);
+            schedule(probe, PERIOD_SECS);
         }
     }
 
@@ -122,11 +151,136 @@ public class ConnsChecker implements Closeable {
         if (scheduler != null) {
             try {
                 GTk.shutdownExecutor(scheduler);
+                GTk.shutdownExecutor(prober);
             } finally {
                 scheduler = null;
-                isChecking.set(false);
+                prober = null;
+                probes.clear();
                 LOG.info().$("Connectivity check stopped").$();
             }
         }
     }
+
+    private synchronized void schedule(Probe probe, long delaySecs) {
+        if (delaySecs == STOP || scheduler == null || probes.get(probe.conn) != probe) {
+            probes.remove(probe.conn, probe);
+            return;
+        }
+        try {
+            scheduler.schedule(() -> start(probe), delaySecs * secMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            probes.remove(probe.conn, probe); // closing
+        }
+    }
+
+    /**
+     * Runs the probe in the pool, the next one is scheduled when it completes.
+     */
+    private void start(Probe probe) {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = prober;
+        }
+        if (executor == null) {
+            return;
+        }
+        try {
+            CompletableFuture.supplyAsync(() -> probe(probe), executor).whenComplete((delaySecs, error) -> {
+                if (error != null) {
+                    LOG.error().$("Unexpected error [conn=").$(probe.conn.getUniqueId())
+                            .$(", e=").$(error.getMessage())
+                            .I$();
+                    delaySecs = (long) SUSPECT_PERIOD_SECS;
+                }
+                schedule(probe, delaySecs);
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                probes.remove(probe.conn, probe); // closing
+            }
+        }
+    }
+
+    /**
+     * @return seconds until the next probe of the connection, {@link #STOP} to stop
+     * checking it
+     */
+    private long probe(Probe probe) {
+        Conn conn = probe.conn;
+        if (connsSupplier.get().stream().noneMatch(supplied -> supplied == conn)) {
+            return STOP;
+        }
+        if (probe.reconnectAttempts > 0) {
+            return reconnect(probe);
+        }
+        if (!conn.isOpen()) {
+            return STOP; // closed by its user, watched again when it is opened
+        }
+        long session = conn.getSession();
+        long delaySecs;
+        if (conn.isValid()) {
+            long latencyMillis = TimeUnit.MICROSECONDS.toMillis(conn.getLatencyMicros());
+            delaySecs = latencyMillis > SLOW_MILLIS ? SUSPECT_PERIOD_SECS : PERIOD_SECS;
+        } else if (conn.getSession() == session) { // not closed by its user meanwhile
+            try {
+                conn.close();
+            } catch (RuntimeException e) {
+                LOG.error().$("Close [conn=").$(conn.getUniqueId()).$(", e=").$(e.getMessage()).I$();
+            }
+            probe.session = conn.getSession();
+            probe.reconnectAttempts = 1;
+            delaySecs = 0L;
+            eventConsumer.onSourceEvent(this, EventType.CONNECTIONS_LOST, Set.of(conn));
+        } else {
+            delaySecs = STOP;
+        }
+        eventConsumer.onSourceEvent(this, EventType.CONNECTION_PROBED, conn);
+        return delaySecs;
+    }
+
+    private long reconnect(Probe probe) {
+        Conn conn = probe.conn;
+        if (conn.getSession() != probe.session) {
+            probe.reconnectAttempts = 0; // opened or closed by its user since it was lost
+            return conn.isOpen() ? PERIOD_SECS : STOP;
+        }
+        try {
+            conn.open(RECONNECT_TIMEOUT_SECS);
+            probe.reconnectAttempts = 0;
+            LOG.info().$("Reconnected [conn=").$(conn.getUniqueId()).I$();
+            eventConsumer.onSourceEvent(this, EventType.CONNECTION_REESTABLISHED, conn);
+            return SUSPECT_PERIOD_SECS;
+        } catch (Exception e) {
+            int attempts = probe.reconnectAttempts;
+            if (attempts >= MAX_RECONNECT_ATTEMPTS) {
+                probe.reconnectAttempts = 0;
+                LOG.error().$("Giving up reconnecting [conn=").$(conn.getUniqueId())
+                        .$(", attempts=").$(attempts)
+                        .I$();
+                return STOP;
+            }
+            probe.reconnectAttempts = attempts + 1;
+            return backoffSecs(attempts);
+        }
+    }
+
+    public enum EventType {
+        CONNECTIONS_LOST, // data is Set<Conn>
+        CONNECTION_REESTABLISHED, // data is Conn
+        CONNECTION_PROBED // data is Conn
+    }
+
+    /**
+     * Check of a connection. Only one probe of a connection is scheduled or in
+     * flight at any time, each one written by the probe before it.
+     */
+    private static class Probe {
+        private final Conn conn;
+        private volatile int reconnectAttempts; // > 0 while the connection is lost
+        private volatile long session; // of the connection when it was lost
+
+        private Probe(Conn conn) {
+            this.conn = conn;
+        }
+    }
 }
@@ -44,8 +44,10 @@ class ConnsTableModel extends AbstractTableModel implements Closeable {
     private static final int USERNAME_COL_IDX = 4;
     private static final int PASSWORD_COL_IDX = 5;
     private static final int CONNECTED_COL_IDX = 6;
+    private static final int LATENCY_COL_IDX = 7;
     private static final String NAME_COL = "name";
     private static final String CONNECTED_COL = "connected";
+    private static final String LATENCY_COL = "latency";
     private static final String[] COL_NAMES = {
             NAME_COL,
             ConnAttrs.AttrName.host.name(),
@@ -53,11 +55,12 @@ class ConnsTableModel extends AbstractTableModel implements Closeable {
             ConnAttrs.AttrName.database.name(),
             ConnAttrs.AttrName.username.name(),
             ConnAttrs.AttrName.password.name(),
-            CONNECTED_COL
+            CONNECTED_COL,
+            LATENCY_COL
     };
     private static final int ROW_HEIGHT = 22;
     private static final int[] COL_WIDTHS = {
-            200, 400, 100, 200, 200, 200, 200
+            200, 400, 100, 200, 200, 200, 200, 150
     };
     private final List<Conn> conns;
     private final Set<String> existingNames;
@@ -93,6 +96,7 @@ class ConnsTableModel extends AbstractTableModel implements Closeable {
         colModel.getColumn(USERNAME_COL_IDX).setPreferredWidth(COL_WIDTHS[USERNAME_COL_IDX]);
         colModel.getColumn(PASSWORD_COL_IDX).setPreferredWidth(COL_WIDTHS[PASSWORD_COL_IDX]);
         colModel.getColumn(CONNECTED_COL_IDX).setPreferredWidth(COL_WIDTHS[CONNECTED_COL_IDX]);
+        colModel.getColumn(LATENCY_COL_IDX).setPreferredWidth(COL_WIDTHS[LATENCY_COL_IDX]);
         colModel.getColumn(PASSWORD_COL_IDX).setCellRenderer(new PasswordCellRenderer());
         return table;
     }
@@ -139,6 +143,20 @@ class ConnsTableModel extends AbstractTableModel implements Closeable {
         return conn;
     }
 
+    /**
+     * Notifies that the state of the connection changed, not its attributes.
+     *
+     * @param conn the connection
+     */
+    void fireConnUpdated(Conn conn) {
+        for (int rowIdx = 0; rowIdx < conns.size(); rowIdx++) {
+            if (conns.get(rowIdx) == conn) {
+                fireTableRowsUpdated(rowIdx, rowIdx);
+                return;
+            }
+        }
+    }
+
     int getRowIdx(String connKey) {
         if (connKey == null) {
             return -1;
@@ -191,13 +209,14 @@ class ConnsTableModel extends AbstractTableModel implements Closeable {
         return switch (attrName) {
             case NAME_COL -> conn.getName();
             case CONNECTED_COL -> conn.isOpen() ? "Yes" : "No";
+            case LATENCY_COL -> formatLatency(conn.getLatencyMicros());
             default -> conn.getAttr(attrName);
         };
     }
 
     @Override
     public boolean isCellEditable(int rowIdx, int colIdx) {
-        return NAME_COL_IDX != colIdx && CONNECTED_COL_IDX != colIdx;
+        return NAME_COL_IDX != colIdx && CONNECTED_COL_IDX != colIdx && LATENCY_COL_IDX != colIdx;
     }
 
     @Override
@@ -205,6 +224,13 @@ class ConnsTableModel extends AbstractTableModel implements Closeable {
         return String.class;
     }
 
+    private static String formatLatency(long micros) {
+        if (micros < 0L) {
+            return "";
+        }
+        return micros < 10_000L ? String.format("%.2f ms", micros / 1000.0) : String.format("%d ms", micros / 1000L);
+    }
+
     @Override
     public void close() {
         conns.clear();
@@ -228,17 +254,8 @@ class ConnsTableModel extends AbstractTableModel implements Closeable {
         private static final String PASSWORD = "*********";
 
         @Override
-        public Component getTableCellRendererComponent(
-                JTable table,
-                Object value,
-                boolean isSelected,
-                boolean hasFocus,
-                int rowIdx,
-                int colIdx
-        ) {
-            super.getTableCellRendererComponent(table, value, isSelected, hasFocus, rowIdx, colIdx);
-            setValue(PASSWORD);
-            return this;
+        protected String toText(JTable table, Object value, int rowIdx, int colIdx) {
+            return PASSWORD;
         }
     }
 }
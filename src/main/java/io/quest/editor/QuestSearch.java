@@ -0,0 +1,174 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.editor;
+
+import io.quest.EventConsumer;
+import io.quest.EventProducer;
+import io.quest.GTk;
+import io.quest.store.SearchIndex;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.*;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+
+
+/**
+ * Search box over the quests of all notebooks. Matches, ranked by the
+ * {@link SearchIndex}, are listed in a popup as the text is typed. Enter, or a
+ * click, opens the selected one.
+ */
+public class QuestSearch extends JPanel implements EventProducer<QuestSearch.EventType> {
+
+    private static final Color SEARCH_FONT_COLOR = new Color(58, 138, 138);
+    private static final int MAX_HITS = 50;
+    private final EventConsumer<QuestSearch, SearchIndex.Hit> eventConsumer;
+    private final SearchIndex searchIndex;
+    private final JTextField searchText;
+    private final DefaultListModel<SearchIndex.Hit> hitsModel;
+    private final JList<SearchIndex.Hit> hits;
+    private final JPopupMenu hitsPopup;
+
+    public QuestSearch(SearchIndex searchIndex, EventConsumer<QuestSearch, SearchIndex.Hit> eventConsumer) {
+        this.searchIndex = searchIndex;
+        this.eventConsumer = eventConsumer;
+        hitsModel = new DefaultListModel<>();
+        hits = new JList<>(hitsModel);
+        hits.setFont(GTk.TABLE_CELL_FONT);
+        hits.setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
+        hits.setForeground(GTk.EDITOR_MENU_FOREGROUND_COLOR);
+        hits.setSelectionBackground(GTk.EDITOR_MATCH_FOREGROUND_COLOR);
+        hits.setSelectionForeground(GTk.QUEST_APP_BACKGROUND_COLOR);
+        hits.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        hits.setFocusable(false);
+        hits.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                SearchIndex.Hit hit = (SearchIndex.Hit) value;
+                return super.getListCellRendererComponent(
+                        list,
+                        String.format("%s  [%s]", hit.name(), hit.fileName()),
+                        index,
+                        isSelected,
+                        cellHasFocus);
+            }
+        });
+        hits.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int idx = hits.locationToIndex(e.getPoint());
+                if (idx >= 0) {
+                    hits.setSelectedIndex(idx);
+                    fireOpenEvent();
+                }
+            }
+        });
+        hitsPopup = new JPopupMenu();
+        hitsPopup.setFocusable(false);
+        hitsPopup.setLayout(new BorderLayout());
+        hitsPopup.add(new JScrollPane(hits), BorderLayout.CENTER);
+        searchText = new JTextField(20);
+        searchText.setFont(GTk.TABLE_HEADER_FONT);
+        searchText.setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
+        searchText.setForeground(SEARCH_FONT_COLOR);
+        searchText.setCaretColor(Color.CYAN);
+        searchText.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                onSearch();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                onSearch();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                onSearch();
+            }
+        });
+        searchText.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_DOWN -> moveSelection(1);
+                    case KeyEvent.VK_UP -> moveSelection(-1);
+                    case KeyEvent.VK_ENTER -> fireOpenEvent();
+                    case KeyEvent.VK_ESCAPE -> hitsPopup.setVisible(false);
+                    default -> super.keyPressed(e);
+                }
+            }
+        });
+        setLayout(new FlowLayout(FlowLayout.RIGHT, 5, 2));
+        setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
+        add(GTk.label("Search", SEARCH_FONT_COLOR));
+        add(searchText);
+        add(GTk.gap(12));
+    }
+
+    @Override
+    public boolean requestFocusInWindow() {
+        return searchText.requestFocusInWindow();
+    }
+
+    private void onSearch() {
+        List<SearchIndex.Hit> found = searchIndex.search(searchText.getText(), MAX_HITS);
+        hitsModel.clear();
+        hitsModel.addAll(found);
+        if (found.isEmpty()) {
+            hitsPopup.setVisible(false);
+            return;
+        }
+        hits.setSelectedIndex(0);
+        hits.setVisibleRowCount(Math.min(found.size(), 12));
+        hitsPopup.setPreferredSize(null);
+        Dimension size = hitsPopup.getPreferredSize();
+        hitsPopup.setPreferredSize(new Dimension(Math.max(size.width, searchText.getWidth() * 2), size.height));
+        hitsPopup.pack();
+        if (!hitsPopup.isVisible()) {
+            hitsPopup.show(searchText, 0, searchText.getHeight());
+        }
+        searchText.requestFocusInWindow();
+    }
+
+    private void moveSelection(int delta) {
+        int size = hitsModel.getSize();
+        if (size > 0) {
+            int idx = Math.max(0, Math.min(size - 1, hits.getSelectedIndex() + delta));
+            hits.setSelectedIndex(idx);
+            hits.ensureIndexIsVisible(idx);
+        }
+    }
+
+    private void fireOpenEvent() {
+        SearchIndex.Hit hit = hits.getSelectedValue();
+        if (hit != null && hitsPopup.isVisible()) {
+            hitsPopup.setVisible(false);
+            eventConsumer.onSourceEvent(this, EventType.OPEN, hit);
+        }
+    }
+
+    public enum EventType {
+        OPEN
+    }
+}
@@ -35,6 +35,7 @@ import io.quest.conns.Conn;
 import io.quest.sql.SQLExecutionRequest;
 import io.quest.GTk;
 import io.quest.conns.Conns;
+import io.quest.store.SearchIndex;
 import io.quest.store.Store;
 import io.quest.store.StoreEntry;
 
@@ -49,6 +50,7 @@ public class QuestsEditor extends Editor implements EventProducer<QuestsEditor.E
 
     private static final int COMPONENT_HEIGHT = 33;
     private static final String STORE_FILE_NAME = "default-notebook.json";
+    private static final String SEARCH_INDEX_FILE_NAME = "notebooks-search.idx";
     private final EventConsumer<QuestsEditor, SQLExecutionRequest> eventConsumer;
     private final JComboBox<String> questEntryNames;
     private final List<UndoManager> undoManagers;
@@ -57,6 +59,8 @@ public class QuestsEditor extends Editor implements EventProducer<QuestsEditor.E
     private final JLabel fontSizeLabel;
     private final JSlider fontSizeSlider;
     private final FindReplace findPanel;
+    private final SearchIndex searchIndex;
+    private final QuestSearch questSearch;
     private final JMenu questsMenu;
     private Store<Content> store;
     private Conn conn; // uses it when set
@@ -116,14 +120,18 @@ public class QuestsEditor extends Editor implements EventProducer<QuestsEditor.E
                 case REPLACE -> onReplace();
             }
         });
+        searchIndex = SearchIndex.open(new File(Store.ROOT_PATH, SEARCH_INDEX_FILE_NAME));
+        questSearch = new QuestSearch(searchIndex, (source, event, hit) -> onOpenSearchHit(hit));
         setFontSize(GTk.EDITOR_DEFAULT_FONT_SIZE);
         JPanel topPanel = new JPanel(new BorderLayout(0, 0));
         topPanel.setPreferredSize(new Dimension(0, COMPONENT_HEIGHT + 2));
         topPanel.setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
         topPanel.add(questsPanel, BorderLayout.WEST);
+        topPanel.add(questSearch, BorderLayout.EAST);
         topPanel.add(findPanel, BorderLayout.SOUTH);
         add(topPanel, BorderLayout.NORTH);
         loadStoreEntries(STORE_FILE_NAME);
+        searchIndex.refresh(Store.ROOT_PATH, f -> isNotebook(f.getName()));
         refreshConnLabel();
     }
 
@@ -155,6 +163,22 @@ public class QuestsEditor extends Editor implements EventProducer<QuestsEditor.E
         fireCommandEvent(this::getCurrentLine);
     }
 
+    /**
+     * Executes the command on each of the connections, concurrently, merging their
+     * results into one table.
+     *
+     * @param conns the connections, at least one
+     */
+    public void onExecFanOut(List<Conn> conns) {
+        String command = getCommand();
+        if (command == null || command.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Command not available, type something");
+            return;
+        }
+        lastRequest = new SQLExecutionRequest(content.getUniqueId(), conns, command);
+        eventConsumer.onSourceEvent(this, EventType.COMMAND_AVAILABLE, lastRequest);
+    }
+
     public void fireCancelEvent(ActionEvent ignoredEvent) {
         if (conn == null || !conn.isOpen()) {
             return;
@@ -182,8 +206,13 @@ public class QuestsEditor extends Editor implements EventProducer<QuestsEditor.E
     public void close() {
         undoManagers.clear();
         refreshQuest();
-        store.saveToFile();
+        store.asyncSaveToFile();
         store.close();
+        searchIndex.close();
+    }
+
+    private static boolean isNotebook(String fileName) {
+        return (fileName.endsWith(".json") || fileName.endsWith(Store.BINARY_EXTENSION)) && !fileName.equals(Conns.STORE_FILE_NAME);
     }
 
     private String getCommand() {
@@ -192,6 +221,12 @@ public class QuestsEditor extends Editor implements EventProducer<QuestsEditor.E
     }
 
     private void loadStoreEntries(String fileName) {
+        if (store != null) {
+            refreshQuest();
+            store.asyncSaveToFile();
+            store.close();
+            content = null;
+        }
         store = new Store<>(fileName, Content.class) {
             @Override
             public Content[] defaultStoreEntries() {
@@ -200,6 +235,7 @@ public class QuestsEditor extends Editor implements EventProducer<QuestsEditor.E
                 return new Content[]{new Content(), keyboardShortcuts,};
             }
         };
+        store.setSearchIndex(searchIndex);
         store.loadFromFile();
         questLabel.setToolTipText(String.format("notebook: %s", fileName));
         undoManagers.clear();
@@ -216,6 +252,20 @@ public class QuestsEditor extends Editor implements EventProducer<QuestsEditor.E
         refreshQuestEntryNames(0);
     }
 
+    private void onSearchQuests(ActionEvent event) {
+        questSearch.requestFocusInWindow();
+    }
+
+    private void onOpenSearchHit(SearchIndex.Hit hit) {
+        if (!hit.fileName().equals(store.getFileName())) {
+            loadStoreEntries(hit.fileName());
+        }
+        if (hit.idx() >= 0 && hit.idx() < questEntryNames.getItemCount()) {
+            questEntryNames.setSelectedIndex(hit.idx());
+        }
+        textPane.requestFocusInWindow();
+    }
+
     private void onFindReplace(Supplier<Integer> matchesCountSupplier) {
         if (!findPanel.isVisible()) {
             findPanel.setVisible(true);
@@ -325,13 +375,12 @@ public class QuestsEditor extends Editor implements EventProducer<QuestsEditor.E
         choose.setFileFilter(new FileFilter() {
             @Override
             public boolean accept(File f) {
-                String name = f.getName();
-                return name.endsWith(".json") && !name.equals(Conns.STORE_FILE_NAME);
+                return isNotebook(f.getName());
             }
 
             @Override
             public String getDescription() {
-                return "JSON files";
+                return "JSON and binary store files";
             }
         });
 
@@ -389,10 +438,7 @@ public class QuestsEditor extends Editor implements EventProducer<QuestsEditor.E
             JOptionPane.showMessageDialog(this, "Command not available, type something");
             return;
         }
-        if (lastRequest != null) {
-            eventConsumer.onSourceEvent(this, EventType.COMMAND_CANCEL, lastRequest);
-            lastRequest = null;
-        }
+        // previous requests are not cancelled, they fetch concurrently, in their own tabs
         lastRequest = new SQLExecutionRequest(content.getUniqueId(), conn, command);
         eventConsumer.onSourceEvent(this, EventType.COMMAND_AVAILABLE, lastRequest);
     }
@@ -414,6 +460,7 @@ public class QuestsEditor extends Editor implements EventProducer<QuestsEditor.E
         questsMenu.add(menuItem(Icon.COMMAND_RELOAD, "Reload", "Recovers quest from last save", GTk.NO_KEY_EVENT, this::onReloadQuest));
         questsMenu.add(menuItem(Icon.COMMAND_SAVE, "Save", GTk.NO_KEY_EVENT, this::onSaveQuest));
         questsMenu.addSeparator();
+        questsMenu.add(menuItem(Icon.COMMAND_FIND, "Search notebooks", GTk.NO_KEY_EVENT, this::onSearchQuests));
         questsMenu.add(menuItem(Icon.COMMAND_STORE_LOAD, "Read from notebook", GTk.NO_KEY_EVENT, this::onLoadQuestsFromBackup));
         questsMenu.add(menuItem(Icon.COMMAND_STORE_BACKUP, "Write to new notebook", GTk.NO_KEY_EVENT, this::onBackupQuests));
         questsMenu.addSeparator();
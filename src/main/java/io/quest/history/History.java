@@ -0,0 +1,252 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.history;
+
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.JTableHeader;
+import javax.swing.table.TableColumnModel;
+import javax.swing.table.TableRowSorter;
+
+import io.quest.CellRenderer;
+import io.quest.EventConsumer;
+import io.quest.EventProducer;
+import io.quest.GTk;
+
+
+/**
+ * Browser of the {@link QueryHistory}, newest first. The text typed in the filter
+ * keeps the executions whose query or connection contain it, ignoring case.
+ * Columns sort on click, which puts the slowest queries on top. Double-click
+ * copies the query to the clipboard.
+ */
+public class History extends JDialog implements EventProducer<History.EventType> {
+
+    private static final Color FILTER_FONT_COLOR = new Color(58, 138, 138);
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
+    private static final String[] COL_NAMES = {
+            "when", "connection", "status", "rows", "execMs", "fetchMs", "totalMs", "query"
+    };
+    private static final int[] COL_WIDTHS = {
+            160, 220, 100, 90, 90, 90, 90, 900
+    };
+    private static final int SQL_COL_IDX = 7;
+    private static final int ROW_HEIGHT = 22;
+    private final QueryHistory history;
+    private final HistoryTableModel tableModel;
+    private final TableRowSorter<HistoryTableModel> sorter;
+    private final JTextField filterText;
+    private final JLabel countLabel;
+
+    public History(Frame owner, String title, QueryHistory history, EventConsumer<History, Object> eventConsumer) {
+        super(owner, title);
+        GTk.configureDialog(this, 0.8F, 0.5F, () -> eventConsumer.onSourceEvent(History.this, EventType.HIDE_REQUEST, null));
+        this.history = history;
+        tableModel = new HistoryTableModel();
+        sorter = new TableRowSorter<>(tableModel);
+        JTable table = new JTable(tableModel);
+        table.setRowSorter(sorter);
+        table.setRowHeight(ROW_HEIGHT);
+        table.setGridColor(GTk.EDITOR_KEYWORD_FOREGROUND_COLOR.darker().darker().darker());
+        table.setFont(GTk.TABLE_CELL_FONT);
+        table.setDefaultRenderer(Object.class, new CellRenderer());
+        table.setDefaultRenderer(Long.class, new CellRenderer());
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.setAutoResizeMode(JTable.AUTO_RESIZE_LAST_COLUMN);
+        table.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int rowIdx = table.rowAtPoint(e.getPoint());
+                if (e.getClickCount() == 2 && rowIdx >= 0) {
+                    GTk.setClipboardContent(tableModel.getEntry(table.convertRowIndexToModel(rowIdx)).sql());
+                }
+            }
+        });
+        JTableHeader header = table.getTableHeader();
+        header.setReorderingAllowed(false);
+        header.setFont(GTk.TABLE_HEADER_FONT);
+        header.setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
+        header.setForeground(Color.WHITE);
+        TableColumnModel colModel = header.getColumnModel();
+        for (int colIdx = 0; colIdx < COL_WIDTHS.length; colIdx++) {
+            colModel.getColumn(colIdx).setPreferredWidth(COL_WIDTHS[colIdx]);
+        }
+        JScrollPane tableScrollPanel = new JScrollPane(
+                table,
+                JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED,
+                JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        tableScrollPanel.getViewport().setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
+        filterText = new JTextField(30);
+        filterText.setFont(GTk.TABLE_HEADER_FONT);
+        filterText.setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
+        filterText.setForeground(FILTER_FONT_COLOR);
+        filterText.setCaretColor(Color.CYAN);
+        filterText.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                onFilter();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                onFilter();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                onFilter();
+            }
+        });
+        countLabel = GTk.label("", FILTER_FONT_COLOR);
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 4));
+        filterPanel.setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
+        filterPanel.add(countLabel);
+        filterPanel.add(GTk.gap(12));
+        filterPanel.add(GTk.label("Filter", FILTER_FONT_COLOR));
+        filterPanel.add(filterText);
+        Container contentPane = getContentPane();
+        contentPane.setLayout(new BorderLayout());
+        contentPane.add(filterPanel, BorderLayout.NORTH);
+        contentPane.add(tableScrollPanel, BorderLayout.CENTER);
+    }
+
+    private static boolean containsIgnoreCase(String text, String part) {
+        if (text == null) {
+            return false;
+        }
+        int len = part.length();
+        for (int i = 0, limit = text.length() - len; i <= limit; i++) {
+            if (text.regionMatches(true, i, part, 0, len)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void setVisible(boolean visible) {
+        if (visible) {
+            tableModel.setEntries(history.entries());
+            updateCount();
+        }
+        super.setVisible(visible);
+    }
+
+    /**
+     * Shows the entry, when visible, called in the EDT.
+     *
+     * @param entry entry just written to the history
+     */
+    public void onEntryAdded(QueryHistory.Entry entry) {
+        if (isVisible()) {
+            tableModel.addEntry(entry);
+            updateCount();
+        }
+    }
+
+    private void onFilter() {
+        String filter = filterText.getText();
+        if (filter == null || filter.isEmpty()) {
+            sorter.setRowFilter(null);
+        } else {
+            sorter.setRowFilter(new RowFilter<>() {
+                @Override
+                public boolean include(Entry<? extends HistoryTableModel, ? extends Integer> row) {
+                    QueryHistory.Entry entry = tableModel.getEntry(row.getIdentifier());
+                    return containsIgnoreCase(entry.sql(), filter) || containsIgnoreCase(entry.connId(), filter);
+                }
+            });
+        }
+        updateCount();
+    }
+
+    private void updateCount() {
+        countLabel.setText(String.format("%d of %d queries", sorter.getViewRowCount(), tableModel.getRowCount()));
+    }
+
+    public enum EventType {
+        HIDE_REQUEST
+    }
+
+    private static class HistoryTableModel extends AbstractTableModel {
+        private final List<QueryHistory.Entry> entries = new ArrayList<>(); // oldest first
+
+        private void setEntries(List<QueryHistory.Entry> newEntries) {
+            entries.clear();
+            entries.addAll(newEntries);
+            fireTableDataChanged();
+        }
+
+        private void addEntry(QueryHistory.Entry entry) {
+            entries.add(entry);
+            fireTableRowsInserted(0, 0);
+        }
+
+        private QueryHistory.Entry getEntry(int rowIdx) {
+            return entries.get(entries.size() - 1 - rowIdx); // newest first
+        }
+
+        @Override
+        public int getRowCount() {
+            return entries.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COL_NAMES.length;
+        }
+
+        @Override
+        public String getColumnName(int colIdx) {
+            return COL_NAMES[colIdx];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int colIdx) {
+            return colIdx >= 3 && colIdx < SQL_COL_IDX ? Long.class : String.class;
+        }
+
+        @Override
+        public Object getValueAt(int rowIdx, int colIdx) {
+            QueryHistory.Entry entry = getEntry(rowIdx);
+            return switch (colIdx) {
+                case 0 -> TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(entry.timestamp()));
+                case 1 -> entry.connId();
+                case 2 -> entry.status().name();
+                case 3 -> entry.rows();
+                case 4 -> entry.execMillis();
+                case 5 -> entry.fetchMillis();
+                case 6 -> entry.totalMillis();
+                case SQL_COL_IDX -> entry.sql().replaceAll("\\s+", " ").trim();
+                default -> null;
+            };
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.history;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+
+import io.quest.EventConsumer;
+import io.quest.EventProducer;
+import io.quest.GTk;
+import io.quest.sql.SQLExecutionResponse;
+import io.quest.sql.SQLExecutor;
+import io.questdb.log.Log;
+import io.questdb.log.LogFactory;
+
+
+/**
+ * Append-only log of the executions of queries, capped in size.
+ * <p>
+ * The log is made of two segment files, each up to half the cap, only the
+ * newest one appended to. When it is full the oldest one is truncated and takes
+ * its place, which drops the oldest half of the history. Each segment starts with
+ * a header carrying its generation, the newer one being the higher, followed by
+ * records, each its length, the CRC32 of its payload, and the payload. A torn
+ * record at the tail of the newest segment, from a crash, is cut off on open.
+ * <p>
+ * Executions are recorded from the completion events of the {@link SQLExecutor},
+ * in the thread that notifies them, and written in the history's own thread.
+ * Each entry written is notified with {@link EventType#ENTRY_ADDED}.
+ */
+public class QueryHistory implements EventProducer<QueryHistory.EventType>, Closeable {
+
+    public static final String FILE_NAME = "query-history";
+    public static final long DEFAULT_MAX_BYTES = 4L * 1024 * 1024;
+    private static final Log LOG = LogFactory.getLog(QueryHistory.class);
+    private static final int MAGIC = 0x51485354; // QHST
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16; // magic, version, generation
+    private static final int RECORD_HEADER_SIZE = 8; // length, crc
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    private final EventConsumer<QueryHistory, Entry> eventConsumer;
+    private final File[] segments;
+    private final long maxSegmentBytes;
+    private final Deque<Entry> entries = new ArrayDeque<>(); // oldest first, guarded by itself
+    private final ExecutorService writer;
+    private RandomAccessFile active; // accessed by the writer thread only, but on open and close
+    private int activeIdx;
+    private long generation;
+    private int olderSegmentEntries; // entries that go when the active segment is full
+
+    /**
+     * @param folder        where the segment files live
+     * @param maxBytes      cap of the size of the history on disk
+     * @param eventConsumer receives the entries as they are written
+     */
+    public QueryHistory(File folder, long maxBytes, EventConsumer<QueryHistory, Entry> eventConsumer) {
+        this.eventConsumer = eventConsumer;
+        maxSegmentBytes = Math.max(maxBytes / 2, HEADER_SIZE + RECORD_HEADER_SIZE);
+        segments = new File[]{new File(folder, FILE_NAME + ".0"), new File(folder, FILE_NAME + ".1")};
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+            thread.setDaemon(true);
+            thread.setName(QueryHistory.class.getSimpleName());
+            return thread;
+        });
+        open();
+    }
+
+    private static long readGeneration(File file) {
+        if (file.length() < HEADER_SIZE) {
+            return -1L;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return -1L;
+            }
+            return in.readLong();
+        } catch (IOException e) {
+            return -1L;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encode(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + entry.sql().length());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(entry.timestamp());
+            out.writeByte(entry.status().ordinal());
+            out.writeLong(entry.rows());
+            out.writeLong(entry.execMillis());
+            out.writeLong(entry.fetchMillis());
+            out.writeLong(entry.totalMillis());
+            writeString(out, entry.connId());
+            writeString(out, entry.sql());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Entry decode(byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            long timestamp = in.readLong();
+            Status status = Status.values()[in.readByte()];
+            long rows = in.readLong();
+            long execMillis = in.readLong();
+            long fetchMillis = in.readLong();
+            long totalMillis = in.readLong();
+            String connId = readString(in);
+            String sql = readString(in);
+            return new Entry(timestamp, connId, sql, status, rows, execMillis, fetchMillis, totalMillis);
+        }
+    }
+
+    /**
+     * Records the execution the event concludes, if it does.
+     *
+     * @param event event of the executor
+     * @param res   its response
+     */
+    public void record(SQLExecutor.EventType event, SQLExecutionResponse res) {
+        Status status = switch (event) {
+            case COMPLETED -> Status.COMPLETED;
+            case CANCELLED -> Status.CANCELLED;
+            case FAILURE -> Status.FAILED;
+            default -> null;
+        };
+        if (status != null) {
+            append(new Entry(
+                    System.currentTimeMillis(),
+                    res.getConnection() != null ? res.getConnection().getUniqueId() : null,
+                    res.getSqlCommand(),
+                    status,
+                    res.getTable() != null ? res.getTable().size() : 0L,
+                    res.getExecMillis(),
+                    res.getFetchMillis(),
+                    res.getTotalMillis()));
+        }
+    }
+
+    /**
+     * @return the entries, oldest first
+     */
+    public List<Entry> entries() {
+        synchronized (entries) {
+            return new ArrayList<>(entries);
+        }
+    }
+
+    /**
+     * Writes the entries pending, and closes the segment files.
+     */
+    @Override
+    public void close() {
+        GTk.shutdownExecutor(writer);
+        try {
+            if (active != null) {
+                active.close();
+            }
+        } catch (IOException e) {
+            LOG.error().$("Could not close [e=").$(e.getMessage()).I$();
+        }
+    }
+
+    void append(Entry entry) {
+        try {
+            writer.execute(() -> write(entry));
+        } catch (RejectedExecutionException ignore) {
+            // closed
+        }
+    }
+
+    private void open() {
+        long gen0 = readGeneration(segments[0]);
+        long gen1 = readGeneration(segments[1]);
+        int older = gen0 <= gen1 ? 0 : 1;
+        activeIdx = 1 - older;
+        generation = Math.max(gen0, gen1);
+        long start = System.nanoTime();
+        olderSegmentEntries = readSegment(segments[older], false);
+        if (generation < 0L) {
+            activeIdx = 0;
+            olderSegmentEntries = 0;
+            startSegment(0L);
+        } else {
+            readSegment(segments[activeIdx], true);
+        }
+        LOG.info().$("Loaded [path=").$(segments[activeIdx].getAbsolutePath())
+                .$(", entries=").$(entries.size())
+                .$(", millis=").$((System.nanoTime() - start) / 1_000_000L)
+                .I$();
+    }
+
+    /**
+     * Reads the records of a segment, up to the first one that is not whole,
+     * where the active segment is cut and opened for appending.
+     *
+     * @return number of records read
+     */
+    private int readSegment(File file, boolean isActive) {
+        if (readGeneration(file) < 0L) {
+            return 0;
+        }
+        int count = 0;
+        long validLength = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            in.skipNBytes(HEADER_SIZE);
+            while (true) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < 0 || length > MAX_RECORD_SIZE || validLength + RECORD_HEADER_SIZE + length > file.length()) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                Entry entry = decode(payload);
+                synchronized (entries) {
+                    entries.addLast(entry);
+                }
+                validLength += RECORD_HEADER_SIZE + length;
+                count++;
+            }
+        } catch (EOFException ignore) {
+            // whole
+        } catch (IOException | RuntimeException e) {
+            LOG.error().$("Damaged history [path=").$(file.getAbsolutePath())
+                    .$(", e=").$(e.getMessage())
+                    .I$();
+        }
+        if (isActive) {
+            try {
+                active = new RandomAccessFile(file, "rw");
+                if (active.length() != validLength) {
+                    LOG.info().$("Cutting torn tail [path=").$(file.getAbsolutePath())
+                            .$(", bytes=").$(active.length() - validLength)
+                            .I$();
+                    active.setLength(validLength);
+                }
+                active.seek(validLength);
+            } catch (IOException e) {
+                LOG.error().$("Could not open history [path=").$(file.getAbsolutePath())
+                        .$(", e=").$(e.getMessage())
+                        .I$();
+            }
+        }
+        return count;
+    }
+
+    private void startSegment(long newGeneration) {
+        try {
+            if (active != null) {
+                active.close();
+            }
+            generation = newGeneration;
+            active = new RandomAccessFile(segments[activeIdx], "rw");
+            active.setLength(0L);
+            active.writeInt(MAGIC);
+            active.writeInt(FORMAT_VERSION);
+            active.writeLong(generation);
+        } catch (IOException e) {
+            active = null;
+            LOG.error().$("Could not start history segment [path=").$(segments[activeIdx].getAbsolutePath())
+                    .$(", e=").$(e.getMessage())
+                    .I$();
+        }
+    }
+
+    private void write(Entry entry) {
+        try {
+            byte[] payload = encode(entry);
+            if (active == null) {
+                return;
+            }
+            if (active.length() > HEADER_SIZE && active.length() + RECORD_HEADER_SIZE + payload.length > maxSegmentBytes) {
+                int activeEntries;
+                synchronized (entries) {
+                    for (int i = 0; i < olderSegmentEntries; i++) {
+                        entries.pollFirst();
+                    }
+                    activeEntries = entries.size();
+                }
+                olderSegmentEntries = activeEntries;
+                activeIdx = 1 - activeIdx;
+                startSegment(generation + 1L);
+                if (active == null) {
+                    return;
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            byte[] record = new byte[RECORD_HEADER_SIZE + payload.length];
+            writeInt(record, 0, payload.length);
+            writeInt(record, 4, (int) crc.getValue());
+            System.arraycopy(payload, 0, record, RECORD_HEADER_SIZE, payload.length);
+            active.write(record);
+            synchronized (entries) {
+                entries.addLast(entry);
+            }
+            eventConsumer.onSourceEvent(this, EventType.ENTRY_ADDED, entry);
+        } catch (IOException e) {
+            LOG.error().$("Could not write history [e=").$(e.getMessage()).I$();
+        }
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    public enum Status {
+        COMPLETED, CANCELLED, FAILED
+    }
+
+    public enum EventType {
+        ENTRY_ADDED
+    }
+
+    /**
+     * Execution of a query.
+     *
+     * @param timestamp   when it concluded, epoch millis
+     * @param connId      unique id of the connection
+     * @param sql         the query
+     * @param status      how it concluded
+     * @param rows        rows fetched
+     * @param execMillis  time to execute, -1 if it failed
+     * @param fetchMillis time to fetch the rows, -1 if it failed
+     * @param totalMillis time overall
+     */
+    public record Entry(
+            long timestamp,
+            String connId,
+            String sql,
+            Status status,
+            long rows,
+            long execMillis,
+            long fetchMillis,
+            long totalMillis
+    ) {
+    }
+}
@@ -18,38 +18,58 @@ package io.quest.plot;
 
 
 import java.awt.*;
-import java.awt.geom.Rectangle2D;
+import java.awt.font.FontRenderContext;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Ticks and labels of a plot axis, at "nice" intervals (1, 2 or 5 times a power of ten).
+ * <p>
+ * Instances are immutable and memoized by (min, range, scale, font), so repainting an
+ * unchanged plot allocates nothing. Label widths are the sum of cached glyph advances,
+ * and labels are formatted without {@link String#format}.
+ */
 public class Axis {
     public static final int TICK_LENGTH = 10;
     private static final int X_RANGE_NUMBER_OF_TICKS = 15;
     private static final int Y_RANGE_NUMBER_OF_TICKS = 10;
-    private static final int X_AXIS_SIGNIFICANT_FIGURES = 3;
-    private static final int Y_AXIS_SIGNIFICANT_FIGURES = 3;
-    private static final String X_TPT = String.format("%%.%df", X_AXIS_SIGNIFICANT_FIGURES);
-    private static final String Y_TPT = String.format("%%.%df", Y_AXIS_SIGNIFICANT_FIGURES);
+    static final int X_AXIS_SIGNIFICANT_FIGURES = 3;
+    static final int Y_AXIS_SIGNIFICANT_FIGURES = 3;
+    private static final int MAX_DECIMALS = 9;
+    private static final int MAX_CACHED_INSTANCES = 64;
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9};
+    private static final Map<Key, Axis> INSTANCES = new LinkedHashMap<>(MAX_CACHED_INSTANCES, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Axis> eldest) {
+            return size() > MAX_CACHED_INSTANCES;
+        }
+    };
+    private static final ConcurrentMap<GlyphsKey, Glyphs> GLYPHS = new ConcurrentHashMap<>();
 
-    private final String labelZero;
     private final String[] labels;
     private final int[] labelWidths;
-    private final int[] labelHeights;
+    private final int labelHeight;
     private final int[] labelPositions;
+    private final int zeroIdx;
 
 
-    private Axis(String[] labels, int[] labelWidths, int[] labelHeights, int[] labelPositions, String labelZero) {
+    private Axis(String[] labels, int[] labelWidths, int labelHeight, int[] labelPositions, int zeroIdx) {
         this.labels = labels;
         this.labelWidths = labelWidths;
-        this.labelHeights = labelHeights;
+        this.labelHeight = labelHeight;
         this.labelPositions = labelPositions;
-        this.labelZero = labelZero;
+        this.zeroIdx = zeroIdx;
     }
 
     public static Axis forX(Graphics2D g2, double min, double range, double scale) {
-        return getInstance(g2, min, range, scale, false, X_RANGE_NUMBER_OF_TICKS, X_TPT);
+        return getInstance(g2, min, range, scale, false, X_RANGE_NUMBER_OF_TICKS);
     }
 
     public static Axis forY(Graphics2D g2, double min, double range, double scale) {
-        return getInstance(g2, min, range, scale, true, Y_RANGE_NUMBER_OF_TICKS, Y_TPT);
+        return getInstance(g2, min, range, scale, true, Y_RANGE_NUMBER_OF_TICKS);
     }
 
     private static Axis getInstance(
@@ -58,54 +78,126 @@ public class Axis {
             double range,
             double scale,
             boolean invert,
-            int numTicks,
-            String tpt
+            int numTicks
     ) {
-        double interval = range / numTicks;
-        double start = Math.ceil(min / interval) * interval - min;
-        int tickNo = (int) (Math.abs(range - start) / interval + 1);
-        if (tickNo > 0) {
-            int[] tickPos = new int[tickNo];
-            String[] labels = new String[tickNo];
-            int[] labelWidths = new int[tickNo];
-            int[] labelHeights = new int[tickNo];
-            int sign = invert ? -1 : 1;
-            double offset = 0;
-            FontMetrics fm = g2.getFontMetrics();
-            for (int i = 0; i < tickNo; i++) {
-                double pos = start + offset;
-                tickPos[i] = sign * (int) (pos * scale);
-                String label = String.format(tpt, (pos + min));
-                labels[i] = label;
-                Rectangle2D bounds = fm.getStringBounds(label, g2);
-                labelWidths[i] = (int) bounds.getWidth();
-                labelHeights[i] = (int) bounds.getHeight();
-                offset += interval;
+        if (!(range > 0.0) || !(scale > 0.0) || Double.isInfinite(range) || Double.isNaN(min)) {
+            return null;
+        }
+        Font font = g2.getFont();
+        FontRenderContext frc = g2.getFontRenderContext();
+        Key key = new Key(min, range, scale, invert, numTicks, font, frc);
+        Axis axis;
+        synchronized (INSTANCES) {
+            axis = INSTANCES.get(key);
+        }
+        if (axis == null) {
+            axis = create(glyphs(font, frc), min, range, scale, invert, numTicks);
+            if (axis != null) {
+                synchronized (INSTANCES) {
+                    INSTANCES.put(key, axis);
+                }
+            }
+        }
+        return axis;
+    }
+
+    private static Axis create(Glyphs glyphs, double min, double range, double scale, boolean invert, int numTicks) {
+        double interval = niceInterval(range / numTicks);
+        long first = (long) Math.ceil(min / interval);
+        long last = (long) Math.floor((min + range) / interval);
+        int tickNo = (int) Math.min(last - first + 1, 2L * numTicks + 1);
+        if (tickNo <= 0) {
+            return null;
+        }
+        int decimals = Math.max(0, Math.min(MAX_DECIMALS, (int) -Math.floor(Math.log10(interval))));
+        int[] tickPos = new int[tickNo];
+        String[] labels = new String[tickNo];
+        int[] labelWidths = new int[tickNo];
+        int sign = invert ? -1 : 1;
+        int zeroIdx = -1;
+        StringBuilder sb = new StringBuilder(24);
+        for (int i = 0; i < tickNo; i++) {
+            long k = first + i;
+            double value = k * interval;
+            tickPos[i] = sign * (int) ((value - min) * scale);
+            sb.setLength(0);
+            String label = format(sb, value, decimals).toString();
+            labels[i] = label;
+            labelWidths[i] = glyphs.width(label);
+            if (k == 0L) {
+                zeroIdx = i;
+            }
+        }
+        return new Axis(labels, labelWidths, glyphs.height, tickPos, zeroIdx);
+    }
+
+    // 1, 2 or 5 times a power of ten, the smallest not below the raw interval
+    static double niceInterval(double rawInterval) {
+        double magnitude = Math.pow(10.0, Math.floor(Math.log10(rawInterval)));
+        double fraction = rawInterval / magnitude;
+        double nice;
+        if (fraction <= 1.0) {
+            nice = 1.0;
+        } else if (fraction <= 2.0) {
+            nice = 2.0;
+        } else if (fraction <= 5.0) {
+            nice = 5.0;
+        } else {
+            nice = 10.0;
+        }
+        return nice * magnitude;
+    }
+
+    /**
+     * Appends the value with a fixed number of decimals, as {@code %.nf} would, without
+     * the parsing and allocations of {@link String#format}. Values too large for the
+     * fixed point arithmetic fall back on it.
+     *
+     * @param sink     destination
+     * @param value    value to format
+     * @param decimals number of decimals, [0, 9]
+     * @return the sink
+     */
+    static StringBuilder format(StringBuilder sink, double value, int decimals) {
+        double scaled = Math.abs(value) * POW10[decimals];
+        if (Double.isNaN(value) || scaled >= 1e15) {
+            return sink.append(String.format(Locale.ROOT, "%." + decimals + "f", value));
+        }
+        long units = Math.round(scaled);
+        if (value < 0.0 && units != 0L) {
+            sink.append('-');
+        }
+        long factor = (long) POW10[decimals];
+        sink.append(units / factor);
+        if (decimals > 0) {
+            sink.append('.');
+            long fraction = units % factor;
+            for (long f = factor / 10; f > 1L && fraction < f; f /= 10) {
+                sink.append('0');
             }
-            return new Axis(labels, labelWidths, labelHeights, tickPos, String.format(tpt, 0.0));
+            sink.append(fraction);
         }
-        return null;
+        return sink;
     }
 
     public static String fmtX(double value) {
-        return String.format(X_TPT, value);
+        return format(new StringBuilder(24), value, X_AXIS_SIGNIFICANT_FIGURES).toString();
     }
 
     public static String fmtY(double value) {
-        return String.format(Y_TPT, value);
+        return format(new StringBuilder(24), value, Y_AXIS_SIGNIFICANT_FIGURES).toString();
+    }
+
+    private static Glyphs glyphs(Font font, FontRenderContext frc) {
+        return GLYPHS.computeIfAbsent(new GlyphsKey(font, frc), Glyphs::new);
     }
 
     public boolean isZero(int i) {
-        return labelZero.equals(labels[i]);
+        return i == zeroIdx;
     }
 
     public int getYPositionOfZeroLabel() {
-        for (int i = 0; i < labels.length; i++) {
-            if (labelZero.equals(labels[i])) {
-                return labelPositions[i];
-            }
-        }
-        return -1;
+        return zeroIdx != -1 ? labelPositions[zeroIdx] : -1;
     }
 
     public int size() {
@@ -121,10 +213,45 @@ public class Axis {
     }
 
     public int getHeight(int n) {
-        return labelHeights[n];
+        return labelHeight;
     }
 
     public int position(int n) {
         return labelPositions[n];
     }
+
+    private record Key(double min, double range, double scale, boolean invert, int numTicks, Font font, FontRenderContext frc) {
+    }
+
+    private record GlyphsKey(Font font, FontRenderContext frc) {
+    }
+
+    // advances of the characters labels are made of, measured once per font
+    private static class Glyphs {
+        private static final char FIRST = '-';
+        private static final char LAST = '9';
+        private final double[] advances;
+        private final int height;
+        private final Font font;
+        private final FontRenderContext frc;
+
+        private Glyphs(GlyphsKey key) {
+            font = key.font();
+            frc = key.frc();
+            advances = new double[LAST - FIRST + 1];
+            for (char c = FIRST; c <= LAST; c++) {
+                advances[c - FIRST] = font.getStringBounds(String.valueOf(c), frc).getWidth();
+            }
+            height = (int) font.getStringBounds("0", frc).getHeight();
+        }
+
+        private int width(String label) {
+            double width = 0.0;
+            for (int i = 0, n = label.length(); i < n; i++) {
+                char c = label.charAt(i);
+                width += c >= FIRST && c <= LAST ? advances[c - FIRST] : font.getStringBounds(String.valueOf(c), frc).getWidth();
+            }
+            return (int) width;
+        }
+    }
 }
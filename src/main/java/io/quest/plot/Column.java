@@ -34,6 +34,26 @@ public interface Column {
 
     String name();
 
+    /**
+     * @return monotonic count of values appended so far, columns that are not fed
+     * by a concurrent producer simply return their size
+     */
+    default long sequence() {
+        return size();
+    }
+
+    /**
+     * Called by the painter before it reads the column. Columns fed by a concurrent
+     * producer take a consistent copy of the values appended up to (excluding) the
+     * given sequence, which {@link #get(int)}, {@link #size()}, {@link #min()} and
+     * {@link #max()} then report on, until the next call.
+     *
+     * @param sequence upper bound, as returned by {@link #sequence()}
+     */
+    default void snapshot(long sequence) {
+        // no-op
+    }
+
     default Color color() {
         return GTk.EDITOR_KEYWORD_FOREGROUND_COLOR;
     }
@@ -0,0 +1,262 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.plot;
+
+import io.quest.sql.SQLType;
+import io.quest.sql.Table;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Bin counts over one (histogram) or two (heatmap) numeric columns of a {@link Table}.
+ * <p>
+ * Each {@link #update(boolean)} copies the rows added to the table since the previous
+ * call into primitive arrays and bins them with a fork-join pass. The binning grid is
+ * sized to the data seen so far, with headroom while rows keep arriving; when values
+ * fall outside of it the grid grows and all values are binned again. The final update
+ * fits the grid to the data. Updates must come from a single thread, readers take the
+ * published {@link Snapshot}.
+ */
+class DensityBins {
+    private static final double HEADROOM = 0.25;
+    private static final int MIN_SPLIT_SIZE = 1 << 15;
+    private static final int INITIAL_CAPACITY = 1 << 14;
+
+    private final Table table;
+    private final int xCol;
+    private final int yCol;
+    private final int xBins;
+    private final int yBins;
+    private double[] xs;
+    private double[] ys;
+    private int size;
+    private double xMin = Double.POSITIVE_INFINITY;
+    private double xMax = Double.NEGATIVE_INFINITY;
+    private double yMin = Double.POSITIVE_INFINITY;
+    private double yMax = Double.NEGATIVE_INFINITY;
+    private Grid grid;
+    private long[] counts;
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param table source of the values, may still be receiving rows
+     * @param xCol  index of the x column
+     * @param yCol  index of the y column, -1 for a histogram of x
+     * @param xBins number of bins along x
+     * @param yBins number of bins along y, ignored for a histogram
+     */
+    DensityBins(Table table, int xCol, int yCol, int xBins, int yBins) {
+        this.table = table;
+        this.xCol = xCol;
+        this.yCol = yCol;
+        this.xBins = xBins;
+        this.yBins = yCol < 0 ? 1 : yBins;
+        xs = new double[INITIAL_CAPACITY];
+        ys = yCol < 0 ? null : new double[INITIAL_CAPACITY];
+        counts = new long[this.xBins * this.yBins];
+    }
+
+    boolean isHistogram() {
+        return yCol < 0;
+    }
+
+    Table getTable() {
+        return table;
+    }
+
+    boolean isBinning(Table table, int xCol, int yCol) {
+        return this.table == table && this.xCol == xCol && this.yCol == yCol;
+    }
+
+    Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Bins the rows added to the table since the last call.
+     *
+     * @param fit true to fit the grid to the data, once no more rows are expected
+     */
+    void update(boolean fit) {
+        int from = size;
+        extractNewRows();
+        if (size == 0 || !(xMax >= xMin)) {
+            return;
+        }
+        boolean rebin = grid == null || !grid.contains(xMin, xMax, yMin, yMax);
+        if (rebin || fit) {
+            Grid newGrid = fit ? Grid.of(xMin, xMax, yMin, yMax, xBins, yBins, 0.0) : Grid.of(xMin, xMax, yMin, yMax, xBins, yBins, HEADROOM);
+            if (rebin || !newGrid.equals(grid)) {
+                grid = newGrid;
+                Arrays.fill(counts, 0L);
+                from = 0;
+            }
+        }
+        long[] delta = ForkJoinPool.commonPool().invoke(new BinningTask(
+            xs, ys, from, size, grid,
+            Math.max(MIN_SPLIT_SIZE, (size - from) / (4 * ForkJoinPool.getCommonPoolParallelism()))
+        ));
+        long max = 0L;
+        long total = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            long c = counts[i] += delta[i];
+            max = Math.max(max, c);
+            total += c;
+        }
+        snapshot = new Snapshot(counts.clone(), grid, max, total);
+    }
+
+    private void extractNewRows() {
+        int available = table.size();
+        if (available <= size) {
+            return;
+        }
+        if (available > xs.length) {
+            int capacity = Math.max(available, xs.length * 2);
+            xs = Arrays.copyOf(xs, capacity);
+            if (ys != null) {
+                ys = Arrays.copyOf(ys, capacity);
+            }
+        }
+        int xType = table.getColumnType(xCol);
+        int yType = yCol < 0 ? -1 : table.getColumnType(yCol);
+        try {
+            for (int i = size; i < available; i++) {
+                double x = SQLType.getNumericValue(table.getValueAt(i, xCol), xType);
+                xs[i] = x;
+                if (x == x) { // not NaN
+                    xMin = Math.min(xMin, x);
+                    xMax = Math.max(xMax, x);
+                }
+                if (ys != null) {
+                    double y = SQLType.getNumericValue(table.getValueAt(i, yCol), yType);
+                    ys[i] = y;
+                    if (y == y) {
+                        yMin = Math.min(yMin, y);
+                        yMax = Math.max(yMax, y);
+                    }
+                }
+                size = i + 1;
+            }
+        } catch (IndexOutOfBoundsException closed) {
+            // the table was closed, keep what was extracted
+        }
+    }
+
+    /**
+     * Binning grid, bounds are [low, high) and divided in equally wide bins.
+     */
+    record Grid(double xLow, double xHigh, int xBins, double yLow, double yHigh, int yBins) {
+
+        private static Grid of(double xMin, double xMax, double yMin, double yMax, int xBins, int yBins, double headroom) {
+            double[] x = bounds(xMin, xMax, headroom);
+            double[] y = yMax >= yMin ? bounds(yMin, yMax, headroom) : new double[]{0.0, 1.0};
+            return new Grid(x[0], x[1], xBins, y[0], y[1], yBins);
+        }
+
+        private static double[] bounds(double min, double max, double headroom) {
+            double range = Math.max(max - min, Math.abs(min) * 1e-9 + 1e-9);
+            double low = min - range * headroom;
+            double high = max + range * headroom;
+            return new double[]{low, Math.nextUp(high)}; // the max falls within the last bin
+        }
+
+        double xWidth() {
+            return (xHigh - xLow) / xBins;
+        }
+
+        double yWidth() {
+            return (yHigh - yLow) / yBins;
+        }
+
+        private boolean contains(double xMin, double xMax, double yMin, double yMax) {
+            return xMin >= xLow && xMax < xHigh && (yMax < yMin || (yMin >= yLow && yMax < yHigh));
+        }
+    }
+
+    /**
+     * Immutable view of the counts, row major along y for heatmaps.
+     */
+    record Snapshot(long[] counts, Grid grid, long maxCount, long total) {
+    }
+
+    private static class BinningTask extends RecursiveTask<long[]> {
+        private final double[] xs;
+        private final double[] ys;
+        private final int from;
+        private final int to;
+        private final Grid grid;
+        private final int xBins;
+        private final int yBins;
+        private final int splitSize;
+
+        private BinningTask(double[] xs, double[] ys, int from, int to, Grid grid, int splitSize) {
+            this.xs = xs;
+            this.ys = ys;
+            this.from = from;
+            this.to = to;
+            this.grid = grid;
+            this.xBins = grid.xBins();
+            this.yBins = grid.yBins();
+            this.splitSize = splitSize;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from <= splitSize) {
+                return count();
+            }
+            int mid = (from + to) >>> 1;
+            BinningTask left = new BinningTask(xs, ys, from, mid, grid, splitSize);
+            left.fork();
+            long[] right = new BinningTask(xs, ys, mid, to, grid, splitSize).compute();
+            long[] result = left.join();
+            for (int i = 0; i < result.length; i++) {
+                result[i] += right[i];
+            }
+            return result;
+        }
+
+        private long[] count() {
+            long[] counts = new long[xBins * yBins];
+            double xLow = grid.xLow();
+            double xWidth = grid.xWidth();
+            double yLow = grid.yLow();
+            double yWidth = grid.yWidth();
+            for (int i = from; i < to; i++) {
+                double x = xs[i];
+                if (x != x) {
+                    continue;
+                }
+                int xb = Math.min(xBins - 1, (int) ((x - xLow) / xWidth));
+                int yb = 0;
+                if (ys != null) {
+                    double y = ys[i];
+                    if (y != y) {
+                        continue;
+                    }
+                    yb = Math.min(yBins - 1, (int) ((y - yLow) / yWidth));
+                }
+                counts[yb * xBins + xb]++;
+            }
+            return counts;
+        }
+    }
+}
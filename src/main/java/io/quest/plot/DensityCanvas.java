@@ -0,0 +1,215 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.plot;
+
+import io.quest.GTk;
+import io.quest.sql.Table;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Histogram, or heatmap, of the numeric columns of a {@link Table}.
+ * <p>
+ * Bin counts are computed off the EDT by {@link DensityBins}, and updated as rows
+ * arrive. The chart is rendered into an image, which is reused by repaints until
+ * the counts, or the size of the canvas, change.
+ */
+public class DensityCanvas extends JPanel implements Closeable {
+    private static final int HISTOGRAM_BINS = 100;
+    private static final int HEATMAP_BINS = 128;
+    private static final Insets PLOT_INSETS = new Insets(20, 80, 80, 20);
+    private static final Color BAR_COLOR = GTk.EDITOR_MATCH_FOREGROUND_COLOR;
+    private static final Color BAR_BORDER_COLOR = GTk.EDITOR_MATCH_FOREGROUND_COLOR.darker();
+
+    private final ExecutorService updater;
+    private final AtomicBoolean updatePending;
+    private volatile DensityBins bins;
+    private volatile boolean fitRequested;
+    private BufferedImage image;
+    private DensityBins.Snapshot imageSnapshot;
+
+    public DensityCanvas() {
+        setOpaque(true);
+        updatePending = new AtomicBoolean();
+        updater = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            thread.setName("Density");
+            return thread;
+        });
+    }
+
+    /**
+     * Bins the columns of the table, which may still be receiving rows.
+     *
+     * @param table     source of the values
+     * @param xCol      index of the x column
+     * @param yCol      index of the y column, -1 for a histogram of x
+     * @param completed true when no more rows are expected
+     */
+    public void setDataSet(Table table, int xCol, int yCol, boolean completed) {
+        DensityBins current = bins;
+        if (current != null && current.isBinning(table, xCol, yCol)) {
+            return;
+        }
+        bins = new DensityBins(table, xCol, yCol, yCol < 0 ? HISTOGRAM_BINS : HEATMAP_BINS, HEATMAP_BINS);
+        fitRequested = false;
+        image = null;
+        imageSnapshot = null;
+        scheduleUpdate(completed);
+    }
+
+    /**
+     * Bins the rows that arrived since the last call, if the table is the one
+     * being charted.
+     *
+     * @param table     table that received rows
+     * @param completed true when no more rows are expected
+     */
+    public void onRowsAvailable(Table table, boolean completed) {
+        DensityBins current = bins;
+        if (current != null && current.getTable() == table) {
+            scheduleUpdate(completed);
+        }
+    }
+
+    private void scheduleUpdate(boolean fit) {
+        if (fit) {
+            fitRequested = true;
+        }
+        if (updatePending.compareAndSet(false, true)) {
+            updater.submit(() -> {
+                updatePending.set(false);
+                DensityBins current = bins;
+                if (current != null) {
+                    current.update(fitRequested);
+                    GTk.invokeLater(this::repaint);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void close() {
+        bins = null;
+        GTk.shutdownExecutor(updater);
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        int width = getWidth();
+        int height = getHeight();
+        DensityBins current = bins;
+        DensityBins.Snapshot snapshot = current != null ? current.getSnapshot() : null;
+        if (image == null || image.getWidth() != width || image.getHeight() != height || imageSnapshot != snapshot) {
+            if (width <= 0 || height <= 0) {
+                return;
+            }
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            imageSnapshot = snapshot;
+            Graphics2D g2 = image.createGraphics();
+            try {
+                render(g2, width, height, snapshot, current != null && current.isHistogram());
+            } finally {
+                g2.dispose();
+            }
+        }
+        g.drawImage(image, 0, 0, null);
+    }
+
+    private static void render(Graphics2D g2, int width, int height, DensityBins.Snapshot snapshot, boolean isHistogram) {
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g2.setFont(GTk.TABLE_CELL_FONT);
+        int plotHeight = height - (PLOT_INSETS.top + PLOT_INSETS.bottom);
+        int plotWidth = width - (PLOT_INSETS.left + PLOT_INSETS.right);
+        g2.setColor(GTk.QUEST_APP_BACKGROUND_COLOR);
+        g2.fillRect(0, 0, width, height);
+        g2.setColor(GTk.EDITOR_PLOT_BORDER_COLOR);
+        g2.drawRect(PLOT_INSETS.left, PLOT_INSETS.top, plotWidth, plotHeight);
+        if (snapshot == null || snapshot.total() == 0L || plotWidth <= 0 || plotHeight <= 0) {
+            return;
+        }
+        DensityBins.Grid grid = snapshot.grid();
+        long[] counts = snapshot.counts();
+        int xBins = grid.xBins();
+        int yBins = grid.yBins();
+        g2.translate(PLOT_INSETS.left, height - PLOT_INSETS.bottom);
+        if (isHistogram) {
+            double maxCount = snapshot.maxCount() * 1.07;
+            for (int b = 0; b < xBins; b++) {
+                int x0 = b * plotWidth / xBins;
+                int x1 = (b + 1) * plotWidth / xBins;
+                int h = (int) (counts[b] * plotHeight / maxCount);
+                if (h > 0) {
+                    g2.setColor(BAR_COLOR);
+                    g2.fillRect(x0, -h, Math.max(1, x1 - x0), h);
+                    g2.setColor(BAR_BORDER_COLOR);
+                    g2.drawRect(x0, -h, Math.max(1, x1 - x0), h);
+                }
+            }
+            drawAxes(g2, plotWidth, plotHeight, grid.xLow(), grid.xHigh() - grid.xLow(), 0.0, maxCount);
+        } else {
+            BufferedImage cells = new BufferedImage(xBins, yBins, BufferedImage.TYPE_INT_RGB);
+            double logMax = Math.log1p(snapshot.maxCount());
+            for (int yb = 0; yb < yBins; yb++) {
+                for (int xb = 0; xb < xBins; xb++) {
+                    long c = counts[yb * xBins + xb];
+                    int rgb = 0;
+                    if (c > 0L) {
+                        float intensity = (float) (Math.log1p(c) / logMax);
+                        rgb = Color.HSBtoRGB(0.66F * (1.0F - intensity), 1.0F, 0.35F + 0.65F * intensity);
+                    }
+                    cells.setRGB(xb, yBins - 1 - yb, rgb);
+                }
+            }
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            g2.drawImage(cells, 0, -plotHeight, plotWidth, plotHeight, null);
+            drawAxes(g2, plotWidth, plotHeight, grid.xLow(), grid.xHigh() - grid.xLow(), grid.yLow(), grid.yHigh() - grid.yLow());
+        }
+        g2.setColor(GTk.EDITOR_MENU_FOREGROUND_COLOR);
+        StringBuilder title = new StringBuilder(64).append(isHistogram ? "histogram" : "heatmap").append(", values: ").append(snapshot.total());
+        g2.drawString(title.toString(), 0, Math.round(PLOT_INSETS.bottom * 3 / 4.0F));
+    }
+
+    private static void drawAxes(Graphics2D g2, int plotWidth, int plotHeight, double minX, double rangeX, double minY, double rangeY) {
+        Axis x = Axis.forX(g2, minX, rangeX, plotWidth / rangeX);
+        Axis y = Axis.forY(g2, minY, rangeY, plotHeight / rangeY);
+        g2.setColor(GTk.EDITOR_PLOT_BORDER_COLOR);
+        if (x != null) {
+            int verticalPos = Axis.TICK_LENGTH + x.getHeight(0);
+            for (int i = 0, n = x.size(); i < n; i++) {
+                int pos = x.position(i);
+                g2.drawLine(pos, 0, pos, Axis.TICK_LENGTH);
+                g2.drawString(x.label(i), pos - x.width(i) / 2, verticalPos);
+            }
+        }
+        if (y != null) {
+            for (int i = 0, n = y.size(); i < n; i++) {
+                int pos = y.position(i);
+                g2.drawLine(0, pos, -Axis.TICK_LENGTH, pos);
+                g2.drawString(y.label(i), -(y.width(i) + Axis.TICK_LENGTH + 2), pos + y.getHeight(i) / 2 - 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.plot;
+
+import io.quest.EventProducer;
+import io.quest.GTk;
+import io.quest.conns.Conn;
+import io.quest.sql.SQLExecutionRequest;
+import io.quest.sql.SQLExecutionResponse;
+import io.quest.sql.SQLExecutor;
+import io.quest.sql.SQLType;
+import io.quest.sql.Table;
+import io.questdb.log.Log;
+import io.questdb.log.LogFactory;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Fetches a time series at a resolution matched to the visible range and the width
+ * of the plot in pixels, by wrapping the source query with an aggregation by time
+ * bucket. The x column must be a timestamp, values are epoch millis as per
+ * {@link TableColumn}.
+ * <p>
+ * Bucket sizes are powers of two millis, one zoom level each. Each level is split in
+ * tiles of {@link #TILE_BUCKETS} buckets, fetched once and cached, so that panning
+ * back, or zooming back to a level, costs nothing. Only missing tiles are fetched, in
+ * a single query which cancels any fetch still in flight. Tiles are laid on a grid
+ * anchored at the epoch, and buckets are computed relative to the first tile fetched,
+ * rather than with {@code SAMPLE BY}, whose calendar alignment does not fall on that
+ * grid for buckets that do not divide a day.
+ */
+class LevelOfDetail {
+    private static final Log LOG = LogFactory.getLog(LevelOfDetail.class);
+    private static final String SOURCE_ID = "plot-level-of-detail";
+    private static final int TILE_BUCKETS = 512;
+    private static final int MAX_CACHED_TILES = 256;
+    private static final Tile EMPTY_TILE = new Tile(new double[0], new double[0]);
+
+    private final SQLExecutor executor;
+    private final Conn conn;
+    private final String sourceQuery;
+    private final String xName;
+    private final String yName;
+    private final Color yColor;
+    private final Map<Long, Tile> tiles;
+    private long generation;
+    private SQLExecutionRequest inFlight;
+
+    LevelOfDetail(SQLExecutor executor, SQLExecutionRequest source, String xName, String yName, Color yColor) {
+        this.executor = executor;
+        this.conn = source.getConnection();
+        this.xName = xName;
+        this.yName = yName;
+        this.yColor = yColor;
+        String query = source.getSqlCommand().trim();
+        while (query.endsWith(";")) {
+            query = query.substring(0, query.length() - 1).trim();
+        }
+        sourceQuery = query;
+        tiles = new LinkedHashMap<>(64, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Tile> eldest) {
+                return size() > MAX_CACHED_TILES;
+            }
+        };
+    }
+
+    private static long tileKey(int level, long tileIdx) {
+        return tileIdx * Long.SIZE + level;
+    }
+
+    private static String quote(String name) {
+        return '"' + name.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Delivers, on the EDT, x and y columns covering [minX, maxX] at about one point
+     * per pixel. Must be called from the EDT. Only the latest call is answered. When
+     * the fetch fails, the tiles that were cached are delivered, leaving gaps, along
+     * with the error.
+     *
+     * @param minX     lower bound of the visible range, epoch millis
+     * @param maxX     upper bound of the visible range, epoch millis
+     * @param pixels   width of the plot area
+     * @param consumer receives the x and y columns
+     */
+    void fetch(double minX, double maxX, int pixels, Consumer consumer) {
+        long requested = ++generation;
+        Plan plan = plan(minX, maxX, pixels);
+        long firstMissing = Long.MAX_VALUE;
+        long lastMissing = Long.MIN_VALUE;
+        for (long t = plan.firstTile; t <= plan.lastTile; t++) {
+            if (!tiles.containsKey(tileKey(plan.level, t))) {
+                firstMissing = Math.min(firstMissing, t);
+                lastMissing = Math.max(lastMissing, t);
+            }
+        }
+        if (inFlight != null) {
+            executor.cancelExistingRequest(inFlight);
+            inFlight = null;
+        }
+        if (firstMissing == Long.MAX_VALUE) {
+            deliver(plan, null, consumer);
+            return;
+        }
+        long missingFrom = firstMissing;
+        long missingTo = lastMissing;
+        SQLExecutionRequest req = new SQLExecutionRequest(SOURCE_ID, conn, query(
+            missingFrom * plan.tileSpan, (missingTo + 1) * plan.tileSpan, plan.bucketMillis));
+        inFlight = req;
+        executor.submit(req, (source, event, res) -> {
+            switch ((SQLExecutor.EventType) EventProducer.eventType(event)) {
+                case COMPLETED -> GTk.invokeLater(() -> {
+                    storeTiles(res.getTable(), plan, missingFrom, missingTo);
+                    if (requested == generation) {
+                        inFlight = null;
+                        deliver(plan, null, consumer);
+                    }
+                });
+                case FAILURE -> {
+                    String error = res.getError().getMessage();
+                    LOG.error().$("Fetch failed [level=").$(plan.level).$(", e=").$(error).I$();
+                    res.getTable().close();
+                    GTk.invokeLater(() -> {
+                        if (requested == generation) {
+                            inFlight = null;
+                            deliver(plan, error, consumer);
+                        }
+                    });
+                }
+                case CANCELLED -> res.getTable().close();
+                default -> {
+                    // wait for completion
+                }
+            }
+        });
+    }
+
+    /**
+     * @param minX   lower bound of the visible range, epoch millis
+     * @param maxX   upper bound of the visible range, epoch millis
+     * @param pixels width of the plot area
+     * @return the zoom level and the tiles covering the range
+     */
+    static Plan plan(double minX, double maxX, int pixels) {
+        long from = (long) Math.floor(minX);
+        long to = (long) Math.ceil(maxX);
+        long bucketMillis = Long.highestOneBit(Math.max(1L, (to - from) / Math.max(1, pixels)));
+        long tileSpan = bucketMillis * TILE_BUCKETS;
+        return new Plan(
+            Long.numberOfTrailingZeros(bucketMillis),
+            bucketMillis,
+            tileSpan,
+            Math.floorDiv(from, tileSpan),
+            Math.floorDiv(to, tileSpan));
+    }
+
+    /**
+     * @param fetchFrom    start of the first tile, epoch millis, inclusive
+     * @param fetchTo      end of the last tile, epoch millis, exclusive
+     * @param bucketMillis bucket size
+     * @return the source query aggregated by bucket, each bucket starting at
+     * fetchFrom plus a multiple of bucketMillis, and thus on the tile grid
+     */
+    String query(long fetchFrom, long fetchTo, long bucketMillis) {
+        long fromMicros = fetchFrom * 1000L;
+        long bucketMicros = bucketMillis * 1000L;
+        return String.format(
+            "SELECT CAST(%4$d + (CAST(%1$s AS LONG) - %4$d) / %6$d * %6$d AS TIMESTAMP) %1$s, avg(%2$s) %2$s" +
+                " FROM (%3$s) WHERE %1$s >= CAST(%4$d AS TIMESTAMP) AND %1$s < CAST(%5$d AS TIMESTAMP) ORDER BY %1$s",
+            quote(xName), quote(yName), sourceQuery, fromMicros, fetchTo * 1000L, bucketMicros);
+    }
+
+    private void storeTiles(Table table, Plan plan, long firstTile, long lastTile) {
+        int size = table.size();
+        int xType = table.getColumnType(1);
+        int yType = table.getColumnType(2);
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        int n = 0;
+        for (int row = 0; row < size; row++) {
+            Object y = table.getValueAt(row, 2);
+            if (y != null) { // empty buckets
+                xs[n] = SQLType.getNumericValue(table.getValueAt(row, 1), xType);
+                ys[n] = SQLType.getNumericValue(y, yType);
+                n++;
+            }
+        }
+        table.close();
+        storeTiles(xs, ys, n, plan, firstTile, lastTile);
+    }
+
+    /**
+     * Splits the points, sorted by x, into the tiles they belong to.
+     */
+    void storeTiles(double[] xs, double[] ys, int n, Plan plan, long firstTile, long lastTile) {
+        int idx = 0;
+        while (idx < n && xs[idx] < firstTile * plan.tileSpan) {
+            idx++;
+        }
+        for (long t = firstTile; t <= lastTile; t++) {
+            long tileEnd = (t + 1) * plan.tileSpan;
+            int start = idx;
+            while (idx < n && xs[idx] < tileEnd) {
+                idx++;
+            }
+            tiles.put(tileKey(plan.level, t), idx > start ?
+                new Tile(Arrays.copyOfRange(xs, start, idx), Arrays.copyOfRange(ys, start, idx))
+                :
+                EMPTY_TILE);
+        }
+    }
+
+    void deliver(Plan plan, String error, Consumer consumer) {
+        BasicColumn x = new BasicColumn(xName, Color.WHITE);
+        BasicColumn y = new BasicColumn(yName, yColor);
+        for (long t = plan.firstTile; t <= plan.lastTile; t++) {
+            Tile tile = tiles.get(tileKey(plan.level, t));
+            if (tile != null) { // missing when the fetch failed
+                for (int i = 0; i < tile.xs.length; i++) {
+                    x.append(tile.xs[i]);
+                    y.append(tile.ys[i]);
+                }
+            }
+        }
+        consumer.accept(x, y, error);
+    }
+
+    @FunctionalInterface
+    interface Consumer {
+        /**
+         * @param x     x column
+         * @param y     y column
+         * @param error why tiles are missing, null if none are
+         */
+        void accept(Column x, Column y, String error);
+    }
+
+    /**
+     * Zoom level, and range of tiles of the level, covering a visible range.
+     */
+    record Plan(int level, long bucketMillis, long tileSpan, long firstTile, long lastTile) {
+    }
+
+    private static class Tile {
+        private final double[] xs;
+        private final double[] ys;
+
+        private Tile(double[] xs, double[] ys) {
+            this.xs = xs;
+            this.ys = ys;
+        }
+    }
+}
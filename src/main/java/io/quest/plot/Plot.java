@@ -19,26 +19,182 @@ package io.quest.plot;
 import io.quest.EventConsumer;
 import io.quest.EventProducer;
 import io.quest.GTk;
+import io.quest.sql.SQLExecutionRequest;
+import io.quest.sql.SQLExecutor;
+import io.quest.sql.Table;
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.Closeable;
 
-public class Plot extends JDialog implements EventProducer<Plot.EventType> {
+public class Plot extends JDialog implements EventProducer<Plot.EventType>, Closeable {
 
+    private static final String LINES_CARD = "lines";
+    private static final String DENSITY_CARD = "density";
     private final PlotCanvas canvas;
+    private final DensityCanvas densityCanvas;
+    private final JComboBox<ChartType> chartTypes;
+    private final CardLayout cards;
+    private final JPanel cardsPanel;
+    private final SQLExecutor lodExecutor; // not to queue behind, or hold up, the user's queries
+    private Column x;
+    private Column y;
+    private LevelOfDetail levelOfDetail;
+    private Table densityTable;
+    private int densityXCol;
+    private int densityYCol;
+    private boolean densityCompleted;
 
     public Plot(Frame owner, String title, EventConsumer<Plot, Object> eventConsumer) {
         super(owner, title);
+        lodExecutor = new SQLExecutor();
+        lodExecutor.start();
         GTk.configureDialog(this, 0.78F, 0.66F, () -> eventConsumer.onSourceEvent(Plot.this, EventType.HIDE_REQUEST, null));
+        canvas = new PlotCanvas();
+        canvas.setEventConsumer(this::onRangeChanged);
+        densityCanvas = new DensityCanvas();
+        cards = new CardLayout();
+        cardsPanel = new JPanel(cards);
+        cardsPanel.add(canvas, LINES_CARD);
+        cardsPanel.add(densityCanvas, DENSITY_CARD);
+        chartTypes = new JComboBox<>();
+        chartTypes.setFont(GTk.MENU_FONT);
+        chartTypes.setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
+        chartTypes.setForeground(GTk.EDITOR_MENU_FOREGROUND_COLOR);
+        chartTypes.setEditable(false);
+        chartTypes.addActionListener(e -> onChartTypeSelected());
         Container contentPane = getContentPane();
         contentPane.setLayout(new BorderLayout());
-        contentPane.add(BorderLayout.CENTER, canvas = new PlotCanvas());
+        contentPane.add(BorderLayout.NORTH, GTk.flowPanel(chartTypes));
+        contentPane.add(BorderLayout.CENTER, cardsPanel);
     }
 
     public void setDataSet(Column x, Column y) {
+        this.x = x;
+        this.y = y;
+        levelOfDetail = null;
+        densityTable = null;
+        canvas.resetView();
         canvas.setDataSet(null, x, y);
+        refreshChartTypes();
     }
 
+    /**
+     * As {@link #setDataSet(Column, Column)}, for a time series produced by the source
+     * request. Zooming and panning fetch the visible range by wrapping the source
+     * query in one that averages y over buckets of x, a power of two millis wide and
+     * about a pixel each, filtered to the range and ordered by x, see
+     * {@link LevelOfDetail}.
+     *
+     * @param x      timestamp column, epoch millis
+     * @param y      numeric column
+     * @param source request that produced the columns
+     * @param xName  name of the designated timestamp column in the source query
+     * @param yName  name of the value column in the source query
+     */
+    public void setDataSet(Column x, Column y, SQLExecutionRequest source, String xName, String yName) {
+        setDataSet(x, y);
+        levelOfDetail = new LevelOfDetail(lodExecutor, source, xName, yName, y.color());
+    }
+
+    /**
+     * Makes histograms of the y column, and heatmaps of the x and y columns, of the
+     * table available as chart types. With no y column the table can only be charted
+     * as a histogram of x, and any data set previously set is dropped.
+     *
+     * @param table     source of the values, may still be receiving rows
+     * @param xCol      index of the x column
+     * @param yCol      index of the y column, -1 if there is none
+     * @param completed true when no more rows are expected
+     */
+    public void setDensityDataSet(Table table, int xCol, int yCol, boolean completed) {
+        if (yCol < 0) {
+            x = null;
+            y = null;
+            levelOfDetail = null;
+        }
+        densityTable = table;
+        densityXCol = xCol;
+        densityYCol = yCol;
+        densityCompleted = completed;
+        refreshChartTypes();
+    }
+
+    /**
+     * Updates the histogram, or heatmap, being shown if it charts the table.
+     *
+     * @param table     table that received rows
+     * @param completed true when no more rows are expected
+     */
+    public void onRowsAvailable(Table table, boolean completed) {
+        if (table == densityTable) {
+            densityCompleted = completed;
+        }
+        densityCanvas.onRowsAvailable(table, completed);
+    }
+
+    @Override
+    public void close() {
+        densityCanvas.close();
+        lodExecutor.close();
+    }
+
+    private void refreshChartTypes() {
+        chartTypes.removeAllItems();
+        if (x != null) {
+            chartTypes.addItem(ChartType.LINES);
+        }
+        if (densityTable != null) {
+            chartTypes.addItem(ChartType.HISTOGRAM);
+            if (densityYCol >= 0) {
+                chartTypes.addItem(ChartType.HEATMAP);
+            }
+        }
+        if (chartTypes.getItemCount() > 0) {
+            chartTypes.setSelectedIndex(0);
+        }
+    }
+
+    private void onChartTypeSelected() {
+        ChartType type = (ChartType) chartTypes.getSelectedItem();
+        if (type == null) {
+            return;
+        }
+        switch (type) {
+            case LINES -> cards.show(cardsPanel, LINES_CARD);
+            case HISTOGRAM -> {
+                densityCanvas.setDataSet(densityTable, densityYCol >= 0 ? densityYCol : densityXCol, -1, densityCompleted);
+                cards.show(cardsPanel, DENSITY_CARD);
+            }
+            case HEATMAP -> {
+                densityCanvas.setDataSet(densityTable, densityXCol, densityYCol, densityCompleted);
+                cards.show(cardsPanel, DENSITY_CARD);
+            }
+        }
+    }
+
+    private void onRangeChanged(PlotCanvas source, Enum<?> event, double[] range) {
+        if (levelOfDetail == null) {
+            canvas.repaint();
+            return;
+        }
+        if (Double.isNaN(range[0])) {
+            canvas.setDataSet(null, x, y);
+            canvas.repaint();
+            return;
+        }
+        LevelOfDetail lod = levelOfDetail;
+        lod.fetch(range[0], range[1], canvas.getPlotWidth(), (lodX, lodY, error) -> {
+            if (lod == levelOfDetail && canvas.isZoomed()) {
+                canvas.setDataSet(error != null ? "Level of detail fetch failed: " + error : null, lodX, lodY);
+                canvas.repaint();
+            }
+        });
+    }
+
+    public enum ChartType {
+        LINES, HISTOGRAM, HEATMAP
+    }
 
     public enum EventType {
         HIDE_REQUEST // Request to hide the metadata files explorer
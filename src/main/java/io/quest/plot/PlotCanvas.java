@@ -16,41 +16,155 @@
 
 package io.quest.plot;
 
-import io.quest.GTk;
+import io.quest.EventConsumer;
+import io.quest.EventProducer;
+import io.quest.NoopMouseListener;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.geom.Ellipse2D;
-import java.awt.geom.GeneralPath;
-import java.awt.geom.Rectangle2D;
-
-
-public class PlotCanvas extends JPanel {
-    private static final float[] DASHED_LINE = new float[]{1, 8};
-    private static final int INSET_TOP = 20;
-    private static final int INSET_BOTTOM = 80;
-    private static final int INSET_LEFT = 80;
-    private static final int INSET_RIGHT = 20;
-    private static final Insets PLOT_INSETS = new Insets(INSET_TOP, INSET_LEFT, INSET_BOTTOM, INSET_RIGHT);
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
+import java.awt.geom.AffineTransform;
+
+
+/**
+ * XY plot. The wheel zooms around the mouse pointer, dragging pans, shift-dragging
+ * brushes a range to zoom into, and a double click restores the full range. Changes
+ * of the visible range are notified, debounced, as {@link EventType#RANGE_CHANGED}
+ * events carrying {min, max} of the x range.
+ */
+public class PlotCanvas extends JPanel implements EventProducer<PlotCanvas.EventType>, NoopMouseListener, MouseWheelListener {
+    private static final Insets PLOT_INSETS = PlotPainter.PLOT_INSETS;
+    private static final double ZOOM_FACTOR = 1.25;
+    private static final int RANGE_CHANGED_DELAY_MILLIS = 150;
+    private static final Color BRUSH_COLOR = new Color(250, 255, 116, 48);
     public Column[] columns;
-    private BasicStroke dashedStroke;
-    private String title;
+    private final PlotPainter painter = new PlotPainter();
+    private final Timer rangeChangedTimer;
+    private EventConsumer<PlotCanvas, double[]> eventConsumer;
+    // visible x range, NaN when it follows the data
+    private double viewMinX = Double.NaN;
+    private double viewMaxX = Double.NaN;
+    private int dragStartX = -1;
+    private int dragLastX = -1;
+    private boolean brushing;
 
     public PlotCanvas() {
         setOpaque(true);
+        rangeChangedTimer = new Timer(RANGE_CHANGED_DELAY_MILLIS, e -> fireRangeChanged());
+        rangeChangedTimer.setRepeats(false);
+        addMouseListener(this);
+        addMouseMotionListener(this);
+        addMouseWheelListener(this);
+    }
+
+    public void setEventConsumer(EventConsumer<PlotCanvas, double[]> eventConsumer) {
+        this.eventConsumer = eventConsumer;
+    }
+
+    public void setDataSet(String title, Column... columns) {
+        painter.setDataSet(title, columns);
+        this.columns = columns;
+    }
+
+    public boolean isZoomed() {
+        return !Double.isNaN(viewMinX);
+    }
+
+    public void resetView() {
+        viewMinX = Double.NaN;
+        viewMaxX = Double.NaN;
+        rangeChangedTimer.stop();
     }
 
-    public synchronized void setDataSet(String title, Column... columns) {
-        if (columns == null || columns.length != 2) {
-            throw new IllegalArgumentException("two columns are required");
+    public void setView(double minX, double maxX) {
+        if (minX < maxX) {
+            viewMinX = minX;
+            viewMaxX = maxX;
+            rangeChangedTimer.restart();
+            repaint();
         }
-        for (int i = 1; i < columns.length; i++) {
-            if (columns[0].size() != columns[i].size()) {
-                throw new IllegalArgumentException("sizes must match and be greater than zero, at index " + i);
-            }
+    }
+
+    public int getPlotWidth() {
+        return getWidth() - (PLOT_INSETS.left + PLOT_INSETS.right);
+    }
+
+    @Override
+    public void mouseWheelMoved(MouseWheelEvent e) {
+        if (columns == null || painter.getPaintedScaleX() <= 0.0) {
+            return;
+        }
+        double factor = Math.pow(ZOOM_FACTOR, e.getPreciseWheelRotation());
+        double pivot = toDataX(e.getX());
+        double minX = currentMinX();
+        double maxX = currentMaxX();
+        setView(pivot - (pivot - minX) * factor, pivot + (maxX - pivot) * factor);
+    }
+
+    @Override
+    public void mousePressed(MouseEvent e) {
+        if (SwingUtilities.isLeftMouseButton(e)) {
+            dragStartX = e.getX();
+            dragLastX = dragStartX;
+            brushing = e.isShiftDown();
+        }
+    }
+
+    @Override
+    public void mouseDragged(MouseEvent e) {
+        if (dragStartX < 0 || painter.getPaintedScaleX() <= 0.0) {
+            return;
+        }
+        if (brushing) {
+            dragLastX = e.getX();
+            repaint();
+        } else {
+            double delta = (dragLastX - e.getX()) / painter.getPaintedScaleX();
+            dragLastX = e.getX();
+            setView(currentMinX() + delta, currentMaxX() + delta);
+        }
+    }
+
+    @Override
+    public void mouseReleased(MouseEvent e) {
+        if (brushing && dragStartX >= 0 && Math.abs(e.getX() - dragStartX) > 2) {
+            double a = toDataX(dragStartX);
+            double b = toDataX(e.getX());
+            setView(Math.min(a, b), Math.max(a, b));
+        }
+        dragStartX = -1;
+        dragLastX = -1;
+        brushing = false;
+        repaint();
+    }
+
+    @Override
+    public void mouseClicked(MouseEvent e) {
+        if (e.getClickCount() == 2 && isZoomed()) {
+            resetView();
+            fireRangeChanged();
+            repaint();
+        }
+    }
+
+    private double toDataX(int mouseX) {
+        return painter.getPaintedMinX() + (mouseX - PLOT_INSETS.left) / painter.getPaintedScaleX();
+    }
+
+    private double currentMinX() {
+        return isZoomed() ? viewMinX : painter.getPaintedMinX();
+    }
+
+    private double currentMaxX() {
+        return isZoomed() ? viewMaxX : painter.getPaintedMinX() + getPlotWidth() / painter.getPaintedScaleX();
+    }
+
+    private void fireRangeChanged() {
+        if (eventConsumer != null) {
+            eventConsumer.onSourceEvent(this, EventType.RANGE_CHANGED, new double[]{viewMinX, viewMaxX});
         }
-        this.title = title;
-        this.columns = columns;
     }
 
     @Override
@@ -59,123 +173,21 @@ public class PlotCanvas extends JPanel {
         g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
         g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
         super.paintComponent(g2);
-
-        int height = getHeight();
-        int width = getWidth();
-        int plotHeight = height - (PLOT_INSETS.top + PLOT_INSETS.bottom);
-        int plotWidth = width - (PLOT_INSETS.left + PLOT_INSETS.right);
-
-        // Fill background and draw border around plot area.
-        g2.setColor(GTk.QUEST_APP_BACKGROUND_COLOR);
-        g2.fillRect(0, 0, width, height);
-        g2.setColor(GTk.EDITOR_PLOT_BORDER_COLOR);
-        g2.drawRect(PLOT_INSETS.left, PLOT_INSETS.top, plotWidth, plotHeight);
-
-        // draw curve
-        if (null != columns) {
-            // Shift coordinate centre to bottom-left corner of the internal rectangle.
-            g2.translate(PLOT_INSETS.left, height - PLOT_INSETS.bottom);
-
-            double minX;
-            double maxX;
-            double minY;
-            double maxY;
-            synchronized (this) {
-                minX = columns[0].min();
-                maxX = columns[0].max();
-                minY = columns[1].min();
-                maxY = columns[1].max();
-            }
-            double deltaX = Math.abs(maxX - minX) * 0.005F;
-            double deltaY = Math.abs(maxY - minY) * 0.07F;
-            minX -= deltaX;
-            maxX += deltaX;
-            minY -= deltaY;
-            maxY += deltaY;
-            double rangeX = maxX - minX;
-            double rangeY = maxY - minY;
-            double scaleX = plotWidth / rangeX;
-            double scaleY = plotHeight / rangeY;
-            double pointSizeFactor = 1.2;
-            double xTick = pointSizeFactor / scaleX;
-            double yTick = pointSizeFactor / scaleY;
-            double xPointWidth = xTick * 2.0F;
-            double yPointWidth = yTick * 2.0F;
-            Axis x = Axis.forX(g2, minX, rangeX, scaleX);
-            Axis y = Axis.forY(g2, minY, rangeY, scaleY);
-            if (x == null || y == null) {
-                return;
-            }
-
-            // Draw Zero line
-            int yPositionOfZero = y.getYPositionOfZeroLabel();
-            g2.drawLine(0, yPositionOfZero, plotWidth, yPositionOfZero);
-
-            // Draw ticks and their labels
-            int verticalPos = Axis.TICK_LENGTH + x.getHeight(0);
-            BasicStroke stroke = (BasicStroke) g2.getStroke();
-            if (dashedStroke == null) {
-                dashedStroke = new BasicStroke(stroke.getLineWidth(), stroke.getEndCap(), stroke.getLineJoin(), stroke.getMiterLimit(), DASHED_LINE, 0);
-            }
-            for (int i = 0, n = x.size(); i < n; i++) {
-                int pos = x.position(i);
-                g2.setColor(GTk.EDITOR_PLOT_BORDER_COLOR);
-                g2.drawLine(pos, 0, pos, Axis.TICK_LENGTH);
-                g2.drawString(x.label(i), pos - x.width(i) / 2, verticalPos);
-                g2.setColor(GTk.EDITOR_LINENO_COLOR);
-                g2.setStroke(dashedStroke);
-                g2.drawLine(pos, 0, pos, -plotHeight);
-                g2.setStroke(stroke);
-            }
-            for (int i = 0, n = y.size(); i < n; i++) {
-                int pos = y.position(i);
-                g2.setColor(GTk.EDITOR_PLOT_BORDER_COLOR);
-                g2.drawLine(0, pos, -Axis.TICK_LENGTH, pos);
-                g2.drawString(y.label(i), -(y.width(i) + Axis.TICK_LENGTH + 2), pos + y.getHeight(i) / 2 - 2);
-                if (i == 0 || i == n - 1 || y.isZero(i)) {
-                    continue;
-                }
-                g2.setColor(GTk.EDITOR_LINENO_COLOR);
-                g2.setStroke(dashedStroke);
-                g2.drawLine(0, pos, plotWidth, pos);
-                g2.setStroke(stroke);
-            }
-
-            // Draw title and ranges
-            g2.setColor(GTk.EDITOR_MENU_FOREGROUND_COLOR);
-            g2.drawString(String.format("%s x:[%s, %s], y:[%s, %s]", title != null ? title : "", Axis.fmtX(minX), Axis.fmtX(maxX), Axis.fmtY(minY), Axis.fmtY(maxY)), 0, Math.round(INSET_BOTTOM * 3 / 4.0F));
-
-            // Scale the coordinate system to match plot coordinates
-            g2.scale(scaleX, -scaleY);
-            g2.translate(-1.0F * minX, -1.0F * minY);
-
-            // Draw only within plotting area
-            g2.setClip(new Rectangle2D.Double(minX, minY, rangeX, rangeY));
-
-            // Set stroke for curve
-            g2.setStroke(new BasicStroke((float) Math.abs(1.0F / (100.0F * Math.max(scaleX, scaleY)))));
-            g2.setColor(columns[1].color());
-
-            GeneralPath path = null;
-            synchronized (this) {
-                int n = columns[1].size();
-                if (n > 0) {
-                    path = new GeneralPath(GeneralPath.WIND_NON_ZERO, n);
-                    double px = columns[0].get(0);
-                    double py = columns[1].get(0);
-                    path.moveTo(px, py);
-                    g2.fill(new Ellipse2D.Double(px - xTick, py - yTick, xPointWidth, yPointWidth));
-                    for (int i = 1; i < n; i++) {
-                        px = columns[0].get(i);
-                        py = columns[1].get(i);
-                        path.lineTo(px, py);
-                        g2.fill(new Ellipse2D.Double(px - xTick, py - yTick, xPointWidth, yPointWidth));
-                    }
-                }
-            }
-            if (path != null) {
-                g2.draw(path);
-            }
+        AffineTransform transform = g2.getTransform();
+        Shape clip = g2.getClip();
+        painter.paint(g2, getWidth(), getHeight(), viewMinX, viewMaxX);
+
+        // Draw the brushed range, in device coordinates
+        if (brushing && dragStartX >= 0) {
+            g2.setTransform(transform);
+            g2.setClip(clip);
+            g2.setColor(BRUSH_COLOR);
+            int plotHeight = getHeight() - (PLOT_INSETS.top + PLOT_INSETS.bottom);
+            g2.fillRect(Math.min(dragStartX, dragLastX), PLOT_INSETS.top, Math.abs(dragLastX - dragStartX), plotHeight);
         }
     }
+
+    public enum EventType {
+        RANGE_CHANGED // the visible x range changed, {NaN, NaN} when reset to the full range
+    }
 }
@@ -0,0 +1,227 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.plot;
+
+import io.quest.GTk;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
+
+
+/**
+ * Draws an XY plot into any graphics context. It is not a component, so it can be
+ * created and used off the EDT, which is how {@link PlotRenderer} draws headless,
+ * while {@link PlotCanvas} paints through one on screen.
+ */
+class PlotPainter {
+    static final int INSET_TOP = 20;
+    static final int INSET_BOTTOM = 80;
+    static final int INSET_LEFT = 80;
+    static final int INSET_RIGHT = 20;
+    static final Insets PLOT_INSETS = new Insets(INSET_TOP, INSET_LEFT, INSET_BOTTOM, INSET_RIGHT);
+    static final double X_PADDING = 0.005;
+    static final double Y_PADDING = 0.07;
+    private static final float[] DASHED_LINE = new float[]{1, 8};
+    private final StringBuilder titleSink = new StringBuilder(128);
+    private BasicStroke dashedStroke;
+    private String title;
+    private Column[] columns;
+    // as last painted, to translate mouse positions
+    private double paintedMinX;
+    private double paintedScaleX;
+
+    /**
+     * @return the font a plot component draws with, that of the look and feel's panels
+     */
+    static Font defaultFont() {
+        return UIManager.getFont("Panel.font");
+    }
+
+    synchronized void setDataSet(String title, Column... columns) {
+        if (columns == null || columns.length != 2) {
+            throw new IllegalArgumentException("two columns are required");
+        }
+        for (int i = 1; i < columns.length; i++) {
+            if (columns[0].size() != columns[i].size()) {
+                throw new IllegalArgumentException("sizes must match and be greater than zero, at index " + i);
+            }
+        }
+        this.title = title;
+        this.columns = columns;
+    }
+
+    boolean hasDataSet() {
+        return columns != null;
+    }
+
+    double getPaintedMinX() {
+        return paintedMinX;
+    }
+
+    double getPaintedScaleX() {
+        return paintedScaleX;
+    }
+
+    /**
+     * Paints the plot.
+     *
+     * @param g2       graphics context, left transformed and clipped to the plot area
+     * @param width    width of the drawing area
+     * @param height   height of the drawing area
+     * @param viewMinX lower end of the visible x range, NaN to follow the data
+     * @param viewMaxX upper end of the visible x range, NaN to follow the data
+     */
+    void paint(Graphics2D g2, int width, int height, double viewMinX, double viewMaxX) {
+        int plotHeight = height - (PLOT_INSETS.top + PLOT_INSETS.bottom);
+        int plotWidth = width - (PLOT_INSETS.left + PLOT_INSETS.right);
+
+        // Fill background and draw border around plot area.
+        g2.setColor(GTk.QUEST_APP_BACKGROUND_COLOR);
+        g2.fillRect(0, 0, width, height);
+        g2.setColor(GTk.EDITOR_PLOT_BORDER_COLOR);
+        g2.drawRect(PLOT_INSETS.left, PLOT_INSETS.top, plotWidth, plotHeight);
+
+        // draw curve
+        if (null != columns) {
+            // Shift coordinate centre to bottom-left corner of the internal rectangle.
+            g2.translate(PLOT_INSETS.left, height - PLOT_INSETS.bottom);
+
+            double minX;
+            double maxX;
+            double minY;
+            double maxY;
+            synchronized (this) {
+                long sequence = Math.min(columns[0].sequence(), columns[1].sequence());
+                columns[0].snapshot(sequence);
+                columns[1].snapshot(sequence);
+                minX = columns[0].min();
+                maxX = columns[0].max();
+                minY = columns[1].min();
+                maxY = columns[1].max();
+            }
+            if (!Double.isNaN(viewMinX)) {
+                minX = viewMinX;
+                maxX = viewMaxX;
+            } else {
+                double deltaX = Math.abs(maxX - minX) * X_PADDING;
+                minX -= deltaX;
+                maxX += deltaX;
+            }
+            double deltaY = Math.abs(maxY - minY) * Y_PADDING;
+            minY -= deltaY;
+            maxY += deltaY;
+            double rangeX = maxX - minX;
+            double rangeY = maxY - minY;
+            double scaleX = plotWidth / rangeX;
+            double scaleY = plotHeight / rangeY;
+            paintedMinX = minX;
+            paintedScaleX = scaleX;
+            double pointSizeFactor = 1.2;
+            double xTick = pointSizeFactor / scaleX;
+            double yTick = pointSizeFactor / scaleY;
+            double xPointWidth = xTick * 2.0F;
+            double yPointWidth = yTick * 2.0F;
+            Axis x = Axis.forX(g2, minX, rangeX, scaleX);
+            Axis y = Axis.forY(g2, minY, rangeY, scaleY);
+            if (x == null || y == null) {
+                return;
+            }
+
+            // Draw Zero line
+            int yPositionOfZero = y.getYPositionOfZeroLabel();
+            g2.drawLine(0, yPositionOfZero, plotWidth, yPositionOfZero);
+
+            // Draw ticks and their labels
+            int verticalPos = Axis.TICK_LENGTH + x.getHeight(0);
+            BasicStroke stroke = (BasicStroke) g2.getStroke();
+            if (dashedStroke == null) {
+                dashedStroke = new BasicStroke(stroke.getLineWidth(), stroke.getEndCap(), stroke.getLineJoin(), stroke.getMiterLimit(), DASHED_LINE, 0);
+            }
+            for (int i = 0, n = x.size(); i < n; i++) {
+                int pos = x.position(i);
+                g2.setColor(GTk.EDITOR_PLOT_BORDER_COLOR);
+                g2.drawLine(pos, 0, pos, Axis.TICK_LENGTH);
+                g2.drawString(x.label(i), pos - x.width(i) / 2, verticalPos);
+                g2.setColor(GTk.EDITOR_LINENO_COLOR);
+                g2.setStroke(dashedStroke);
+                g2.drawLine(pos, 0, pos, -plotHeight);
+                g2.setStroke(stroke);
+            }
+            for (int i = 0, n = y.size(); i < n; i++) {
+                int pos = y.position(i);
+                g2.setColor(GTk.EDITOR_PLOT_BORDER_COLOR);
+                g2.drawLine(0, pos, -Axis.TICK_LENGTH, pos);
+                g2.drawString(y.label(i), -(y.width(i) + Axis.TICK_LENGTH + 2), pos + y.getHeight(i) / 2 - 2);
+                if (i == 0 || i == n - 1 || y.isZero(i)) {
+                    continue;
+                }
+                g2.setColor(GTk.EDITOR_LINENO_COLOR);
+                g2.setStroke(dashedStroke);
+                g2.drawLine(0, pos, plotWidth, pos);
+                g2.setStroke(stroke);
+            }
+
+            // Draw title and ranges
+            g2.setColor(GTk.EDITOR_MENU_FOREGROUND_COLOR);
+            titleSink.setLength(0);
+            titleSink.append(title != null ? title : "").append(" x:[");
+            Axis.format(titleSink, minX, Axis.X_AXIS_SIGNIFICANT_FIGURES).append(", ");
+            Axis.format(titleSink, maxX, Axis.X_AXIS_SIGNIFICANT_FIGURES).append("], y:[");
+            Axis.format(titleSink, minY, Axis.Y_AXIS_SIGNIFICANT_FIGURES).append(", ");
+            Axis.format(titleSink, maxY, Axis.Y_AXIS_SIGNIFICANT_FIGURES).append(']');
+            g2.drawString(titleSink.toString(), 0, Math.round(INSET_BOTTOM * 3 / 4.0F));
+
+            // Scale the coordinate system to match plot coordinates
+            g2.scale(scaleX, -scaleY);
+            g2.translate(-1.0F * minX, -1.0F * minY);
+
+            // Draw only within plotting area
+            g2.setClip(new Rectangle2D.Double(minX, minY, rangeX, rangeY));
+
+            // Set stroke for curve
+            g2.setStroke(new BasicStroke((float) Math.abs(1.0F / (100.0F * Math.max(scaleX, scaleY)))));
+            g2.setColor(columns[1].color());
+
+            GeneralPath path = null;
+            synchronized (this) {
+                // snapshots end at the same sequence, but may have discarded a different number of old values
+                int n = Math.min(columns[0].size(), columns[1].size());
+                if (n > 0) {
+                    int xOffset = columns[0].size() - n;
+                    int yOffset = columns[1].size() - n;
+                    path = new GeneralPath(GeneralPath.WIND_NON_ZERO, n);
+                    double px = columns[0].get(xOffset);
+                    double py = columns[1].get(yOffset);
+                    path.moveTo(px, py);
+                    g2.fill(new Ellipse2D.Double(px - xTick, py - yTick, xPointWidth, yPointWidth));
+                    for (int i = 1; i < n; i++) {
+                        px = columns[0].get(xOffset + i);
+                        py = columns[1].get(yOffset + i);
+                        path.lineTo(px, py);
+                        g2.fill(new Ellipse2D.Double(px - xTick, py - yTick, xPointWidth, yPointWidth));
+                    }
+                }
+            }
+            if (path != null) {
+                g2.draw(path);
+            }
+        }
+    }
+}
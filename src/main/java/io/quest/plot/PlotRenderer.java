@@ -0,0 +1,439 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.plot;
+
+import io.quest.GTk;
+import io.quest.conns.Conn;
+import io.quest.sql.SQLExecutor;
+import io.quest.sql.SQLType;
+import io.questdb.log.Log;
+import io.questdb.log.LogFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Renders plots to PNG or SVG files without a display, it works with
+ * {@code java.awt.headless=true}. PNG files are painted by {@link PlotPainter},
+ * as {@link PlotCanvas} is on screen, into an image, SVG files follow the same
+ * layout. No Swing component is created. Renders are run by a pool of worker
+ * threads, so that many plots can be produced in parallel, and report how long
+ * the rendering itself took, query execution excluded. Queries are run one at a
+ * time by a fetcher thread, the only one to use the connection, and workers are
+ * handed the fetched columns.
+ */
+public class PlotRenderer implements Closeable {
+    public static final int DEFAULT_WIDTH = 1200;
+    public static final int DEFAULT_HEIGHT = 800;
+    private static final Log LOG = LogFactory.getLog(PlotRenderer.class);
+    private static final int MAX_SVG_POINTS = 5000;
+    private static final double POINT_RADIUS = 1.2;
+    private final ExecutorService fetcher;
+    private final ExecutorService workers;
+
+    public PlotRenderer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public PlotRenderer(int numWorkers) {
+        if (numWorkers < 1) {
+            throw new IllegalArgumentException("at least one worker is required");
+        }
+        String name = getClass().getSimpleName();
+        fetcher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread t = Executors.defaultThreadFactory().newThread(runnable);
+            t.setDaemon(true);
+            t.setName(name + "-fetcher");
+            return t;
+        });
+        AtomicInteger workerId = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(numWorkers, runnable -> {
+            Thread t = Executors.defaultThreadFactory().newThread(runnable);
+            t.setDaemon(true);
+            t.setName(name + "-" + workerId.getAndIncrement());
+            return t;
+        });
+    }
+
+    /**
+     * Renders the plot of y over x in the calling thread.
+     *
+     * @param title  plot title
+     * @param x      x values
+     * @param y      y values, the plot's colour is that of this column
+     * @param width  image width in pixels
+     * @param height image height in pixels
+     * @param format file format
+     * @param target file to write, replaced if it exists
+     * @return the written file and the rendering time
+     * @throws IOException the file could not be written
+     */
+    public static Result render(String title, Column x, Column y, int width, int height, Format format, Path target) throws IOException {
+        if (width <= PlotPainter.PLOT_INSETS.left + PlotPainter.PLOT_INSETS.right
+            || height <= PlotPainter.PLOT_INSETS.top + PlotPainter.PLOT_INSETS.bottom) {
+            throw new IllegalArgumentException("image is too small: " + width + "x" + height);
+        }
+        long start = System.nanoTime();
+        switch (format) {
+            case PNG -> writePng(title, x, y, width, height, target);
+            case SVG -> writeSvg(title, x, y, width, height, target);
+        }
+        long renderNanos = System.nanoTime() - start;
+        LOG.info().$("Rendered [target=").$(target.toString())
+            .$(", points=").$(Math.min(x.size(), y.size()))
+            .$(", micros=").$(TimeUnit.NANOSECONDS.toMicros(renderNanos))
+            .I$();
+        return new Result(target, renderNanos);
+    }
+
+    /**
+     * Runs the query and plots its second column over its first, which must both
+     * be numeric. Rows where either value is null are skipped.
+     *
+     * @param conn   connection, opened if need be
+     * @param query  the query
+     * @param title  plot title
+     * @param width  image width in pixels
+     * @param height image height in pixels
+     * @param format file format
+     * @param target file to write, replaced if it exists
+     * @return the written file and the rendering time
+     * @throws SQLException the query failed, or its results cannot be plotted
+     * @throws IOException  the file could not be written
+     */
+    public static Result render(Conn conn, String query, String title, int width, int height, Format format, Path target)
+        throws SQLException, IOException {
+        Column[] columns = fetch(conn, query);
+        return render(title, columns[0], columns[1], width, height, format, target);
+    }
+
+    private static Column[] fetch(Conn conn, String query) throws SQLException {
+        Column x = new BasicColumn("x", Color.WHITE);
+        Column y = new BasicColumn("y", GTk.EDITOR_MATCH_FOREGROUND_COLOR);
+        Connection connection = conn.open();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.setQueryTimeout(SQLExecutor.QUERY_EXECUTION_TIMEOUT_SECS);
+            try (ResultSet rs = stmt.executeQuery(query)) {
+                ResultSetMetaData metaData = rs.getMetaData();
+                if (metaData.getColumnCount() < 2) {
+                    throw new SQLException("two columns are required: " + query);
+                }
+                int xType = metaData.getColumnType(1);
+                int yType = metaData.getColumnType(2);
+                if (SQLType.isNotNumeric(xType) || SQLType.isNotNumeric(yType)) {
+                    throw new SQLException("the first two columns must be numeric: " + query);
+                }
+                while (rs.next()) {
+                    double xValue = SQLType.getNumericValue(rs.getObject(1), xType);
+                    double yValue = SQLType.getNumericValue(rs.getObject(2), yType);
+                    if (xValue == xValue && yValue == yValue) { // neither is NaN
+                        x.append(xValue);
+                        y.append(yValue);
+                    }
+                }
+            }
+        }
+        if (x.size() == 0) {
+            throw new SQLException("no rows to plot: " + query);
+        }
+        return new Column[]{x, y};
+    }
+
+    public CompletableFuture<Result> submit(String title, Column x, Column y, int width, int height, Format format, Path target) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return render(title, x, y, width, height, format, target);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, workers);
+    }
+
+    public CompletableFuture<Result> submit(Conn conn, String query, String title, int width, int height, Format format, Path target) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return fetch(conn, query);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, fetcher).thenApplyAsync(columns -> {
+            try {
+                return render(title, columns[0], columns[1], width, height, format, target);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, workers);
+    }
+
+    /**
+     * Renders a plot per query, each to a file in the folder named after the key
+     * of the query, e.g. the name of the quest it comes from. Queries are run one
+     * after the other on the connection, rendering is parallel. Keys that map to
+     * the same file name are told apart with a numeric suffix.
+     *
+     * @param conn    connection
+     * @param queries plot title (and file name) to query
+     * @param folder  destination folder, created if need be
+     * @param width   image width in pixels
+     * @param height  image height in pixels
+     * @param format  file format
+     * @return one future per query, in the iteration order of the map
+     * @throws IOException the folder could not be created
+     */
+    public List<CompletableFuture<Result>> renderAll(
+        Conn conn,
+        Map<String, String> queries,
+        Path folder,
+        int width,
+        int height,
+        Format format
+    ) throws IOException {
+        Files.createDirectories(folder);
+        List<CompletableFuture<Result>> results = new ArrayList<>(queries.size());
+        Set<String> fileNames = new HashSet<>(queries.size() * 2);
+        for (Map.Entry<String, String> query : queries.entrySet()) {
+            String title = query.getKey();
+            String fileName = title.replaceAll("[^A-Za-z0-9._-]", "_");
+            for (int i = 2; !fileNames.add(fileName.toLowerCase(Locale.ROOT)); i++) {
+                fileName = title.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + i;
+            }
+            Path target = folder.resolve(fileName + format.getExtension());
+            results.add(submit(conn, query.getValue(), title, width, height, format, target));
+        }
+        return results;
+    }
+
+    @Override
+    public void close() {
+        GTk.shutdownExecutor(fetcher);
+        GTk.shutdownExecutor(workers);
+    }
+
+    private static void writePng(String title, Column x, Column y, int width, int height, Path target) throws IOException {
+        PlotPainter painter = new PlotPainter();
+        painter.setDataSet(title, x, y);
+        Font font = PlotPainter.defaultFont();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = image.createGraphics();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+            if (font != null) {
+                g2.setFont(font);
+            }
+            painter.paint(g2, width, height, Double.NaN, Double.NaN);
+        } finally {
+            g2.dispose();
+        }
+        if (!ImageIO.write(image, "png", target.toFile())) {
+            throw new IOException("no PNG writer available");
+        }
+    }
+
+    private static void writeSvg(String title, Column xCol, Column yCol, int width, int height, Path target) throws IOException {
+        long sequence = Math.min(xCol.sequence(), yCol.sequence());
+        xCol.snapshot(sequence);
+        yCol.snapshot(sequence);
+        Insets insets = PlotPainter.PLOT_INSETS;
+        int plotWidth = width - (insets.left + insets.right);
+        int plotHeight = height - (insets.top + insets.bottom);
+        double minX = xCol.min();
+        double maxX = xCol.max();
+        double minY = yCol.min();
+        double maxY = yCol.max();
+        double deltaX = Math.abs(maxX - minX) * PlotPainter.X_PADDING;
+        double deltaY = Math.abs(maxY - minY) * PlotPainter.Y_PADDING;
+        minX -= deltaX;
+        maxX += deltaX;
+        minY -= deltaY;
+        maxY += deltaY;
+        double scaleX = plotWidth / (maxX - minX);
+        double scaleY = plotHeight / (maxY - minY);
+
+        // font metrics for the axes' labels, from an image as there is no screen
+        Font font = PlotPainter.defaultFont();
+        Graphics2D metrics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+        Axis x;
+        Axis y;
+        try {
+            metrics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            if (font != null) {
+                metrics.setFont(font);
+            }
+            font = metrics.getFont();
+            x = Axis.forX(metrics, minX, maxX - minX, scaleX);
+            y = Axis.forY(metrics, minY, maxY - minY, scaleY);
+        } finally {
+            metrics.dispose();
+        }
+
+        StringBuilder svg = new StringBuilder(1024 + 24 * Math.min(xCol.size(), yCol.size()));
+        svg.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+            .append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(width)
+            .append("\" height=\"").append(height)
+            .append("\" viewBox=\"0 0 ").append(width).append(' ').append(height)
+            .append("\" font-family=\"").append(escape(font.getFamily()))
+            .append("\" font-size=\"").append(font.getSize()).append("\">\n");
+        svg.append("<rect width=\"100%\" height=\"100%\"").append(fill(GTk.QUEST_APP_BACKGROUND_COLOR)).append("/>\n");
+        svg.append("<rect x=\"").append(insets.left).append("\" y=\"").append(insets.top)
+            .append("\" width=\"").append(plotWidth).append("\" height=\"").append(plotHeight)
+            .append("\" fill=\"none\"").append(stroke(GTk.EDITOR_PLOT_BORDER_COLOR)).append("/>\n");
+        svg.append("<clipPath id=\"plot-area\"><rect x=\"0\" y=\"").append(-plotHeight)
+            .append("\" width=\"").append(plotWidth).append("\" height=\"").append(plotHeight).append("\"/></clipPath>\n");
+
+        // same coordinate centre as PlotCanvas, the bottom-left corner of the plot area
+        svg.append("<g transform=\"translate(").append(insets.left).append(',').append(height - insets.bottom).append(")\">\n");
+        if (x != null && y != null) {
+            int yPositionOfZero = y.getYPositionOfZeroLabel();
+            line(svg, 0, yPositionOfZero, plotWidth, yPositionOfZero, GTk.EDITOR_PLOT_BORDER_COLOR, false);
+            int verticalPos = Axis.TICK_LENGTH + x.getHeight(0);
+            for (int i = 0, n = x.size(); i < n; i++) {
+                int pos = x.position(i);
+                line(svg, pos, 0, pos, Axis.TICK_LENGTH, GTk.EDITOR_PLOT_BORDER_COLOR, false);
+                text(svg, x.label(i), pos - x.width(i) / 2, verticalPos, GTk.EDITOR_PLOT_BORDER_COLOR);
+                line(svg, pos, 0, pos, -plotHeight, GTk.EDITOR_LINENO_COLOR, true);
+            }
+            for (int i = 0, n = y.size(); i < n; i++) {
+                int pos = y.position(i);
+                line(svg, 0, pos, -Axis.TICK_LENGTH, pos, GTk.EDITOR_PLOT_BORDER_COLOR, false);
+                text(svg, y.label(i), -(y.width(i) + Axis.TICK_LENGTH + 2), pos + y.getHeight(i) / 2 - 2, GTk.EDITOR_PLOT_BORDER_COLOR);
+                if (i == 0 || i == n - 1 || y.isZero(i)) {
+                    continue;
+                }
+                line(svg, 0, pos, plotWidth, pos, GTk.EDITOR_LINENO_COLOR, true);
+            }
+        }
+        StringBuilder titleSink = new StringBuilder(128);
+        titleSink.append(title != null ? title : "").append(" x:[");
+        Axis.format(titleSink, minX, Axis.X_AXIS_SIGNIFICANT_FIGURES).append(", ");
+        Axis.format(titleSink, maxX, Axis.X_AXIS_SIGNIFICANT_FIGURES).append("], y:[");
+        Axis.format(titleSink, minY, Axis.Y_AXIS_SIGNIFICANT_FIGURES).append(", ");
+        Axis.format(titleSink, maxY, Axis.Y_AXIS_SIGNIFICANT_FIGURES).append(']');
+        text(svg, titleSink.toString(), 0, Math.round(insets.bottom * 3 / 4.0F), GTk.EDITOR_MENU_FOREGROUND_COLOR);
+
+        // the curve, points beyond the limit are joined but not marked
+        int n = Math.min(xCol.size(), yCol.size());
+        if (n > 0) {
+            int xOffset = xCol.size() - n;
+            int yOffset = yCol.size() - n;
+            Color color = yCol.color();
+            svg.append("<g clip-path=\"url(#plot-area)\">\n<path fill=\"none\"").append(stroke(color)).append(" d=\"");
+            for (int i = 0; i < n; i++) {
+                svg.append(i == 0 ? 'M' : 'L');
+                Axis.format(svg, (xCol.get(xOffset + i) - minX) * scaleX, 2).append(',');
+                Axis.format(svg, -(yCol.get(yOffset + i) - minY) * scaleY, 2);
+            }
+            svg.append("\"/>\n");
+            if (n <= MAX_SVG_POINTS) {
+                svg.append("<g").append(fill(color)).append(">\n");
+                for (int i = 0; i < n; i++) {
+                    svg.append("<circle cx=\"");
+                    Axis.format(svg, (xCol.get(xOffset + i) - minX) * scaleX, 2).append("\" cy=\"");
+                    Axis.format(svg, -(yCol.get(yOffset + i) - minY) * scaleY, 2).append("\" r=\"").append(POINT_RADIUS).append("\"/>\n");
+                }
+                svg.append("</g>\n");
+            }
+            svg.append("</g>\n");
+        }
+        svg.append("</g>\n</svg>\n");
+        try (Writer out = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            out.append(svg);
+        }
+    }
+
+    private static void line(StringBuilder svg, int x1, int y1, int x2, int y2, Color color, boolean dashed) {
+        svg.append("<line x1=\"").append(x1).append("\" y1=\"").append(y1)
+            .append("\" x2=\"").append(x2).append("\" y2=\"").append(y2).append('"')
+            .append(stroke(color));
+        if (dashed) {
+            svg.append(" stroke-dasharray=\"1,8\"");
+        }
+        svg.append("/>\n");
+    }
+
+    private static void text(StringBuilder svg, String text, int x, int y, Color color) {
+        svg.append("<text x=\"").append(x).append("\" y=\"").append(y).append('"')
+            .append(fill(color)).append('>').append(escape(text)).append("</text>\n");
+    }
+
+    private static String fill(Color color) {
+        return paint("fill", color);
+    }
+
+    private static String stroke(Color color) {
+        return paint("stroke", color);
+    }
+
+    private static String paint(String attr, Color color) {
+        String paint = String.format(" %s=\"#%02x%02x%02x\"", attr, color.getRed(), color.getGreen(), color.getBlue());
+        if (color.getAlpha() < 255) {
+            paint += String.format(Locale.ROOT, " %s-opacity=\"%.3f\"", attr, color.getAlpha() / 255.0);
+        }
+        return paint;
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    public enum Format {
+        PNG(".png"), SVG(".svg");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    /**
+     * @param path        the written file
+     * @param renderNanos time taken to draw and write the file
+     */
+    public record Result(Path path, long renderNanos) {
+    }
+}
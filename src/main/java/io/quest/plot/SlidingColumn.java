@@ -16,20 +16,38 @@
 
 package io.quest.plot;
 
-import java.util.Objects;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Fixed size window over the last values appended by a <b>single</b> producer thread.
+ * <p>
+ * Appends never block. The producer writes into a ring buffer and then publishes the
+ * write sequence. The painter calls {@link #snapshot(long)} to copy the window into
+ * its own buffer, seqlock style: after the copy it reads the write sequence again and
+ * discards the oldest values, if any, that the producer overwrote meanwhile. Getters
+ * report on the last snapshot and must only be called from the painter thread.
+ */
 public class SlidingColumn implements Column {
 
     private final String name;
     private final double[] points;
-    private final Object lock;
-    private int writePtr = -1;
-    private int readPtr;
+    private final AtomicLong writeSeq;
+    // painter side, last snapshot
+    private final double[] view;
+    private int viewOffset;
+    private int viewSize;
+    private double viewMin;
+    private double viewMax;
 
-    public SlidingColumn(String name, Object lock, int size) {
+    public SlidingColumn(String name, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be greater than zero");
+        }
         this.name = name;
-        this.lock = Objects.requireNonNull(lock);
         points = new double[size];
+        view = new double[size];
+        writeSeq = new AtomicLong();
     }
 
     @Override
@@ -38,57 +56,67 @@ public class SlidingColumn implements Column {
     }
 
     @Override
-    public int size() {
-        synchronized (lock) {
-            return writePtr == -1 ? 0 : readPtr < writePtr ? writePtr - readPtr : points.length;
-        }
+    public void append(double value) {
+        long seq = writeSeq.get();
+        points[(int) (seq % points.length)] = value;
+        writeSeq.lazySet(seq + 1L); // release, publishes the value
     }
 
     @Override
-    public void append(double value) {
-        synchronized (lock) {
-            writePtr = (writePtr + 1) % points.length;
-            points[writePtr] = value;
-            if (readPtr == writePtr) {
-                readPtr = (writePtr + 1) % points.length;
+    public long sequence() {
+        return writeSeq.get();
+    }
+
+    @Override
+    public void snapshot(long sequence) {
+        int capacity = points.length;
+        long end = Math.min(sequence, writeSeq.get());
+        long start = Math.max(0L, end - capacity);
+        int n = (int) (end - start);
+        int idx = (int) (start % capacity);
+        int firstRun = Math.min(n, capacity - idx);
+        System.arraycopy(points, idx, view, 0, firstRun);
+        System.arraycopy(points, 0, view, firstRun, n - firstRun);
+
+        // the producer may have overwritten the oldest values during the copy, and
+        // may be writing the slot of the next, yet unpublished, sequence
+        VarHandle.acquireFence();
+        long validStart = Math.max(start, writeSeq.get() + 1L - capacity);
+        int offset = (int) Math.min(validStart - start, n);
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (int i = offset; i < n; i++) {
+            double p = view[i];
+            if (p < min) {
+                min = p;
+            }
+            if (p > max) {
+                max = p;
             }
         }
+        viewOffset = offset;
+        viewSize = n - offset;
+        viewMin = min;
+        viewMax = max;
+    }
+
+    @Override
+    public int size() {
+        return viewSize;
     }
 
     @Override
     public double get(int i) {
-        synchronized (lock) {
-            double value = points[readPtr];
-            readPtr = (readPtr + 1) % points.length;
-            return value;
-        }
+        return view[viewOffset + i];
     }
 
     @Override
     public double min() {
-        double min = Double.MAX_VALUE;
-        synchronized (lock) {
-            for (int i = 0, n = size(); i < n; i++) {
-                double p = points[(readPtr + i) % points.length];
-                if (p < min) {
-                    min = p;
-                }
-            }
-        }
-        return min;
+        return viewMin;
     }
 
     @Override
     public double max() {
-        double max = Double.MIN_VALUE;
-        synchronized (lock) {
-            for (int i = readPtr, n = readPtr + size(); i < n; i++) {
-                double p = points[(readPtr + i) % points.length];
-                if (p > max) {
-                    max = p;
-                }
-            }
-        }
-        return max;
+        return viewMax;
     }
 }
@@ -17,7 +17,7 @@
 package io.quest.plot;
 
 
-import io.quest.results.SQLPagedTableModel;
+import io.quest.results.SQLTableModel;
 import io.quest.sql.SQLType;
 
 import java.awt.*;
@@ -25,12 +25,12 @@ import java.awt.*;
 public class TableColumn implements Column {
 
     private final String name;
-    private final SQLPagedTableModel table;
+    private final SQLTableModel table;
     private final int colIndex;
     private final Color color;
     private final double min, max;
 
-    public TableColumn(String name, SQLPagedTableModel table, int colIndex, Color color) {
+    public TableColumn(String name, SQLTableModel table, int colIndex, Color color) {
         this.name = name;
         this.table = table;
         this.colIndex = colIndex;
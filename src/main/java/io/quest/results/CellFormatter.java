@@ -0,0 +1,129 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.results;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.TimeZone;
+
+
+/**
+ * Formats cell values by column type into a reusable sink, without the
+ * intermediate objects of {@link Timestamp#toString()} or
+ * {@link Double#toString()}:
+ * <ul>
+ * <li>timestamps as ISO local date-times with microsecond precision, nanosecond
+ * when there are any, e.g. 2023-01-28T15:37:21.123456</li>
+ * <li>doubles and reals with {@link #DECIMALS} decimals, in scientific notation
+ * when that would lose all significant digits, or exceed a long</li>
+ * <li>anything else as its {@link Object#toString()}</li>
+ * </ul>
+ * Instances are not thread safe, they are meant to be used by a renderer in the
+ * EDT.
+ */
+final class CellFormatter {
+    static final int DECIMALS = 6;
+    private static final long DECIMALS_FACTOR = 1_000_000L;
+    private static final double MIN_FIXED = 0.5 / DECIMALS_FACTOR;
+    private static final double MAX_FIXED = 1e12;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private final TimeZone timeZone;
+
+    CellFormatter() {
+        this(TimeZone.getDefault());
+    }
+
+    CellFormatter(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * @param sink    destination
+     * @param value   non null value
+     * @param sqlType SQL type of the value's column
+     * @return the sink
+     */
+    StringBuilder format(StringBuilder sink, Object value, int sqlType) {
+        switch (sqlType) {
+            case Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE -> {
+                if (value instanceof Timestamp ts) {
+                    return formatTimestamp(sink, ts);
+                }
+            }
+            case Types.DOUBLE, Types.REAL -> {
+                if (value instanceof Number number) {
+                    return formatDouble(sink, number.doubleValue());
+                }
+            }
+        }
+        return sink.append(value);
+    }
+
+    StringBuilder formatTimestamp(StringBuilder sink, Timestamp ts) {
+        long millis = ts.getTime();
+        millis += timeZone.getOffset(millis);
+        long days = Math.floorDiv(millis, MILLIS_PER_DAY);
+        int millisOfDay = (int) Math.floorMod(millis, MILLIS_PER_DAY);
+
+        // civil from days, H. Hinnant's algorithm
+        long z = days + 719468L;
+        long era = Math.floorDiv(z, 146097L);
+        long doe = z - era * 146097L;
+        long yoe = (doe - doe / 1460L + doe / 36524L - doe / 146096L) / 365L;
+        long doy = doe - (365L * yoe + yoe / 4L - yoe / 100L);
+        long mp = (5L * doy + 2L) / 153L;
+        int day = (int) (doy - (153L * mp + 2L) / 5L + 1L);
+        int month = (int) (mp < 10L ? mp + 3L : mp - 9L);
+        long year = yoe + era * 400L + (month <= 2 ? 1L : 0L);
+
+        if (year < 0L) {
+            sink.append('-');
+            year = -year;
+        }
+        pad(sink, year, 4).append('-');
+        pad(sink, month, 2).append('-');
+        pad(sink, day, 2).append('T');
+        pad(sink, millisOfDay / 3_600_000, 2).append(':');
+        pad(sink, millisOfDay / 60_000 % 60, 2).append(':');
+        pad(sink, millisOfDay / 1000 % 60, 2).append('.');
+        int nanos = ts.getNanos();
+        return nanos % 1000 == 0 ? pad(sink, nanos / 1000, 6) : pad(sink, nanos, 9);
+    }
+
+    StringBuilder formatDouble(StringBuilder sink, double value) {
+        double abs = Math.abs(value);
+        if (Double.isNaN(value) || Double.isInfinite(value) || abs >= MAX_FIXED || (abs < MIN_FIXED && abs != 0.0)) {
+            return sink.append(value);
+        }
+        long units = Math.round(abs * DECIMALS_FACTOR);
+        if (value < 0.0 && units != 0L) {
+            sink.append('-');
+        }
+        sink.append(units / DECIMALS_FACTOR).append('.');
+        return pad(sink, units % DECIMALS_FACTOR, DECIMALS);
+    }
+
+    private static StringBuilder pad(StringBuilder sink, long value, int width) {
+        for (long limit = 10L, n = 1; n < width; n++, limit *= 10L) {
+            if (value < limit) {
+                sink.append('0');
+            }
+        }
+        return sink.append(value);
+    }
+}
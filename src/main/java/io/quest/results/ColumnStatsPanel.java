@@ -0,0 +1,173 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.results;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.JTableHeader;
+
+import io.quest.CellRenderer;
+import io.quest.GTk;
+import io.quest.sql.ColumnStats;
+import io.quest.sql.SQLType;
+import io.quest.sql.Table;
+
+
+/**
+ * Side panel with the statistics of the columns of a result, one row per column.
+ * The statistics are gathered by the {@link Table} as it is fetched, this panel
+ * only formats them, when the fetch completes, or when it is shown during one.
+ * It is meant to be used from the EDT.
+ */
+final class ColumnStatsPanel extends JPanel {
+    private static final String[] HEADERS = {
+        "Column", "Type", "Count", "Nulls", "Min", "Max", "Mean", "StdDev", "Distinct\u2248", "p50", "p90", "p99"
+    };
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+    private static final int TABLE_ROW_HEIGHT = 26;
+    private static final int COL_WIDTH = 130;
+    private static final Dimension PANEL_SIZE = new Dimension(560, 0);
+
+    private final CellFormatter formatter = new CellFormatter();
+    private final StringBuilder sink = new StringBuilder();
+    private final AbstractTableModel model;
+    private String[][] cells = new String[0][];
+
+    ColumnStatsPanel() {
+        model = new AbstractTableModel() {
+            @Override
+            public int getRowCount() {
+                return cells.length;
+            }
+
+            @Override
+            public int getColumnCount() {
+                return HEADERS.length;
+            }
+
+            @Override
+            public String getColumnName(int colIdx) {
+                return HEADERS[colIdx];
+            }
+
+            @Override
+            public Class<?> getColumnClass(int colIdx) {
+                return String.class;
+            }
+
+            @Override
+            public Object getValueAt(int rowIdx, int colIdx) {
+                return cells[rowIdx][colIdx];
+            }
+        };
+        JTable table = new JTable(model);
+        table.setRowHeight(TABLE_ROW_HEIGHT);
+        table.setGridColor(GTk.EDITOR_KEYWORD_FOREGROUND_COLOR.darker().darker().darker());
+        table.setFont(GTk.TABLE_CELL_FONT);
+        table.setDefaultRenderer(String.class, new CellRenderer());
+        table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+        table.setCellSelectionEnabled(true);
+        for (int i = 0; i < HEADERS.length; i++) {
+            table.getColumnModel().getColumn(i).setPreferredWidth(COL_WIDTH);
+        }
+        GTk.setupTableCmdKeyActions(table);
+        JTableHeader header = table.getTableHeader();
+        header.setReorderingAllowed(false);
+        header.setFont(GTk.TABLE_HEADER_FONT);
+        header.setForeground(Color.WHITE);
+        header.setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
+        JScrollPane scrollPane = new JScrollPane(
+            table,
+            JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED,
+            JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        scrollPane.getViewport().setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
+        setLayout(new BorderLayout());
+        setPreferredSize(PANEL_SIZE);
+        setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
+        add(scrollPane, BorderLayout.CENTER);
+    }
+
+    void setStats(Table table) {
+        String[][] rows = table != null ? table.readColumnStats(stats -> {
+            if (stats == null) {
+                return null;
+            }
+            String[][] statsRows = new String[stats.length - 1][];
+            for (int i = 1; i < stats.length; i++) {
+                statsRows[i - 1] = toCells(stats[i]);
+            }
+            return statsRows;
+        }) : null;
+        cells = rows != null ? rows : new String[0][];
+        model.fireTableDataChanged();
+    }
+
+    void clear() {
+        cells = new String[0][];
+        model.fireTableDataChanged();
+    }
+
+    private String[] toCells(ColumnStats stats) {
+        int sqlType = stats.getSqlType();
+        String[] row = new String[HEADERS.length];
+        row[0] = stats.getName();
+        row[1] = SQLType.resolveName(sqlType);
+        row[2] = String.valueOf(stats.getCount());
+        row[3] = String.valueOf(stats.getNulls());
+        row[4] = format(stats.getMin(), sqlType);
+        row[5] = format(stats.getMax(), sqlType);
+        row[6] = format(stats.getMean(), sqlType);
+        row[7] = isTemporal(sqlType) ? "" : format(stats.getStdDev(), sqlType);
+        row[8] = String.valueOf(stats.getDistinctCount());
+        for (int i = 0; i < QUANTILES.length; i++) {
+            row[9 + i] = format(stats.getQuantile(QUANTILES[i]), sqlType);
+        }
+        return row;
+    }
+
+    private String format(Object value, int sqlType) {
+        if (value == null) {
+            return "";
+        }
+        if (!(value instanceof Double d)) {
+            return value.toString();
+        }
+        if (d.isNaN()) {
+            return "";
+        }
+        sink.setLength(0);
+        if (isTemporal(sqlType)) {
+            formatter.formatTimestamp(sink, new Timestamp(Math.round(d)));
+        } else {
+            formatter.formatDouble(sink, d);
+        }
+        return sink.toString();
+    }
+
+    private static boolean isTemporal(int sqlType) {
+        return switch (sqlType) {
+            case Types.DATE, Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE, Types.TIME -> true;
+            default -> false;
+        };
+    }
+}
@@ -0,0 +1,155 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.results;
+
+import java.awt.FontMetrics;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import io.quest.GTk;
+import io.quest.sql.Row;
+import io.quest.sql.Table;
+
+
+/**
+ * Estimates the widths of the columns of a table in the background, from a
+ * uniform sample of its rows kept by reservoir sampling, and the width of the
+ * text the renderer would show for them, measured with the table's font. Each
+ * {@link #update} samples the rows added since the previous one, refining the
+ * estimate, which is delivered in the EDT only when it changed. A column is as
+ * wide as its header, or as the {@link #PERCENTILE} of its sampled values if
+ * wider, so that a few long values do not blow it up.
+ */
+class ColumnWidthEstimator {
+    static final int MIN_WIDTH = 60;
+    static final int MAX_WIDTH = 620;
+    private static final int SAMPLE_SIZE = 256;
+    private static final double PERCENTILE = 0.95;
+    private static final int PADDING = 16;
+    private static final int MAX_MEASURED_CHARS = 256; // beyond MAX_WIDTH in any font
+    private static final long IDLE_MILLIS = 10_000L;
+
+    private final ThreadPoolExecutor executor;
+    private final BiConsumer<Table, int[]> widthsConsumer;
+    private final AtomicReference<Request> pending = new AtomicReference<>();
+    private final CellFormatter formatter = new CellFormatter();
+    private final StringBuilder sink = new StringBuilder(64);
+    private final char[] chars = new char[MAX_MEASURED_CHARS];
+    private final Random random = new Random();
+    // owned by the executor's thread
+    private long tableVersion = -1L;
+    private long rowsSeen;
+    private int[][] sampledWidths; // [col][slot]
+    private int[] lastWidths;
+
+    /**
+     * @param widthsConsumer receives the table and its widths, indexed by column, in the EDT
+     */
+    ColumnWidthEstimator(BiConsumer<Table, int[]> widthsConsumer) {
+        this.widthsConsumer = widthsConsumer;
+        String name = getClass().getSimpleName();
+        executor = new ThreadPoolExecutor(1, 1, IDLE_MILLIS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread t = Executors.defaultThreadFactory().newThread(runnable);
+            t.setDaemon(true);
+            t.setName(name);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true); // one per results pane, gone when idle
+    }
+
+    /**
+     * Requests the estimate to be refined with the rows added to the table. Requests
+     * made while one is being served coalesce into the latest.
+     *
+     * @param table         the table
+     * @param headers       column headers, as shown
+     * @param cellMetrics   metrics of the font of the cells
+     * @param headerMetrics metrics of the font of the header
+     */
+    void update(Table table, String[] headers, FontMetrics cellMetrics, FontMetrics headerMetrics) {
+        if (pending.getAndSet(new Request(table, headers, cellMetrics, headerMetrics)) == null) {
+            executor.execute(this::serve);
+        }
+    }
+
+    private void serve() {
+        Request req = pending.getAndSet(null);
+        if (req == null) {
+            return;
+        }
+        int[] colTypes = req.table.getColumnTypes();
+        if (colTypes == null || colTypes.length != req.headers.length) {
+            return; // closed, or replaced
+        }
+        if (req.table.getVersion() != tableVersion) {
+            tableVersion = req.table.getVersion();
+            rowsSeen = 0L;
+            sampledWidths = new int[colTypes.length][SAMPLE_SIZE];
+            lastWidths = null;
+        }
+        int size = req.table.size();
+        try {
+            for (int rowIdx = (int) rowsSeen; rowIdx < size; rowIdx++, rowsSeen++) {
+                int slot = rowsSeen < SAMPLE_SIZE ? (int) rowsSeen : (int) (random.nextDouble() * (rowsSeen + 1));
+                if (slot < SAMPLE_SIZE) {
+                    Row row = req.table.getRow(rowIdx);
+                    for (int colIdx = 0; colIdx < colTypes.length; colIdx++) {
+                        sampledWidths[colIdx][slot] = measure(row.getValueAt(colIdx), colTypes[colIdx], req.cellMetrics);
+                    }
+                }
+            }
+        } catch (IndexOutOfBoundsException closed) {
+            return;
+        }
+        int samples = (int) Math.min(rowsSeen, SAMPLE_SIZE);
+        int[] widths = new int[colTypes.length];
+        int[] sorted = new int[samples];
+        for (int colIdx = 0; colIdx < colTypes.length; colIdx++) {
+            int width = req.headerMetrics.stringWidth(req.headers[colIdx]);
+            if (samples > 0) {
+                System.arraycopy(sampledWidths[colIdx], 0, sorted, 0, samples);
+                Arrays.sort(sorted);
+                width = Math.max(width, sorted[(int) Math.ceil(PERCENTILE * samples) - 1]);
+            }
+            widths[colIdx] = Math.max(MIN_WIDTH, Math.min(MAX_WIDTH, width + PADDING));
+        }
+        if (!Arrays.equals(widths, lastWidths)) {
+            lastWidths = widths;
+            GTk.invokeLater(() -> widthsConsumer.accept(req.table, widths));
+        }
+    }
+
+    private int measure(Object value, int sqlType, FontMetrics metrics) {
+        if (value == null) {
+            return 0;
+        }
+        sink.setLength(0);
+        formatter.format(sink, value, sqlType);
+        int len = Math.min(sink.length(), MAX_MEASURED_CHARS);
+        sink.getChars(0, len, chars, 0);
+        return metrics.charsWidth(chars, 0, len);
+    }
+
+    private record Request(Table table, String[] headers, FontMetrics cellMetrics, FontMetrics headerMetrics) {
+    }
+}
@@ -0,0 +1,94 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.results;
+
+import java.util.Arrays;
+
+
+/**
+ * Fixed capacity cache of the text of table cells, keyed by (row, column),
+ * with the rows being those of the table, not of the view, so that sorting does
+ * not invalidate it. It is two-way set associative with least recently used
+ * replacement within each set, nothing is allocated on lookups or insertions.
+ * {@link #clear()} is called when the table's version changes.
+ */
+final class FormattedCellCache {
+    private static final long NO_KEY = -1L;
+    private static final int MAX_COLUMNS = 1 << 20;
+
+    private final long[] keys;
+    private final String[] values;
+    private final boolean[] secondIsLru; // per set, which way to evict next
+    private final int setMask;
+
+    /**
+     * @param capacity number of cells, rounded up to a power of two
+     */
+    FormattedCellCache(int capacity) {
+        int sets = Integer.highestOneBit(Math.max(2, capacity - 1) / 2) * 2;
+        keys = new long[sets * 2];
+        values = new String[sets * 2];
+        secondIsLru = new boolean[sets];
+        setMask = sets - 1;
+        clear();
+    }
+
+    String get(int rowIdx, int colIdx) {
+        long key = key(rowIdx, colIdx);
+        int set = set(key);
+        int way = set << 1;
+        if (keys[way] == key) {
+            secondIsLru[set] = true;
+            return values[way];
+        }
+        if (keys[way + 1] == key) {
+            secondIsLru[set] = false;
+            return values[way + 1];
+        }
+        return null;
+    }
+
+    void put(int rowIdx, int colIdx, String text) {
+        long key = key(rowIdx, colIdx);
+        int set = set(key);
+        int way = (set << 1) + (secondIsLru[set] ? 1 : 0);
+        keys[way] = key;
+        values[way] = text;
+        secondIsLru[set] = !secondIsLru[set];
+    }
+
+    void clear() {
+        Arrays.fill(keys, NO_KEY);
+        Arrays.fill(values, null);
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    private static long key(int rowIdx, int colIdx) {
+        if (colIdx >= MAX_COLUMNS) {
+            throw new IllegalArgumentException("too many columns: " + colIdx);
+        }
+        return ((long) rowIdx << 20) | colIdx;
+    }
+
+    private int set(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 40) & setMask;
+    }
+}
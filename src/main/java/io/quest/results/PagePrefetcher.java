@@ -0,0 +1,158 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.results;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import io.quest.GTk;
+import io.quest.sql.Row;
+import io.quest.sql.Table;
+
+
+/**
+ * Formats the pages next to the one in view in the background, so that paging
+ * finds their text in the renderer's cache. The direction of travel is predicted
+ * from the last move of the view: the page ahead is formatted first, then the
+ * page behind. Only the columns in view are formatted, and only as many cells
+ * as the cache can take without evicting those in view.
+ * Requests made while one is being served coalesce into the latest.
+ */
+class PagePrefetcher {
+    private static final long IDLE_MILLIS = 10_000L;
+
+    private final int maxCells;
+    private final ThreadPoolExecutor executor;
+    private final Consumer<Page> pageConsumer;
+    private final AtomicReference<Request> pending = new AtomicReference<>();
+    private final CellFormatter formatter = new CellFormatter(); // owned by the executor's thread
+    private final StringBuilder sink = new StringBuilder(64);
+    // owned by the EDT
+    private int lastFirstRow = -1;
+    private int direction = 1;
+
+    /**
+     * @param maxCells     most cells formatted per request
+     * @param pageConsumer receives the formatted pages, in the EDT
+     */
+    PagePrefetcher(int maxCells, Consumer<Page> pageConsumer) {
+        this.maxCells = maxCells;
+        this.pageConsumer = pageConsumer;
+        String name = getClass().getSimpleName();
+        executor = new ThreadPoolExecutor(1, 1, IDLE_MILLIS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread t = Executors.defaultThreadFactory().newThread(runnable);
+            t.setDaemon(true);
+            t.setName(name);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true); // one per results pane, gone when idle
+    }
+
+    /**
+     * Called in the EDT when the view moves.
+     *
+     * @param table       the table
+     * @param model       the model of the view
+     * @param firstRow    first row in view, in view coordinates
+     * @param rowsPerPage rows that fit in the view
+     * @param modelCols   columns in view, in model coordinates
+     */
+    void onViewMoved(Table table, SQLTableModel model, int firstRow, int rowsPerPage, int[] modelCols) {
+        if (table == null || firstRow < 0 || firstRow == lastFirstRow || modelCols.length == 0) {
+            return;
+        }
+        if (lastFirstRow >= 0) {
+            direction = firstRow > lastFirstRow ? 1 : -1;
+        }
+        lastFirstRow = firstRow;
+        int rowCount = model.getRowCount();
+        int pageRows = Math.max(1, Math.min(rowsPerPage, maxCells / 2 / modelCols.length));
+        int aheadStart = direction > 0 ? firstRow + rowsPerPage : firstRow - pageRows;
+        int behindStart = direction > 0 ? firstRow - pageRows : firstRow + rowsPerPage;
+        int[] rows = new int[pageRows * 2];
+        int n = 0;
+        for (int start : new int[]{aheadStart, behindStart}) {
+            for (int i = Math.max(0, start), end = Math.min(rowCount, start + pageRows); i < end; i++) {
+                int tableRowIdx = model.toTableRowIdx(i);
+                if (tableRowIdx >= 0) {
+                    rows[n++] = tableRowIdx;
+                }
+            }
+        }
+        if (n > 0) {
+            int[] tableRows = n == rows.length ? rows : Arrays.copyOf(rows, n);
+            if (pending.getAndSet(new Request(table, table.getVersion(), tableRows, modelCols)) == null) {
+                executor.execute(this::serve);
+            }
+        }
+    }
+
+    /**
+     * Forgets the direction of travel, for a new table.
+     */
+    void reset() {
+        lastFirstRow = -1;
+        direction = 1;
+        pending.set(null);
+    }
+
+    private void serve() {
+        Request req = pending.getAndSet(null);
+        if (req == null) {
+            return;
+        }
+        int[] colTypes = req.table.getColumnTypes();
+        if (colTypes == null || req.table.getVersion() != req.version) {
+            return; // closed, or replaced
+        }
+        String[] texts = new String[req.tableRows.length * req.modelCols.length];
+        try {
+            for (int i = 0, k = 0; i < req.tableRows.length; i++) {
+                if (pending.get() != null) {
+                    return; // the view moved on
+                }
+                Row row = req.table.getRow(req.tableRows[i]);
+                for (int colIdx : req.modelCols) {
+                    Object value = colIdx < colTypes.length ? row.getValueAt(colIdx) : null;
+                    if (value != null && !(value instanceof String)) { // those need no formatting
+                        sink.setLength(0);
+                        texts[k] = formatter.format(sink, value, colTypes[colIdx]).toString();
+                    }
+                    k++;
+                }
+            }
+        } catch (IndexOutOfBoundsException closed) {
+            return;
+        }
+        Page page = new Page(req.table, req.version, req.tableRows, req.modelCols, texts);
+        GTk.invokeLater(() -> pageConsumer.accept(page));
+    }
+
+    /**
+     * Text of cells, row major, null where no formatting was needed.
+     */
+    record Page(Table table, long version, int[] tableRows, int[] modelCols, String[] texts) {
+    }
+
+    private record Request(Table table, long version, int[] tableRows, int[] modelCols) {
+    }
+}
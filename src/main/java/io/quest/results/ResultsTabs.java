@@ -0,0 +1,400 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.results;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import javax.swing.*;
+
+import io.quest.EventConsumer;
+import io.quest.GTk;
+import io.quest.sql.SQLExecutionRequest;
+import io.quest.sql.SQLExecutionResponse;
+import io.quest.sql.SQLExecutor;
+import io.quest.sql.Table;
+
+
+/**
+ * Result panes in tabs, each bound to the request it shows the results of.
+ * Requests fetch concurrently, each tab pauses, resumes and cancels its own
+ * fetch, and shows the memory taken by its rows. Closing a tab cancels its fetch
+ * and closes its table, unless the table is retained elsewhere. When there are
+ * more than {@link #MAX_TABS} tabs, the oldest that is not fetching is closed.
+ * <p>
+ * With lazy fetch, a tab fetches {@link #READ_AHEAD_PAGES} pages beyond the last
+ * row in view and then waits, holding the result-set open, until the view is
+ * scrolled further or all rows are asked for. The rows are read from a server
+ * side cursor, see {@link SQLExecutor#submit(SQLExecutionRequest, EventConsumer, long)}.
+ * <p>
+ * Meant to be used from the EDT.
+ */
+public class ResultsTabs extends JPanel implements Closeable {
+    private static final int MAX_TABS = 12;
+    private static final int READ_AHEAD_PAGES = 4;
+    private static final int TITLE_MAX_LEN = 24;
+    private static final Dimension TAB_BUTTON_SIZE = new Dimension(24, 20);
+    private static final String PAUSE_TEXT = "\u2016";
+    private static final String RESUME_TEXT = "\u25B6";
+    private static final String CLOSE_TEXT = "\u00D7";
+    private static final String FETCH_ALL_TEXT = "\u21CA";
+
+    private final SQLExecutor executor;
+    private final Predicate<Table> retained;
+    private final JTabbedPane tabbedPane;
+    private final List<Tab> tabs; // in opening order
+    private final int width;
+    private final int height;
+    private boolean lazyFetch;
+
+    /**
+     * @param executor executes the requests bound to the tabs
+     * @param retained tables that are not closed with their tab
+     * @param width    preferred width
+     * @param height   preferred height
+     */
+    public ResultsTabs(SQLExecutor executor, Predicate<Table> retained, int width, int height) {
+        this.executor = executor;
+        this.retained = retained;
+        this.width = width;
+        this.height = height;
+        tabs = new ArrayList<>();
+        tabbedPane = new JTabbedPane(JTabbedPane.TOP, JTabbedPane.SCROLL_TAB_LAYOUT);
+        tabbedPane.setFont(GTk.MENU_FONT);
+        tabbedPane.setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
+        tabbedPane.setForeground(Color.WHITE);
+        setLayout(new BorderLayout());
+        setPreferredSize(new Dimension(width, height));
+        setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
+        add(tabbedPane, BorderLayout.CENTER);
+    }
+
+    /**
+     * Opens, and selects, a tab for the results of the request, and submits it.
+     *
+     * @param req           the request
+     * @param eventConsumer receives the events of the execution, which are to be
+     *                      routed back through {@link #onExecutorEvent}
+     */
+    public void submit(SQLExecutionRequest req, EventConsumer<SQLExecutor, SQLExecutionResponse> eventConsumer) {
+        Tab tab = open(new Tab(req, title(req.getSqlCommand()), null));
+        tab.fetchLimit = lazyFetch ? (READ_AHEAD_PAGES + 1L) * tab.results.getRowsPerPage() : SQLExecutor.FETCH_ALL;
+        tab.setFetching(true); // from submission, queued requests are cancelled with their tab
+        executor.submit(req, eventConsumer, tab.fetchLimit);
+    }
+
+    public boolean isLazyFetch() {
+        return lazyFetch;
+    }
+
+    /**
+     * @param lazyFetch whether requests submitted from now on fetch on demand
+     */
+    public void setLazyFetch(boolean lazyFetch) {
+        this.lazyFetch = lazyFetch;
+    }
+
+    /**
+     * Fetches all the rows of the selected tab, if it fetches on demand.
+     */
+    public void fetchAllSelected() {
+        Tab tab = selectedTab();
+        if (tab != null) {
+            tab.fetchAll();
+        }
+    }
+
+    /**
+     * Opens, and selects, a tab not bound to a request.
+     *
+     * @param title   title of the tab
+     * @param onClose called when the tab is closed, may be null
+     * @return the results pane of the tab
+     */
+    public SQLResultsTable open(String title, Runnable onClose) {
+        return open(new Tab(null, title, onClose)).results;
+    }
+
+    /**
+     * @return the results pane of the selected tab, opening one when there are none
+     */
+    public SQLResultsTable getSelected() {
+        Tab tab = selectedTab();
+        return tab != null ? tab.results : open("results", null);
+    }
+
+    /**
+     * @return the last response received by the selected tab, null if none
+     */
+    public SQLExecutionResponse getSelectedResponse() {
+        Tab tab = selectedTab();
+        return tab != null ? tab.response : null;
+    }
+
+    public boolean isSelectedCompleted() {
+        Tab tab = selectedTab();
+        return tab != null && tab.completed;
+    }
+
+    /**
+     * @return the request of the selected tab, if it is fetching, otherwise null
+     */
+    public SQLExecutionRequest getSelectedFetchingRequest() {
+        Tab tab = selectedTab();
+        return tab != null && tab.fetching ? tab.request : null;
+    }
+
+    /**
+     * @param table a table
+     * @return true if the table is the last response of some tab
+     */
+    public boolean isDisplayed(Table table) {
+        for (Tab tab : tabs) {
+            if (tab.response != null && tab.response.getTable() == table) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int getTabCount() {
+        return tabs.size();
+    }
+
+    /**
+     * Routes an event of the executor to the tab bound to its request.
+     *
+     * @param event the event
+     * @param res   the response
+     * @return false if the tab is no longer open
+     */
+    public boolean onExecutorEvent(SQLExecutor.EventType event, SQLExecutionResponse res) {
+        Tab tab = findTab(res);
+        if (tab == null) {
+            return false;
+        }
+        SQLResultsTable results = tab.results;
+        results.updateStats(event.name(), res);
+        switch (event) {
+            case STARTED -> {
+                tab.fetching = true;
+                results.onResultsStarted();
+            }
+            case FIRST_ROW_AVAILABLE -> {
+                tab.response = res;
+                results.onMetadataAvailable(res);
+            }
+            case ROWS_AVAILABLE -> {
+                tab.response = res;
+                results.onRowsAvailable(res);
+            }
+            case COMPLETED -> {
+                tab.response = res;
+                tab.completed = true;
+                tab.setFetching(false);
+                results.onRowsCompleted(res);
+            }
+            case CANCELLED -> {
+                tab.setFetching(false);
+                if (res.getTable().size() > 0) { // keeps what was fetched
+                    tab.response = res;
+                    results.onRowsCompleted(res);
+                } else {
+                    tab.response = null;
+                    closeTable(results.detach());
+                    results.displayMessage("Cancelled:\n" + res.getSqlCommand());
+                }
+            }
+            case FAILURE -> {
+                tab.response = null;
+                tab.setFetching(false);
+                closeTable(results.detach());
+                results.displayError(res.getError());
+            }
+        }
+        tab.refreshTitle();
+        return true;
+    }
+
+    @Override
+    public void close() {
+        for (Tab tab : new ArrayList<>(tabs)) {
+            closeTab(tab);
+        }
+    }
+
+    private Tab open(Tab tab) {
+        if (tabs.size() >= MAX_TABS) {
+            for (Tab old : tabs) {
+                if (!old.fetching) {
+                    closeTab(old);
+                    break;
+                }
+            }
+        }
+        tabs.add(tab);
+        tabbedPane.addTab(null, tab.results);
+        int idx = tabbedPane.indexOfComponent(tab.results);
+        tabbedPane.setTabComponentAt(idx, tab.header);
+        tabbedPane.setSelectedIndex(idx);
+        return tab;
+    }
+
+    private void closeTab(Tab tab) {
+        if (tab.fetching && tab.request != null) {
+            executor.cancelExistingRequest(tab.request);
+        }
+        tabs.remove(tab);
+        tabbedPane.remove(tab.results);
+        closeTable(tab.results.detach());
+        if (tab.onClose != null) {
+            tab.onClose.run();
+        }
+    }
+
+    private void closeTable(Table table) {
+        if (table != null && !retained.test(table)) {
+            table.close();
+        }
+    }
+
+    private Tab selectedTab() {
+        int idx = tabbedPane.getSelectedIndex();
+        if (idx >= 0) {
+            JComponent selected = (JComponent) tabbedPane.getComponentAt(idx);
+            for (Tab tab : tabs) {
+                if (tab.results == selected) {
+                    return tab;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Tab findTab(SQLExecutionResponse res) {
+        for (Tab tab : tabs) {
+            if (tab.request != null && tab.request.getUniqueId().equals(res.getUniqueId())) {
+                return tab;
+            }
+        }
+        return null;
+    }
+
+    private static String title(String sqlCommand) {
+        String title = sqlCommand.replaceAll("\\s+", " ").trim();
+        return title.length() > TITLE_MAX_LEN ? title.substring(0, TITLE_MAX_LEN) + "..." : title;
+    }
+
+    private class Tab {
+        private final SQLExecutionRequest request;
+        private final String title;
+        private final Runnable onClose;
+        private final SQLResultsTable results;
+        private final JPanel header;
+        private final JLabel titleLabel;
+        private final JButton pauseButton;
+        private final JButton fetchAllButton;
+        private long fetchLimit = SQLExecutor.FETCH_ALL;
+        private SQLExecutionResponse response;
+        private boolean completed;
+        private boolean fetching;
+        private boolean paused;
+
+        private Tab(SQLExecutionRequest request, String title, Runnable onClose) {
+            this.request = request;
+            this.title = title;
+            this.onClose = onClose;
+            results = new SQLResultsTable(width, height);
+            titleLabel = GTk.label(title, Color.WHITE);
+            titleLabel.setToolTipText(request != null ? request.getSqlCommand() : title);
+            pauseButton = GTk.button(PAUSE_TEXT, "Pause/resume the fetch", TAB_BUTTON_SIZE.width, TAB_BUTTON_SIZE.height, Color.WHITE, e -> onTogglePause());
+            pauseButton.setVisible(false);
+            fetchAllButton = GTk.button(FETCH_ALL_TEXT, "Fetch all rows", TAB_BUTTON_SIZE.width, TAB_BUTTON_SIZE.height, Color.WHITE, e -> fetchAll());
+            fetchAllButton.setVisible(false);
+            results.setRowsInViewListener(this::onRowsInView);
+            JButton closeButton = GTk.button(CLOSE_TEXT, "Cancel the fetch, and close", TAB_BUTTON_SIZE.width, TAB_BUTTON_SIZE.height, Color.WHITE, e -> closeTab(this));
+            header = new JPanel(new FlowLayout(FlowLayout.LEFT, 4, 0));
+            header.setOpaque(false);
+            header.add(titleLabel);
+            header.add(pauseButton);
+            header.add(fetchAllButton);
+            header.add(closeButton);
+        }
+
+        private void setFetching(boolean fetching) {
+            this.fetching = fetching;
+            if (!fetching) {
+                paused = false;
+            }
+            pauseButton.setText(paused ? RESUME_TEXT : PAUSE_TEXT);
+            pauseButton.setVisible(fetching && request != null);
+            fetchAllButton.setVisible(fetching && request != null && fetchLimit != SQLExecutor.FETCH_ALL);
+        }
+
+        private void onRowsInView(int lastRowInView) {
+            if (fetching && fetchLimit != SQLExecutor.FETCH_ALL) {
+                long demand = lastRowInView + (long) READ_AHEAD_PAGES * results.getRowsPerPage();
+                if (demand > fetchLimit && executor.requestRows(request, demand)) {
+                    fetchLimit = demand;
+                    refreshTitle();
+                }
+            }
+        }
+
+        private void fetchAll() {
+            if (fetching && fetchLimit != SQLExecutor.FETCH_ALL && executor.requestRows(request, SQLExecutor.FETCH_ALL)) {
+                fetchLimit = SQLExecutor.FETCH_ALL;
+                refreshTitle();
+            }
+        }
+
+        private void onTogglePause() {
+            if (!fetching) {
+                return;
+            }
+            boolean toggled = paused ? executor.resume(request) : executor.pause(request);
+            if (toggled) {
+                paused = !paused;
+                setFetching(true);
+                refreshTitle();
+            }
+        }
+
+        private void refreshTitle() {
+            setFetching(fetching);
+            SQLExecutionResponse res = response;
+            long bytes = res != null ? res.getTable().getEstimatedBytes() : 0L;
+            StringBuilder text = new StringBuilder(title);
+            if (bytes > 0L) {
+                text.append(String.format(" (%.1f MB)", bytes / (double) SQLResultsTable.BYTES_PER_MB));
+            }
+            if (paused) {
+                text.append(" [paused]");
+            } else if (fetching && res != null && res.getTable().size() >= fetchLimit) {
+                text.append(" [on demand]");
+            }
+            titleLabel.setText(text.toString());
+            titleLabel.setForeground(fetching ? GTk.EDITOR_MATCH_FOREGROUND_COLOR : Color.WHITE);
+        }
+    }
+}
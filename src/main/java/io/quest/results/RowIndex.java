@@ -0,0 +1,378 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.results;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Date;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+import io.quest.sql.Row;
+import io.quest.sql.SQLType;
+
+
+/**
+ * Sorts and filters the rows of a table without copying them. The result is an
+ * index array, the i-th row in view is row {@code index[i]} of the table.
+ * Filtering and the extraction of sort keys run in parallel streams, sorting is
+ * a stable fork-join merge sort of the keys, carrying the indices along. All stages poll a cancellation
+ * flag and give up with a {@link CancellationException} when it is raised.
+ */
+final class RowIndex {
+    private static final int SEQUENTIAL_THRESHOLD = 1 << 13;
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+    private static final int CANCELLATION_CHECK_MASK = (1 << 12) - 1;
+
+    private RowIndex() {
+        throw new IllegalStateException("not meant to be instantiated");
+    }
+
+    /**
+     * @param rows       the rows of the table
+     * @param colTypes   the SQL types of the columns, column 0 being the rowid
+     * @param sortColIdx column to sort by, -1 to keep the order of the table
+     * @param ascending  sort order, nulls always go last
+     * @param filter     text the value of at least one column must contain,
+     *                   ignoring case, null or empty to keep all rows
+     * @param cancelled  polled periodically
+     * @return the index array
+     * @throws CancellationException when cancelled
+     */
+    static int[] compute(Row[] rows, int[] colTypes, int sortColIdx, boolean ascending, String filter, BooleanSupplier cancelled) {
+        int[] index = filter == null || filter.isEmpty() ?
+            IntStream.range(0, rows.length).parallel().toArray()
+            :
+            filter(rows, colTypes, filter, cancelled);
+        if (sortColIdx < 0 || (sortColIdx == 0 && ascending) || index.length < 2) {
+            return index;
+        }
+        int n = index.length;
+        int[] tmpIndex = new int[n];
+        if (SQLType.isNotNumeric(colTypes[sortColIdx])) {
+            Comparable<?>[] keys = extractObjectKeys(rows, index, sortColIdx, cancelled);
+            ForkJoinPool.commonPool().invoke(new ObjectMergeSortTask(
+                keys, index, new Comparable<?>[n], tmpIndex, 0, n, ascending, cancelled));
+        } else {
+            // nulls go last in either order, and do not take a key
+            int[] present = IntStream.of(index).parallel().filter(i -> {
+                checkCancelled(i, cancelled);
+                return !isNullKey(rows[i].getValueAt(sortColIdx));
+            }).toArray();
+            int m = present.length;
+            if (m < n) {
+                int[] nulls = IntStream.of(index).filter(i -> isNullKey(rows[i].getValueAt(sortColIdx))).toArray();
+                System.arraycopy(nulls, 0, index, m, nulls.length);
+            }
+            long[] keys = extractNumericKeys(rows, present, sortColIdx, colTypes[sortColIdx], ascending, cancelled);
+            ForkJoinPool.commonPool().invoke(new LongMergeSortTask(
+                keys, present, new long[m], tmpIndex, 0, m, cancelled));
+            System.arraycopy(present, 0, index, 0, m);
+        }
+        return index;
+    }
+
+    private static int[] filter(Row[] rows, int[] colTypes, String filter, BooleanSupplier cancelled) {
+        // numbers are only rendered as text when the filter could match them
+        boolean canMatchNumbers = filter.chars().allMatch(c -> Character.isDigit(c) || c == '.' || c == '-');
+        int[] colIdxs = IntStream.range(1, colTypes.length)
+            .filter(colIdx -> canMatchNumbers || !isNumber(colTypes[colIdx]))
+            .toArray();
+        return IntStream.range(0, rows.length).parallel().filter(i -> {
+            checkCancelled(i, cancelled);
+            Row row = rows[i];
+            for (int colIdx : colIdxs) {
+                Object value = row.getValueAt(colIdx);
+                if (value != null && containsIgnoreCase(value.toString(), filter)) {
+                    return true;
+                }
+            }
+            return false;
+        }).toArray();
+    }
+
+    private static boolean isNumber(int sqlType) {
+        return switch (sqlType) {
+            case Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT, Types.REAL, Types.DOUBLE -> true;
+            default -> false;
+        };
+    }
+
+    static boolean containsIgnoreCase(String text, String part) {
+        int len = part.length();
+        for (int i = 0, limit = text.length() - len; i <= limit; i++) {
+            if (text.regionMatches(true, i, part, 0, len)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNullKey(Object value) {
+        return value == null || (value instanceof Double d && d.isNaN()) || (value instanceof Float f && f.isNaN());
+    }
+
+    /**
+     * Keys sort as signed longs in the requested order, and sit next to their index
+     * entry, so that sorting does not chase rows. The values must not be null.
+     */
+    private static long[] extractNumericKeys(Row[] rows, int[] index, int colIdx, int sqlType, boolean ascending, BooleanSupplier cancelled) {
+        long[] keys = new long[index.length];
+        IntStream.range(0, index.length).parallel().forEach(i -> {
+            checkCancelled(i, cancelled);
+            long key = numericKey(rows[index[i]].getValueAt(colIdx), sqlType);
+            keys[i] = ascending ? key : ~key;
+        });
+        return keys;
+    }
+
+    /**
+     * Integers are their own key, at full long precision. Floating point values
+     * are their bits, flipped so that they sort as signed longs. Dates and
+     * timestamps are epoch nanos, so that the micros of QuestDB timestamps, which
+     * {@link Date#getTime()} drops, are kept.
+     */
+    private static long numericKey(Object value, int sqlType) {
+        return switch (sqlType) {
+            case Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT -> ((Number) value).longValue();
+            case Types.REAL, Types.DOUBLE -> {
+                long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+                yield bits ^ ((bits >> 63) & Long.MAX_VALUE);
+            }
+            case Types.DATE, Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE, Types.TIME -> epochNanos((Date) value);
+            default -> 0L;
+        };
+    }
+
+    /**
+     * @return nanos since the epoch, saturated before 1677 and after 2262
+     */
+    private static long epochNanos(Date date) {
+        long millis = date.getTime();
+        long secs = Math.floorDiv(millis, 1000L);
+        long nanos = date instanceof Timestamp ts ? ts.getNanos() : Math.floorMod(millis, 1000L) * 1_000_000L;
+        long maxSecs = Long.MAX_VALUE / 1_000_000_000L - 1L;
+        if (secs > maxSecs) {
+            return Long.MAX_VALUE;
+        }
+        if (secs < -maxSecs) {
+            return Long.MIN_VALUE;
+        }
+        return secs * 1_000_000_000L + nanos;
+    }
+
+    private static Comparable<?>[] extractObjectKeys(Row[] rows, int[] index, int colIdx, BooleanSupplier cancelled) {
+        Comparable<?>[] keys = new Comparable<?>[index.length];
+        IntStream.range(0, index.length).parallel().forEach(i -> {
+            checkCancelled(i, cancelled);
+            Object value = rows[index[i]].getValueAt(colIdx);
+            keys[i] = value == null || value instanceof Comparable ? (Comparable<?>) value : value.toString();
+        });
+        return keys;
+    }
+
+    private static void checkCancelled(int i, BooleanSupplier cancelled) {
+        if ((i & CANCELLATION_CHECK_MASK) == 0 && cancelled.getAsBoolean()) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Stable merge sort of the keys in [lo, hi), moving the index entries along.
+     * Halves are sorted in parallel down to {@link #SEQUENTIAL_THRESHOLD} elements.
+     */
+    private static class LongMergeSortTask extends RecursiveAction {
+        private final long[] keys;
+        private final int[] index;
+        private final long[] tmpKeys;
+        private final int[] tmpIndex;
+        private final int lo;
+        private final int hi;
+        private final BooleanSupplier cancelled;
+
+        private LongMergeSortTask(long[] keys, int[] index, long[] tmpKeys, int[] tmpIndex, int lo, int hi, BooleanSupplier cancelled) {
+            this.keys = keys;
+            this.index = index;
+            this.tmpKeys = tmpKeys;
+            this.tmpIndex = tmpIndex;
+            this.lo = lo;
+            this.hi = hi;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled.getAsBoolean()) {
+                throw new CancellationException();
+            }
+            if (hi - lo <= SEQUENTIAL_THRESHOLD) {
+                sort(lo, hi);
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(
+                    new LongMergeSortTask(keys, index, tmpKeys, tmpIndex, lo, mid, cancelled),
+                    new LongMergeSortTask(keys, index, tmpKeys, tmpIndex, mid, hi, cancelled)
+                );
+                merge(lo, mid, hi);
+            }
+        }
+
+        private void sort(int from, int to) {
+            if (to - from <= INSERTION_SORT_THRESHOLD) {
+                for (int i = from + 1; i < to; i++) {
+                    long key = keys[i];
+                    int idx = index[i];
+                    int j = i - 1;
+                    while (j >= from && keys[j] > key) {
+                        keys[j + 1] = keys[j];
+                        index[j + 1] = index[j];
+                        j--;
+                    }
+                    keys[j + 1] = key;
+                    index[j + 1] = idx;
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            sort(from, mid);
+            sort(mid, to);
+            merge(from, mid, to);
+        }
+
+        private void merge(int from, int mid, int to) {
+            if (keys[mid - 1] <= keys[mid]) {
+                return; // already in order
+            }
+            System.arraycopy(keys, from, tmpKeys, from, to - from);
+            System.arraycopy(index, from, tmpIndex, from, to - from);
+            int i = from;
+            int j = mid;
+            for (int k = from; k < to; k++) {
+                if (j >= to || (i < mid && tmpKeys[i] <= tmpKeys[j])) {
+                    keys[k] = tmpKeys[i];
+                    index[k] = tmpIndex[i++];
+                } else {
+                    keys[k] = tmpKeys[j];
+                    index[k] = tmpIndex[j++];
+                }
+            }
+        }
+    }
+
+    /**
+     * As {@link LongMergeSortTask}, for keys that are compared as objects.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static class ObjectMergeSortTask extends RecursiveAction {
+        private final Comparable[] keys;
+        private final int[] index;
+        private final Comparable[] tmpKeys;
+        private final int[] tmpIndex;
+        private final int lo;
+        private final int hi;
+        private final boolean ascending;
+        private final BooleanSupplier cancelled;
+
+        private ObjectMergeSortTask(
+            Comparable[] keys,
+            int[] index,
+            Comparable[] tmpKeys,
+            int[] tmpIndex,
+            int lo,
+            int hi,
+            boolean ascending,
+            BooleanSupplier cancelled
+        ) {
+            this.keys = keys;
+            this.index = index;
+            this.tmpKeys = tmpKeys;
+            this.tmpIndex = tmpIndex;
+            this.lo = lo;
+            this.hi = hi;
+            this.ascending = ascending;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled.getAsBoolean()) {
+                throw new CancellationException();
+            }
+            if (hi - lo <= SEQUENTIAL_THRESHOLD) {
+                sort(lo, hi);
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(
+                    new ObjectMergeSortTask(keys, index, tmpKeys, tmpIndex, lo, mid, ascending, cancelled),
+                    new ObjectMergeSortTask(keys, index, tmpKeys, tmpIndex, mid, hi, ascending, cancelled)
+                );
+                merge(lo, mid, hi);
+            }
+        }
+
+        private int compare(Comparable a, Comparable b) {
+            if (a == null || b == null) {
+                return a == b ? 0 : a == null ? 1 : -1; // nulls last
+            }
+            return ascending ? a.compareTo(b) : b.compareTo(a);
+        }
+
+        private void sort(int from, int to) {
+            if (to - from <= INSERTION_SORT_THRESHOLD) {
+                for (int i = from + 1; i < to; i++) {
+                    Comparable key = keys[i];
+                    int idx = index[i];
+                    int j = i - 1;
+                    while (j >= from && compare(keys[j], key) > 0) {
+                        keys[j + 1] = keys[j];
+                        index[j + 1] = index[j];
+                        j--;
+                    }
+                    keys[j + 1] = key;
+                    index[j + 1] = idx;
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            sort(from, mid);
+            sort(mid, to);
+            merge(from, mid, to);
+        }
+
+        private void merge(int from, int mid, int to) {
+            if (compare(keys[mid - 1], keys[mid]) <= 0) {
+                return; // already in order
+            }
+            System.arraycopy(keys, from, tmpKeys, from, to - from);
+            System.arraycopy(index, from, tmpIndex, from, to - from);
+            int i = from;
+            int j = mid;
+            for (int k = from; k < to; k++) {
+                if (j >= to || (i < mid && compare(tmpKeys[i], tmpKeys[j]) <= 0)) {
+                    keys[k] = tmpKeys[i];
+                    index[k] = tmpIndex[i++];
+                } else {
+                    keys[k] = tmpKeys[j];
+                    index[k] = tmpIndex[j++];
+                }
+            }
+        }
+    }
+}
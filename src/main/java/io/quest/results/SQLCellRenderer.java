@@ -16,6 +16,7 @@
 
 package io.quest.results;
 
+import java.awt.Color;
 import java.awt.Component;
 import java.util.function.Supplier;
 
@@ -26,8 +27,22 @@ import io.quest.sql.Table;
 import io.quest.CellRenderer;
 
 
+/**
+ * Formats values by column type, see {@link CellFormatter}, and keeps the text
+ * of the cells recently painted in a {@link FormattedCellCache}. Colours by
+ * column type are resolved once per table version. Scrolling back and forth
+ * over rows already seen allocates nothing, and a {@link PagePrefetcher} fills
+ * the cache with the rows about to be seen.
+ */
 class SQLCellRenderer extends CellRenderer {
+    private static final int CACHE_CAPACITY = 8192;
     private final Supplier<Table> tableSupplier;
+    private final CellFormatter formatter = new CellFormatter();
+    private final FormattedCellCache cache = new FormattedCellCache(CACHE_CAPACITY);
+    private final StringBuilder sink = new StringBuilder(64);
+    private long tableVersion = -1L;
+    private int[] colTypes;
+    private Color[] colColors;
 
     SQLCellRenderer(Supplier<Table> tableSupplier) {
         this.tableSupplier = tableSupplier;
@@ -43,15 +58,85 @@ class SQLCellRenderer extends CellRenderer {
             int colIdx
     ) {
         super.getTableCellRendererComponent(table, value, isSelected, hasFocus, rowIdx, colIdx);
-        Table sqlTable = tableSupplier.get();
-        if (sqlTable != null && !isSelected && rowIdx > -1 && rowIdx < table.getModel().getRowCount()) {
-            if (colIdx > -1) {
-                int[] columnTypes = sqlTable.getColumnTypes();
-                if (columnTypes != null) {
-                    setForeground(SQLType.resolveColor(columnTypes[colIdx]));
-                }
+        if (!isSelected && colIdx > -1 && refreshColumns()) {
+            int modelColIdx = table.convertColumnIndexToModel(colIdx);
+            if (modelColIdx < colColors.length) {
+                setForeground(colColors[modelColIdx]);
             }
         }
         return this;
     }
+
+    @Override
+    protected String toText(JTable table, Object value, int rowIdx, int colIdx) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof String text) {
+            return text;
+        }
+        if (!refreshColumns() || !(table.getModel() instanceof SQLTableModel model)) {
+            return value.toString();
+        }
+        int tableRowIdx = model.toTableRowIdx(rowIdx);
+        int modelColIdx = table.convertColumnIndexToModel(colIdx);
+        if (tableRowIdx < 0 || modelColIdx < 0 || modelColIdx >= colTypes.length) {
+            return value.toString();
+        }
+        String text = cache.get(tableRowIdx, modelColIdx);
+        if (text == null) {
+            sink.setLength(0);
+            text = formatter.format(sink, value, colTypes[modelColIdx]).toString();
+            cache.put(tableRowIdx, modelColIdx, text);
+        }
+        return text;
+    }
+
+    int getCacheCapacity() {
+        return cache.capacity();
+    }
+
+    /**
+     * Puts the text of cells formatted ahead of time in the cache.
+     *
+     * @param page cells of rows about to be in view
+     */
+    void putPrefetched(PagePrefetcher.Page page) {
+        if (!refreshColumns() || page.table() != tableSupplier.get() || page.version() != tableVersion) {
+            return; // stale
+        }
+        int[] cols = page.modelCols();
+        String[] texts = page.texts();
+        for (int i = 0, k = 0; i < page.tableRows().length; i++) {
+            for (int colIdx : cols) {
+                String text = texts[k++];
+                if (text != null) {
+                    cache.put(page.tableRows()[i], colIdx, text);
+                }
+            }
+        }
+    }
+
+    private boolean refreshColumns() {
+        Table sqlTable = tableSupplier.get();
+        if (sqlTable == null) {
+            return false;
+        }
+        long version = sqlTable.getVersion();
+        if (version != tableVersion) {
+            int[] types = sqlTable.getColumnTypes();
+            if (types == null) {
+                return false;
+            }
+            Color[] colors = new Color[types.length];
+            for (int i = 0; i < types.length; i++) {
+                colors[i] = SQLType.resolveColor(types[i]);
+            }
+            colTypes = types;
+            colColors = colors;
+            tableVersion = version;
+            cache.clear();
+        }
+        return true;
+    }
 }
@@ -20,11 +20,20 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
+import java.awt.event.MouseEvent;
 import java.io.Closeable;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.DefaultTableColumnModel;
 import javax.swing.table.JTableHeader;
 import javax.swing.table.TableColumn;
 import javax.swing.table.TableColumnModel;
@@ -33,33 +42,45 @@ import io.quest.GTk;
 import io.quest.sql.SQLExecutionResponse;
 import io.quest.sql.SQLType;
 import io.quest.sql.Table;
+import io.quest.sql.TableDiff;
 import io.quest.InfiniteSpinner;
+import io.quest.NoopMouseListener;
 import io.quest.editor.Editor;
+import io.questdb.std.Misc;
 
 
 public class SQLResultsTable extends JPanel implements Closeable {
-    private static final Dimension STATUS_LABEL_SIZE = new Dimension(600, 35);
+    static final long BYTES_PER_MB = 1024L * 1024L;
+    private static final Dimension STATUS_LABEL_SIZE = new Dimension(720, 35);
     private static final Dimension NAVIGATION_LABEL_SIZE = new Dimension(300, 35);
-    private static final Dimension NAVIGATION_BUTTON_SIZE = new Dimension(100, 35);
     private static final int TABLE_ROW_HEIGHT = 30;
     private static final int TABLE_HEADER_HEIGHT = 50;
+    private static final int FILTER_DELAY_MILLIS = 300;
     private final JTable table;
     private final JScrollPane tableScrollPanel;
-    private final SQLPagedTableModel tableModel;
+    private final SQLTableModel tableModel;
     private final AtomicReference<Table> results;
     private final Editor questPanel;
     private final JLabel rowRangeLabel;
     private final JLabel statsLabel;
-    private final JButton prevButton;
-    private final JButton nextButton;
+    private final JTextField filterText;
+    private final Timer filterTimer;
+    private final ColumnWidthEstimator colWidthEstimator;
+    private final PagePrefetcher pagePrefetcher;
+    private final ColumnStatsPanel colStatsPanel;
+    private boolean colStatsHidden;
+    private String[] colHeaders;
+    private int[] estimatedColWidths;
     private final InfiniteSpinner infiniteSpinner;
     private Component currentModePanel;
     private Mode mode;
+    private IntConsumer rowsInViewListener;
 
     public SQLResultsTable(int width, int height) {
         Dimension size = new Dimension(width, height);
         results = new AtomicReference<>();
-        tableModel = new SQLPagedTableModel(results::get);
+        colWidthEstimator = new ColumnWidthEstimator(this::onColumnWidthsEstimated);
+        tableModel = new SQLTableModel(results::get);
         table = new JTable(tableModel);
         table.setAutoCreateRowSorter(false);
         table.setRowSelectionAllowed(true);
@@ -68,7 +89,9 @@ public class SQLResultsTable extends JPanel implements Closeable {
         table.setRowHeight(TABLE_ROW_HEIGHT);
         table.setGridColor(GTk.EDITOR_KEYWORD_FOREGROUND_COLOR.darker().darker().darker());
         table.setFont(GTk.TABLE_CELL_FONT);
-        table.setDefaultRenderer(String.class, new SQLCellRenderer(results::get));
+        SQLCellRenderer cellRenderer = new SQLCellRenderer(results::get);
+        pagePrefetcher = new PagePrefetcher(cellRenderer.getCacheCapacity() / 4, cellRenderer::putPrefetched);
+        table.setDefaultRenderer(String.class, cellRenderer);
         table.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
         table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
         GTk.setupTableCmdKeyActions(table);
@@ -76,6 +99,14 @@ public class SQLResultsTable extends JPanel implements Closeable {
         header.setReorderingAllowed(false);
         header.setFont(GTk.TABLE_HEADER_FONT);
         header.setForeground(GTk.QUEST_APP_BACKGROUND_COLOR);
+        header.setToolTipText("Click to sort, ascending, descending, or not");
+        header.addMouseListener(new NoopMouseListener() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                onHeaderClicked(e);
+            }
+        });
+        tableModel.addTableModelListener(e -> updateRowNavigationComponents());
         statsLabel = new JLabel();
         statsLabel.setFont(GTk.MENU_FONT);
         statsLabel.setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
@@ -88,18 +119,41 @@ public class SQLResultsTable extends JPanel implements Closeable {
         rowRangeLabel.setForeground(Color.WHITE);
         rowRangeLabel.setPreferredSize(NAVIGATION_LABEL_SIZE);
         rowRangeLabel.setHorizontalAlignment(JLabel.RIGHT);
-        prevButton = GTk.button(GTk.Icon.RESULTS_PREV, "Go to previous page", this::onPrevButton);
-        prevButton.setFont(GTk.MENU_FONT);
-        prevButton.setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
-        prevButton.setForeground(Color.WHITE);
-        prevButton.setPreferredSize(NAVIGATION_BUTTON_SIZE);
-        nextButton = GTk.button(GTk.Icon.RESULTS_NEXT, "Go to next page", this::onNextButton);
-        nextButton.setFont(GTk.MENU_FONT);
-        nextButton.setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
-        nextButton.setForeground(Color.WHITE);
-        nextButton.setPreferredSize(NAVIGATION_BUTTON_SIZE);
-        nextButton.setHorizontalTextPosition(SwingConstants.LEFT);
-        JPanel southPanel = GTk.flowPanel(statsLabel, rowRangeLabel, prevButton, nextButton);
+        filterText = new JTextField(20);
+        filterText.setFont(GTk.TABLE_HEADER_FONT);
+        filterText.setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
+        filterText.setForeground(GTk.EDITOR_MATCH_FOREGROUND_COLOR);
+        filterText.setCaretColor(Color.CYAN);
+        filterText.setToolTipText("Show only rows with a value containing the text, ignoring case");
+        filterTimer = new Timer(FILTER_DELAY_MILLIS, e -> applyFilter());
+        filterTimer.setRepeats(false);
+        filterText.addActionListener(e -> applyFilter());
+        filterText.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+        });
+        colStatsPanel = new ColumnStatsPanel();
+        colStatsPanel.setVisible(false);
+        JButton colStatsButton = GTk.button("Stats", this::onToggleColumnStats);
+        colStatsButton.setToolTipText("Show/hide the statistics of the columns");
+        JPanel southPanel = GTk.flowPanel(
+            statsLabel,
+            rowRangeLabel,
+            GTk.label("Filter:", Color.WHITE),
+            filterText,
+            colStatsButton);
         southPanel.setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
         questPanel = new Editor(false, false);
         tableScrollPanel = new JScrollPane(
@@ -109,6 +163,11 @@ public class SQLResultsTable extends JPanel implements Closeable {
         JViewport viewport = tableScrollPanel.getViewport();
         viewport.setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
         viewport.setExtentSize(size);
+        viewport.addChangeListener(e -> {
+            updateRowNavigationComponents();
+            prefetchAdjacentPages();
+        });
+        tableScrollPanel.getVerticalScrollBar().setUnitIncrement(TABLE_ROW_HEIGHT);
         infiniteSpinner = new InfiniteSpinner();
         infiniteSpinner.setSize(size);
         changeMode(Mode.TABLE);
@@ -117,26 +176,70 @@ public class SQLResultsTable extends JPanel implements Closeable {
         setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
         add(currentModePanel, BorderLayout.CENTER);
         add(southPanel, BorderLayout.SOUTH);
+        add(colStatsPanel, BorderLayout.EAST);
         updateRowNavigationComponents();
     }
 
-    public SQLPagedTableModel getTable() {
+    public SQLTableModel getTable() {
         return tableModel;
     }
 
+    /**
+     * @param listener receives the number of rows up to, and including, the last
+     *                 row in view, whenever the view or the rows change
+     */
+    public void setRowsInViewListener(IntConsumer listener) {
+        rowsInViewListener = listener;
+    }
+
+    /**
+     * @return rows that fit in the view
+     */
+    public int getRowsPerPage() {
+        int height = tableScrollPanel.getViewport().getExtentSize().height;
+        return Math.max(1, (height > 0 ? height : getPreferredSize().height) / TABLE_ROW_HEIGHT);
+    }
+
     public void updateStats(String eventType, SQLExecutionResponse res) {
         if (res != null) {
+            List<SQLExecutionResponse.NodeResult> nodes = res.getNodeResults();
             statsLabel.setText(String.format(
-                "[%s]  Exec: %5d,  Fetch: %5d,  Total: %6d (ms)",
+                "[%s]  Exec: %5d,  Fetch: %5d,  Total: %6d (ms),  Mem: %.1f MB%s",
                 eventType,
                 res.getExecMillis(),
                 res.getFetchMillis(),
-                res.getTotalMillis()));
+                res.getTotalMillis(),
+                res.getTable().getEstimatedBytes() / (double) BYTES_PER_MB,
+                nodes.isEmpty() ? "" : String.format(",  Nodes: %d/%d%s",
+                    nodes.stream().filter(node -> !node.isFailed()).count(),
+                    nodes.size(),
+                    nodes.stream().anyMatch(SQLExecutionResponse.NodeResult::truncated) ? " (truncated)" : "")));
+            statsLabel.setToolTipText(nodes.isEmpty() ? null : nodesToolTip(nodes));
         } else {
             statsLabel.setText("");
+            statsLabel.setToolTipText(null);
         }
     }
 
+    private static String nodesToolTip(List<SQLExecutionResponse.NodeResult> nodes) {
+        StringBuilder sb = new StringBuilder("<html>");
+        for (SQLExecutionResponse.NodeResult node : nodes) {
+            sb.append("<b>").append(escapeHtml(node.node())).append("</b>: ");
+            if (node.isFailed()) {
+                sb.append("failed, ").append(escapeHtml(String.valueOf(node.error().getMessage())));
+            } else {
+                sb.append(String.format("%d rows, Exec: %d, Fetch: %d, Total: %d (ms)",
+                    node.rows(), node.execMillis(), node.fetchMillis(), node.totalMillis()));
+            }
+            sb.append("<br>");
+        }
+        return sb.append("</html>").toString();
+    }
+
+    private static String escapeHtml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
     public void onResultsStarted() {
         infiniteSpinner.start();
         changeMode(Mode.INFINITE);
@@ -150,7 +253,8 @@ public class SQLResultsTable extends JPanel implements Closeable {
 
     public void onRowsAvailable(SQLExecutionResponse res) {
         if (res.getTable().size() > 0) {
-            tableModel.fireTableDataChanged();
+            tableModel.fireTableRowsAdded();
+            estimateColumnWidths();
             infiniteSpinner.close();
             changeMode(Mode.TABLE);
             updateRowNavigationComponents();
@@ -158,7 +262,8 @@ public class SQLResultsTable extends JPanel implements Closeable {
     }
 
     public void onRowsCompleted(SQLExecutionResponse res) {
-        tableModel.fireTableDataChanged(true);
+        tableModel.fireTableRowsAdded();
+        estimateColumnWidths();
         infiniteSpinner.close();
         Table table = res.getTable();
         int size = table.size();
@@ -171,21 +276,76 @@ public class SQLResultsTable extends JPanel implements Closeable {
         } else {
             changeMode(Mode.TABLE);
             updateRowNavigationComponents();
+            colStatsPanel.setStats(table);
+            setColumnStatsVisible(!colStatsHidden);
         }
     }
 
-    @Override
-    public void close() {
-        Table table = results.getAndSet(null);
-        if (table != null) {
-            table.close();
+    /**
+     * Displays the differences between two results as a table, which is closed
+     * with this component. It is meant to be called once detached.
+     *
+     * @param diff   the differences
+     * @param before response the table before comes from
+     * @param after  response the table after comes from
+     */
+    public void displayDiff(TableDiff diff, SQLExecutionResponse before, SQLExecutionResponse after) {
+        infiniteSpinner.close();
+        Table table = diff.toTable(after.getUniqueId() + "-diff");
+        Misc.free(results.getAndSet(table));
+        resetTableHeader();
+        tableModel.fireTableRowsAdded();
+        estimateColumnWidths();
+        statsLabel.setText(String.format(
+            "[DIFF] +%d -%d ~%d =%d  Exec: %+5d,  Fetch: %+5d,  Total: %+6d (ms)",
+            diff.getAddedCount(),
+            diff.getRemovedCount(),
+            diff.getChangedCount(),
+            diff.getUnchangedCount(),
+            after.getExecMillis() - before.getExecMillis(),
+            after.getFetchMillis() - before.getFetchMillis(),
+            after.getTotalMillis() - before.getTotalMillis()));
+        if (table.size() == 0) {
+            questPanel.displayMessage(String.format(
+                "No differences.\n\nExec: %d -> %d, Fetch: %d -> %d, Total: %d -> %d (ms)",
+                before.getExecMillis(), after.getExecMillis(),
+                before.getFetchMillis(), after.getFetchMillis(),
+                before.getTotalMillis(), after.getTotalMillis()));
+            changeMode(Mode.MESSAGE);
+        } else {
+            changeMode(Mode.TABLE);
+            updateRowNavigationComponents();
         }
+    }
+
+    /**
+     * Resets the view, like {@link #close()}, without closing the table being
+     * displayed, which is returned instead.
+     *
+     * @return the table that was being displayed, or null
+     */
+    public Table detach() {
+        Table table = results.getAndSet(null);
+        pagePrefetcher.reset();
+        colHeaders = null;
+        estimatedColWidths = null;
+        colStatsPanel.clear();
+        setColumnStatsVisible(false);
+        filterTimer.stop();
+        filterText.setText("");
+        tableModel.clearSortAndFilter();
         tableModel.fireTableStructureChanged();
         tableModel.fireTableDataChanged();
         infiniteSpinner.close();
         updateStats(null, null);
         updateRowNavigationComponents();
         changeMode(Mode.TABLE);
+        return table;
+    }
+
+    @Override
+    public void close() {
+        Misc.free(detach());
     }
 
     public void displayMessage(String message) {
@@ -203,30 +363,110 @@ public class SQLResultsTable extends JPanel implements Closeable {
         changeMode(Mode.MESSAGE);
     }
 
-    public void onPrevButton(ActionEvent event) {
-        if (prevButton.isEnabled() && tableModel.canDecrPage()) {
-            tableModel.decrPage();
-            updateRowNavigationComponents();
+    public void onPageUp(ActionEvent event) {
+        scrollRows(-1);
+    }
+
+    public void onPageDown(ActionEvent event) {
+        scrollRows(1);
+    }
+
+    private void scrollRows(int direction) {
+        JViewport viewport = tableScrollPanel.getViewport();
+        Rectangle view = viewport.getViewRect();
+        int rowCount = tableModel.getRowCount();
+        if (mode == Mode.TABLE && rowCount > 0) {
+            int rows = Math.max(1, view.height / TABLE_ROW_HEIGHT);
+            int firstRow = Math.max(0, table.rowAtPoint(view.getLocation()));
+            int targetRow = Math.max(0, Math.min(rowCount - 1, firstRow + direction * rows));
+            Rectangle target = table.getCellRect(targetRow, 0, true);
+            viewport.setViewPosition(new Point(view.x, Math.min(target.y, Math.max(0, table.getHeight() - view.height))));
         }
     }
 
-    public void onNextButton(ActionEvent event) {
-        if (nextButton.isEnabled() && tableModel.canIncrPage()) {
-            tableModel.incrPage();
-            updateRowNavigationComponents();
+    private void onToggleColumnStats() {
+        if (colStatsPanel.isVisible()) {
+            colStatsHidden = true;
+            setColumnStatsVisible(false);
+        } else {
+            colStatsHidden = false;
+            colStatsPanel.setStats(results.get());
+            setColumnStatsVisible(true);
+        }
+    }
+
+    private void setColumnStatsVisible(boolean visible) {
+        if (colStatsPanel.isVisible() != visible) {
+            colStatsPanel.setVisible(visible);
+            revalidate();
+            repaint();
+        }
+    }
+
+    private void applyFilter() {
+        filterTimer.stop();
+        tableModel.setFilter(filterText.getText());
+        updateRowNavigationComponents();
+    }
+
+    private void onHeaderClicked(MouseEvent e) {
+        JTableHeader header = table.getTableHeader();
+        int colIdx = table.convertColumnIndexToModel(header.columnAtPoint(e.getPoint()));
+        if (colIdx < 0 || results.get() == null) {
+            return;
+        }
+        tableModel.toggleSort(colIdx);
+        TableColumnModel colModel = table.getColumnModel();
+        for (int i = 0, n = colModel.getColumnCount(); i < n; i++) {
+            TableColumn col = colModel.getColumn(i);
+            col.setHeaderValue(tableModel.getColumnName(col.getModelIndex()));
+        }
+        header.repaint();
+        updateRowNavigationComponents();
+    }
+
+    private void prefetchAdjacentPages() {
+        Table resultsTable = results.get();
+        if (mode != Mode.TABLE || resultsTable == null || tableModel.getRowCount() == 0) {
+            return;
+        }
+        Rectangle view = tableScrollPanel.getViewport().getViewRect();
+        int firstCol = table.columnAtPoint(view.getLocation());
+        int lastCol = table.columnAtPoint(new Point(view.x + view.width - 1, view.y));
+        if (firstCol < 0) {
+            return;
+        }
+        if (lastCol < 0) {
+            lastCol = table.getColumnCount() - 1;
+        }
+        int[] modelCols = new int[lastCol - firstCol + 1];
+        for (int i = 0; i < modelCols.length; i++) {
+            modelCols[i] = table.convertColumnIndexToModel(firstCol + i);
         }
+        pagePrefetcher.onViewMoved(resultsTable, tableModel, table.rowAtPoint(view.getLocation()), getRowsPerPage(), modelCols);
     }
 
     private void updateRowNavigationComponents() {
-        prevButton.setEnabled(tableModel.canDecrPage());
-        nextButton.setEnabled(tableModel.canIncrPage());
-        int start = tableModel.getPageStartOffset();
-        int end = tableModel.getPageEndOffset();
-        int tableSize = tableModel.getTableSize();
+        int tableSize = tableModel.getRowCount();
+        int start = 0;
+        int end = 0;
         if (tableSize > 0) {
-            start++;
+            Rectangle view = tableScrollPanel.getViewport().getViewRect();
+            int first = table.rowAtPoint(view.getLocation());
+            int last = table.rowAtPoint(new Point(view.x, view.y + view.height - 1));
+            start = first < 0 ? 1 : first + 1;
+            end = last < 0 ? tableSize : last + 1;
+        }
+        String status = "";
+        if (tableModel.isIndexing()) {
+            status = " (indexing)";
+        } else if (!tableModel.getFilter().isEmpty()) {
+            status = String.format(" (of %d)", tableModel.getTableSize());
+        }
+        rowRangeLabel.setText(String.format("Rows %d to %d of %d%s", start, end, tableSize, status));
+        if (rowsInViewListener != null) {
+            rowsInViewListener.accept(end);
         }
-        rowRangeLabel.setText(String.format("Rows %d to %d of %-10d", start, end, tableSize));
     }
 
     private void resetTableHeader() {
@@ -235,17 +475,69 @@ public class SQLResultsTable extends JPanel implements Closeable {
         header.setForeground(Color.WHITE);
         header.setBackground(GTk.QUEST_APP_BACKGROUND_COLOR);
         header.setPreferredSize(new Dimension(0, TABLE_HEADER_HEIGHT));
-        
-        TableColumnModel colModel = table.getColumnModel();
+
+        // widths from types first, then estimated from values in the background
         Table resultsTable = results.get();
+        int colCount = tableModel.getColumnCount();
+        String[] headers = new String[colCount];
+        int[] widths = new int[colCount];
+        for (int i = 0; i < colCount; i++) {
+            headers[i] = tableModel.getColumnName(i);
+            widths[i] = SQLType.resolveColWidth(resultsTable, i);
+        }
+        colHeaders = headers;
+        estimatedColWidths = null;
+        setColumnWidths(widths);
+        estimateColumnWidths();
+    }
+
+    private void estimateColumnWidths() {
+        Table resultsTable = results.get();
+        if (resultsTable != null && colHeaders != null) {
+            colWidthEstimator.update(
+                resultsTable,
+                colHeaders,
+                table.getFontMetrics(GTk.TABLE_CELL_FONT),
+                table.getFontMetrics(GTk.TABLE_HEADER_FONT));
+        }
+    }
+
+    private void onColumnWidthsEstimated(Table resultsTable, int[] widths) {
+        if (resultsTable != results.get() || widths.length != table.getColumnCount()) {
+            return; // stale
+        }
+        if (estimatedColWidths != null) { // refinements only widen columns
+            for (int i = 0; i < widths.length; i++) {
+                widths[i] = Math.max(widths[i], estimatedColWidths[i]);
+            }
+            if (Arrays.equals(widths, estimatedColWidths)) {
+                return;
+            }
+        }
+        estimatedColWidths = widths;
+        setColumnWidths(widths);
+    }
+
+    /**
+     * Sets all widths in a single update of the header, swapping in a new column
+     * model, rather than column by column.
+     */
+    private void setColumnWidths(int[] widths) {
+        TableColumnModel current = table.getColumnModel();
+        DefaultTableColumnModel colModel = new DefaultTableColumnModel();
         int tWidth = 0;
-        for (int i = 0, n = colModel.getColumnCount(); i < n; i++) {
-            int width = SQLType.resolveColWidth(resultsTable, i);
-            tWidth += width;
-            TableColumn col = colModel.getColumn(i);
+        for (int i = 0, n = current.getColumnCount(); i < n; i++) {
+            TableColumn prev = current.getColumn(i);
+            int width = widths[prev.getModelIndex()];
+            TableColumn col = new TableColumn(prev.getModelIndex(), width);
+            col.setHeaderValue(prev.getHeaderValue());
             col.setMinWidth(width);
             col.setPreferredWidth(width);
+            colModel.addColumn(col);
+            tWidth += width;
         }
+        colModel.setColumnSelectionAllowed(current.getColumnSelectionAllowed());
+        table.setColumnModel(colModel);
         table.setAutoResizeMode(tWidth < getWidth() ? JTable.AUTO_RESIZE_ALL_COLUMNS : JTable.AUTO_RESIZE_OFF);
     }
 
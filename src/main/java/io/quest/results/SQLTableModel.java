@@ -0,0 +1,326 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.results;
+
+import java.sql.Types;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import javax.swing.table.AbstractTableModel;
+
+import io.quest.GTk;
+import io.quest.sql.SQLExecutor;
+import io.quest.sql.SQLType;
+import io.quest.sql.Table;
+import io.questdb.log.Log;
+import io.questdb.log.LogFactory;
+
+
+/**
+ * Default {@link javax.swing.table.TableModel} wrapping a {@link Table}, all of
+ * whose rows are scrollable. The {@link javax.swing.JTable} only asks for the
+ * values of the rows in view, which are formatted by the renderer as they are
+ * painted. Column metadata are accessed through a table supplier. The table is
+ * built by a {@link SQLExecutor} and thus it will be null until the SQL query
+ * execution is started.
+ * <p>
+ * The table grows in the executor's thread, the row count reported is that of
+ * the last notification, so that it is always consistent with the events the
+ * JTable has received.
+ * <p>
+ * Rows can be sorted by a column and filtered by text client-side. The view is
+ * then an index into the table computed by {@link RowIndex} off the EDT, rows
+ * are never copied. Changing the criteria cancels the computation in flight,
+ * rows that stream in meanwhile are indexed once it completes.
+ */
+public class SQLTableModel extends AbstractTableModel {
+    private static final Log LOG = LogFactory.getLog(SQLTableModel.class);
+    private static final String SORT_ASCENDING_MARK = " \u25B2";
+    private static final String SORT_DESCENDING_MARK = " \u25BC";
+    private static final long IDLE_MILLIS = 10_000L;
+    private final Supplier<Table> tableSupplier;
+    private final ThreadPoolExecutor indexer;
+    private final AtomicLong indexGeneration = new AtomicLong();
+    private int rowCount;
+    private volatile int[] index; // null when rows are shown in table order
+    private int sortColIdx = -1;
+    private boolean sortAscending = true;
+    private String filter = "";
+    private boolean indexing;
+    private boolean reindexPending;
+
+    SQLTableModel(Supplier<Table> tableSupplier) {
+        this.tableSupplier = Objects.requireNonNull(tableSupplier);
+        String name = getClass().getSimpleName();
+        indexer = new ThreadPoolExecutor(1, 1, IDLE_MILLIS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread t = Executors.defaultThreadFactory().newThread(runnable);
+            t.setDaemon(true);
+            t.setName(name);
+            return t;
+        });
+        indexer.allowCoreThreadTimeOut(true); // one per results pane, gone when idle
+    }
+
+    /**
+     * Cycles the sort on the column through ascending, descending and none.
+     *
+     * @param colIdx column index
+     */
+    public void toggleSort(int colIdx) {
+        if (colIdx != sortColIdx) {
+            sortColIdx = colIdx;
+            sortAscending = true;
+        } else if (sortAscending) {
+            sortAscending = false;
+        } else {
+            sortColIdx = -1;
+            sortAscending = true;
+        }
+        reindex(true);
+    }
+
+    public int getSortColIdx() {
+        return sortColIdx;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    /**
+     * @param filter text the value of at least one column must contain, ignoring case
+     */
+    public void setFilter(String filter) {
+        String newFilter = filter != null ? filter.trim() : "";
+        if (!newFilter.equals(this.filter)) {
+            this.filter = newFilter;
+            reindex(true);
+        }
+    }
+
+    public void clearSortAndFilter() {
+        sortColIdx = -1;
+        sortAscending = true;
+        filter = "";
+        reindex(true);
+    }
+
+    public boolean isSortedOrFiltered() {
+        return sortColIdx >= 0 || !filter.isEmpty();
+    }
+
+    public boolean isIndexing() {
+        return indexing;
+    }
+
+    /**
+     * @return the table shown, null if there is none
+     */
+    public Table getTable() {
+        return tableSupplier.get();
+    }
+
+    /**
+     * @return number of rows in the table, regardless of the filter
+     */
+    public int getTableSize() {
+        Table table = tableSupplier.get();
+        return table != null ? table.size() : 0;
+    }
+
+    /**
+     * Notifies the rows added to the table since the last notification, which
+     * only repaints them if they are in view. When sorted or filtered, the rows
+     * are indexed instead.
+     */
+    public void fireTableRowsAdded() {
+        if (isSortedOrFiltered()) {
+            reindex(false);
+            return;
+        }
+        Table table = tableSupplier.get();
+        int size = table != null ? table.size() : 0;
+        int prevRowCount = rowCount;
+        if (size > prevRowCount) {
+            rowCount = size;
+            fireTableRowsInserted(prevRowCount, size - 1);
+        } else if (size < prevRowCount) {
+            fireTableDataChanged();
+        }
+    }
+
+    @Override
+    public void fireTableDataChanged() {
+        rowCount = currentRowCount();
+        super.fireTableDataChanged();
+    }
+
+    @Override
+    public void fireTableStructureChanged() {
+        rowCount = currentRowCount();
+        super.fireTableStructureChanged();
+    }
+
+    private int currentRowCount() {
+        int[] idx = index;
+        if (idx != null) {
+            return idx.length;
+        }
+        Table table = tableSupplier.get();
+        return table != null ? table.size() : 0;
+    }
+
+    private void reindex(boolean criteriaChanged) {
+        Table table = tableSupplier.get();
+        if (table == null || !isSortedOrFiltered()) {
+            indexGeneration.incrementAndGet(); // discards the computation in flight
+            indexing = false;
+            reindexPending = false;
+            if (index != null) {
+                index = null;
+                fireTableDataChanged();
+            }
+            return;
+        }
+        if (indexing && !criteriaChanged) {
+            reindexPending = true;
+            return;
+        }
+        long generation = indexGeneration.incrementAndGet();
+        indexing = true;
+        reindexPending = false;
+        int colIdx = sortColIdx;
+        boolean ascending = sortAscending;
+        String text = filter;
+        indexer.execute(() -> {
+            BooleanSupplier cancelled = () -> indexGeneration.get() != generation;
+            int[] newIndex = null;
+            try {
+                int[] colTypes = table.getColumnTypes();
+                if (colTypes != null && !cancelled.getAsBoolean()) {
+                    long start = System.nanoTime();
+                    newIndex = RowIndex.compute(table.getRows(), colTypes, colIdx, ascending, text, cancelled);
+                    LOG.info().$("Indexed [rows=").$(newIndex.length)
+                        .$(", sortColIdx=").$(colIdx)
+                        .$(", millis=").$((System.nanoTime() - start) / 1_000_000L)
+                        .I$();
+                }
+            } catch (CancellationException cancel) {
+                return;
+            } catch (RuntimeException fail) {
+                LOG.error().$("Indexing failed: ").$(fail.getMessage()).$();
+            }
+            int[] result = newIndex;
+            GTk.invokeLater(() -> onIndexComputed(generation, result));
+        });
+    }
+
+    private void onIndexComputed(long generation, int[] newIndex) {
+        if (generation != indexGeneration.get()) {
+            return; // stale
+        }
+        indexing = false;
+        if (newIndex != null) {
+            index = newIndex;
+            fireTableDataChanged();
+        }
+        if (reindexPending) {
+            reindex(false);
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @param rowIdx row index in the view
+     * @return index of the row in the table, -1 if there is no such row
+     */
+    public int toTableRowIdx(int rowIdx) {
+        int[] idx = index;
+        if (idx != null) {
+            return rowIdx < idx.length ? idx[rowIdx] : -1;
+        }
+        return rowIdx;
+    }
+
+    @Override
+    public Object getValueAt(int rowIdx, int colIdx) {
+        Table table = tableSupplier.get();
+        if (table == null) {
+            return "";
+        }
+        int[] idx = index;
+        if (idx != null) {
+            if (rowIdx >= idx.length) {
+                return null;
+            }
+            rowIdx = idx[rowIdx];
+        }
+        return rowIdx < table.size() ? table.getValueAt(rowIdx, colIdx) : null;
+    }
+
+    @Override
+    public int getColumnCount() {
+        Table table = tableSupplier.get();
+        return table != null ? table.getColumnCount() : 0;
+    }
+
+    @Override
+    public String getColumnName(int colIdx) {
+        Table table = tableSupplier.get();
+        if (table == null) {
+            return "";
+        }
+        String type = SQLType.resolveName(table.getColumnType(colIdx));
+        if (!type.isEmpty()) {
+            type = " [" + type + "]";
+        }
+        String sortMark = "";
+        if (colIdx == sortColIdx) {
+            sortMark = sortAscending ? SORT_ASCENDING_MARK : SORT_DESCENDING_MARK;
+        }
+        return String.format("%s%s%s", table.getColumnName(colIdx), type, sortMark);
+    }
+
+    public int getColumnType(int colIdx) {
+        Table table = tableSupplier.get();
+        if (table == null) {
+            return Types.VARCHAR;
+        }
+        return table.getColumnType(colIdx);
+    }
+
+    @Override
+    public Class<?> getColumnClass(int colIdx) {
+        return String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int rowIdx, int colIdx) {
+        return false;
+    }
+}
@@ -0,0 +1,155 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.sql;
+
+/**
+ * Statistics of the values of a column, updated one value at a time as rows are
+ * fetched: count, nulls, min, max, mean and standard deviation (Welford), plus
+ * sketches for the approximate distinct count and quantiles, in constant memory.
+ * Dates and timestamps are numeric, as epoch millis. Only min, max and distinct
+ * count are defined for non-numeric columns, min and max as text. NaN, which is
+ * how QuestDB represents null floating point values, counts as null.
+ * <p>
+ * Not thread safe, {@link Table} updates them under its write lock and reads
+ * them under its read lock, from a single reader, as computing quantiles
+ * merges the digest's buffer.
+ */
+public class ColumnStats {
+    private final String name;
+    private final int sqlType;
+    private final boolean numeric;
+    private final HyperLogLog distinct;
+    private final TDigest digest;
+    private long count;
+    private long nulls;
+    private double mean;
+    private double m2;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    private String minText;
+    private String maxText;
+
+    public ColumnStats(String name, int sqlType) {
+        this.name = name;
+        this.sqlType = sqlType;
+        numeric = !SQLType.isNotNumeric(sqlType);
+        distinct = new HyperLogLog();
+        digest = numeric ? new TDigest() : null;
+    }
+
+    public void add(Object value) {
+        count++;
+        if (value == null) {
+            nulls++;
+            return;
+        }
+        if (numeric) {
+            double x = SQLType.getNumericValue(value, sqlType);
+            if (x != x) {
+                nulls++;
+                return;
+            }
+            distinct.add(value);
+            long n = count - nulls;
+            double delta = x - mean;
+            mean += delta / n;
+            m2 += delta * (x - mean);
+            if (n == 1 || x < min) {
+                min = x;
+            }
+            if (n == 1 || x > max) {
+                max = x;
+            }
+            digest.add(x);
+        } else {
+            distinct.add(value);
+            String text = value.toString();
+            if (minText == null || text.compareTo(minText) < 0) {
+                minText = text;
+            }
+            if (maxText == null || text.compareTo(maxText) > 0) {
+                maxText = text;
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSqlType() {
+        return sqlType;
+    }
+
+    public boolean isNumeric() {
+        return numeric;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getNulls() {
+        return nulls;
+    }
+
+    /**
+     * @return the minimum, a Double for numeric columns, a String otherwise,
+     * null when there are no values
+     */
+    public Object getMin() {
+        return numeric ? (min == min ? min : null) : minText;
+    }
+
+    /**
+     * @return the maximum, a Double for numeric columns, a String otherwise,
+     * null when there are no values
+     */
+    public Object getMax() {
+        return numeric ? (max == max ? max : null) : maxText;
+    }
+
+    /**
+     * @return the mean of numeric columns, NaN otherwise
+     */
+    public double getMean() {
+        return numeric && count > nulls ? mean : Double.NaN;
+    }
+
+    /**
+     * @return the sample standard deviation of numeric columns, NaN otherwise
+     */
+    public double getStdDev() {
+        long n = count - nulls;
+        return numeric && n > 1 ? Math.sqrt(m2 / (n - 1)) : Double.NaN;
+    }
+
+    /**
+     * @return approximate count of distinct non null values
+     */
+    public long getDistinctCount() {
+        return distinct.estimate();
+    }
+
+    /**
+     * @param q quantile, in [0, 1]
+     * @return approximate value at the quantile for numeric columns, NaN otherwise
+     */
+    public double getQuantile(double q) {
+        return numeric ? digest.quantile(q) : Double.NaN;
+    }
+}
@@ -0,0 +1,91 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.sql;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+
+/**
+ * Approximate distinct count, HyperLogLog with 2^{@value #PRECISION} one-byte
+ * registers, standard error ~1.6%, and linear counting for small cardinalities.
+ * Values are hashed to 64 bits by value rather than identity, strings through
+ * their (cached) hash code.
+ */
+public class HyperLogLog {
+    private static final int PRECISION = 12;
+    private static final int NUM_REGISTERS = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1.0 + 1.079 / NUM_REGISTERS);
+
+    private final byte[] registers = new byte[NUM_REGISTERS];
+
+    static long hash(Object value) {
+        long bits;
+        if (value instanceof Double || value instanceof Float) {
+            bits = Double.doubleToLongBits(((Number) value).doubleValue());
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            bits = ((Number) value).longValue();
+        } else if (value instanceof Timestamp ts) {
+            bits = ts.getTime() * 1_000_000L + ts.getNanos() % 1_000_000;
+        } else if (value instanceof Date date) {
+            bits = date.getTime();
+        } else {
+            bits = value.hashCode();
+        }
+        return mix(bits);
+    }
+
+    // MurmurHash3's 64-bit finalizer
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public void add(Object value) {
+        if (value != null) {
+            addHash(hash(value));
+        }
+    }
+
+    void addHash(long hash) {
+        int idx = (int) (hash >>> (Long.SIZE - PRECISION));
+        byte rank = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+        if (rank > registers[idx]) {
+            registers[idx] = rank;
+        }
+    }
+
+    public long estimate() {
+        double sum = 0.0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += Double.longBitsToDouble((1023L - r) << 52); // 2^-r
+            if (r == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * NUM_REGISTERS * NUM_REGISTERS / sum;
+        if (estimate <= 2.5 * NUM_REGISTERS && zeros > 0) {
+            estimate = NUM_REGISTERS * Math.log((double) NUM_REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+}
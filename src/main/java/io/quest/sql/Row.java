@@ -27,6 +27,10 @@ public class Row implements UniqueId<Long> {
         return values[idx];
     }
 
+    public int size() {
+        return values.length;
+    }
+
     public void clear() {
         Arrays.fill(values, null);
         toString.set(null);
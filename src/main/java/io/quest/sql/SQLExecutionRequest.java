@@ -19,6 +19,7 @@ package io.quest.sql;
 import io.quest.conns.Conn;
 import io.quest.store.UniqueId;
 
+import java.util.List;
 import java.util.UUID;
 
 
@@ -29,11 +30,16 @@ import java.util.UUID;
  * id. On execution, the results are returned by means of one, or many, callbacks delivering
  * instances of {@link SQLExecutionResponse}. Responses must be seen as delta updates on the
  * loading state of a single instance of {@link Table} updated by the executor.
+ * <p>
+ * A fan-out request targets several connections, typically one per node of a
+ * deployment. The statement runs on all of them concurrently, and their rows are
+ * merged into the one table, tagged with the name of the connection they came from.
  */
 public class SQLExecutionRequest implements UniqueId<String> {
     private final String sourceId;
     private final String uniqueId;
     private final Conn conn;
+    private final List<Conn> fanOut;
     private final String sqlCommand;
 
     /**
@@ -46,17 +52,29 @@ public class SQLExecutionRequest implements UniqueId<String> {
      * @param sqlCommand SQL command to execute
      */
     public SQLExecutionRequest(String sourceId, Conn conn, String sqlCommand) {
-        this(sourceId, UUID.randomUUID().toString(), conn, sqlCommand);
+        this(sourceId, UUID.randomUUID().toString(), conn, List.of(), sqlCommand);
+    }
+
+    /**
+     * Fan-out request.
+     *
+     * @param sourceId   command source, or requester, id
+     * @param conns      will send the command down each of these connections
+     * @param sqlCommand SQL command to execute
+     */
+    public SQLExecutionRequest(String sourceId, List<Conn> conns, String sqlCommand) {
+        this(sourceId, UUID.randomUUID().toString(), conns.get(0), List.copyOf(conns), sqlCommand);
     }
 
     SQLExecutionRequest(SQLExecutionRequest request) {
-        this(request.sourceId, request.uniqueId, request.conn, request.sqlCommand);
+        this(request.sourceId, request.uniqueId, request.conn, request.fanOut, request.sqlCommand);
     }
 
-    private SQLExecutionRequest(String sourceId, String uniqueId, Conn conn, String sqlCommand) {
+    private SQLExecutionRequest(String sourceId, String uniqueId, Conn conn, List<Conn> fanOut, String sqlCommand) {
         this.sourceId = sourceId;
         this.uniqueId = uniqueId;
         this.conn = conn;
+        this.fanOut = fanOut;
         this.sqlCommand = sqlCommand;
     }
 
@@ -68,10 +86,24 @@ public class SQLExecutionRequest implements UniqueId<String> {
         return sqlCommand;
     }
 
+    /**
+     * @return the connection, the first of them for fan-out requests
+     */
     public Conn getConnection() {
         return conn;
     }
 
+    /**
+     * @return the connections of a fan-out request, empty otherwise
+     */
+    public List<Conn> getFanOut() {
+        return fanOut;
+    }
+
+    public boolean isFanOut() {
+        return !fanOut.isEmpty();
+    }
+
     @Override
     public String getUniqueId() {
         return uniqueId;
@@ -16,6 +16,8 @@
 
 package io.quest.sql;
 
+import java.util.List;
+
 /**
  * The class embodying the responses emitted by the {@link SQLExecutor} as it progresses
  * through its query execution life cycle.
@@ -23,6 +25,7 @@ package io.quest.sql;
  * Each request carries a SQL statement. When it is executed, the progress is progressively
  * notified to the listener by means of instances of this class. Responses contain a
  * reference to a unique instance of {@link Table} which is updated by the executor.
+ * Responses to fan-out requests also carry the outcome of each node, once it is known.
  */
 public class SQLExecutionResponse extends SQLExecutionRequest {
     private final Table table;
@@ -30,23 +33,32 @@ public class SQLExecutionResponse extends SQLExecutionRequest {
     private final long execMillis;
     private final long fetchMillis;
     private final Throwable error;
+    private final List<NodeResult> nodeResults;
 
     SQLExecutionResponse(SQLExecutionRequest request, Table table, long totalMillis, long execMillis, long fetchMillis) {
-        super(request);
-        this.table = table;
-        this.totalMillis = totalMillis;
-        this.execMillis = execMillis;
-        this.fetchMillis = fetchMillis;
-        this.error = null;
+        this(request, table, totalMillis, execMillis, fetchMillis, null, List.of());
     }
 
     SQLExecutionResponse(SQLExecutionRequest request, Table table, long totalMillis, Throwable error) {
+        this(request, table, totalMillis, -1L, -1L, error, List.of());
+    }
+
+    SQLExecutionResponse(
+        SQLExecutionRequest request,
+        Table table,
+        long totalMillis,
+        long execMillis,
+        long fetchMillis,
+        Throwable error,
+        List<NodeResult> nodeResults
+    ) {
         super(request);
+        this.table = table;
         this.totalMillis = totalMillis;
+        this.execMillis = execMillis;
+        this.fetchMillis = fetchMillis;
         this.error = error;
-        this.table = table;
-        this.execMillis = -1L;
-        this.fetchMillis = -1L;
+        this.nodeResults = nodeResults;
     }
 
     public Table getTable() {
@@ -71,4 +83,37 @@ public class SQLExecutionResponse extends SQLExecutionRequest {
     public long getFetchMillis() {
         return fetchMillis;
     }
+
+    /**
+     * @return the outcome of each node of a fan-out request, in the order of
+     * {@link #getFanOut()}, empty until all of them are done
+     */
+    public List<NodeResult> getNodeResults() {
+        return nodeResults;
+    }
+
+    /**
+     * Outcome of a fan-out request on one of its nodes.
+     *
+     * @param node        name of the connection
+     * @param rows        rows the node contributed to the table
+     * @param execMillis  time to execute the statement, -1 if it did not
+     * @param fetchMillis time to fetch the rows, -1 if it did not
+     * @param totalMillis time the node took
+     * @param truncated   fetching stopped early, the table was full
+     * @param error       why the node failed, null if it did not
+     */
+    public record NodeResult(
+        String node,
+        long rows,
+        long execMillis,
+        long fetchMillis,
+        long totalMillis,
+        boolean truncated,
+        Throwable error
+    ) {
+        public boolean isFailed() {
+            return error != null;
+        }
+    }
 }
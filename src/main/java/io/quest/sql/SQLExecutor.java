@@ -17,16 +17,24 @@
 package io.quest.sql;
 
 import java.io.Closeable;
+import java.sql.Connection;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import io.quest.EventConsumer;
 import io.quest.EventProducer;
@@ -38,13 +46,19 @@ import io.questdb.log.LogFactory;
 public class SQLExecutor implements EventProducer<SQLExecutor.EventType>, Closeable {
 
     public static final int MAX_BATCH_SIZE = 5000;
+    public static final long FETCH_ALL = Long.MAX_VALUE;
     public static final int QUERY_EXECUTION_TIMEOUT_SECS = 30;
+    public static final String NODE_COL_NAME = "@node";
+    public static final long FAN_OUT_MAX_BYTES = 256L * 1024 * 1024;
     private static final int START_BATCH_SIZE = 100;
     private static final Log LOG = LogFactory.getLog(SQLExecutor.class);
     private static final ThreadFactory THREAD_FACTORY = Executors.defaultThreadFactory();
-    private static final int NUMBER_OF_THREADS = 1;
-    private final ConcurrentMap<String, Future<?>> runningQueries = new ConcurrentHashMap<>();
+    private static final int NUMBER_OF_THREADS = 4;
+    private static final int NUMBER_OF_FAN_OUT_THREADS = 8;
+    private final ConcurrentMap<String, Execution> runningQueries = new ConcurrentHashMap<>();
+    private volatile long fanOutMaxBytes = FAN_OUT_MAX_BYTES;
     private ExecutorService executor;
+    private ExecutorService fanOutExecutor;
 
     private static long elapsedMillis(long start) {
         return millis(System.nanoTime() - start);
@@ -54,32 +68,46 @@ public class SQLExecutor implements EventProducer<SQLExecutor.EventType>, Closea
         return TimeUnit.MILLISECONDS.convert(nanos, TimeUnit.NANOSECONDS);
     }
 
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread t = THREAD_FACTORY.newThread(runnable);
+            t.setDaemon(true);
+            t.setName(name);
+            return t;
+        };
+    }
+
     public synchronized void start() {
         if (executor == null) {
             runningQueries.clear();
             final String name = getClass().getSimpleName();
-            executor = Executors.newFixedThreadPool(NUMBER_OF_THREADS, runnable -> {
-                Thread t = THREAD_FACTORY.newThread(runnable);
-                t.setDaemon(true);
-                t.setName(name);
-                return t;
-            });
+            executor = Executors.newFixedThreadPool(NUMBER_OF_THREADS, daemonThreads(name));
+            fanOutExecutor = Executors.newFixedThreadPool(NUMBER_OF_FAN_OUT_THREADS, daemonThreads(name + "-fanout"));
             LOG.info().$(name).$("is running").$();
         }
     }
 
+    /**
+     * @param maxBytes estimated size at which the merged table of a fan-out request
+     *                 stops growing, see {@link Table#getEstimatedBytes()}
+     */
+    public void setFanOutMaxBytes(long maxBytes) {
+        fanOutMaxBytes = maxBytes;
+    }
+
     @Override
     public synchronized void close() {
         if (executor != null) {
-            for (Future<?> query : runningQueries.values()) {
-                if (!query.isDone() && !query.isCancelled()) {
-                    query.cancel(true);
-                }
+            for (Execution execution : runningQueries.values()) {
+                execution.cancel();
+                resumeParked(execution);
             }
             try {
                 GTk.shutdownExecutor(executor);
+                GTk.shutdownExecutor(fanOutExecutor);
             } finally {
                 executor = null;
+                fanOutExecutor = null;
                 runningQueries.clear();
                 LOG.info().$("has finished").$();
             }
@@ -87,6 +115,29 @@ public class SQLExecutor implements EventProducer<SQLExecutor.EventType>, Closea
     }
 
     public synchronized void submit(SQLExecutionRequest req, EventConsumer<SQLExecutor, SQLExecutionResponse> eventConsumer) {
+        submit(req, eventConsumer, FETCH_ALL);
+    }
+
+    /**
+     * Submits the request for execution, fetching at most fetchLimit rows until
+     * more are requested with {@link #requestRows(SQLExecutionRequest, long)}.
+     * Meanwhile, the result-set is held open, without holding a thread, and the
+     * rows fetched so far are notified with {@link EventType#ROWS_AVAILABLE}.
+     * <p>
+     * Requests with a fetch limit run on a connection of their own, out of auto
+     * commit mode, so that the driver reads the rows through a server side cursor,
+     * one batch at a time, rather than all of them up front. The transaction is
+     * committed once all rows are fetched, and rolled back otherwise.
+     * <p>
+     * Fan-out requests run on all their connections concurrently, see {@link FanOut}.
+     * They fetch all their rows, the fetch limit does not apply to them.
+     *
+     * @param req           the request
+     * @param eventConsumer receives the events of the execution
+     * @param fetchLimit    rows to fetch before waiting for demand, {@link #FETCH_ALL}
+     *                      to fetch them all
+     */
+    public synchronized void submit(SQLExecutionRequest req, EventConsumer<SQLExecutor, SQLExecutionResponse> eventConsumer, long fetchLimit) {
         if (executor == null) {
             throw new IllegalStateException("not started");
         }
@@ -94,36 +145,105 @@ public class SQLExecutor implements EventProducer<SQLExecutor.EventType>, Closea
             throw new IllegalStateException("eventConsumer cannot be null");
         }
         cancelExistingRequest(req);
-        String sourceId = req.getSourceId();
-        runningQueries.put(sourceId, executor.submit(() -> executeRequest(req, eventConsumer)));
+        Execution execution = new Execution(req.isFanOut() ? FETCH_ALL : fetchLimit, req.isFanOut());
+        runningQueries.put(req.getUniqueId(), execution);
+        if (req.isFanOut()) {
+            FanOut fanOut = new FanOut(req, execution, eventConsumer, fanOutMaxBytes);
+            for (int i = 0, n = req.getFanOut().size(); i < n; i++) {
+                FanOut.Node node = fanOut.new Node(i);
+                fanOutExecutor.submit(node::execute);
+            }
+        } else {
+            executor.submit(() -> executeRequest(req, execution, eventConsumer));
+        }
         LOG.info().$("Execution submitted [reqId=").$(req.getUniqueId())
-            .$(", srcId=").$(sourceId)
+            .$(", srcId=").$(req.getSourceId())
             .I$();
     }
 
+    /**
+     * Cancels the execution of the request, if it is running. The statement is
+     * cancelled, which aborts the query in the server, and the fetch stops with
+     * {@link EventType#CANCELLED}. Other requests, even on the same connection,
+     * carry on.
+     *
+     * @param req the request
+     */
     public synchronized void cancelExistingRequest(SQLExecutionRequest req) {
         if (executor == null) {
             throw new IllegalStateException("not started");
         }
-        final String sourceId = req.getSourceId();
-        final Future<?> exec = runningQueries.remove(sourceId);
-        if (exec != null && !exec.isDone() && !exec.isCancelled()) {
-            exec.cancel(true);
+        Execution execution = runningQueries.remove(req.getUniqueId());
+        if (execution != null && execution.cancel()) {
+            resumeParked(execution); // to report the cancellation
             LOG.info().$("Cancelling [reqId=").$(req.getUniqueId())
-                .$(", srcId=").$(sourceId)
+                .$(", srcId=").$(req.getSourceId())
                 .I$();
         }
     }
 
-    private void executeRequest(SQLExecutionRequest req, EventConsumer<SQLExecutor, SQLExecutionResponse> eventListener) {
+    /**
+     * Pauses fetching the results of the request, if it is running. The rows
+     * fetched so far stay available, and the result-set stays open, but no thread
+     * is held while paused.
+     *
+     * @param req the request
+     * @return true if the request was running, and is now paused
+     */
+    public boolean pause(SQLExecutionRequest req) {
+        Execution execution = runningQueries.get(req.getUniqueId());
+        if (execution != null) {
+            execution.setPaused(true);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Resumes fetching the results of a paused request.
+     *
+     * @param req the request
+     * @return true if the request was running, and is no longer paused
+     */
+    public boolean resume(SQLExecutionRequest req) {
+        Execution execution = runningQueries.get(req.getUniqueId());
+        if (execution != null) {
+            execution.setPaused(false);
+            resumeParked(execution);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Raises the number of rows the request fetches before waiting for demand.
+     *
+     * @param req  the request
+     * @param rows rows to fetch in total, {@link #FETCH_ALL} for all of them
+     * @return true if the request was running
+     */
+    public boolean requestRows(SQLExecutionRequest req, long rows) {
+        Execution execution = runningQueries.get(req.getUniqueId());
+        if (execution != null) {
+            execution.raiseFetchLimit(rows);
+            resumeParked(execution);
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isRunning(SQLExecutionRequest req) {
+        return runningQueries.containsKey(req.getUniqueId());
+    }
+
+    private void executeRequest(SQLExecutionRequest req, Execution execution, EventConsumer<SQLExecutor, SQLExecutionResponse> eventListener) {
         final long startNanos = System.nanoTime();
         final String sourceId = req.getSourceId();
         final Conn conn = req.getConnection();
-        final String query = req.getSqlCommand();
         final Table table = new Table(req.getUniqueId());
 
         if (!conn.isValid()) {
-            runningQueries.remove(sourceId);
+            runningQueries.remove(req.getUniqueId(), execution);
             LOG.info().$("Failed [reqId=").$(req.getUniqueId())
                 .$(", srcId=").$(sourceId)
                 .$(", conn=").$(conn)
@@ -143,77 +263,611 @@ public class SQLExecutor implements EventProducer<SQLExecutor.EventType>, Closea
         LOG.info().$("Executing [reqId=").$(req.getUniqueId())
             .$(", srcId=").$(sourceId)
             .$(", connId=").$(conn.getUniqueId())
-            .$(", query=").$(query)
+            .$(", query=").$(req.getSqlCommand())
             .I$();
         eventListener.onSourceEvent(
             SQLExecutor.this,
             EventType.STARTED,
             new SQLExecutionResponse(req, table, elapsedMillis(startNanos), 0L, 0L));
 
-        final long fetchStartNanos;
-        final long execMillis;
-        long rowIdx = 0;
-        int batchSize = START_BATCH_SIZE;
-        try (Statement stmt = conn.getConnection().createStatement()) {
+        Fetch fetch = new Fetch(req, execution, eventListener, table, startNanos);
+        try {
+            fetch.execute();
+        } catch (InterruptedException | SQLException | RuntimeException fail) {
+            fetch.fail(fail);
+            return;
+        }
+        fetch.run();
+    }
+
+    private synchronized void resumeParked(Execution execution) {
+        if (executor != null) {
+            ExecutorService target = execution.fanOut ? fanOutExecutor : executor;
+            for (Runnable fetch : execution.unpark()) {
+                target.submit(fetch);
+            }
+        }
+    }
+
+    /**
+     * Fetch of the results of a request on a single connection. It runs in the
+     * executor until it has to wait for demand, or to be resumed, when it parks
+     * in its {@link Execution} with the result-set open and releases the thread.
+     * It is submitted again once it can proceed, and carries on where it left.
+     */
+    private class Fetch implements Runnable {
+        private final SQLExecutionRequest req;
+        private final Execution execution;
+        private final EventConsumer<SQLExecutor, SQLExecutionResponse> eventListener;
+        private final Table table;
+        private final long startNanos;
+        private Connection cursorConnection; // of its own, null when fetching all rows
+        private Statement stmt;
+        private ResultSet rs; // null if the statement returns no results
+        private long fetchStartNanos;
+        private long execMillis;
+        private long rowIdx;
+        private int batchSize = START_BATCH_SIZE;
+        private boolean rowPending; // the result-set is on a row not yet added
+
+        private Fetch(
+            SQLExecutionRequest req,
+            Execution execution,
+            EventConsumer<SQLExecutor, SQLExecutionResponse> eventListener,
+            Table table,
+            long startNanos
+        ) {
+            this.req = req;
+            this.execution = execution;
+            this.eventListener = eventListener;
+            this.table = table;
+            this.startNanos = startNanos;
+        }
+
+        private void execute() throws InterruptedException, SQLException {
+            Connection connection = req.getConnection().getConnection();
+            if (execution.fetchLimit != FETCH_ALL) {
+                // pgjdbc honours the fetch size only within a transaction
+                cursorConnection = req.getConnection().openUnshared();
+                cursorConnection.setAutoCommit(false);
+                connection = cursorConnection;
+            }
+            stmt = connection.createStatement();
+            execution.statements.add(stmt);
             stmt.setQueryTimeout(QUERY_EXECUTION_TIMEOUT_SECS);
-            final boolean returnsResults = stmt.execute(query);
+            if (cursorConnection != null) {
+                stmt.setFetchSize(MAX_BATCH_SIZE);
+            }
+            if (execution.cancelled) {
+                throw new InterruptedException();
+            }
+            final boolean returnsResults = stmt.execute(req.getSqlCommand());
             fetchStartNanos = System.nanoTime();
             execMillis = millis(fetchStartNanos - startNanos);
             if (returnsResults) {
-                ResultSet rs = stmt.getResultSet();
-                if (rs.next()) {
-                    final long fetchChkNanos = System.nanoTime();
-                    final long totalMs = millis(fetchChkNanos - startNanos);
-                    final long fetchMs = millis(fetchChkNanos - fetchStartNanos);
-                    table.setColumnMetadata(rs);
-                    table.addRow(rowIdx++, rs);
-                    eventListener.onSourceEvent(
-                        SQLExecutor.this,
-                        EventType.FIRST_ROW_AVAILABLE,
-                        new SQLExecutionResponse(req, table, totalMs, execMillis, fetchMs));
-                }
-                while (rs.next()) {
+                rs = stmt.getResultSet();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (rs != null && (rowPending || rs.next())) {
+                    rowPending = true;
+                    if (rowIdx > 0L && execution.mustWait(rowIdx)) {
+                        // rows fetched so far are made visible while waiting
+                        fireEvent(EventType.ROWS_AVAILABLE, System.nanoTime());
+                        if (execution.park(rowIdx, this)) {
+                            return;
+                        }
+                    }
+                    if (execution.cancelled) {
+                        throw new InterruptedException();
+                    }
                     final long fetchChkNanos = System.nanoTime();
-                    table.addRow(rowIdx++, rs);
-                    if (0 == rowIdx % batchSize) {
-                        batchSize = Math.min(batchSize * 2, MAX_BATCH_SIZE);
-                        final long totalMs = millis(fetchChkNanos - startNanos);
-                        final long fetchMs = millis(fetchChkNanos - fetchStartNanos);
-                        eventListener.onSourceEvent(
-                            SQLExecutor.this,
-                            EventType.ROWS_AVAILABLE,
-                            new SQLExecutionResponse(req, table, totalMs, execMillis, fetchMs));
+                    if (rowIdx == 0L) {
+                        table.setColumnMetadata(rs);
+                        table.addRow(rowIdx++, rs);
+                        fireEvent(EventType.FIRST_ROW_AVAILABLE, fetchChkNanos);
+                    } else {
+                        table.addRow(rowIdx++, rs);
+                        if (0 == rowIdx % batchSize) {
+                            batchSize = Math.min(batchSize * 2, MAX_BATCH_SIZE);
+                            fireEvent(EventType.ROWS_AVAILABLE, fetchChkNanos);
+                        }
                     }
+                    rowPending = false;
                 }
+            } catch (InterruptedException | SQLException | RuntimeException fail) {
+                fail(fail);
+                return;
+            }
+            close(true);
+            runningQueries.remove(req.getUniqueId(), execution);
+            EventType eventType = EventType.COMPLETED;
+            final long endNanos = System.nanoTime();
+            LOG.info().$("Event [name=").$(eventType.name())
+                .$(", reqId=").$(req.getUniqueId())
+                .$(", tableSize=").$(table.size())
+                .$(", totalMs=").$(millis(endNanos - startNanos))
+                .$(", execMs=").$(execMillis)
+                .$(", fetchMs=").$(millis(endNanos - fetchStartNanos))
+                .I$();
+            fireEvent(eventType, endNanos);
+        }
+
+        private void fail(Throwable fail) {
+            close(false);
+            runningQueries.remove(req.getUniqueId(), execution);
+            if (execution.cancelled || fail instanceof InterruptedException) {
+                // the table may have been closed by its owner, concurrently
+                LOG.info().$("Cancelled [reqId=").$(req.getUniqueId())
+                    .$(", srcId=").$(req.getSourceId())
+                    .$(", tableSize=").$(table.size())
+                    .I$();
+                eventListener.onSourceEvent(
+                    SQLExecutor.this,
+                    EventType.CANCELLED,
+                    new SQLExecutionResponse(req, table, elapsedMillis(startNanos), 0L, 0L));
+                return;
+            }
+            if (fail instanceof RuntimeException unexpected) {
+                throw unexpected;
             }
-        } catch (SQLException fail) {
-            runningQueries.remove(sourceId);
             LOG.error().$("Failed [reqId=").$(req.getUniqueId())
-                .$(", srcId=").$(sourceId)
+                .$(", srcId=").$(req.getSourceId())
                 .$(", e=").$(fail.getMessage())
                 .I$();
             eventListener.onSourceEvent(
                 SQLExecutor.this,
                 EventType.FAILURE,
                 new SQLExecutionResponse(req, table, elapsedMillis(startNanos), fail));
-            return;
         }
-        runningQueries.remove(sourceId);
-        EventType eventType = EventType.COMPLETED;
-        final long endNanos = System.nanoTime();
-        final long totalMs = millis(endNanos - startNanos);
-        final long fetchMs = millis(endNanos - fetchStartNanos);
-        LOG.info().$("Event [name=").$(eventType.name())
-            .$(", reqId=").$(req.getUniqueId())
-            .$(", tableSize=").$(table.size())
-            .$(", totalMs=").$(totalMs)
-            .$(", execMs=").$(execMillis)
-            .$(", fetchMs=").$(fetchMs)
-            .I$();
-        eventListener.onSourceEvent(
-            SQLExecutor.this,
-            eventType,
-            new SQLExecutionResponse(req, table, totalMs, execMillis, fetchMs));
+
+        private void fireEvent(EventType eventType, long nanos) {
+            eventListener.onSourceEvent(
+                SQLExecutor.this,
+                eventType,
+                new SQLExecutionResponse(req, table, millis(nanos - startNanos), execMillis, millis(nanos - fetchStartNanos)));
+        }
+
+        /**
+         * @param completed whether all rows were fetched, to commit the transaction
+         *                  of the cursor, or else roll it back
+         */
+        private void close(boolean completed) {
+            try {
+                if (stmt != null) {
+                    execution.statements.remove(stmt);
+                    stmt.close(); // closes the result-set too
+                }
+                if (cursorConnection != null) {
+                    if (completed) {
+                        cursorConnection.commit();
+                    } else {
+                        cursorConnection.rollback();
+                    }
+                }
+            } catch (SQLException e) {
+                LOG.error().$("Failed to close [reqId=").$(req.getUniqueId())
+                    .$(", e=").$(e.getMessage())
+                    .I$();
+            } finally {
+                if (cursorConnection != null) {
+                    try {
+                        cursorConnection.close();
+                    } catch (SQLException e) {
+                        LOG.error().$("Failed to close cursor connection [reqId=").$(req.getUniqueId())
+                            .$(", e=").$(e.getMessage())
+                            .I$();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Execution of a fan-out request. Each node runs the statement on its own
+     * thread, buffers the rows it fetches, and merges them into the shared table
+     * in batches, each row tagged in column {@link #NODE_COL_NAME} with the name
+     * of the node's connection. The first node to return rows sets the columns; a
+     * node returning different columns fails. When the table reaches its size cap,
+     * fetching stops and the request completes with what was fetched. The request
+     * completes once all its nodes are done, and it fails only if all of them
+     * failed. Paused nodes park in the {@link Execution}, as a {@link Fetch} does,
+     * with their result-sets open and without holding a thread.
+     */
+    private class FanOut {
+        private final SQLExecutionRequest req;
+        private final List<Conn> conns;
+        private final Execution execution;
+        private final EventConsumer<SQLExecutor, SQLExecutionResponse> eventListener;
+        private final long maxBytes;
+        private final Table table;
+        private final long startNanos;
+        private final AtomicBoolean started;
+        private final SQLExecutionResponse.NodeResult[] results; // guarded by this
+        private int pending; // guarded by this
+        private long nextRowIdx; // guarded by this
+        private int[] colTypes; // of the statement, guarded by this
+        private String colsNode; // the node that set them, guarded by this
+        private volatile boolean truncated;
+
+        private FanOut(
+            SQLExecutionRequest req,
+            Execution execution,
+            EventConsumer<SQLExecutor, SQLExecutionResponse> eventListener,
+            long maxBytes
+        ) {
+            this.req = req;
+            this.execution = execution;
+            this.eventListener = eventListener;
+            this.maxBytes = maxBytes;
+            conns = req.getFanOut();
+            table = new Table(req.getUniqueId());
+            startNanos = System.nanoTime();
+            started = new AtomicBoolean();
+            results = new SQLExecutionResponse.NodeResult[conns.size()];
+            pending = results.length;
+        }
+
+        /**
+         * Fetch of the rows of one node. Like a {@link Fetch}, it runs until it is
+         * paused, parks, and carries on where it left once it is submitted again.
+         */
+        private class Node implements Runnable {
+            private final int nodeIdx;
+            private final Conn conn;
+            private final String name;
+            private final long nodeStartNanos;
+            private final List<Object[]> batch = new ArrayList<>();
+            private Statement stmt;
+            private ResultSet rs; // null if the statement returns no results
+            private int colCount = -1;
+            private int batchSize = 1; // the first row is merged at once
+            private long rows; // merged into the table
+            private long execMillis = -1L;
+            private long fetchStartNanos = -1L;
+            private Throwable error;
+
+            private Node(int nodeIdx) {
+                this.nodeIdx = nodeIdx;
+                conn = conns.get(nodeIdx);
+                name = conn.getName();
+                nodeStartNanos = System.nanoTime();
+            }
+
+            private void execute() {
+                if (started.compareAndSet(false, true)) {
+                    LOG.info().$("Executing [reqId=").$(req.getUniqueId())
+                        .$(", srcId=").$(req.getSourceId())
+                        .$(", nodes=").$(conns.size())
+                        .$(", query=").$(req.getSqlCommand())
+                        .I$();
+                    eventListener.onSourceEvent(
+                        SQLExecutor.this,
+                        EventType.STARTED,
+                        new SQLExecutionResponse(req, table, elapsedMillis(startNanos), 0L, 0L));
+                }
+                if (!conn.isValid()) {
+                    error = new SQLException(String.format("Connection [%s] is not valid", conn));
+                    done();
+                    return;
+                }
+                try {
+                    stmt = conn.getConnection().createStatement();
+                    execution.statements.add(stmt);
+                    stmt.setQueryTimeout(QUERY_EXECUTION_TIMEOUT_SECS);
+                    if (execution.cancelled || truncated) {
+                        throw new InterruptedException();
+                    }
+                    final boolean returnsResults = stmt.execute(req.getSqlCommand());
+                    fetchStartNanos = System.nanoTime();
+                    execMillis = millis(fetchStartNanos - nodeStartNanos);
+                    if (returnsResults) {
+                        rs = stmt.getResultSet();
+                    }
+                } catch (InterruptedException | SQLException | RuntimeException fail) {
+                    fail(fail);
+                    done();
+                    return;
+                }
+                run();
+            }
+
+            @Override
+            public void run() {
+                try {
+                    while (rs != null && !truncated) {
+                        if (execution.mustWait(rows)) {
+                            merge();
+                            if (execution.park(rows, this)) {
+                                return;
+                            }
+                        }
+                        if (execution.cancelled) {
+                            throw new InterruptedException();
+                        }
+                        if (!rs.next()) {
+                            break;
+                        }
+                        if (colCount < 0) {
+                            colCount = setColumns(name, rs);
+                        }
+                        Object[] values = new Object[colCount + 2];
+                        values[1] = name;
+                        for (int i = 1; i <= colCount; i++) {
+                            values[i + 1] = rs.getObject(i);
+                        }
+                        batch.add(values);
+                        if (batch.size() >= batchSize) {
+                            batchSize = Math.min(batchSize * 2, MAX_BATCH_SIZE);
+                            if (!merge()) {
+                                break;
+                            }
+                        }
+                    }
+                    merge();
+                } catch (InterruptedException | SQLException | RuntimeException fail) {
+                    fail(fail);
+                }
+                done();
+            }
+
+            /**
+             * @return false if the table is full, and some rows were left out
+             */
+            private boolean merge() {
+                if (batch.isEmpty()) {
+                    return true;
+                }
+                int merged = addRows(batch);
+                boolean all = merged == batch.size();
+                batch.clear();
+                if (merged > 0) {
+                    rows += merged;
+                    fireRowsAvailable(execMillis, fetchStartNanos);
+                }
+                return all;
+            }
+
+            private void fail(Throwable fail) {
+                if (fail instanceof InterruptedException) {
+                    return; // reported with the request
+                }
+                if (!execution.cancelled && !(truncated && fail instanceof SQLException)) {
+                    error = fail; // statements cancelled on truncation fail too
+                }
+            }
+
+            private void done() {
+                if (stmt != null) {
+                    execution.statements.remove(stmt);
+                    try {
+                        stmt.close(); // closes the result-set too
+                    } catch (SQLException e) {
+                        LOG.error().$("Failed to close [reqId=").$(req.getUniqueId())
+                            .$(", node=").$(name)
+                            .$(", e=").$(e.getMessage())
+                            .I$();
+                    }
+                }
+                onNodeDone(nodeIdx, new SQLExecutionResponse.NodeResult(
+                    name,
+                    rows,
+                    execMillis,
+                    fetchStartNanos > 0L ? elapsedMillis(fetchStartNanos) : -1L,
+                    elapsedMillis(nodeStartNanos),
+                    truncated,
+                    error));
+            }
+        }
+
+        private synchronized int setColumns(String node, ResultSet rs) throws SQLException {
+            ResultSetMetaData metaData = rs.getMetaData();
+            int colCount = metaData.getColumnCount();
+            int[] types = new int[colCount];
+            for (int i = 0; i < colCount; i++) {
+                types[i] = metaData.getColumnType(i + 1);
+            }
+            if (colTypes == null) {
+                String[] mergedNames = new String[colCount + 2];
+                int[] mergedTypes = new int[colCount + 2];
+                mergedNames[0] = Table.ROWID_COL_NAME;
+                mergedTypes[0] = Types.ROWID;
+                mergedNames[1] = NODE_COL_NAME;
+                mergedTypes[1] = Types.VARCHAR;
+                for (int i = 0; i < colCount; i++) {
+                    mergedNames[i + 2] = metaData.getColumnName(i + 1);
+                    mergedTypes[i + 2] = types[i];
+                }
+                table.setColumnMetadata(mergedNames, mergedTypes);
+                colTypes = types;
+                colsNode = node;
+            } else if (!Arrays.equals(colTypes, types)) {
+                throw new SQLException(String.format("columns differ from those of node [%s]", colsNode));
+            }
+            return colCount;
+        }
+
+        /**
+         * Appends a batch of rows of a node, as long as the table is not full.
+         *
+         * @return the number of rows appended
+         */
+        private synchronized int addRows(List<Object[]> batch) {
+            int added = 0;
+            for (Object[] values : batch) {
+                if (truncated) {
+                    break;
+                }
+                if (table.getEstimatedBytes() >= maxBytes) {
+                    truncated = true;
+                    execution.cancelStatements(); // nodes still executing stop too
+                    LOG.info().$("Truncated [reqId=").$(req.getUniqueId())
+                        .$(", tableSize=").$(table.size())
+                        .$(", maxBytes=").$(maxBytes)
+                        .I$();
+                    break;
+                }
+                long rowIdx = nextRowIdx++;
+                values[0] = rowIdx;
+                table.addRow(new Row(rowIdx, values));
+                added++;
+                if (rowIdx == 0L) {
+                    // under the lock, so that it is notified before any ROWS_AVAILABLE
+                    eventListener.onSourceEvent(
+                        SQLExecutor.this,
+                        EventType.FIRST_ROW_AVAILABLE,
+                        new SQLExecutionResponse(req, table, elapsedMillis(startNanos), 0L, 0L));
+                }
+            }
+            return added;
+        }
+
+        private void fireRowsAvailable(long execMillis, long fetchStartNanos) {
+            eventListener.onSourceEvent(
+                SQLExecutor.this,
+                EventType.ROWS_AVAILABLE,
+                new SQLExecutionResponse(req, table, elapsedMillis(startNanos), execMillis, elapsedMillis(fetchStartNanos)));
+        }
+
+        private void onNodeDone(int nodeIdx, SQLExecutionResponse.NodeResult result) {
+            LOG.info().$("Node done [reqId=").$(req.getUniqueId())
+                .$(", node=").$(result.node())
+                .$(", rows=").$(result.rows())
+                .$(", totalMs=").$(result.totalMillis())
+                .$(", execMs=").$(result.execMillis())
+                .$(", fetchMs=").$(result.fetchMillis())
+                .$(", e=").$(result.error() != null ? result.error().getMessage() : null)
+                .I$();
+            synchronized (this) {
+                results[nodeIdx] = result;
+                if (--pending > 0) {
+                    return;
+                }
+            }
+            runningQueries.remove(req.getUniqueId(), execution);
+            List<SQLExecutionResponse.NodeResult> nodeResults = List.of(results);
+            long execMillis = -1L;
+            long fetchMillis = -1L;
+            int failed = 0;
+            StringBuilder errors = new StringBuilder();
+            for (SQLExecutionResponse.NodeResult nodeResult : nodeResults) {
+                execMillis = Math.max(execMillis, nodeResult.execMillis());
+                fetchMillis = Math.max(fetchMillis, nodeResult.fetchMillis());
+                if (nodeResult.isFailed()) {
+                    failed++;
+                    errors.append('\n').append(nodeResult.node()).append(": ").append(nodeResult.error().getMessage());
+                }
+            }
+            EventType eventType;
+            Throwable error = null;
+            if (execution.cancelled) {
+                eventType = EventType.CANCELLED;
+            } else if (failed == nodeResults.size()) {
+                eventType = EventType.FAILURE;
+                error = new SQLException("Failed on all nodes:" + errors);
+            } else {
+                eventType = EventType.COMPLETED;
+            }
+            LOG.info().$("Event [name=").$(eventType.name())
+                .$(", reqId=").$(req.getUniqueId())
+                .$(", tableSize=").$(table.size())
+                .$(", nodes=").$(nodeResults.size())
+                .$(", failed=").$(failed)
+                .$(", truncated=").$(truncated)
+                .I$();
+            eventListener.onSourceEvent(
+                SQLExecutor.this,
+                eventType,
+                new SQLExecutionResponse(req, table, elapsedMillis(startNanos), execMillis, fetchMillis, error, nodeResults));
+        }
+    }
+
+    /**
+     * State of a running request, shared by the threads executing it and those
+     * controlling it. Fetches that have to wait park here, and are handed back by
+     * {@link #unpark()} once they can proceed.
+     */
+    private static class Execution {
+        private final Set<Statement> statements = ConcurrentHashMap.newKeySet();
+        private final List<Parked> parked = new ArrayList<>(1); // guarded by this
+        private final boolean fanOut; // its fetches run in the fan-out executor
+        private volatile boolean cancelled;
+        private volatile boolean paused;
+        private volatile long fetchLimit;
+
+        private Execution(long fetchLimit, boolean fanOut) {
+            this.fetchLimit = fetchLimit;
+            this.fanOut = fanOut;
+        }
+
+        private boolean cancel() {
+            boolean wasRunning = !cancelled;
+            cancelled = true;
+            setPaused(false);
+            cancelStatements();
+            return wasRunning; // queued executions see the flag when they start
+        }
+
+        private void cancelStatements() {
+            for (Statement stmt : statements) {
+                try {
+                    stmt.cancel();
+                } catch (SQLException ignore) {
+                    // the fetch stops anyway, at the next row
+                }
+            }
+        }
+
+        private synchronized void setPaused(boolean paused) {
+            this.paused = paused;
+        }
+
+        private synchronized void raiseFetchLimit(long rows) {
+            if (rows > fetchLimit) {
+                fetchLimit = rows;
+            }
+        }
+
+        private boolean mustWait(long fetchedRows) {
+            return paused || fetchedRows >= fetchLimit;
+        }
+
+        /**
+         * @param fetchedRows rows fetched so far
+         * @param fetch       resumes the fetch
+         * @return true if the fetch must wait, and is parked, false if it can proceed
+         */
+        private synchronized boolean park(long fetchedRows, Runnable fetch) {
+            if (cancelled || !mustWait(fetchedRows)) {
+                return false;
+            }
+            parked.add(new Parked(fetchedRows, fetch));
+            return true;
+        }
+
+        /**
+         * @return the parked fetches that can proceed, or must see the cancellation
+         */
+        private synchronized List<Runnable> unpark() {
+            if (parked.isEmpty()) {
+                return List.of();
+            }
+            List<Runnable> resumed = new ArrayList<>(parked.size());
+            for (Iterator<Parked> it = parked.iterator(); it.hasNext(); ) {
+                Parked p = it.next();
+                if (cancelled || !mustWait(p.fetchedRows)) {
+                    resumed.add(p.fetch);
+                    it.remove();
+                }
+            }
+            return resumed;
+        }
+    }
+
+    private record Parked(long fetchedRows, Runnable fetch) {
     }
 
     public enum EventType {
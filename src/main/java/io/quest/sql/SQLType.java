@@ -17,8 +17,8 @@
 package io.quest.sql;
 
 import java.awt.Color;
-import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.Date;
 
 import io.quest.GTk;
 
@@ -49,11 +49,12 @@ public final class SQLType {
     }
 
     public static double getNumericValue(Object o, int sqlType) {
+        if (o == null) {
+            return Double.NaN;
+        }
         return switch (sqlType) {
-            case Types.INTEGER -> (int) o;
-            case Types.BIGINT -> (long) o;
-            case Types.REAL, Types.DOUBLE -> (double) o;
-            case Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE -> ((Timestamp) o).getTime();
+            case Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT, Types.REAL, Types.DOUBLE -> ((Number) o).doubleValue();
+            case Types.DATE, Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE, Types.TIME -> ((Date) o).getTime();
             default -> Double.NaN;
         };
     }
@@ -88,6 +89,14 @@ public final class SQLType {
         };
     }
 
+    /**
+     * Initial width of a column, from its type and name only, values are not
+     * looked at.
+     *
+     * @param table  the table
+     * @param colIdx column index
+     * @return the width, in pixels
+     */
     public static int resolveColWidth(Table table, int colIdx) {
         int sqlType = table.getColumnTypes()[colIdx];
         final int width;
@@ -97,16 +106,6 @@ public final class SQLType {
             case Types.DATE, Types.TIME, Types.BIGINT -> width = 200;
             case Types.TIMESTAMP, Types.DOUBLE, Types.REAL -> width = 250;
             case Types.BINARY -> width = 400;
-            case Types.VARCHAR -> {
-                int w = 0;
-                for (int rowIdx = 0; rowIdx < Math.min(table.size(), 20); rowIdx++) {
-                    Object value = table.getValueAt(rowIdx, colIdx);
-                    if (value != null) {
-                        w = Math.max(w, 15 * value.toString().length());
-                    }
-                }
-                width = Math.min(w, 620);
-            }
             default -> width = 150;
         }
         String colName = table.getColumnNames()[colIdx];
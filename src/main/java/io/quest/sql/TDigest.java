@@ -0,0 +1,174 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.sql;
+
+import java.util.Arrays;
+
+
+/**
+ * Approximate quantiles, a merging t-digest (T. Dunning, O. Ertl, Computing
+ * Extremely Accurate Quantiles Using t-Digests, 2019). Values are buffered and
+ * merged into the centroids, sorted by mean, once the buffer is full. Centroids
+ * are bounded by the k1 scale function, so they are small near the tails, where
+ * accuracy matters the most. Nothing is allocated once constructed.
+ */
+public class TDigest {
+    public static final double DEFAULT_COMPRESSION = 100.0;
+
+    private final double compression;
+    private final double[] means;
+    private final double[] weights;
+    private final double[] buffer;
+    private final double[] mergedMeans;
+    private final double[] mergedWeights;
+    private int centroids;
+    private int buffered;
+    private double totalWeight;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public TDigest() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    public TDigest(double compression) {
+        this.compression = compression;
+        int maxCentroids = (int) Math.ceil(compression) * 2 + 10;
+        int bufferSize = (int) Math.ceil(compression) * 5;
+        means = new double[maxCentroids];
+        weights = new double[maxCentroids];
+        buffer = new double[bufferSize];
+        mergedMeans = new double[maxCentroids + bufferSize];
+        mergedWeights = new double[maxCentroids + bufferSize];
+    }
+
+    /**
+     * @param value value, NaN is ignored
+     */
+    public void add(double value) {
+        if (value != value) {
+            return;
+        }
+        buffer[buffered++] = value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        if (buffered == buffer.length) {
+            merge();
+        }
+    }
+
+    public long size() {
+        return (long) totalWeight + buffered;
+    }
+
+    /**
+     * @param q quantile, in [0, 1]
+     * @return the approximate value at the quantile, NaN when empty
+     */
+    public double quantile(double q) {
+        if (q < 0.0 || q > 1.0) {
+            throw new IllegalArgumentException("q must be in [0, 1]: " + q);
+        }
+        merge();
+        if (centroids == 0) {
+            return Double.NaN;
+        }
+        if (centroids == 1) {
+            return means[0];
+        }
+        double index = q * totalWeight;
+        if (index < 1.0) {
+            return min;
+        }
+        if (index > totalWeight - 1.0) {
+            return max;
+        }
+        // between min and the centre of the first centroid
+        if (index < weights[0] / 2.0) {
+            return min + (index - 1.0) / (weights[0] / 2.0 - 1.0) * (means[0] - min);
+        }
+        // between centroid centres
+        double weightSoFar = weights[0] / 2.0;
+        for (int i = 0; i < centroids - 1; i++) {
+            double delta = (weights[i] + weights[i + 1]) / 2.0;
+            if (weightSoFar + delta > index) {
+                double fraction = (index - weightSoFar) / delta;
+                return means[i] + fraction * (means[i + 1] - means[i]);
+            }
+            weightSoFar += delta;
+        }
+        // between the centre of the last centroid and max
+        double last = weights[centroids - 1] / 2.0;
+        double fraction = last > 1.0 ? (index - weightSoFar) / (last - 1.0) : 1.0;
+        return means[centroids - 1] + Math.min(1.0, fraction) * (max - means[centroids - 1]);
+    }
+
+    private void merge() {
+        if (buffered == 0) {
+            return;
+        }
+        Arrays.sort(buffer, 0, buffered);
+        double newTotalWeight = totalWeight + buffered;
+
+        // merge the sorted buffer and centroids
+        int n = 0;
+        int b = 0;
+        int c = 0;
+        while (b < buffered || c < centroids) {
+            if (c >= centroids || (b < buffered && buffer[b] < means[c])) {
+                mergedMeans[n] = buffer[b++];
+                mergedWeights[n++] = 1.0;
+            } else {
+                mergedMeans[n] = means[c];
+                mergedWeights[n++] = weights[c++];
+            }
+        }
+
+        // compress, greedily, while the k1 size of each centroid stays within 1
+        centroids = 0;
+        double weightSoFar = 0.0;
+        double kLeft = k(0.0);
+        double mean = mergedMeans[0];
+        double weight = mergedWeights[0];
+        for (int i = 1; i < n; i++) {
+            double proposed = weight + mergedWeights[i];
+            if (k((weightSoFar + proposed) / newTotalWeight) - kLeft <= 1.0) {
+                weight = proposed;
+                mean += (mergedMeans[i] - mean) * mergedWeights[i] / weight;
+            } else {
+                means[centroids] = mean;
+                weights[centroids++] = weight;
+                weightSoFar += weight;
+                kLeft = k(weightSoFar / newTotalWeight);
+                mean = mergedMeans[i];
+                weight = mergedWeights[i];
+            }
+        }
+        means[centroids] = mean;
+        weights[centroids++] = weight;
+        totalWeight = newTotalWeight;
+        buffered = 0;
+    }
+
+    private double k(double q) {
+        return compression / (2.0 * Math.PI) * Math.asin(2.0 * Math.min(1.0, q) - 1.0);
+    }
+}
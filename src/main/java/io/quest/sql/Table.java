@@ -24,17 +24,26 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.function.Function;
 
 public class Table implements UniqueId<String>, Closeable {
     public static final String ROWID_COL_NAME = "#";
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    private static final int ROW_BYTES = 48; // row and its toString holder
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final int STRING_BYTES = 24;
+    private static final int TIMESTAMP_BYTES = 32;
+    private static final int BOXED_BYTES = 16;
 
     protected final String uniqueId;
     protected final ConcurrentMap<String, Integer> colNameToIdx;
@@ -43,6 +52,9 @@ public class Table implements UniqueId<String>, Closeable {
     protected final List<Row> model;
     protected volatile String[] colNames;
     protected volatile int[] colTypes;
+    protected volatile ColumnStats[] colStats;
+    protected volatile long version;
+    protected volatile long estimatedBytes;
 
     public Table(String uniqueId) {
         this.uniqueId = uniqueId;
@@ -51,6 +63,7 @@ public class Table implements UniqueId<String>, Closeable {
         writeLock = lock.writeLock();
         model = new ArrayList<>();
         colNameToIdx = new ConcurrentHashMap<>();
+        version = VERSIONS.incrementAndGet();
     }
 
     @Override
@@ -58,6 +71,17 @@ public class Table implements UniqueId<String>, Closeable {
         return uniqueId;
     }
 
+    /**
+     * Rows are only ever appended, existing rows change meaning when the column
+     * metadata are set, or when the table is closed. Either gives the table a new
+     * version, unique across tables, which caches derived from rows can key on.
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
     public int getColumnCount() {
         int[] types = colTypes;
         return types != null ? types.length : 0;
@@ -103,22 +127,40 @@ public class Table implements UniqueId<String>, Closeable {
         }
         String[] names = new String[colCount + 1];
         int[] types = new int[colCount + 1];
-        Map<String, Integer> nameToIdx = new HashMap<>();
         names[0] = ROWID_COL_NAME;
         types[0] = Types.ROWID;
-        nameToIdx.put(names[0], 0);
         for (int i = 1; i <= colCount; i++) {
             names[i] = metaData.getColumnName(i);
             types[i] = metaData.getColumnType(i);
+        }
+        setColumnMetadata(names, types);
+    }
+
+    /**
+     * Sets the column metadata of tables derived from other tables, rather than
+     * fetched, and clears the table's model.
+     *
+     * @param names column names, the first being {@link #ROWID_COL_NAME}
+     * @param types column types, the first being {@link Types#ROWID}
+     */
+    void setColumnMetadata(String[] names, int[] types) {
+        ColumnStats[] stats = new ColumnStats[names.length];
+        Map<String, Integer> nameToIdx = new HashMap<>();
+        nameToIdx.put(names[0], 0);
+        for (int i = 1; i < names.length; i++) {
+            stats[i] = new ColumnStats(names[i], types[i]);
             nameToIdx.put(names[i], i);
         }
         writeLock.lock();
         try {
             colNames = names;
             colTypes = types;
+            colStats = stats;
+            version = VERSIONS.incrementAndGet();
             colNameToIdx.clear();
             colNameToIdx.putAll(nameToIdx);
             model.clear();
+            estimatedBytes = 0L;
         } finally {
             writeLock.unlock();
         }
@@ -145,15 +187,55 @@ public class Table implements UniqueId<String>, Closeable {
         for (int i = 1; i < types.length; i++) {
             values[i] = rs.getObject(i);
         }
-        Row row = new Row(rowIdx, values);
+        addRow(new Row(rowIdx, values));
+    }
+
+    /**
+     * Adds a row to tables derived from other tables, rather than fetched.
+     *
+     * @param row row, with as many values as columns, the first being the rowid
+     */
+    void addRow(Row row) {
+        long rowBytes = estimateBytes(row);
         writeLock.lock();
         try {
             model.add(row);
+            estimatedBytes += rowBytes;
+            ColumnStats[] stats = colStats;
+            if (stats != null) {
+                for (int i = 1; i < stats.length; i++) {
+                    stats[i].add(row.getValueAt(i));
+                }
+            }
         } finally {
             writeLock.unlock();
         }
     }
 
+    /**
+     * @return rough estimate of the heap taken by the rows, accounted for as they
+     * are added, assuming compressed oops and compact strings
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    private static long estimateBytes(Row row) {
+        int colCount = row.size();
+        long bytes = ROW_BYTES + ARRAY_HEADER_BYTES + 4L * colCount;
+        for (int i = 0; i < colCount; i++) {
+            Object value = row.getValueAt(i);
+            if (value instanceof String str) {
+                bytes += STRING_BYTES + ARRAY_HEADER_BYTES + str.length();
+            } else if (value instanceof Date) {
+                bytes += TIMESTAMP_BYTES;
+            } else if (value != null) {
+                bytes += BOXED_BYTES;
+            }
+        }
+        return bytes;
+    }
+
     public Object getValueAt(int rowIdx, int colIdx) {
         Row row = getRow(rowIdx);
         return row != null ? row.getValueAt(colIdx) : null;
@@ -181,15 +263,51 @@ public class Table implements UniqueId<String>, Closeable {
         }
     }
 
+    /**
+     * @return a copy of the rows added so far, taken under a single acquisition of
+     * the read lock, so that they can be scanned in parallel without locking row by
+     * row
+     */
+    public Row[] getRows() {
+        readLock.lock();
+        try {
+            return model.toArray(new Row[0]);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Statistics are updated as rows are added, under the write lock, they are read
+     * under the read lock so that they can be looked at while the table is being
+     * fetched.
+     *
+     * @param reader receives the statistics of each column, index 0 (rowid) being
+     *               null, or null when there are no column metadata
+     * @param <T>    type of what is read
+     * @return what the reader returns
+     */
+    public <T> T readColumnStats(Function<ColumnStats[], T> reader) {
+        readLock.lock();
+        try {
+            return reader.apply(colStats);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
     @Override
     public void close() {
         writeLock.lock();
         try {
             colNames = null;
+            colStats = null;
+            version = VERSIONS.incrementAndGet();
             colTypes = null;
             colNameToIdx.clear();
             model.forEach(Row::clear);
             model.clear();
+            estimatedBytes = 0L;
         } finally {
             writeLock.unlock();
         }
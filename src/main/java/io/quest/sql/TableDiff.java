@@ -0,0 +1,340 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.sql;
+
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+
+/**
+ * Differences between two tables with the same columns, typically two executions
+ * of the same quest, without comparing every row with every other row:
+ * <ol>
+ * <li>a 64-bit fingerprint of the values of each row is computed, in parallel</li>
+ * <li>rows are hash-partitioned by fingerprint, and the rows of each partition
+ * of the table before are paired with equal rows of the same partition of the
+ * table after, partitions in parallel. Duplicate rows pair one to one, in order,
+ * and fingerprint collisions are resolved by comparing values</li>
+ * <li>the rows left unpaired are paired the same way by the value of their first
+ * column, the key. Those that pair are changed, the rest were removed (before),
+ * or added (after)</li>
+ * </ol>
+ * Expected cost is linear in the number of rows.
+ */
+public final class TableDiff {
+    public static final String DIFF_COL_NAME = "\u00B1";
+    public static final String ADDED = "+";
+    public static final String REMOVED = "-";
+    public static final String CHANGED_BEFORE = "~<";
+    public static final String CHANGED_AFTER = "~>";
+    private static final int PARTITION_BITS = 6;
+    private static final int PARTITIONS = 1 << PARTITION_BITS;
+    private static final int CANCELLATION_CHECK_MASK = (1 << 12) - 1;
+    private static final long NULL_HASH = 0x9e3779b97f4a7c15L;
+
+    private final Table before;
+    private final Table after;
+    private final Row[] beforeRows;
+    private final Row[] afterRows;
+    private final int[] added;
+    private final int[] removed;
+    private final int[] changedBefore;
+    private final int[] changedAfter;
+    private final int unchanged;
+
+    private TableDiff(Table before, Row[] beforeRows, Table after, Row[] afterRows, BooleanSupplier cancelled) {
+        this.before = before;
+        this.after = after;
+        this.beforeRows = beforeRows;
+        this.afterRows = afterRows;
+        int colCount = after.getColumnCount();
+
+        // pair equal rows
+        int[] beforeIdx = IntStream.range(0, beforeRows.length).toArray();
+        int[] afterIdx = IntStream.range(0, afterRows.length).toArray();
+        int[] pairs = new int[afterRows.length];
+        int paired = pair(beforeRows, beforeIdx, afterRows, afterIdx, 1, colCount, pairs, cancelled);
+        unchanged = paired;
+
+        // pair what is left by key
+        boolean[] beforePaired = new boolean[beforeRows.length];
+        for (int i = 0; i < afterIdx.length; i++) {
+            if (pairs[i] >= 0) {
+                beforePaired[pairs[i]] = true;
+            }
+        }
+        beforeIdx = unpaired(beforeIdx, beforePaired);
+        afterIdx = unpaired(afterIdx, pairs);
+        pairs = new int[afterIdx.length];
+        paired = pair(beforeRows, beforeIdx, afterRows, afterIdx, 1, Math.min(2, colCount), pairs, cancelled);
+        changedBefore = new int[paired];
+        changedAfter = new int[paired];
+        added = new int[afterIdx.length - paired];
+        Arrays.fill(beforePaired, false);
+        for (int i = 0, c = 0, a = 0; i < afterIdx.length; i++) {
+            if (pairs[i] >= 0) {
+                changedBefore[c] = pairs[i];
+                changedAfter[c++] = afterIdx[i];
+                beforePaired[pairs[i]] = true;
+            } else {
+                added[a++] = afterIdx[i];
+            }
+        }
+        removed = unpaired(beforeIdx, beforePaired);
+    }
+
+    /**
+     * @param before    the table before
+     * @param after     the table after, with the same number and types of columns
+     * @param cancelled polled periodically
+     * @return the differences
+     * @throws IllegalArgumentException when the tables do not have the same columns
+     * @throws CancellationException    when cancelled
+     */
+    public static TableDiff diff(Table before, Table after, BooleanSupplier cancelled) {
+        int[] beforeTypes = before.getColumnTypes();
+        int[] afterTypes = after.getColumnTypes();
+        if (beforeTypes == null || afterTypes == null) {
+            throw new IllegalArgumentException("both tables need column metadata (names, types)");
+        }
+        if (!Arrays.equals(beforeTypes, afterTypes)) {
+            throw new IllegalArgumentException(String.format(
+                "tables do not have the same columns: %s vs %s",
+                Arrays.toString(Arrays.copyOfRange(before.getColumnNames(), 1, beforeTypes.length)),
+                Arrays.toString(Arrays.copyOfRange(after.getColumnNames(), 1, afterTypes.length))));
+        }
+        return new TableDiff(before, before.getRows(), after, after.getRows(), cancelled);
+    }
+
+    public Table getBefore() {
+        return before;
+    }
+
+    public Table getAfter() {
+        return after;
+    }
+
+    public int getAddedCount() {
+        return added.length;
+    }
+
+    public int getRemovedCount() {
+        return removed.length;
+    }
+
+    public int getChangedCount() {
+        return changedAfter.length;
+    }
+
+    public int getUnchangedCount() {
+        return unchanged;
+    }
+
+    /**
+     * @return the differing rows as a table, the first column after the rowid
+     * being {@link #DIFF_COL_NAME}: changed rows come first, in pairs, the row
+     * before ({@link #CHANGED_BEFORE}) followed by the row after
+     * ({@link #CHANGED_AFTER}), then removed rows ({@link #REMOVED}), then added
+     * rows ({@link #ADDED}). Rows are copies, closing the table leaves the
+     * compared tables untouched
+     */
+    public Table toTable(String uniqueId) {
+        String[] afterNames = after.getColumnNames();
+        int[] afterTypes = after.getColumnTypes();
+        String[] names = new String[afterNames.length + 1];
+        int[] types = new int[afterTypes.length + 1];
+        names[0] = afterNames[0];
+        types[0] = afterTypes[0];
+        names[1] = DIFF_COL_NAME;
+        types[1] = Types.VARCHAR;
+        System.arraycopy(afterNames, 1, names, 2, afterNames.length - 1);
+        System.arraycopy(afterTypes, 1, types, 2, afterTypes.length - 1);
+        Table table = new Table(uniqueId);
+        table.setColumnMetadata(names, types);
+        long rowIdx = 0;
+        for (int i = 0; i < changedAfter.length; i++) {
+            table.addRow(copyOf(rowIdx++, CHANGED_BEFORE, beforeRows[changedBefore[i]]));
+            table.addRow(copyOf(rowIdx++, CHANGED_AFTER, afterRows[changedAfter[i]]));
+        }
+        for (int idx : removed) {
+            table.addRow(copyOf(rowIdx++, REMOVED, beforeRows[idx]));
+        }
+        for (int idx : added) {
+            table.addRow(copyOf(rowIdx++, ADDED, afterRows[idx]));
+        }
+        return table;
+    }
+
+    private Row copyOf(long rowIdx, String diff, Row row) {
+        int colCount = after.getColumnCount();
+        Object[] values = new Object[colCount + 1];
+        values[0] = rowIdx;
+        values[1] = diff;
+        for (int i = 1; i < colCount; i++) {
+            values[i + 1] = row.getValueAt(i);
+        }
+        return new Row(rowIdx, values);
+    }
+
+    /**
+     * Pairs rows after with equal rows before, equal meaning equal values in
+     * columns [fromCol, toCol).
+     *
+     * @return number of pairs, pairs[i] is the row before paired with row
+     * afterIdx[i], or -1
+     */
+    private static int pair(
+        Row[] beforeRows, int[] beforeIdx,
+        Row[] afterRows, int[] afterIdx,
+        int fromCol, int toCol,
+        int[] pairs,
+        BooleanSupplier cancelled
+    ) {
+        long[] beforeHashes = fingerprints(beforeRows, beforeIdx, fromCol, toCol, cancelled);
+        long[] afterHashes = fingerprints(afterRows, afterIdx, fromCol, toCol, cancelled);
+        int[][] beforeParts = partition(beforeHashes);
+        int[][] afterParts = partition(afterHashes);
+        Arrays.fill(pairs, -1);
+        return IntStream.range(0, PARTITIONS).parallel().map(p -> {
+            if (cancelled.getAsBoolean()) {
+                throw new CancellationException();
+            }
+            int[] bPart = beforeParts[p];
+            int[] aPart = afterParts[p];
+            if (bPart.length == 0 || aPart.length == 0) {
+                return 0;
+            }
+
+            // hash table of the rows before, chained in row order
+            int mask = Integer.highestOneBit(bPart.length * 2 - 1) * 2 - 1;
+            int[] heads = new int[mask + 1];
+            int[] tails = new int[mask + 1];
+            Arrays.fill(heads, -1);
+            int[] next = new int[bPart.length];
+            boolean[] used = new boolean[bPart.length];
+            for (int i = 0; i < bPart.length; i++) {
+                int slot = slot(beforeHashes, bPart, i, heads, mask);
+                next[i] = -1;
+                if (heads[slot] < 0) {
+                    heads[slot] = i;
+                } else {
+                    next[tails[slot]] = i;
+                }
+                tails[slot] = i;
+            }
+
+            // probe it with the rows after, cursors skip the paired rows at the
+            // head of each chain, which keeps duplicates linear
+            int[] cursors = heads.clone();
+            int count = 0;
+            for (int k = 0; k < aPart.length; k++) {
+                int j = aPart[k];
+                long hash = afterHashes[j];
+                int slot = (int) mix(hash) & mask;
+                while (heads[slot] >= 0 && beforeHashes[bPart[heads[slot]]] != hash) {
+                    slot = (slot + 1) & mask;
+                }
+                while (cursors[slot] >= 0 && used[cursors[slot]]) {
+                    cursors[slot] = next[cursors[slot]];
+                }
+                for (int i = cursors[slot]; i >= 0; i = next[i]) {
+                    if (!used[i] && equal(beforeRows[beforeIdx[bPart[i]]], afterRows[afterIdx[j]], fromCol, toCol)) {
+                        used[i] = true;
+                        pairs[j] = beforeIdx[bPart[i]];
+                        count++;
+                        break;
+                    }
+                }
+            }
+            return count;
+        }).sum();
+    }
+
+    private static int slot(long[] hashes, int[] part, int i, int[] heads, int mask) {
+        long hash = hashes[part[i]];
+        int slot = (int) mix(hash) & mask;
+        while (heads[slot] >= 0 && hashes[part[heads[slot]]] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static long[] fingerprints(Row[] rows, int[] idx, int fromCol, int toCol, BooleanSupplier cancelled) {
+        long[] hashes = new long[idx.length];
+        IntStream.range(0, idx.length).parallel().forEach(i -> {
+            if ((i & CANCELLATION_CHECK_MASK) == 0 && cancelled.getAsBoolean()) {
+                throw new CancellationException();
+            }
+            Row row = rows[idx[i]];
+            long hash = 0L;
+            for (int col = fromCol; col < toCol; col++) {
+                Object value = row.getValueAt(col);
+                hash = Long.rotateLeft(hash, 23) ^ (value != null ? HyperLogLog.hash(value) : NULL_HASH);
+            }
+            hashes[i] = mix(hash);
+        });
+        return hashes;
+    }
+
+    /**
+     * @return for each partition, positions in hashes, ascending
+     */
+    private static int[][] partition(long[] hashes) {
+        int[] sizes = new int[PARTITIONS];
+        for (long hash : hashes) {
+            sizes[(int) (hash >>> (Long.SIZE - PARTITION_BITS))]++;
+        }
+        int[][] parts = new int[PARTITIONS][];
+        for (int p = 0; p < PARTITIONS; p++) {
+            parts[p] = new int[sizes[p]];
+        }
+        Arrays.fill(sizes, 0);
+        for (int i = 0; i < hashes.length; i++) {
+            int p = (int) (hashes[i] >>> (Long.SIZE - PARTITION_BITS));
+            parts[p][sizes[p]++] = i;
+        }
+        return parts;
+    }
+
+    private static boolean equal(Row a, Row b, int fromCol, int toCol) {
+        for (int col = fromCol; col < toCol; col++) {
+            if (!Objects.equals(a.getValueAt(col), b.getValueAt(col))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] unpaired(int[] idx, boolean[] paired) {
+        return Arrays.stream(idx).filter(i -> !paired[i]).toArray();
+    }
+
+    private static int[] unpaired(int[] idx, int[] pairs) {
+        return IntStream.range(0, idx.length).filter(i -> pairs[i] < 0).map(i -> idx[i]).toArray();
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
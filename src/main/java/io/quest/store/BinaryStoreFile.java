@@ -0,0 +1,497 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.store;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import io.questdb.log.Log;
+import io.questdb.log.LogFactory;
+
+
+/**
+ * Binary store file, memory-mapped when read. Attribute values are stored as
+ * UTF-8 payloads, and an index gives, for each entry, its name and the names,
+ * offsets and lengths of its attributes. Attribute values up to
+ * {@link #LAZY_MIN_BYTES} are decoded when the file is read, larger ones are
+ * decoded from the mapping when they are first got.
+ * <p>
+ * Layout:
+ * <pre>
+ * magic int, version int,
+ * two header slots of: sequence long, index offset long, index length int, index crc32 int,
+ * payloads, and indexes, in the order they were appended
+ * </pre>
+ * Mutations append the payloads of the entries put, and a new index, force
+ * them to the device, then patch the header slot that is not the latest with a
+ * higher sequence, and force that. A reader takes the slot with the highest
+ * sequence whose index checks out, so a torn append leaves the previous index in
+ * force. The file is written anew, aside and renamed over, once dead payloads
+ * and indexes outweigh the live ones.
+ */
+final class BinaryStoreFile implements StoreFile {
+    static final String EXTENSION = ".qstore";
+    private static final Log LOG = LogFactory.getLog(BinaryStoreFile.class);
+    private static final int MAGIC = 0x51535452; // QSTR
+    private static final int FORMAT_VERSION = 1;
+    private static final int SLOT_SIZE = Long.BYTES * 2 + Integer.BYTES * 2;
+    private static final int HEADER_SIZE = Integer.BYTES * 2 + SLOT_SIZE * 2;
+    private static final int LAZY_MIN_BYTES = 256;
+    private static final long COMPACTION_MIN_BYTES = 1L << 20;
+
+    private final File file;
+    private final List<Locations> index; // parallel to the entries of the store
+    private MappedByteBuffer mapping; // of the file as last read or written whole
+    private long sequence;
+    private long fileSize = -1L; // -1 until the file is read or written whole
+    private long liveBytes;
+
+    BinaryStoreFile(File file) {
+        this.file = file;
+        index = new ArrayList<>();
+    }
+
+    static void export(List<? extends StoreEntry> entries, File file) throws IOException {
+        writeFile(entries, file, null, 1L);
+    }
+
+    /**
+     * Writes the entries to a temporary file, forces it to the device and renames
+     * it over the file.
+     *
+     * @param mapping lazy values decoded from this mapping are copied from it as they
+     *                are, others are got
+     * @return where the attributes went
+     */
+    private static List<Locations> writeFile(List<? extends StoreEntry> entries, File file, MappedByteBuffer mapping, long sequence) throws IOException {
+        Path tmp = StoreFile.sibling(file, TEMP_EXTENSION).toPath();
+        List<Locations> locations = new ArrayList<>(entries.size());
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            out.write(new byte[HEADER_SIZE]);
+            for (StoreEntry entry : entries) {
+                Locations.Builder builder = new Locations.Builder(entry.getName());
+                entry.visitAttrs(
+                        (attrName, value) -> {
+                            byte[] bytes = utf8(value);
+                            builder.add(attrName, bytes, null, write(out, bytes));
+                        },
+                        (attrName, lazy) -> {
+                            byte[] bytes = lazy instanceof Payload payload && payload.mapping() == mapping ?
+                                    payload.bytes()
+                                    :
+                                    utf8(lazy.get());
+                            builder.add(attrName, bytes, lazy, write(out, bytes));
+                        }
+                );
+                locations.add(builder.build());
+            }
+            out.flush();
+            byte[] indexBytes = encodeIndex(locations);
+            long indexOffset = out.size();
+            out.write(indexBytes);
+            out.flush();
+            FileChannel channel = fos.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(FORMAT_VERSION);
+            header.position(slotOffset(sequence));
+            putSlot(header, sequence, indexOffset, indexBytes);
+            header.position(0);
+            channel.write(header, 0L);
+            fos.getFD().sync();
+        }
+        StoreFile.moveOver(tmp, file.toPath());
+        return locations;
+    }
+
+    private static long write(DataOutputStream out, byte[] bytes) {
+        if (bytes == null) {
+            return -1L;
+        }
+        long offset = out.size();
+        try {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return offset;
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static void putSlot(ByteBuffer header, long sequence, long indexOffset, byte[] indexBytes) {
+        CRC32 crc = new CRC32();
+        crc.update(indexBytes);
+        header.putLong(sequence).putLong(indexOffset).putInt(indexBytes.length).putInt((int) crc.getValue());
+    }
+
+    /**
+     * Sequences alternate between the two slots, so that an append never overwrites
+     * the slot in force.
+     */
+    private static int slotOffset(long sequence) {
+        return Integer.BYTES * 2 + (int) (sequence & 1L) * SLOT_SIZE;
+    }
+
+    private static byte[] encodeIndex(List<Locations> locations) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(locations.size());
+            for (Locations entry : locations) {
+                writeString(out, entry.name);
+                out.writeInt(entry.attrNames.length);
+                for (int i = 0; i < entry.attrNames.length; i++) {
+                    writeString(out, entry.attrNames[i]);
+                    out.writeLong(entry.offsets[i]);
+                    out.writeInt(entry.lengths[i]);
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public List<StoreEntry> read() {
+        try {
+            return read(file);
+        } catch (IOException | RuntimeException e) {
+            LOG.error().$("Could not load store [path=").$(file.getAbsolutePath())
+                    .$(", e=").$(e.getMessage())
+                    .I$();
+        }
+        try {
+            Files.copy(file.toPath(), StoreFile.sibling(file, CORRUPT_EXTENSION).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOG.error().$("Could not keep corrupt file [path=").$(file.getAbsolutePath())
+                    .$(", e=").$(e.getMessage())
+                    .I$();
+        }
+        File tmp = StoreFile.sibling(file, TEMP_EXTENSION);
+        if (tmp.exists()) {
+            try {
+                // a complete write that did not get to be renamed, finish it
+                List<StoreEntry> entries = read(tmp);
+                StoreFile.moveOver(tmp.toPath(), file.toPath());
+                return entries;
+            } catch (IOException | RuntimeException e) {
+                LOG.error().$("Could not recover store [path=").$(tmp.getAbsolutePath())
+                        .$(", e=").$(e.getMessage())
+                        .I$();
+            }
+        }
+        index.clear();
+        mapping = null;
+        fileSize = -1L;
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<StoreEntry> peek() throws IOException {
+        return read(file);
+    }
+
+    @Override
+    public void append(List<StoreJournal.Record> records) throws IOException {
+        long offset = fileSize;
+        fileSize = -1L; // compaction is due until the append succeeds
+        ByteArrayOutputStream payloads = new ByteArrayOutputStream();
+        for (StoreJournal.Record record : records) {
+            if (record.isRemove()) {
+                liveBytes -= index.remove(record.idx()).bytes;
+                continue;
+            }
+            Locations.Builder builder = new Locations.Builder(record.entry().getName());
+            record.entry().visitAttrs(
+                    (attrName, value) -> {
+                        byte[] bytes = utf8(value);
+                        builder.add(attrName, bytes, null, append(payloads, offset, bytes));
+                    },
+                    (attrName, lazy) -> {
+                        if (lazy instanceof Payload payload && payload.mapping() == mapping) {
+                            builder.add(attrName, payload.offset(), payload.length());
+                        } else {
+                            byte[] bytes = utf8(lazy.get());
+                            builder.add(attrName, bytes, null, append(payloads, offset, bytes));
+                        }
+                    }
+            );
+            Locations locations = builder.build();
+            if (record.idx() == index.size()) {
+                index.add(locations);
+            } else {
+                liveBytes -= index.set(record.idx(), locations).bytes;
+            }
+            liveBytes += locations.bytes;
+        }
+        byte[] indexBytes = encodeIndex(index);
+        long indexOffset = offset + payloads.size();
+        payloads.write(indexBytes);
+        ByteBuffer header = ByteBuffer.allocate(SLOT_SIZE);
+        putSlot(header, sequence + 1L, indexOffset, indexBytes);
+        header.flip();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(payloads.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            channel.force(false);
+            long slotOffset = slotOffset(sequence + 1L);
+            while (header.hasRemaining()) {
+                channel.write(header, slotOffset + header.position());
+            }
+            channel.force(false);
+        }
+        sequence++;
+        fileSize = offset + payloads.size();
+    }
+
+    @Override
+    public void write(List<? extends StoreEntry> entries) throws IOException {
+        fileSize = -1L;
+        long newSequence = sequence + 1L;
+        List<Locations> locations = writeFile(entries, file, mapping, newSequence);
+        MappedByteBuffer newMapping = map(file);
+        for (int i = 0; i < entries.size(); i++) {
+            locations.get(i).relocateLazyAttrs(entries.get(i), newMapping);
+        }
+        index.clear();
+        index.addAll(locations);
+        mapping = newMapping;
+        sequence = newSequence;
+        liveBytes = locations.stream().mapToLong(l -> l.bytes).sum();
+        fileSize = newMapping.capacity();
+    }
+
+    @Override
+    public boolean isCompactionDue() {
+        return fileSize == -1L || fileSize - liveBytes > Math.max(COMPACTION_MIN_BYTES, liveBytes);
+    }
+
+    @Override
+    public long size() {
+        return Math.max(fileSize, 0L);
+    }
+
+    private static long append(ByteArrayOutputStream payloads, long base, byte[] bytes) {
+        if (bytes == null) {
+            return -1L;
+        }
+        long offset = base + payloads.size();
+        payloads.writeBytes(bytes);
+        return offset;
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("too large: " + size);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+        }
+    }
+
+    private List<StoreEntry> read(File source) throws IOException {
+        MappedByteBuffer in = map(source);
+        if (in.capacity() < HEADER_SIZE || in.getInt(0) != MAGIC || in.getInt(Integer.BYTES) != FORMAT_VERSION) {
+            throw new IOException("not a store file");
+        }
+        long bestSequence = -1L;
+        ByteBuffer bestIndex = null;
+        for (int slot = 0; slot < 2; slot++) {
+            int slotOffset = slotOffset(slot);
+            long slotSequence = in.getLong(slotOffset);
+            long indexOffset = in.getLong(slotOffset + Long.BYTES);
+            int indexLength = in.getInt(slotOffset + Long.BYTES * 2);
+            int indexCrc = in.getInt(slotOffset + Long.BYTES * 2 + Integer.BYTES);
+            if (slotSequence <= bestSequence || indexOffset < HEADER_SIZE || indexLength < Integer.BYTES
+                    || indexOffset + indexLength > in.capacity()) {
+                continue;
+            }
+            ByteBuffer indexBytes = in.slice((int) indexOffset, indexLength);
+            CRC32 crc = new CRC32();
+            crc.update(indexBytes.duplicate());
+            if ((int) crc.getValue() == indexCrc) {
+                bestSequence = slotSequence;
+                bestIndex = indexBytes;
+            }
+        }
+        if (bestIndex == null) {
+            throw new IOException("no valid index");
+        }
+        List<StoreEntry> entries = new ArrayList<>();
+        List<Locations> locations = new ArrayList<>();
+        int entryCount = bestIndex.getInt();
+        for (int e = 0; e < entryCount; e++) {
+            StoreEntry entry = new StoreEntry(readString(bestIndex));
+            Locations.Builder builder = new Locations.Builder(entry.getName());
+            int attrCount = bestIndex.getInt();
+            for (int a = 0; a < attrCount; a++) {
+                String attrName = readString(bestIndex);
+                long offset = bestIndex.getLong();
+                int length = bestIndex.getInt();
+                if (offset < 0L) {
+                    entry.setAttr(attrName, null);
+                } else if (offset + length > in.capacity()) {
+                    throw new IOException("payload out of bounds: " + attrName);
+                } else if (length < LAZY_MIN_BYTES) {
+                    entry.setAttr(attrName, new Payload(in, (int) offset, length).get());
+                } else {
+                    entry.setLazyAttr(attrName, new Payload(in, (int) offset, length));
+                }
+                builder.add(attrName, offset, length);
+            }
+            entries.add(entry);
+            locations.add(builder.build());
+        }
+        index.clear();
+        index.addAll(locations);
+        mapping = in;
+        sequence = bestSequence;
+        liveBytes = locations.stream().mapToLong(l -> l.bytes).sum();
+        fileSize = in.capacity();
+        LOG.info().$("Loaded [path=").$(source.getAbsolutePath())
+                .$(", entries=").$(entries.size())
+                .$(", size=").$(fileSize)
+                .$(", live=").$(liveBytes)
+                .I$();
+        return entries;
+    }
+
+    /**
+     * UTF-8 bytes of an attribute value in the mapping of the file.
+     */
+    private record Payload(MappedByteBuffer mapping, int offset, int length) implements Supplier<String> {
+        @Override
+        public String get() {
+            return StandardCharsets.UTF_8.decode(mapping.slice(offset, length)).toString();
+        }
+
+        byte[] bytes() {
+            byte[] bytes = new byte[length];
+            mapping.get(offset, bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * Index entry, where the attributes of an entry are in the file.
+     */
+    private static final class Locations {
+        private final String name;
+        private final String[] attrNames;
+        private final long[] offsets;
+        private final int[] lengths;
+        private final Supplier<?>[] lazyValues; // written from these, to be relocated
+        private final long bytes;
+
+        private Locations(String name, String[] attrNames, long[] offsets, int[] lengths, Supplier<?>[] lazyValues) {
+            this.name = name;
+            this.attrNames = attrNames;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.lazyValues = lazyValues;
+            long sum = 0L;
+            for (int length : lengths) {
+                sum += length;
+            }
+            bytes = sum;
+        }
+
+        /**
+         * Points the lazy attributes of the entry written to the file at their new
+         * location, so that they decode from the new mapping.
+         */
+        @SuppressWarnings("unchecked")
+        private void relocateLazyAttrs(StoreEntry entry, MappedByteBuffer mapping) {
+            for (int i = 0; i < attrNames.length; i++) {
+                if (lazyValues[i] != null) {
+                    entry.replaceLazyAttr(attrNames[i], (Supplier<String>) lazyValues[i], new Payload(mapping, (int) offsets[i], lengths[i]));
+                }
+            }
+        }
+
+        private static final class Builder {
+            private final String name;
+            private final List<String> attrNames = new ArrayList<>();
+            private final List<long[]> locations = new ArrayList<>();
+            private final List<Supplier<?>> lazyValues = new ArrayList<>();
+
+            private Builder(String name) {
+                this.name = name;
+            }
+
+            private void add(String attrName, long offset, int length) {
+                attrNames.add(attrName);
+                locations.add(new long[]{offset, length});
+                lazyValues.add(null);
+            }
+
+            private void add(String attrName, byte[] bytes, Supplier<?> lazyValue, long offset) {
+                attrNames.add(attrName);
+                locations.add(new long[]{offset, bytes != null ? bytes.length : 0});
+                lazyValues.add(lazyValue);
+            }
+
+            private Locations build() {
+                int n = attrNames.size();
+                long[] offsets = new long[n];
+                int[] lengths = new int[n];
+                for (int i = 0; i < n; i++) {
+                    offsets[i] = locations.get(i)[0];
+                    lengths[i] = (int) locations.get(i)[1];
+                }
+                return new Locations(name, attrNames.toArray(String[]::new), offsets, lengths, lazyValues.toArray(Supplier<?>[]::new));
+            }
+        }
+    }
+}
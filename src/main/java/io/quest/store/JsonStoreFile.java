@@ -0,0 +1,261 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.store;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import io.questdb.log.Log;
+import io.questdb.log.LogFactory;
+
+
+/**
+ * Pretty-printed JSON array of entries, the snapshot, plus a {@link StoreJournal}
+ * next to it, where the mutations are appended between snapshots. The journal is
+ * compacted into a new snapshot once it grows larger than the snapshot.
+ * <p>
+ * A snapshot that does not load, say one written by an older version, is
+ * recovered from the temporary file of an unfinished write, else its entries are
+ * salvaged up to the first broken one, and it is kept with extension
+ * {@link #CORRUPT_EXTENSION}.
+ */
+final class JsonStoreFile implements StoreFile {
+    private static final Log LOG = LogFactory.getLog(JsonStoreFile.class);
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final Type STORE_TYPE = new TypeToken<ArrayList<StoreEntry>>() {
+        /* type */
+    }.getType();
+    private static final String JOURNAL_EXTENSION = ".journal";
+    private static final long COMPACTION_MIN_BYTES = 1L << 20;
+
+    private final File file;
+    private final StoreJournal journal;
+    private long snapshotCrc = -1L; // -1 until the file is read or written whole
+    private long snapshotSize;
+
+    JsonStoreFile(File file) {
+        this.file = file;
+        journal = new StoreJournal(StoreFile.sibling(file, JOURNAL_EXTENSION));
+    }
+
+    static void export(List<? extends StoreEntry> entries, File file) throws IOException {
+        writeSnapshot(entries, file);
+    }
+
+    private static List<StoreEntry> readSnapshot(File file, CRC32 crc) {
+        try {
+            List<StoreEntry> entries = StoreReader.read(file, crc);
+            LOG.info().$("Loaded [path=").$(file.getAbsolutePath())
+                    .$(", entries=").$(entries.size())
+                    .I$();
+            return entries;
+        } catch (IOException e) {
+            LOG.info().$("Falling back to JSON parser [path=").$(file.getAbsolutePath())
+                    .$(", e=").$(e.getMessage())
+                    .I$();
+        }
+        crc.reset();
+        List<StoreEntry> entries = null;
+        try (CheckedInputStream in = new CheckedInputStream(new FileInputStream(file), crc)) {
+            entries = GSON.fromJson(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)), STORE_TYPE);
+            in.transferTo(OutputStream.nullOutputStream()); // the crc covers the whole file
+            LOG.info().$("Loaded [path=").$(file.getAbsolutePath()).I$();
+        } catch (Exception e) {
+            LOG.error().$("Could not load store [path=").$(file.getAbsolutePath())
+                    .$(", e=").$(e.getMessage())
+                    .I$();
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the entries of a file that does not load as a whole, up to the first one
+     * that does not parse.
+     */
+    private static List<StoreEntry> salvage(File file) {
+        List<StoreEntry> entries = new ArrayList<>();
+        try (JsonReader in = new JsonReader(new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)))) {
+            in.beginArray();
+            while (in.hasNext()) {
+                StoreEntry entry = GSON.fromJson(in, StoreEntry.class);
+                if (entry == null || entry.getName() == null) {
+                    break;
+                }
+                entries.add(entry);
+            }
+        } catch (Exception e) {
+            LOG.info().$("Salvage stopped [path=").$(file.getAbsolutePath())
+                    .$(", entries=").$(entries.size())
+                    .$(", e=").$(e.getMessage())
+                    .I$();
+        }
+        return entries;
+    }
+
+    /**
+     * Writes the entries to a temporary file next to the target, forces it to the
+     * device and renames it over the target.
+     *
+     * @return the CRC32 of the file
+     */
+    private static long writeSnapshot(List<? extends StoreEntry> entries, File file) throws IOException {
+        Path tmp = StoreFile.sibling(file, TEMP_EXTENSION).toPath();
+        for (StoreEntry entry : entries) {
+            entry.materialize();
+        }
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             Writer out = new BufferedWriter(new OutputStreamWriter(new CheckedOutputStream(fos, crc), StandardCharsets.UTF_8))) {
+            GSON.toJson(entries, STORE_TYPE, out);
+            out.flush();
+            fos.getFD().sync();
+        }
+        StoreFile.moveOver(tmp, file.toPath());
+        return crc.getValue();
+    }
+
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public long fingerprint() {
+        return StoreFile.fingerprintOf(file) * 31L + StoreFile.fingerprintOf(journal.getFile());
+    }
+
+    @Override
+    public List<StoreEntry> read() {
+        CRC32 crc = new CRC32();
+        List<StoreEntry> content = readSnapshot(file, crc);
+        if (content == null) {
+            snapshotCrc = -1L;
+            return recover();
+        }
+        boolean clean = replayJournal(content, crc.getValue());
+        snapshotCrc = clean ? crc.getValue() : -1L;
+        snapshotSize = file.length();
+        return content;
+    }
+
+    @Override
+    public List<StoreEntry> peek() throws IOException {
+        CRC32 crc = new CRC32();
+        List<StoreEntry> content = readSnapshot(file, crc);
+        if (content == null) {
+            throw new IOException("not a store file");
+        }
+        replayJournal(content, crc.getValue());
+        return content;
+    }
+
+    @Override
+    public void append(List<StoreJournal.Record> records) throws IOException {
+        journal.append(snapshotCrc, records);
+    }
+
+    /**
+     * Writes the snapshot, then deletes the journal. Should the process die before
+     * the journal is deleted, the journal is not replayed on top of the new
+     * snapshot, as it names the snapshot it applies to.
+     */
+    @Override
+    public void write(List<? extends StoreEntry> entries) throws IOException {
+        snapshotCrc = -1L;
+        long crc = writeSnapshot(entries, file);
+        snapshotSize = file.length();
+        journal.reset();
+        snapshotCrc = crc;
+    }
+
+    @Override
+    public boolean isCompactionDue() {
+        return snapshotCrc == -1L || journal.size() > Math.max(COMPACTION_MIN_BYTES, snapshotSize);
+    }
+
+    @Override
+    public long size() {
+        return snapshotSize + journal.size();
+    }
+
+    /**
+     * Applies the records of the journal to the content of the snapshot.
+     *
+     * @return false when records were lost
+     */
+    private boolean replayJournal(List<StoreEntry> content, long crc) {
+        StoreJournal.Replay replay = journal.read(crc);
+        boolean clean = replay.clean();
+        try {
+            for (StoreJournal.Record record : replay.records()) {
+                record.applyTo(content);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            clean = false; // records beyond the one that failed are lost
+        }
+        LOG.info().$("Replayed journal [path=").$(journal.getFile().getAbsolutePath())
+                .$(", records=").$(replay.records().size())
+                .$(", clean=").$(clean)
+                .I$();
+        return clean;
+    }
+
+    /**
+     * Loads the temporary file of a write that did not get to rename it over the
+     * file, else salvages what it can from the file, which is kept aside.
+     */
+    private List<StoreEntry> recover() {
+        File tmp = StoreFile.sibling(file, TEMP_EXTENSION);
+        List<StoreEntry> content = tmp.exists() ? readSnapshot(tmp, new CRC32()) : null;
+        if (content == null) {
+            content = salvage(file);
+        }
+        try {
+            Files.copy(file.toPath(), StoreFile.sibling(file, CORRUPT_EXTENSION).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOG.error().$("Could not keep corrupt file [path=").$(file.getAbsolutePath())
+                    .$(", e=").$(e.getMessage())
+                    .I$();
+        }
+        LOG.info().$("Recovered [path=").$(file.getAbsolutePath())
+                .$(", entries=").$(content.size())
+                .I$();
+        return content;
+    }
+}
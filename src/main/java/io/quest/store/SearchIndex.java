@@ -0,0 +1,670 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import io.questdb.log.Log;
+import io.questdb.log.LogFactory;
+
+
+/**
+ * Inverted index over the SQL tokens of the entries of the store files in a
+ * folder, one document per entry, its name and attribute values.
+ * <p>
+ * The stores of the files that are open keep it up to date, they hand it the
+ * records of their mutations once these are durable, see
+ * {@link Store#setSearchIndex(SearchIndex)}. Files that are not open are indexed,
+ * by {@link #refresh(File, FileFilter)}, when their fingerprint, see
+ * {@link StoreFile#fingerprint()}, differs from the one the index has for them.
+ * <p>
+ * The terms of each document are persisted, coalesced within
+ * {@link #PERSIST_DELAY_MILLIS}, and the postings are rebuilt from them on open.
+ * Queries rank the documents that contain all their terms, the last one taken
+ * as a prefix, by BM25. Updates run in the index's own thread, in order.
+ */
+public final class SearchIndex implements Closeable {
+    private static final Log LOG = LogFactory.getLog(SearchIndex.class);
+    private static final int MAGIC = 0x51534958; // QSIX
+    private static final int FORMAT_VERSION = 1;
+    private static final long PERSIST_DELAY_MILLIS = 2_000L;
+    private static final long CLOSE_TIMEOUT_MILLIS = 5_000L;
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int MAX_PREFIX_EXPANSIONS = 128;
+    private static final double BM25_K1 = 1.2;
+    private static final double BM25_B = 0.75;
+
+    private final File file;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Doc> docs = new ArrayList<>(); // by doc id, null when removed
+    private int[] positions = new int[64]; // by doc id, index of the entry in its store
+    private final Map<String, StoreDocs> stores = new HashMap<>(); // by store file name
+    private final NavigableMap<String, Postings> postings = new TreeMap<>();
+    private final Set<String> attached = ConcurrentHashMap.newKeySet();
+    private final ScheduledThreadPoolExecutor updater;
+    private final AtomicBoolean persistScheduled = new AtomicBoolean();
+    private int liveDocs;
+    private long totalLength;
+    private int removedPostings;
+
+    private SearchIndex(File file) {
+        this.file = file;
+        updater = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+            thread.setDaemon(true);
+            thread.setName(SearchIndex.class.getSimpleName());
+            return thread;
+        });
+        updater.setExecuteExistingDelayedTasksAfterShutdownPolicy(false); // close persists
+    }
+
+    /**
+     * @param file where the index is persisted, read if it exists
+     * @return the index
+     */
+    public static SearchIndex open(File file) {
+        SearchIndex index = new SearchIndex(file);
+        if (file.exists()) {
+            long start = System.nanoTime();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+                index.read(in);
+                LOG.info().$("Loaded [path=").$(file.getAbsolutePath())
+                        .$(", docs=").$(index.liveDocs)
+                        .$(", terms=").$(index.postings.size())
+                        .$(", ms=").$(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                        .I$();
+            } catch (IOException | RuntimeException e) {
+                LOG.error().$("Could not load search index, rebuilding [path=").$(file.getAbsolutePath())
+                        .$(", e=").$(e.getMessage())
+                        .I$();
+                index = new SearchIndex(file);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Splits text in lower case runs of letters, digits and underscores.
+     *
+     * @param text      text
+     * @param minLength shorter runs are dropped
+     * @return the terms, in order, with repetitions
+     */
+    static List<String> tokenize(String text, int minLength) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        int start = -1;
+        for (int i = 0, n = text.length(); i <= n; i++) {
+            boolean isTermChar = i < n && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_');
+            if (isTermChar && start < 0) {
+                start = i;
+            } else if (!isTermChar && start >= 0) {
+                int len = i - start;
+                if (len >= minLength && len <= MAX_TERM_LENGTH) {
+                    terms.add(text.substring(start, i).toLowerCase());
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param query terms to find, the last one a prefix
+     * @param limit maximum number of hits
+     * @return documents that contain all terms, best first
+     */
+    public List<Hit> search(String query, int limit) {
+        List<String> terms = tokenize(query, 1);
+        if (terms.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            int n = docs.size();
+            double[] scores = new double[n];
+            int[] matched = new int[n];
+            double avgLength = liveDocs > 0 ? (double) totalLength / liveDocs : 1.0;
+            for (int t = 0; t < terms.size(); t++) {
+                String term = terms.get(t);
+                Map<String, Postings> expansions = t < terms.size() - 1 ? exact(term) : prefixed(term);
+                for (Postings p : expansions.values()) {
+                    double idf = Math.log(1.0 + (liveDocs - p.docFrequency + 0.5) / (p.docFrequency + 0.5));
+                    for (int i = 0; i < p.size; i++) {
+                        int docId = p.docIds[i];
+                        Doc doc = docs.get(docId);
+                        if (doc == null) {
+                            continue;
+                        }
+                        if (matched[docId] == t) {
+                            matched[docId] = t + 1; // counts each query term once
+                        }
+                        double tf = p.frequencies[i];
+                        scores[docId] += idf * tf * (BM25_K1 + 1.0) / (tf + BM25_K1 * (1.0 - BM25_B + BM25_B * doc.length / avgLength));
+                    }
+                }
+            }
+            PriorityQueue<Integer> best = new PriorityQueue<>(limit, (a, b) -> Double.compare(scores[a], scores[b]));
+            for (int docId = 0; docId < n; docId++) {
+                if (matched[docId] == terms.size() && (best.size() < limit || scores[docId] > scores[best.peek()])) {
+                    if (best.size() == limit) {
+                        best.poll();
+                    }
+                    best.offer(docId);
+                }
+            }
+            Hit[] hits = new Hit[best.size()];
+            for (int i = hits.length - 1; i >= 0; i--) {
+                int docId = best.poll();
+                Doc doc = docs.get(docId);
+                hits[i] = new Hit(doc.fileName, positions[docId], doc.name, scores[docId]);
+            }
+            return List.of(hits);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of documents
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveDocs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes, in the background, the store files in the folder that are not open
+     * and have changed since they were indexed, and drops those that are gone.
+     *
+     * @param folder folder
+     * @param filter store files
+     */
+    public void refresh(File folder, FileFilter filter) {
+        submit(() -> {
+            File[] files = folder.listFiles(f -> f.isFile() && filter.accept(f));
+            Set<String> present = new HashSet<>();
+            if (files != null) {
+                for (File storeFile : files) {
+                    String fileName = storeFile.getName();
+                    present.add(fileName);
+                    if (attached.contains(fileName)) {
+                        continue;
+                    }
+                    StoreFile sf = StoreFile.of(storeFile);
+                    long fingerprint = sf.fingerprint();
+                    if (fingerprint != fingerprintOf(fileName)) {
+                        try {
+                            reindex(fileName, sf.peek(), fingerprint);
+                        } catch (IOException | RuntimeException e) {
+                            // left to the store that opens it to recover
+                            LOG.error().$("Could not index [path=").$(storeFile.getAbsolutePath())
+                                    .$(", e=").$(e.getMessage())
+                                    .I$();
+                        }
+                    }
+                }
+            }
+            List<String> gone = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                for (String fileName : stores.keySet()) {
+                    if (!present.contains(fileName) && !attached.contains(fileName)) {
+                        gone.add(fileName);
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            for (String fileName : gone) {
+                reindex(fileName, List.of(), 0L);
+            }
+        });
+    }
+
+    /**
+     * Waits, up to {@link #CLOSE_TIMEOUT_MILLIS}, for the updates pending, then
+     * persists the index and stops its thread.
+     */
+    @Override
+    public void close() {
+        updater.shutdown();
+        try {
+            if (!updater.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOG.error().$("Closing with updates pending [path=").$(file.getAbsolutePath()).I$();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (persistScheduled.get()) {
+            persist();
+        }
+    }
+
+    void attach(String fileName) {
+        attached.add(fileName);
+    }
+
+    void detach(String fileName) {
+        attached.remove(fileName);
+    }
+
+    /**
+     * Reindexes the entries of a store that has just been loaded, unless the index
+     * is up to date with its file.
+     */
+    void sync(String fileName, List<? extends StoreEntry> entries, long fingerprint) {
+        submit(() -> {
+            if (fingerprint != fingerprintOf(fileName) || entries.size() != docCountOf(fileName)) {
+                reindex(fileName, entries, fingerprint);
+            }
+        });
+    }
+
+    /**
+     * Applies the mutations of a store, once they are durable.
+     */
+    void apply(String fileName, List<StoreJournal.Record> records, long fingerprint) {
+        if (records.isEmpty()) {
+            return;
+        }
+        submit(() -> {
+            lock.writeLock().lock();
+            try {
+                StoreDocs storeDocs = stores.computeIfAbsent(fileName, k -> new StoreDocs());
+                for (StoreJournal.Record record : records) {
+                    int idx = record.idx();
+                    if (record.isRemove()) {
+                        if (idx < storeDocs.docIds.size()) {
+                            removeDoc(storeDocs.docIds.remove(idx));
+                            for (int i = idx; i < storeDocs.docIds.size(); i++) {
+                                positions[storeDocs.docIds.get(i)] = i;
+                            }
+                        }
+                        continue;
+                    }
+                    int docId = addDoc(Doc.of(fileName, record.entry()), null);
+                    if (idx < storeDocs.docIds.size()) {
+                        removeDoc(storeDocs.docIds.set(idx, docId));
+                    } else {
+                        idx = storeDocs.docIds.size();
+                        storeDocs.docIds.add(docId);
+                    }
+                    positions[docId] = idx;
+                }
+                storeDocs.fingerprint = fingerprint;
+                compactPostingsIfNeeded();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            schedulePersist();
+        });
+    }
+
+    private void submit(Runnable task) {
+        try {
+            updater.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOG.error().$("Could not update search index [e=").$(e.getMessage()).I$();
+                }
+            });
+        } catch (RejectedExecutionException ignore) {
+            // closed
+        }
+    }
+
+    private long fingerprintOf(String fileName) {
+        lock.readLock().lock();
+        try {
+            StoreDocs storeDocs = stores.get(fileName);
+            return storeDocs != null ? storeDocs.fingerprint : Long.MIN_VALUE;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int docCountOf(String fileName) {
+        lock.readLock().lock();
+        try {
+            StoreDocs storeDocs = stores.get(fileName);
+            return storeDocs != null ? storeDocs.docIds.size() : -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void reindex(String fileName, List<? extends StoreEntry> entries, long fingerprint) {
+        List<Doc> newDocs = new ArrayList<>(entries.size());
+        for (StoreEntry entry : entries) {
+            newDocs.add(Doc.of(fileName, entry)); // gets lazy values, outside the lock
+        }
+        lock.writeLock().lock();
+        try {
+            StoreDocs storeDocs = stores.remove(fileName);
+            if (storeDocs != null) {
+                storeDocs.docIds.forEach(this::removeDoc);
+            }
+            if (!newDocs.isEmpty()) {
+                storeDocs = new StoreDocs();
+                storeDocs.fingerprint = fingerprint;
+                for (Doc doc : newDocs) {
+                    int docId = addDoc(doc, null);
+                    positions[docId] = storeDocs.docIds.size();
+                    storeDocs.docIds.add(docId);
+                }
+                stores.put(fileName, storeDocs);
+            }
+            compactPostingsIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        LOG.info().$("Indexed [file=").$(fileName).$(", docs=").$(newDocs.size()).I$();
+        schedulePersist();
+    }
+
+    /**
+     * @param termPostings postings of the terms of the document, in order, looked
+     *                     up when null
+     */
+    private int addDoc(Doc doc, Postings[] termPostings) {
+        int docId = docs.size();
+        docs.add(doc);
+        if (docId == positions.length) {
+            positions = Arrays.copyOf(positions, docId * 2);
+        }
+        for (int i = 0; i < doc.terms.length; i++) {
+            Postings p = termPostings != null ? termPostings[i] : postings.computeIfAbsent(doc.terms[i], k -> new Postings());
+            p.add(docId, doc.frequencies[i]);
+        }
+        liveDocs++;
+        totalLength += doc.length;
+        return docId;
+    }
+
+    private void removeDoc(int docId) {
+        Doc doc = docs.set(docId, null);
+        if (doc != null) {
+            for (String term : doc.terms) {
+                Postings p = postings.get(term);
+                if (p != null) {
+                    p.docFrequency--;
+                }
+            }
+            removedPostings += doc.terms.length;
+            liveDocs--;
+            totalLength -= doc.length;
+        }
+    }
+
+    /**
+     * Postings of removed documents are skipped by queries, and dropped, along with
+     * the ids of removed documents, once they are as many as the live ones.
+     */
+    private void compactPostingsIfNeeded() {
+        long livePostings = 0L;
+        for (Postings p : postings.values()) {
+            livePostings += p.docFrequency;
+        }
+        if (removedPostings < Math.max(1 << 16, livePostings)) {
+            return;
+        }
+        List<Doc> live = new ArrayList<>(liveDocs);
+        Map<Integer, Integer> newIds = new HashMap<>();
+        for (int docId = 0; docId < docs.size(); docId++) {
+            if (docs.get(docId) != null) {
+                newIds.put(docId, live.size());
+                live.add(docs.get(docId));
+            }
+        }
+        docs.clear();
+        postings.clear();
+        liveDocs = 0;
+        totalLength = 0L;
+        removedPostings = 0;
+        live.forEach(doc -> addDoc(doc, null));
+        for (StoreDocs storeDocs : stores.values()) {
+            storeDocs.docIds.replaceAll(newIds::get);
+            for (int i = 0; i < storeDocs.docIds.size(); i++) {
+                positions[storeDocs.docIds.get(i)] = i;
+            }
+        }
+    }
+
+    private Map<String, Postings> exact(String term) {
+        Postings p = postings.get(term);
+        return p != null ? Map.of(term, p) : Map.of();
+    }
+
+    private Map<String, Postings> prefixed(String prefix) {
+        Map<String, Postings> expansions = new LinkedHashMap<>();
+        for (Map.Entry<String, Postings> e : postings.tailMap(prefix, true).entrySet()) {
+            if (!e.getKey().startsWith(prefix) || expansions.size() >= MAX_PREFIX_EXPANSIONS) {
+                break;
+            }
+            if (e.getValue().docFrequency > 0) {
+                expansions.put(e.getKey(), e.getValue());
+            }
+        }
+        return expansions;
+    }
+
+    private void schedulePersist() {
+        if (persistScheduled.compareAndSet(false, true)) {
+            try {
+                updater.schedule(this::persist, PERSIST_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                persist(); // closed
+            }
+        }
+    }
+
+    private synchronized void persist() {
+        persistScheduled.set(false);
+        File tmp = StoreFile.sibling(file, StoreFile.TEMP_EXTENSION);
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tmp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+                write(out);
+                out.flush();
+                fos.getFD().sync();
+            }
+            StoreFile.moveOver(tmp.toPath(), file.toPath());
+            LOG.info().$("Saved [path=").$(file.getAbsolutePath())
+                    .$(", docs=").$(liveDocs)
+                    .$(", ms=").$(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                    .I$();
+        } catch (IOException e) {
+            LOG.error().$("Could not save search index [path=").$(file.getAbsolutePath())
+                    .$(", e=").$(e.getMessage())
+                    .I$();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        Map<String, Integer> termIds = new HashMap<>();
+        out.writeInt(postings.size());
+        for (String term : postings.keySet()) {
+            termIds.put(term, termIds.size());
+            writeString(out, term);
+        }
+        out.writeInt(stores.size());
+        for (Map.Entry<String, StoreDocs> e : stores.entrySet()) {
+            writeString(out, e.getKey());
+            out.writeLong(e.getValue().fingerprint);
+            out.writeInt(e.getValue().docIds.size());
+            for (int docId : e.getValue().docIds) {
+                Doc doc = docs.get(docId);
+                writeString(out, doc.name);
+                out.writeInt(doc.length);
+                out.writeInt(doc.terms.length);
+                for (int i = 0; i < doc.terms.length; i++) {
+                    out.writeInt(termIds.get(doc.terms[i]));
+                    out.writeInt(doc.frequencies[i]);
+                }
+            }
+        }
+    }
+
+    private void read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            throw new IOException("not a search index");
+        }
+        int termCount = in.readInt();
+        String[] dictionary = new String[termCount];
+        Postings[] dictionaryPostings = new Postings[termCount];
+        for (int i = 0; i < termCount; i++) {
+            dictionary[i] = readString(in);
+            dictionaryPostings[i] = new Postings();
+            postings.put(dictionary[i], dictionaryPostings[i]);
+        }
+        for (int s = 0, storeCount = in.readInt(); s < storeCount; s++) {
+            String fileName = readString(in);
+            StoreDocs storeDocs = new StoreDocs();
+            storeDocs.fingerprint = in.readLong();
+            for (int d = 0, docCount = in.readInt(); d < docCount; d++) {
+                String name = readString(in);
+                int length = in.readInt();
+                int docTermCount = in.readInt();
+                String[] terms = new String[docTermCount];
+                Postings[] termPostings = new Postings[docTermCount];
+                int[] frequencies = new int[docTermCount];
+                for (int i = 0; i < docTermCount; i++) {
+                    int termId = in.readInt();
+                    terms[i] = dictionary[termId];
+                    termPostings[i] = dictionaryPostings[termId];
+                    frequencies[i] = in.readInt();
+                }
+                int docId = addDoc(new Doc(fileName, name, length, terms, frequencies), termPostings);
+                positions[docId] = storeDocs.docIds.size();
+                storeDocs.docIds.add(docId);
+            }
+            stores.put(fileName, storeDocs);
+        }
+    }
+
+    /**
+     * Document that matched a query.
+     *
+     * @param fileName store file
+     * @param idx      index of the entry in the store
+     * @param name     name of the entry
+     * @param score    BM25 score, higher is better
+     */
+    public record Hit(String fileName, int idx, String name, double score) {
+    }
+
+    private static final class StoreDocs {
+        private final List<Integer> docIds = new ArrayList<>(); // parallel to the entries of the store
+        private long fingerprint;
+    }
+
+    private record Doc(String fileName, String name, int length, String[] terms, int[] frequencies) {
+        private static Doc of(String fileName, StoreEntry entry) {
+            Map<String, Integer> counts = new HashMap<>();
+            int[] length = {0};
+            List<String> texts = new ArrayList<>();
+            texts.add(entry.getName());
+            entry.visitAttrs((attrName, value) -> texts.add(value), (attrName, lazy) -> texts.add(lazy.get()));
+            for (String text : texts) {
+                for (String term : tokenize(text, MIN_TERM_LENGTH)) {
+                    counts.merge(term, 1, Integer::sum);
+                    length[0]++;
+                }
+            }
+            String[] terms = counts.keySet().toArray(String[]::new);
+            int[] frequencies = new int[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                frequencies[i] = counts.get(terms[i]);
+            }
+            return new Doc(fileName, entry.getName(), length[0], terms, frequencies);
+        }
+    }
+
+    private static final class Postings {
+        private int[] docIds = new int[4];
+        private int[] frequencies = new int[4];
+        private int size;
+        private int docFrequency; // of live documents
+
+        private void add(int docId, int frequency) {
+            if (size == docIds.length) {
+                docIds = Arrays.copyOf(docIds, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            docIds[size] = docId;
+            frequencies[size] = frequency;
+            size++;
+            docFrequency++;
+        }
+    }
+}
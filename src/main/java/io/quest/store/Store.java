@@ -16,45 +16,56 @@
 
 package io.quest.store;
 
-import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.Type;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
 
 import io.quest.GTk;
 import io.quest.metadata.Metadata;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 import io.questdb.log.Log;
 import io.questdb.log.LogFactory;
 
 import javax.swing.*;
 
 
+/**
+ * List of entries persisted to a file under {@link #ROOT_PATH}, JSON, or binary
+ * when the file name ends with {@link #BINARY_EXTENSION}, see {@link StoreFile}.
+ * <p>
+ * Mutations are not persisted by rewriting the file. {@link #asyncSaveToFile()}
+ * hands the file records of the entries added, removed, or changed since the
+ * last save, for it to make durable by appending them, and the file is written
+ * anew, aside and renamed over the old one, when it says compaction is due.
+ * Entries are found to have changed by their {@link StoreEntry#getVersion()
+ * version}. Saves requested within {@link #COALESCING_MILLIS} of each other are
+ * coalesced into one.
+ * <p>
+ * A {@link SearchIndex} set on the store is handed the records once they are
+ * durable.
+ *
+ * @param <T> type of the entries
+ */
 public abstract class Store<T extends StoreEntry> implements Closeable, Iterable<T> {
 
     public static final File ROOT_PATH;
+    public static final String BINARY_EXTENSION = BinaryStoreFile.EXTENSION;
     private static final Log LOG = LogFactory.getLog(Store.class);
     private static final Class<?>[] ITEM_CONSTRUCTOR_SIGNATURE = {StoreEntry.class};
-    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
-    private static final Type STORE_TYPE = new TypeToken<ArrayList<StoreEntry>>() {
-        /* type */
-    }.getType();
+    private static final long COALESCING_MILLIS = 200L;
 
     static {
         synchronized (Metadata.class) {
@@ -76,36 +87,72 @@ public abstract class Store<T extends StoreEntry> implements Closeable, Iterable
     private final String fileName;
     private final Class<? extends StoreEntry> entryClass;
     private final List<T> entries;
-    private final ExecutorService asyncPersist;
+    private final ScheduledThreadPoolExecutor asyncPersist;
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+    private final StoreFile storeFile;
+    private final List<StoreJournal.Record> pendingRecords; // structural changes since last save
+    private final Map<StoreEntry, Integer> savedVersions; // by identity
+    private final Object persistLock = new Object();
+    private volatile SearchIndex searchIndex;
+    private long saveCount; // save metrics, guarded by persistLock
+    private long compactionCount;
+    private long lastSaveNanos;
+    private long maxSaveNanos;
+    private long totalSaveNanos;
 
     public Store(String fileName, Class<? extends StoreEntry> entryClass) {
         this.fileName = fileName;
         this.entryClass = entryClass;
         entries = new ArrayList<>();
-        asyncPersist = Executors.newSingleThreadExecutor(runnable -> {
+        storeFile = StoreFile.of(new File(ROOT_PATH, fileName));
+        pendingRecords = new ArrayList<>();
+        savedVersions = new IdentityHashMap<>();
+        asyncPersist = new ScheduledThreadPoolExecutor(1, runnable -> {
             Thread thread = new Thread(runnable);
             thread.setDaemon(false);
             thread.setName("Store-" + fileName);
             return thread;
         });
+        asyncPersist.setExecuteExistingDelayedTasksAfterShutdownPolicy(false); // close saves
     }
 
-    private static List<StoreEntry> loadFromFile(File file) {
-        List<StoreEntry> entries = null;
-        try (BufferedReader in = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
-            entries = GSON.fromJson(in, STORE_TYPE);
-            LOG.info().$("Loaded [path=").$(file.getAbsolutePath()).I$();
-        } catch (Exception e) {
-            LOG.error().$("Could not load store [path=").$(file.getAbsolutePath())
-                    .$(", e=").$(e.getMessage())
-                    .I$();
-        }
-        return entries;
-    }
-
+    /**
+     * Saves the changes pending, if any, and stops the thread that saves them.
+     */
     @Override
     public void close() {
         GTk.shutdownExecutor(asyncPersist);
+        if (saveScheduled.get()) {
+            saveChanges();
+        }
+        SearchIndex index = searchIndex;
+        if (index != null) {
+            index.detach(fileName);
+        }
+    }
+
+    /**
+     * @param searchIndex index to keep up to date with the entries, set before
+     *                    {@link #loadFromFile()}
+     */
+    public void setSearchIndex(SearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+        if (searchIndex != null) {
+            searchIndex.attach(fileName);
+        }
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return latency of the saves so far
+     */
+    public SaveMetrics getSaveMetrics() {
+        synchronized (persistLock) {
+            return new SaveMetrics(saveCount, compactionCount, lastSaveNanos, maxSaveNanos, saveCount > 0L ? totalSaveNanos / saveCount : 0L);
+        }
     }
 
     public abstract T[] defaultStoreEntries();
@@ -113,6 +160,7 @@ public abstract class Store<T extends StoreEntry> implements Closeable, Iterable
 
     public synchronized void addEntry(T entry) {
         if (entry != null) {
+            pendingRecords.add(StoreJournal.put(entries.size(), entry));
             entries.add(entry);
         }
         asyncSaveToFile();
@@ -120,20 +168,25 @@ public abstract class Store<T extends StoreEntry> implements Closeable, Iterable
 
     public synchronized T getEntry(int idx, Supplier<T> constructor) {
         if (constructor != null && entries.size() == idx) {
-            entries.add(idx, constructor.get());
+            T entry = constructor.get();
+            pendingRecords.add(StoreJournal.put(idx, entry));
+            entries.add(idx, entry);
         }
         return entries.get(idx);
     }
 
     public synchronized void removeEntry(T entry) {
         if (entry != null) {
-            entries.remove(entry);
-            asyncSaveToFile();
+            int idx = entries.indexOf(entry);
+            if (idx >= 0) {
+                removeEntry(idx);
+            }
         }
     }
 
     public synchronized void removeEntry(int idx) {
-        entries.remove(idx);
+        pendingRecords.add(StoreJournal.remove(idx));
+        savedVersions.remove(entries.remove(idx));
         asyncSaveToFile();
     }
 
@@ -171,13 +224,31 @@ public abstract class Store<T extends StoreEntry> implements Closeable, Iterable
         };
     }
 
+    /**
+     * Schedules a save of the changes, unless one is scheduled already, within
+     * {@link #COALESCING_MILLIS}.
+     */
     public void asyncSaveToFile() {
-        asyncPersist.submit(() -> saveToFile());
+        if (saveScheduled.compareAndSet(false, true)) {
+            try {
+                asyncPersist.schedule(this::saveChanges, COALESCING_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                saveChanges(); // closed
+            }
+        }
     }
 
     public void saveToFile(File file) {
-        try (FileWriter out = new FileWriter(file, StandardCharsets.UTF_8, false)) {
-            GSON.toJson(entries, STORE_TYPE, out);
+        if (file.getAbsoluteFile().equals(getFile())) {
+            compact();
+            return;
+        }
+        List<T> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(entries);
+        }
+        try {
+            StoreFile.export(snapshot, file);
             LOG.info().$("Saved [path=").$(file.getAbsolutePath()).I$();
         } catch (IOException e) {
             LOG.error().$("Could not store into file [path=").$(file.getAbsolutePath())
@@ -198,32 +269,142 @@ public abstract class Store<T extends StoreEntry> implements Closeable, Iterable
             return;
         }
 
-        List<StoreEntry> content = loadFromFile(file);
-        if (content != null) {
-            try {
-                // This constructor is T's decorator constructor to StoreEntry(StoreEntry
-                // other).
-                // We do not need to instantiate yet another attribute's map when we can recycle
-                // the instance provided by GSON.
-                @SuppressWarnings("unchecked")
-                Constructor<T> entryFactory = (Constructor<T>) entryClass.getConstructor(ITEM_CONSTRUCTOR_SIGNATURE);
+        List<StoreEntry> content = storeFile.read();
+        try {
+            // This constructor is T's decorator constructor to StoreEntry(StoreEntry
+            // other).
+            // We do not need to instantiate yet another attribute's map when we can recycle
+            // the instance provided by the store file.
+            @SuppressWarnings("unchecked")
+            Constructor<T> entryFactory = (Constructor<T>) entryClass.getConstructor(ITEM_CONSTRUCTOR_SIGNATURE);
+            synchronized (this) {
                 entries.clear();
+                pendingRecords.clear();
+                savedVersions.clear();
                 for (StoreEntry i : content) {
-                    entries.add(entryFactory.newInstance(i));
+                    T entry = entryFactory.newInstance(i);
+                    entries.add(entry);
+                    savedVersions.put(entry, entry.getVersion());
                 }
-            } catch (Throwable e) {
-                throw new RuntimeException(e);
             }
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+        if (!content.isEmpty() && storeFile.isCompactionDue()) {
+            // a file that did not load reads empty, it is kept until the user writes
+            compact();
+        }
+        SearchIndex index = searchIndex;
+        if (index != null) {
+            index.sync(fileName, entries(), storeFile.fingerprint());
         }
     }
 
     public void saveToFile() {
-        saveToFile(getFile());
+        compact();
+    }
+
+    /**
+     * Appends the changes since the last save to the file, or compacts it when due.
+     */
+    private void saveChanges() {
+        saveScheduled.set(false);
+        synchronized (persistLock) {
+            if (storeFile.isCompactionDue()) {
+                compact();
+                return;
+            }
+            List<StoreJournal.Record> records = takeChanges();
+            if (records.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                storeFile.append(records);
+                long nanos = recordSaveLatency(start);
+                LOG.info().$("Appended [path=").$(storeFile.getFile().getAbsolutePath())
+                        .$(", records=").$(records.size())
+                        .$(", size=").$(storeFile.size())
+                        .$(", micros=").$(TimeUnit.NANOSECONDS.toMicros(nanos))
+                        .I$();
+            } catch (IOException e) {
+                LOG.error().$("Could not append [path=").$(storeFile.getFile().getAbsolutePath())
+                        .$(", e=").$(e.getMessage())
+                        .I$();
+                compact();
+            }
+            updateSearchIndex(records);
+        }
+    }
+
+    /**
+     * @return records of the changes since the last save, which from then on
+     * count as saved
+     */
+    private synchronized List<StoreJournal.Record> takeChanges() {
+        List<StoreJournal.Record> records = new ArrayList<>(pendingRecords);
+        pendingRecords.clear();
+        for (int idx = 0; idx < entries.size(); idx++) {
+            T entry = entries.get(idx);
+            int version = entry.getVersion();
+            Integer savedVersion = savedVersions.put(entry, version);
+            if (savedVersion == null || savedVersion != version) {
+                records.add(StoreJournal.put(idx, entry));
+            }
+        }
+        return records;
+    }
+
+    private void updateSearchIndex(List<StoreJournal.Record> records) {
+        SearchIndex index = searchIndex;
+        if (index != null) {
+            index.apply(fileName, records, storeFile.fingerprint());
+        }
+    }
+
+    /**
+     * Writes all entries to the file anew.
+     */
+    private void compact() {
+        synchronized (persistLock) {
+            List<T> snapshot;
+            List<StoreJournal.Record> records;
+            synchronized (this) {
+                records = takeChanges();
+                snapshot = new ArrayList<>(entries);
+            }
+            File file = getFile();
+            long start = System.nanoTime();
+            try {
+                storeFile.write(snapshot);
+                compactionCount++;
+                long nanos = recordSaveLatency(start);
+                LOG.info().$("Saved [path=").$(file.getAbsolutePath())
+                        .$(", entries=").$(snapshot.size())
+                        .$(", size=").$(storeFile.size())
+                        .$(", micros=").$(TimeUnit.NANOSECONDS.toMicros(nanos))
+                        .I$();
+            } catch (IOException e) {
+                LOG.error().$("Could not store into file [path=").$(file.getAbsolutePath())
+                        .$(", e=").$(e.getMessage())
+                        .I$();
+            }
+            updateSearchIndex(records);
+        }
+    }
+
+    private long recordSaveLatency(long start) {
+        long nanos = System.nanoTime() - start;
+        saveCount++;
+        lastSaveNanos = nanos;
+        maxSaveNanos = Math.max(maxSaveNanos, nanos);
+        totalSaveNanos += nanos;
+        return nanos;
     }
 
     private void saveToFile(Runnable whenDoneTask) {
         try {
-            saveToFile(getFile());
+            compact();
         } finally {
             if (whenDoneTask != null) {
                 whenDoneTask.run();
@@ -234,4 +415,10 @@ public abstract class Store<T extends StoreEntry> implements Closeable, Iterable
     private File getFile() {
         return new File(ROOT_PATH, fileName);
     }
+
+    /**
+     * Latency of the saves of a store, journal appends and compactions alike.
+     */
+    public record SaveMetrics(long saves, long compactions, long lastNanos, long maxNanos, long avgNanos) {
+    }
 }
@@ -16,29 +16,37 @@
 
 package io.quest.store;
 
-import java.util.Comparator;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 
+/**
+ * Named map of attributes, the unit a {@link Store} persists.
+ * <p>
+ * Each entry has an id, stable for the life of the process and shared with the
+ * entries that decorate it, see {@link #StoreEntry(StoreEntry)}. Equality and
+ * order are those of name and attributes, and go through a hash of the
+ * attributes, cached until the entry is next mutated, before comparing them
+ * value by value. The hash code is that of the name alone, so that it neither
+ * reads every attribute nor changes as they do.
+ */
 public class StoreEntry implements UniqueId<String>, Comparable<StoreEntry> {
 
-    private static final Comparator<String> COMPARING = (k1, k2) -> {
-        String[] k1Parts = k1.split("\\.");
-        String[] k2Parts = k2.split("\\.");
-        if (k1Parts.length != k2Parts.length) {
-            return Integer.compare(k1Parts.length, k2Parts.length);
-        } else if (2 == k1Parts.length) {
-            if (Objects.equals(k1Parts[0], k2Parts[0])) {
-                return k1Parts[1].compareTo(k2Parts[1]);
-            }
-        }
-        return k1.compareTo(k2);
-    };
+    private static final AtomicLong NEXT_ID = new AtomicLong(1L); // 0 for entries the JSON decoder allocates
 
     private final Map<String, String> attrs;
+    private final transient long id;
     private volatile String name;
+    private transient volatile int version;
+    private transient int attrsHash;
+    private transient int attrsHashStamp; // 1 + version attrsHash was computed at, 0 for none, guarded by this
+    private transient Map<String, Supplier<String>> lazyAttrs; // values read on first get
 
     public StoreEntry(String name) {
         if (name == null || name.isEmpty()) {
@@ -46,6 +54,7 @@ public class StoreEntry implements UniqueId<String>, Comparable<StoreEntry> {
         }
         this.name = name;
         attrs = new TreeMap<>();
+        id = NEXT_ID.getAndIncrement();
     }
 
     /**
@@ -54,13 +63,16 @@ public class StoreEntry implements UniqueId<String>, Comparable<StoreEntry> {
      * The {@link Store} uses this constructor to recycle the objects instantiated by the
      * JSON decoder, which produces instances of StoreItem that already contain an attribute
      * map. We do not need to instantiate yet another attribute map when we can recycle the
-     * instance provided by the decoder.
+     * instance provided by the decoder. The entries share the id too, and should be
+     * mutated through one of them only.
      *
      * @param other store entry
      */
     public StoreEntry(StoreEntry other) {
         name = other.name;
         attrs = other.attrs;
+        lazyAttrs = other.lazyAttrs;
+        id = other.id != 0L ? other.id : NEXT_ID.getAndIncrement();
     }
 
     public String getName() {
@@ -69,6 +81,17 @@ public class StoreEntry implements UniqueId<String>, Comparable<StoreEntry> {
 
     public void setName(String name) {
         this.name = name;
+        version++;
+    }
+
+    /**
+     * The {@link Store} compares versions to find the entries that changed since it
+     * last saved them.
+     *
+     * @return a number that changes every time the entry is mutated
+     */
+    int getVersion() {
+        return version;
     }
 
     /**
@@ -78,7 +101,8 @@ public class StoreEntry implements UniqueId<String>, Comparable<StoreEntry> {
      * @return the value associated with the attribute, or null if it does not exist
      */
     public String getAttr(String attrName) {
-        return attrs.get(attrName);
+        String value = attrs.get(attrName);
+        return value != null || lazyAttrs == null ? value : resolveLazyAttr(attrName);
     }
 
     /**
@@ -88,7 +112,7 @@ public class StoreEntry implements UniqueId<String>, Comparable<StoreEntry> {
      * @return the value associated with the attribute, or null if it does not exist
      */
     public String getAttr(UniqueId<String> attr) {
-        return attrs.get(attr.getUniqueId());
+        return getAttr(attr.getUniqueId());
     }
 
     /**
@@ -104,15 +128,104 @@ public class StoreEntry implements UniqueId<String>, Comparable<StoreEntry> {
     }
 
     public void setAttr(UniqueId<String> attr, String value, String defaultValue) {
+        dropLazyAttr(attr.getUniqueId());
         attrs.put(attr.getUniqueId(), null == value || value.isEmpty() ? defaultValue : value);
+        version++;
     }
 
     public void setAttr(String attrName, String value, String defaultValue) {
+        dropLazyAttr(attrName);
         attrs.put(attrName, value == null || value.isEmpty() ? defaultValue : value);
+        version++;
     }
 
     public void setAttr(String attrName, String value) {
+        dropLazyAttr(attrName);
+        attrs.put(attrName, value);
+        version++;
+    }
+
+    /**
+     * Sets an attribute whose value is got the first time it is needed, see
+     * {@link StoreReader}.
+     *
+     * @param attrName name of the attribute
+     * @param value    supplier of the value
+     */
+    synchronized void setLazyAttr(String attrName, Supplier<String> value) {
+        if (lazyAttrs == null) {
+            lazyAttrs = new TreeMap<>();
+        }
+        lazyAttrs.put(attrName, value);
+    }
+
+    /**
+     * Gets the values of all lazy attributes, the {@link Store} calls it before it
+     * serializes the entry.
+     */
+    synchronized void materialize() {
+        if (lazyAttrs != null) {
+            lazyAttrs.forEach((attrName, value) -> attrs.putIfAbsent(attrName, value.get()));
+            lazyAttrs = null;
+        }
+    }
+
+    /**
+     * Visits the attributes without getting the values of the lazy ones.
+     *
+     * @param values     receives name and value of the attributes that have one
+     * @param lazyValues receives name and supplier of the lazy attributes
+     */
+    synchronized void visitAttrs(BiConsumer<String, String> values, BiConsumer<String, Supplier<String>> lazyValues) {
+        attrs.forEach(values);
+        if (lazyAttrs != null) {
+            lazyAttrs.forEach(lazyValues);
+        }
+    }
+
+    /**
+     * Replaces the supplier of a lazy attribute, unless it has been got or set since.
+     *
+     * @param attrName name of the attribute
+     * @param expected supplier expected
+     * @param value    new supplier
+     */
+    synchronized void replaceLazyAttr(String attrName, Supplier<String> expected, Supplier<String> value) {
+        if (lazyAttrs != null && lazyAttrs.get(attrName) == expected) {
+            lazyAttrs.put(attrName, value);
+        }
+    }
+
+    private synchronized String resolveLazyAttr(String attrName) {
+        Supplier<String> lazy = lazyAttrs != null ? lazyAttrs.remove(attrName) : null;
+        if (lazy == null) {
+            return attrs.get(attrName);
+        }
+        String value = lazy.get();
         attrs.put(attrName, value);
+        if (lazyAttrs.isEmpty()) {
+            lazyAttrs = null;
+        }
+        return value;
+    }
+
+    private synchronized void dropLazyAttr(String attrName) {
+        if (lazyAttrs != null) {
+            lazyAttrs.remove(attrName);
+        }
+    }
+
+    /**
+     * @return hash of the attributes, computed once per version
+     */
+    synchronized int attrsHash() {
+        int stamp = version + 1;
+        if (attrsHashStamp != stamp) {
+            materialize();
+            attrsHash = attrs.hashCode();
+            attrsHashStamp = stamp;
+        }
+        return attrsHash;
     }
 
     @Override
@@ -121,16 +234,21 @@ public class StoreEntry implements UniqueId<String>, Comparable<StoreEntry> {
             return true;
         }
         if (o instanceof StoreEntry that) {
-            return name.equals(that.name) && attrs.equals(that.attrs);
+            return name.equals(that.name)
+                    && (attrs == that.attrs || (attrsHash() == that.attrsHash() && compareAttrs(that) == 0));
         }
         return false;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, attrs);
+        return name.hashCode();
     }
 
+    /**
+     * Orders by name, then by attributes, an arbitrary but consistent order among
+     * entries with the same name.
+     */
     @Override
     public int compareTo(StoreEntry that) {
         if (this == that) {
@@ -139,12 +257,58 @@ public class StoreEntry implements UniqueId<String>, Comparable<StoreEntry> {
         if (null == that) {
             return -1;
         }
-        return COMPARING.compare(getUniqueId(), that.getUniqueId());
+        int cmp = name.compareTo(that.name);
+        if (cmp == 0) {
+            cmp = Integer.compare(attrsHash(), that.attrsHash());
+        }
+        return cmp == 0 ? compareAttrs(that) : cmp;
     }
 
+    /**
+     * @return stable identifier, the name and the id of the entry
+     */
     @Override
     public String getUniqueId() {
-        return String.format("%s.%s", name, attrs);
+        return name + '#' + id;
+    }
+
+    private int compareAttrs(StoreEntry that) {
+        if (attrs == that.attrs) {
+            return 0;
+        }
+        materialize();
+        that.materialize();
+        Iterator<Map.Entry<String, String>> it = sorted(attrs).entrySet().iterator();
+        Iterator<Map.Entry<String, String>> thatIt = sorted(that.attrs).entrySet().iterator();
+        while (it.hasNext() && thatIt.hasNext()) {
+            Map.Entry<String, String> e = it.next();
+            Map.Entry<String, String> thatE = thatIt.next();
+            int cmp = e.getKey().compareTo(thatE.getKey());
+            if (cmp == 0) {
+                cmp = compareValues(e.getValue(), thatE.getValue());
+            }
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Boolean.compare(it.hasNext(), thatIt.hasNext());
+    }
+
+    private static SortedMap<String, String> sorted(Map<String, String> attrs) {
+        if (attrs instanceof SortedMap<String, String> sortedAttrs && sortedAttrs.comparator() == null) {
+            return sortedAttrs;
+        }
+        return new TreeMap<>(attrs); // as decoded from JSON
+    }
+
+    private static int compareValues(String v1, String v2) {
+        if (Objects.equals(v1, v2)) {
+            return 0;
+        }
+        if (v1 == null || v2 == null) {
+            return v1 == null ? -1 : 1;
+        }
+        return v1.compareTo(v2);
     }
 
     @Override
@@ -0,0 +1,135 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+
+/**
+ * The file a {@link Store} persists its entries to. It is written whole on
+ * compaction, and in between it makes durable the records of the mutations of
+ * the entries, see {@link StoreJournal.Record}, each format its own way.
+ * <p>
+ * The format is chosen by extension, {@link BinaryStoreFile#EXTENSION} for the
+ * binary format, JSON otherwise.
+ */
+interface StoreFile {
+    String TEMP_EXTENSION = ".tmp";
+    String CORRUPT_EXTENSION = ".corrupt";
+
+    static StoreFile of(File file) {
+        return file.getName().endsWith(BinaryStoreFile.EXTENSION) ? new BinaryStoreFile(file) : new JsonStoreFile(file);
+    }
+
+    /**
+     * Writes the entries to a file in the format of its extension, leaving the
+     * entries as they are.
+     *
+     * @param entries entries
+     * @param file    file
+     * @throws IOException if the file could not be written
+     */
+    static void export(List<? extends StoreEntry> entries, File file) throws IOException {
+        if (file.getName().endsWith(BinaryStoreFile.EXTENSION)) {
+            BinaryStoreFile.export(entries, file);
+        } else {
+            JsonStoreFile.export(entries, file);
+        }
+    }
+
+    static File sibling(File file, String extension) {
+        return new File(file.getAbsoluteFile().getParentFile(), file.getName() + extension);
+    }
+
+    /**
+     * Renames a fully written temporary file over the target, atomically where
+     * the file system allows, so that the target is either the old file or the new
+     * one, whole.
+     */
+    static void moveOver(Path tmp, Path target) throws IOException {
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static long fingerprintOf(File file) {
+        return file.length() * 31L + file.lastModified();
+    }
+
+    File getFile();
+
+    /**
+     * @return a value that changes whenever the content on disk does, taken
+     * without reading it
+     */
+    default long fingerprint() {
+        return fingerprintOf(getFile());
+    }
+
+    /**
+     * Reads the entries of the file, which exists, recovering what it can if it
+     * is damaged, in which case compaction is due. A file from which nothing is
+     * recovered is left as it is until the entries are written.
+     *
+     * @return the entries
+     */
+    List<StoreEntry> read();
+
+    /**
+     * Reads the entries of the file as they are on disk, neither recovering nor
+     * changing anything, for readers that do not own the file.
+     *
+     * @return the entries
+     * @throws IOException if the file does not load
+     */
+    List<StoreEntry> peek() throws IOException;
+
+    /**
+     * Makes the mutations durable.
+     *
+     * @param records the mutations since the last append or write, in order
+     * @throws IOException if they could not be, compaction is due
+     */
+    void append(List<StoreJournal.Record> records) throws IOException;
+
+    /**
+     * Writes the entries as the new content of the file.
+     *
+     * @param entries all entries
+     * @throws IOException if the file could not be written, compaction is due
+     */
+    void write(List<? extends StoreEntry> entries) throws IOException;
+
+    /**
+     * @return true when the file has not been read nor written yet, could not be
+     * read whole, or carries enough dead weight to be written anew
+     */
+    boolean isCompactionDue();
+
+    /**
+     * @return bytes on disk
+     */
+    long size();
+}
@@ -0,0 +1,209 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.store;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+
+/**
+ * Append only log of the mutations applied to the entries of a {@link Store}
+ * since its file, the snapshot, was last written.
+ * <p>
+ * The first line names the snapshot the journal applies to, by the CRC32 of its
+ * bytes, and each following line is a record, the CRC32 of its JSON followed by
+ * the JSON. On load the journal is replayed on top of the snapshot, unless it
+ * was written for a different one, which happens when the process died after
+ * writing a new snapshot and before deleting the journal. Replay stops at the
+ * first record that does not check out, the tail of a write cut short.
+ */
+final class StoreJournal {
+    private static final Gson GSON = new Gson();
+    private static final String HEADER_PREFIX = "base ";
+
+    private final File file;
+    private long size;
+
+    StoreJournal(File file) {
+        this.file = file;
+        size = file.length();
+    }
+
+    static Record put(int idx, StoreEntry entry) {
+        return new Record(Record.PUT, idx, entry);
+    }
+
+    static Record remove(int idx) {
+        return new Record(Record.REMOVE, idx, null);
+    }
+
+    private static long crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @param snapshotCrc CRC32 of the snapshot the records are to be applied to
+     * @return the records that apply to the snapshot, in order
+     */
+    Replay read(long snapshotCrc) {
+        List<Record> records = new ArrayList<>();
+        if (!file.exists()) {
+            return new Replay(records, true);
+        }
+        try (BufferedReader in = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+            String header = in.readLine();
+            if (header == null) {
+                return new Replay(records, true);
+            }
+            if (!header.equals(header(snapshotCrc))) {
+                return new Replay(records, false);
+            }
+            String line;
+            while ((line = in.readLine()) != null) {
+                int sep = line.indexOf(' ');
+                if (sep < 0) {
+                    return new Replay(records, false);
+                }
+                String json = line.substring(sep + 1);
+                if (Long.parseLong(line, 0, sep, 16) != crc(json.getBytes(StandardCharsets.UTF_8))) {
+                    return new Replay(records, false);
+                }
+                records.add(GSON.fromJson(json, Record.class));
+            }
+            return new Replay(records, true);
+        } catch (IOException | NumberFormatException | JsonParseException e) {
+            return new Replay(records, false);
+        }
+    }
+
+    /**
+     * Appends the records and forces them to the device.
+     *
+     * @param snapshotCrc CRC32 of the snapshot, written as the header of a new journal
+     * @param records     records to append
+     * @throws IOException if the records could not be written
+     */
+    void append(long snapshotCrc, List<Record> records) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        if (size == 0L) {
+            sb.append(header(snapshotCrc)).append('\n');
+        }
+        for (Record record : records) {
+            if (record.entry != null) {
+                record.entry.materialize();
+            }
+            String json = GSON.toJson(record);
+            sb.append(Long.toHexString(crc(json.getBytes(StandardCharsets.UTF_8)))).append(' ').append(json).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            size = channel.size();
+        }
+    }
+
+    /**
+     * Deletes the journal, called once its records are part of a new snapshot.
+     *
+     * @throws IOException if the journal could not be deleted
+     */
+    void reset() throws IOException {
+        Files.deleteIfExists(file.toPath());
+        size = 0L;
+    }
+
+    private static String header(long snapshotCrc) {
+        return HEADER_PREFIX + Long.toHexString(snapshotCrc);
+    }
+
+    /**
+     * Records of a journal, and whether it was read to the end. A journal that was
+     * not is to be compacted into a new snapshot before more records are appended.
+     */
+    record Replay(List<Record> records, boolean clean) {
+    }
+
+    static final class Record {
+        static final String PUT = "put";
+        static final String REMOVE = "remove";
+
+        private final String op;
+        private final int idx;
+        private final StoreEntry entry;
+
+        private Record(String op, int idx, StoreEntry entry) {
+            this.op = op;
+            this.idx = idx;
+            this.entry = entry;
+        }
+
+        boolean isRemove() {
+            return REMOVE.equals(op);
+        }
+
+        int idx() {
+            return idx;
+        }
+
+        StoreEntry entry() {
+            return entry;
+        }
+
+        /**
+         * Applies the record to the entries, as the mutation it records was applied
+         * to the entries of the store.
+         *
+         * @param entries entries
+         */
+        void applyTo(List<StoreEntry> entries) {
+            if (REMOVE.equals(op)) {
+                entries.remove(idx);
+            } else if (idx == entries.size()) {
+                entries.add(entry);
+            } else {
+                entries.set(idx, entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+
+/**
+ * Reads a store file without materializing the larger attribute values, quest
+ * content in particular.
+ * <p>
+ * The file is read into the heap and walked byte by byte: entry names and
+ * attribute names are decoded, attribute values longer than {@link #LAZY_MIN_BYTES}
+ * are only located, and are read from the file, and decoded, the first time they
+ * are got from their entry. The whole file is still read, and its CRC32 checked,
+ * so loading takes time linear in the size of the file. What it saves is building
+ * a JSON tree, and decoding and holding strings for the large values. The bytes
+ * read are dropped once the walk is done.
+ * <p>
+ * A lazy value checks the bytes it reads against the CRC32 they had when the
+ * file was loaded. If the file has changed since, the value is found by parsing
+ * the file as JSON instead.
+ * <p>
+ * Only the layout the store writes is understood, an array of objects with a
+ * "name" string and an "attrs" object of strings. Anything else fails with an
+ * {@link IOException}, and the caller falls back to the JSON parser.
+ */
+final class StoreReader {
+    private static final int LAZY_MIN_BYTES = 256;
+
+    private final Path path;
+    private final byte[] buffer;
+    private final int limit;
+    private int pos;
+
+    private StoreReader(Path path, byte[] buffer) {
+        this.path = path;
+        this.buffer = buffer;
+        limit = buffer.length;
+    }
+
+    /**
+     * @param file store file
+     * @param crc  updated with the bytes of the file
+     * @return the entries
+     * @throws IOException if the file cannot be read, or is not laid out as expected
+     */
+    static List<StoreEntry> read(File file, CRC32 crc) throws IOException {
+        long size = file.length();
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("too large: " + size);
+        }
+        byte[] buffer = Files.readAllBytes(file.toPath());
+        crc.update(buffer);
+        return new StoreReader(file.toPath(), buffer).readEntries();
+    }
+
+    private static String decode(byte[] bytes, boolean escaped) throws IOException {
+        String raw = new String(bytes, StandardCharsets.UTF_8);
+        if (!escaped) {
+            return raw;
+        }
+        try (JsonReader in = new JsonReader(new StringReader('"' + raw + '"'))) {
+            return in.nextString();
+        }
+    }
+
+    private List<StoreEntry> readEntries() throws IOException {
+        List<StoreEntry> entries = new ArrayList<>();
+        expect('[');
+        if (peek() == ']') {
+            pos++;
+            return entries;
+        }
+        do {
+            entries.add(readEntry(entries.size()));
+        } while (next(',', ']'));
+        return entries;
+    }
+
+    private StoreEntry readEntry(int entryIdx) throws IOException {
+        expect('{');
+        StoreEntry entry = null;
+        List<String> attrNames = new ArrayList<>();
+        List<Object> attrValues = new ArrayList<>(); // String, or Slice
+        do {
+            String key = readString();
+            expect(':');
+            switch (key) {
+                case "name" -> entry = new StoreEntry(readString());
+                case "attrs" -> {
+                    expect('{');
+                    if (peek() == '}') {
+                        pos++;
+                        break;
+                    }
+                    do {
+                        String attrName = readString();
+                        expect(':');
+                        attrNames.add(attrName);
+                        attrValues.add(readValue());
+                    } while (next(',', '}'));
+                }
+                default -> throw new IOException("unexpected key: " + key);
+            }
+        } while (next(',', '}'));
+        if (entry == null) {
+            throw new IOException("entry without name");
+        }
+        for (int i = 0; i < attrNames.size(); i++) {
+            Object value = attrValues.get(i);
+            if (value instanceof Slice slice) {
+                entry.setLazyAttr(attrNames.get(i), new LazyValue(path, slice, entryIdx, entry.getName(), attrNames.get(i)));
+            } else {
+                entry.setAttr(attrNames.get(i), (String) value);
+            }
+        }
+        return entry;
+    }
+
+    private Object readValue() throws IOException {
+        if (peek() == 'n') {
+            for (char c : "null".toCharArray()) {
+                expect(c);
+            }
+            return null;
+        }
+        expect('"');
+        int start = pos;
+        boolean escaped = scanString();
+        int len = pos - 1 - start;
+        if (len < LAZY_MIN_BYTES) {
+            return decode(bytes(start, len), escaped);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer, start, len);
+        return new Slice(start, len, escaped, crc.getValue());
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        int start = pos;
+        boolean escaped = scanString();
+        return decode(bytes(start, pos - 1 - start), escaped);
+    }
+
+    /**
+     * Moves past the closing quote of the string the position is in. Multi-byte
+     * UTF-8 sequences never contain a quote or a backslash byte.
+     *
+     * @return whether the string contains escape sequences
+     */
+    private boolean scanString() throws IOException {
+        boolean escaped = false;
+        while (pos < limit) {
+            byte b = buffer[pos++];
+            if (b == '"') {
+                return escaped;
+            }
+            if (b == '\\') {
+                escaped = true;
+                pos++;
+            }
+        }
+        throw new IOException("unterminated string");
+    }
+
+    private byte[] bytes(int start, int len) {
+        byte[] bytes = new byte[len];
+        System.arraycopy(buffer, start, bytes, 0, len);
+        return bytes;
+    }
+
+    private byte peek() throws IOException {
+        while (pos < limit) {
+            byte b = buffer[pos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return b;
+            }
+            pos++;
+        }
+        throw new IOException("unexpected end of file");
+    }
+
+    private void expect(char c) throws IOException {
+        if (peek() != c) {
+            throw new IOException("expected '" + c + "' at " + pos);
+        }
+        pos++;
+    }
+
+    /**
+     * @return true if the next byte is the separator, false if it is the terminator
+     */
+    private boolean next(char separator, char terminator) throws IOException {
+        byte b = peek();
+        if (b == separator || b == terminator) {
+            pos++;
+            return b == separator;
+        }
+        throw new IOException("expected '" + separator + "' or '" + terminator + "' at " + pos);
+    }
+
+    /**
+     * Bytes of a string value in the file, without the quotes.
+     *
+     * @param crc CRC32 of the bytes when the file was loaded
+     */
+    private record Slice(int offset, int len, boolean escaped, long crc) {
+    }
+
+    /**
+     * Location of a string value in the file, read and decoded on demand. The
+     * {@link Store} materializes lazy values before it writes the file.
+     *
+     * @param entryIdx index of the entry in the file, to find the value by parsing
+     *                 the file when it has changed
+     */
+    private record LazyValue(Path path, Slice slice, int entryIdx, String entryName, String attrName)
+        implements Supplier<String> {
+        @Override
+        public String get() {
+            try {
+                byte[] value = readSlice();
+                if (value != null) {
+                    return decode(value, slice.escaped());
+                }
+                return parse();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * @return the bytes of the value, null if they are not those that were loaded
+         */
+        private byte[] readSlice() throws IOException {
+            int offset = slice.offset();
+            int len = slice.len();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (offset + (long) len + 1L > channel.size()) {
+                    return null;
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(len + 2);
+                long position = offset - 1L; // with the quotes
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        return null;
+                    }
+                }
+                byte[] bytes = buffer.array();
+                if (bytes[0] != '"' || bytes[len + 1] != '"') {
+                    return null;
+                }
+                CRC32 check = new CRC32();
+                check.update(bytes, 1, len);
+                if (check.getValue() != slice.crc()) {
+                    return null;
+                }
+                byte[] value = new byte[len];
+                System.arraycopy(bytes, 1, value, 0, len);
+                return value;
+            }
+        }
+
+        /**
+         * Finds the value by parsing the file, which has changed since it was loaded.
+         */
+        private String parse() throws IOException {
+            try (JsonReader in = new JsonReader(Files.newBufferedReader(path, StandardCharsets.UTF_8))) {
+                in.beginArray();
+                for (int i = 0; i < entryIdx && in.hasNext(); i++) {
+                    in.skipValue();
+                }
+                if (in.hasNext()) {
+                    String name = null;
+                    String value = null;
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        switch (in.nextName()) {
+                            case "name" -> name = in.peek() == JsonToken.STRING ? in.nextString() : skip(in);
+                            case "attrs" -> {
+                                in.beginObject();
+                                while (in.hasNext()) {
+                                    if (attrName.equals(in.nextName()) && in.peek() == JsonToken.STRING) {
+                                        value = in.nextString();
+                                    } else {
+                                        in.skipValue();
+                                    }
+                                }
+                                in.endObject();
+                            }
+                            default -> in.skipValue();
+                        }
+                    }
+                    if (value != null && entryName.equals(name)) {
+                        return value;
+                    }
+                }
+            }
+            throw new IOException("value not found [path=" + path + ", entry=" + entryName + ", attr=" + attrName + ']');
+        }
+
+        private static String skip(JsonReader in) throws IOException {
+            in.skipValue();
+            return null;
+        }
+    }
+}
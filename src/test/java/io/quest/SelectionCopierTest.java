@@ -0,0 +1,112 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JTable;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableRowSorter;
+
+import org.junit.jupiter.api.Test;
+
+
+public class SelectionCopierTest {
+
+    private static final DefaultTableModel MODEL = new DefaultTableModel(new Object[][]{
+        {1, "a", 10.5},
+        {22, "bbb", null},
+        {333, "cc", 3.0}
+    }, new Object[]{"i", "s", "d"});
+
+    @Test
+    public void test_write_pads_columns() throws IOException {
+        StringWriter out = new StringWriter();
+        SelectionCopier.Selection selection = new SelectionCopier.Selection(MODEL::getValueAt, new int[]{0, 1, 2}, new int[]{0, 1, 2});
+        assertThat(SelectionCopier.write(selection, out, done -> {
+        }, () -> false), is(true));
+        assertThat(out.toString(), is("""
+            1  , a  , 10.5
+            22 , bbb,\s
+            333, cc , 3.0"""));
+    }
+
+    @Test
+    public void test_write_subset_of_rows_and_cols() throws IOException {
+        StringWriter out = new StringWriter();
+        AtomicInteger progress = new AtomicInteger();
+        SelectionCopier.Selection selection = new SelectionCopier.Selection(MODEL::getValueAt, new int[]{2, 0}, new int[]{1});
+        assertThat(SelectionCopier.write(selection, out, progress::set, () -> false), is(true));
+        assertThat(out.toString(), is("cc\na"));
+        assertThat(progress.get(), is(4));
+    }
+
+    @Test
+    public void test_write_cancelled() throws IOException {
+        StringWriter out = new StringWriter();
+        SelectionCopier.Selection selection = new SelectionCopier.Selection(MODEL::getValueAt, new int[]{0, 1, 2}, new int[]{0, 1, 2});
+        assertThat(SelectionCopier.write(selection, out, done -> {
+        }, () -> true), is(false));
+        assertThat(out.toString(), is(""));
+    }
+
+    @Test
+    public void test_select_resolves_rows_when_taken() throws IOException {
+        JTable table = new JTable(MODEL);
+        TableRowSorter<DefaultTableModel> sorter = new TableRowSorter<>(MODEL);
+        sorter.setSortKeys(List.of(new RowSorter.SortKey(0, SortOrder.DESCENDING)));
+        table.setRowSorter(sorter);
+        table.setRowSelectionInterval(0, 1);
+        table.setColumnSelectionInterval(0, 1);
+        SelectionCopier.Selection selection = SelectionCopier.select(table);
+
+        // the view changes before the selection is written
+        sorter.setSortKeys(List.of(new RowSorter.SortKey(0, SortOrder.ASCENDING)));
+        StringWriter out = new StringWriter();
+        assertThat(SelectionCopier.write(selection, out, done -> {
+        }, () -> false), is(true));
+        assertThat(out.toString(), is("333, cc\n22 , bbb"));
+    }
+
+    @Test
+    public void test_spilled_selection_is_offered_as_a_file_only() throws IOException, UnsupportedFlavorException {
+        Path file = Files.createTempFile("quest-copy-test-", ".txt");
+        try {
+            SelectionCopier.FileSelection contents = new SelectionCopier.FileSelection(file);
+            assertThat(contents.getTransferDataFlavors().length, is(1));
+            assertThat(contents.isDataFlavorSupported(DataFlavor.javaFileListFlavor), is(true));
+            assertThat(contents.isDataFlavorSupported(DataFlavor.stringFlavor), is(false));
+            assertThat(contents.getTransferData(DataFlavor.javaFileListFlavor), is(List.of(file.toFile())));
+            assertThrows(UnsupportedFlavorException.class, () -> contents.getTransferData(DataFlavor.stringFlavor));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
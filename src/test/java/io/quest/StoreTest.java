@@ -20,8 +20,17 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
 
 import io.quest.conns.ConnAttrs;
+import io.quest.store.SearchIndex;
 import io.quest.store.Store;
 import io.quest.store.StoreEntry;
 import org.hamcrest.Matchers;
@@ -127,6 +136,377 @@ public class StoreTest {
         }
     }
 
+    @Test
+    public void test_journal_replay() {
+        String fileName = deleteIfExists("test-store-journal.json");
+        String journalName = deleteIfExists(fileName + ".journal");
+        try {
+            long snapshotSize;
+            try (Store<StoreEntry> store = new TStore<>(fileName, StoreEntry.class)) {
+                for (int i = 0; i < 5; i++) {
+                    store.addEntry(new StoreEntry("entry_" + i));
+                }
+            }
+            snapshotSize = new File(Store.ROOT_PATH, fileName).length();
+            try (Store<StoreEntry> store = new TStore<>(fileName, StoreEntry.class)) {
+                store.loadFromFile();
+                store.entries().get(1).setAttr("id", "one");
+                store.removeEntry(3);
+                store.addEntry(new StoreEntry("entry_5"));
+                store.asyncSaveToFile();
+            }
+            assertThat(new File(Store.ROOT_PATH, fileName).length(), is(snapshotSize));
+            assertThat(new File(Store.ROOT_PATH, journalName).exists(), is(true));
+            try (Store<StoreEntry> store = new TStore<>(fileName, StoreEntry.class)) {
+                store.loadFromFile();
+                assertThat(store.entryNames(), is(new String[]{"entry_0", "entry_1", "entry_2", "entry_4", "entry_5"}));
+                assertThat(store.entries().get(1).getAttr("id"), is("one"));
+            }
+        } finally {
+            deleteIfExists(fileName);
+            deleteIfExists(journalName);
+        }
+    }
+
+    @Test
+    public void test_journal_torn_tail() throws IOException {
+        String fileName = deleteIfExists("test-store-journal-torn.json");
+        String journalName = deleteIfExists(fileName + ".journal");
+        try {
+            try (Store<StoreEntry> store = new TStore<>(fileName, StoreEntry.class)) {
+                store.addEntry(new StoreEntry("entry_0"));
+            }
+            try (Store<StoreEntry> store = new TStore<>(fileName, StoreEntry.class)) {
+                store.loadFromFile();
+                store.addEntry(new StoreEntry("entry_1"));
+            }
+            try (FileWriter out = new FileWriter(new File(Store.ROOT_PATH, journalName), StandardCharsets.UTF_8, true)) {
+                out.write("1234abcd {\"op\":\"put\",\"idx\":2,\"ent");
+            }
+            try (Store<StoreEntry> store = new TStore<>(fileName, StoreEntry.class)) {
+                store.loadFromFile();
+                assertThat(store.entryNames(), is(new String[]{"entry_0", "entry_1"}));
+            }
+            assertThat(new File(Store.ROOT_PATH, journalName).exists(), is(false));
+        } finally {
+            deleteIfExists(fileName);
+            deleteIfExists(journalName);
+        }
+    }
+
+    @Test
+    public void test_recover_half_written_file() throws IOException {
+        String fileName = deleteIfExists("test-store-half-written.json");
+        String corruptName = deleteIfExists(fileName + ".corrupt");
+        try {
+            try (FileWriter out = new FileWriter(new File(Store.ROOT_PATH, fileName), StandardCharsets.UTF_8)) {
+                out.write("[{\"name\":\"entry_0\",\"attrs\":{\"id\":\"0\"}},{\"name\":\"entry_1\",\"attrs\":{}},{\"name\":\"ent");
+            }
+            try (Store<StoreEntry> store = new TStore<>(fileName, StoreEntry.class)) {
+                store.loadFromFile();
+                assertThat(store.entryNames(), is(new String[]{"entry_0", "entry_1"}));
+                assertThat(store.entries().get(0).getAttr("id"), is("0"));
+            }
+            assertThat(new File(Store.ROOT_PATH, corruptName).exists(), is(true));
+            try (Store<StoreEntry> store = new TStore<>(fileName, StoreEntry.class)) {
+                store.loadFromFile();
+                assertThat(store.size(), is(2));
+            }
+        } finally {
+            deleteIfExists(fileName);
+            deleteIfExists(corruptName);
+        }
+    }
+
+    @Test
+    public void test_saves_are_coalesced() {
+        String fileName = deleteIfExists("test-store-coalescing.json");
+        String journalName = deleteIfExists(fileName + ".journal");
+        try {
+            Store.SaveMetrics metrics;
+            try (Store<StoreEntry> store = new TStore<>(fileName, StoreEntry.class)) {
+                for (int i = 0; i < 100; i++) {
+                    store.addEntry(new StoreEntry("entry_" + i));
+                }
+                store.close();
+                metrics = store.getSaveMetrics();
+            }
+            assertThat(metrics.saves() < 10L, is(true));
+            assertThat(metrics.compactions() >= 1L, is(true));
+            try (Store<StoreEntry> store = new TStore<>(fileName, StoreEntry.class)) {
+                store.loadFromFile();
+                assertThat(store.size(), is(100));
+            }
+        } finally {
+            deleteIfExists(fileName);
+            deleteIfExists(journalName);
+        }
+    }
+
+    @Test
+    public void test_large_content_loaded_on_demand() {
+        String fileName = deleteIfExists("test-store-large-content.json");
+        try {
+            String text = "select * from \"trades\" where sym = '\u0394BTC'\n\t<&>\\ ".repeat(1_000);
+            try (Store<Content> store = new TStore<>(fileName, Content.class)) {
+                for (int i = 0; i < 3; i++) {
+                    Content content = new Content("quest_" + i);
+                    content.setContent(i + text);
+                    store.addEntry(content);
+                }
+            }
+            try (Store<Content> store = new TStore<>(fileName, Content.class)) {
+                store.loadFromFile();
+                assertThat(store.entryNames(), is(new String[]{"quest_0", "quest_1", "quest_2"}));
+                assertThat(store.entries().get(1).getContent(), is(1 + text));
+                store.entries().get(2).setContent("short");
+                store.saveToFile();
+            }
+            try (Store<Content> store = new TStore<>(fileName, Content.class)) {
+                store.loadFromFile();
+                assertThat(store.entries().get(0).getContent(), is(0 + text));
+                assertThat(store.entries().get(1).getContent(), is(1 + text));
+                assertThat(store.entries().get(2).getContent(), is("short"));
+            }
+        } finally {
+            deleteIfExists(fileName);
+        }
+    }
+
+    @Test
+    public void test_large_content_of_a_changed_file() throws IOException {
+        String fileName = deleteIfExists("test-store-changed-content.json");
+        try {
+            String text = "select * from trades;\n".repeat(100);
+            try (Store<Content> store = new TStore<>(fileName, Content.class)) {
+                for (int i = 0; i < 3; i++) {
+                    Content content = new Content("quest_" + i);
+                    content.setContent(i + text);
+                    store.addEntry(content);
+                }
+            }
+            Path file = new File(Store.ROOT_PATH, fileName).toPath();
+            try (Store<Content> store = new TStore<>(fileName, Content.class)) {
+                store.loadFromFile();
+                // shift the values, and change one of them keeping its length
+                String json = Files.readString(file, StandardCharsets.UTF_8);
+                Files.writeString(file, "  " + json.replace("2select", "2SELECT"), StandardCharsets.UTF_8);
+                assertThat(store.entries().get(1).getContent(), is(1 + text));
+                assertThat(store.entries().get(2).getContent(), is(2 + text.replaceFirst("select", "SELECT")));
+            }
+        } finally {
+            deleteIfExists(fileName);
+        }
+    }
+
+    @Test
+    public void test_binary_store() {
+        String fileName = deleteIfExists("test-store-binary" + Store.BINARY_EXTENSION);
+        try {
+            String text = "select * from trades where sym = '\u0394BTC';\n".repeat(100);
+            long size;
+            try (Store<Content> store = new TStore<>(fileName, Content.class)) {
+                for (int i = 0; i < 10; i++) {
+                    Content content = new Content("quest_" + i);
+                    content.setContent(i + text);
+                    store.addEntry(content);
+                }
+            }
+            try (Store<Content> store = new TStore<>(fileName, Content.class)) {
+                store.loadFromFile();
+                assertThat(store.size(), is(10));
+                assertThat(store.entries().get(9).getContent(), is(9 + text));
+                store.entries().get(3).setContent("changed");
+                store.removeEntry(0);
+                store.addEntry(new Content("quest_10"));
+                store.asyncSaveToFile();
+                size = new File(Store.ROOT_PATH, fileName).length();
+            }
+            assertThat(new File(Store.ROOT_PATH, fileName).length() > size, is(true)); // appended
+            try (Store<Content> store = new TStore<>(fileName, Content.class)) {
+                store.loadFromFile();
+                assertThat(store.size(), is(10));
+                assertThat(store.entries().get(0).getName(), is("quest_1"));
+                assertThat(store.entries().get(2).getContent(), is("changed"));
+                assertThat(store.entries().get(8).getContent(), is(9 + text));
+                assertThat(store.entries().get(9).getName(), is("quest_10"));
+                store.saveToFile(); // compaction, lazy values are relocated
+                assertThat(store.entries().get(1).getContent(), is(2 + text));
+            }
+            try (Store<Content> store = new TStore<>(fileName, Content.class)) {
+                store.loadFromFile();
+                assertThat(store.entries().get(1).getContent(), is(2 + text));
+                assertThat(store.entries().get(2).getContent(), is("changed"));
+            }
+        } finally {
+            deleteIfExists(fileName);
+        }
+    }
+
+    @Test
+    public void test_binary_store_torn_append() throws IOException {
+        String fileName = deleteIfExists("test-store-binary-torn" + Store.BINARY_EXTENSION);
+        try {
+            try (Store<StoreEntry> store = new TStore<>(fileName, StoreEntry.class)) {
+                store.addEntry(new StoreEntry("entry_0"));
+            }
+            try (Store<StoreEntry> store = new TStore<>(fileName, StoreEntry.class)) {
+                store.loadFromFile();
+                store.addEntry(new StoreEntry("entry_1"));
+            }
+            File file = new File(Store.ROOT_PATH, fileName);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(raf.length() - 3); // the last index is torn
+            }
+            try (Store<StoreEntry> store = new TStore<>(fileName, StoreEntry.class)) {
+                store.loadFromFile();
+                assertThat(store.entryNames(), is(new String[]{"entry_0"}));
+            }
+        } finally {
+            deleteIfExists(fileName);
+        }
+    }
+
+    @Test
+    public void test_binary_store_damaged_header() throws IOException {
+        String fileName = deleteIfExists("test-store-binary-damaged" + Store.BINARY_EXTENSION);
+        String corruptName = deleteIfExists(fileName + ".corrupt");
+        try {
+            try (Store<StoreEntry> store = new TStore<>(fileName, StoreEntry.class)) {
+                store.addEntry(new StoreEntry("entry_0"));
+            }
+            Path file = new File(Store.ROOT_PATH, fileName).toPath();
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.seek(Integer.BYTES * 2);
+                raf.write(new byte[48]); // both header slots
+            }
+            byte[] damaged = Files.readAllBytes(file);
+            try (Store<StoreEntry> store = new TStore<>(fileName, StoreEntry.class)) {
+                store.loadFromFile();
+                assertThat(store.size(), is(0));
+            }
+            assertThat(Files.readAllBytes(file), is(damaged));
+            assertThat(new File(Store.ROOT_PATH, corruptName).exists(), is(true));
+            try (Store<StoreEntry> store = new TStore<>(fileName, StoreEntry.class)) {
+                store.loadFromFile();
+                store.addEntry(new StoreEntry("entry_1"));
+            }
+            try (Store<StoreEntry> store = new TStore<>(fileName, StoreEntry.class)) {
+                store.loadFromFile();
+                assertThat(store.entryNames(), is(new String[]{"entry_1"}));
+            }
+        } finally {
+            deleteIfExists(fileName);
+            deleteIfExists(corruptName);
+        }
+    }
+
+    @Test
+    public void test_entry_identity() {
+        StoreEntry a = new StoreEntry("quest");
+        a.setAttr("content", "select * from trades");
+        a.setAttr("conn", "QuestDB");
+        StoreEntry b = new StoreEntry("quest");
+        b.setAttr("conn", "QuestDB");
+        b.setAttr("content", "select * from trades");
+        assertThat(a, is(b));
+        assertThat(a.hashCode(), is(b.hashCode()));
+        assertThat(a.compareTo(b), is(0));
+        assertThat(a.getUniqueId().equals(b.getUniqueId()), is(false));
+        assertThat(new StoreEntry(a).getUniqueId(), is(a.getUniqueId()));
+
+        b.setAttr("content", "select * from trades limit 10");
+        assertThat(a.equals(b), is(false));
+        assertThat(Integer.signum(a.compareTo(b)), is(-Integer.signum(b.compareTo(a))));
+        assertThat(a.hashCode(), is(b.hashCode()));
+        b.setAttr("content", "select * from trades");
+        assertThat(a, is(b));
+
+        StoreEntry c = new StoreEntry("another quest");
+        assertThat(a.compareTo(c) > 0, is(true));
+    }
+
+    @Test
+    public void test_search_index() {
+        String fileName = deleteIfExists("test-search-index.json");
+        String indexFileName = deleteIfExists("test-search-index.idx");
+        File indexFile = new File(Store.ROOT_PATH, indexFileName);
+        try {
+            SearchIndex index = SearchIndex.open(indexFile);
+            try (Store<Content> store = new TStore<>(fileName, Content.class)) {
+                store.setSearchIndex(index);
+                String[] queries = {
+                        "select * from trades where symbol = 'BTC-USD'",
+                        "create table weather (ts timestamp, temp double)",
+                        "select * from trades t asof join weather w"
+                };
+                for (int i = 0; i < queries.length; i++) {
+                    Content content = new Content("quest-" + i);
+                    content.setContent(queries[i]);
+                    store.addEntry(content);
+                }
+                store.removeEntry(1);
+            }
+            index.close();
+
+            index = SearchIndex.open(indexFile);
+            try {
+                assertThat(index.size(), is(2));
+                List<SearchIndex.Hit> hits = index.search("TRADES", 10);
+                assertThat(hits.size(), is(2));
+                hits = index.search("trades wea", 10);
+                assertThat(hits.size(), is(1));
+                assertThat(hits.get(0).fileName(), is(fileName));
+                assertThat(hits.get(0).idx(), is(1));
+                assertThat(hits.get(0).name(), is("quest-2"));
+                assertThat(index.search("temp", 10).isEmpty(), is(true));
+                assertThat(index.search("symbol btc", 10).get(0).idx(), is(0));
+            } finally {
+                index.close();
+            }
+        } finally {
+            deleteIfExists(fileName);
+            deleteIfExists(indexFileName);
+        }
+    }
+
+    @Test
+    public void test_search_index_refresh_leaves_files_as_they_are() throws IOException {
+        Path folder = Files.createTempDirectory("test-search-index-refresh");
+        File indexFile = folder.resolve("index.idx").toFile();
+        Path healthy = folder.resolve("healthy.json");
+        Path damaged = folder.resolve("damaged.json");
+        Path damagedTmp = folder.resolve("damaged.json.tmp");
+        Files.writeString(healthy, "[{\"name\":\"quest-0\",\"attrs\":{\"content\":\"select * from trades\"}}]");
+        Files.writeString(damaged, "[{\"name\":\"quest-0\",\"attrs\":{\"content\":\"sel");
+        Files.writeString(damagedTmp, "[]");
+        try {
+            SearchIndex index = SearchIndex.open(indexFile);
+            try {
+                index.refresh(folder.toFile(), f -> f.getName().endsWith(".json"));
+            } finally {
+                index.close();
+            }
+            index = SearchIndex.open(indexFile);
+            try {
+                assertThat(index.size(), is(1));
+                assertThat(index.search("trades", 10).get(0).fileName(), is("healthy.json"));
+            } finally {
+                index.close();
+            }
+            assertThat(Files.readString(damaged), is("[{\"name\":\"quest-0\",\"attrs\":{\"content\":\"sel"));
+            assertThat(Files.exists(damagedTmp), is(true));
+            assertThat(Files.exists(folder.resolve("damaged.json.corrupt")), is(false));
+        } finally {
+            try (Stream<Path> files = Files.list(folder)) {
+                for (Path f : files.toList()) {
+                    Files.delete(f);
+                }
+            }
+            Files.delete(folder);
+        }
+    }
+
     private static class TStore<T extends StoreEntry> extends Store<T> {
         public TStore(String fileName, Class<? extends StoreEntry> clazz) {
             super(fileName, clazz);
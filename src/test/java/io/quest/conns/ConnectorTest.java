@@ -0,0 +1,190 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.conns;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+public class ConnectorTest {
+    private static final String URL_PREFIX = "jdbc:postgresql://";
+    private static final long DEADLINE_MILLIS = 200L;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch interrupted = new CountDownLatch(1);
+    private final CountDownLatch connected = new CountDownLatch(1);
+    private volatile boolean interruptible;
+    private Driver driver;
+    private Connector connector;
+    private Conn conn;
+
+    @BeforeEach
+    public void beforeEach() throws SQLException {
+        driver = new MockDriver();
+        DriverManager.registerDriver(driver);
+        connector = new Connector();
+        conn = new Conn("slow", "slow", "8812", "qdb", "admin", "quest");
+    }
+
+    @AfterEach
+    public void afterEach() throws SQLException {
+        release.countDown();
+        connector.close();
+        conn.close();
+        DriverManager.deregisterDriver(driver);
+    }
+
+    @Test
+    public void test_open_fails_at_the_deadline() throws Exception {
+        long start = System.nanoTime();
+        CompletableFuture<Conn> future = connector.open(conn, DEADLINE_MILLIS);
+        assertThat(connector.open(conn, DEADLINE_MILLIS) == future, is(true)); // one open in flight
+        assertThat(failure(future) instanceof TimeoutException, is(true));
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertThat(millis >= DEADLINE_MILLIS && millis < 10 * DEADLINE_MILLIS, is(true));
+        assertThat(connector.isOpening(conn), is(false));
+        assertThat(conn.isOpen(), is(false));
+    }
+
+    @Test
+    public void test_connection_established_too_late_is_closed() throws Exception {
+        CompletableFuture<Conn> future = connector.open(conn, DEADLINE_MILLIS);
+        assertThat(failure(future) instanceof TimeoutException, is(true));
+        release.countDown();
+        assertThat(connected.await(10L, TimeUnit.SECONDS), is(true));
+        long deadline = System.currentTimeMillis() + 10_000L;
+        while (conn.getSession() < 2L && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertThat(conn.getSession(), is(2L)); // opened, then closed
+        assertThat(conn.isOpen(), is(false));
+    }
+
+    @Test
+    public void test_connection_established_too_late_is_kept_for_a_newer_open() throws Exception {
+        CompletableFuture<Conn> abandoned = connector.open(conn, DEADLINE_MILLIS);
+        assertThat(failure(abandoned) instanceof TimeoutException, is(true));
+        CompletableFuture<Conn> newer = connector.open(conn, 10_000L);
+        assertThat(newer == abandoned, is(false));
+        release.countDown();
+        assertThat(newer.get(10L, TimeUnit.SECONDS) == conn, is(true));
+        Thread.sleep(DEADLINE_MILLIS); // the abandoned open is done with the connection
+        assertThat(conn.isOpen(), is(true));
+        assertThat(conn.getSession(), is(1L)); // opened once, by the abandoned open
+    }
+
+    @Test
+    public void test_cancel_interrupts_the_driver() throws Exception {
+        interruptible = true;
+        CompletableFuture<Conn> future = connector.open(conn, 10_000L);
+        Thread.sleep(50L);
+        assertThat(connector.cancel(conn), is(true));
+        assertThat(failure(future) instanceof CancellationException, is(true));
+        assertThat(interrupted.await(10L, TimeUnit.SECONDS), is(true));
+        assertThat(conn.isOpen(), is(false));
+    }
+
+    private static Throwable failure(CompletableFuture<Conn> future) throws InterruptedException {
+        try {
+            future.get(10L, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (CancellationException | TimeoutException e) {
+            return e;
+        }
+        return null;
+    }
+
+    /**
+     * Blocks in connect until released, interruptibly or not.
+     */
+    private class MockDriver implements Driver {
+
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            boolean released = false;
+            while (!released) {
+                try {
+                    released = release.await(10L, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    if (interruptible) {
+                        interrupted.countDown();
+                        throw new SQLException("interrupted", e);
+                    }
+                }
+            }
+            Connection connection = mock(Connection.class);
+            when(connection.isValid(anyInt())).thenReturn(true);
+            connected.countDown();
+            return connection;
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith(URL_PREFIX);
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.conns;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+public class ConnsCheckerTest {
+    private static final String URL_PREFIX = "jdbc:postgresql://";
+    private static final long SEC_MILLIS = 20L;
+    private static final int FAILED_RECONNECTS = 4;
+
+    private final List<Long> connectNanos = new CopyOnWriteArrayList<>();
+    private final AtomicInteger probes = new AtomicInteger();
+    private final BlockingQueue<ConnsChecker.EventType> events = new LinkedBlockingQueue<>();
+    private Driver driver;
+    private Conn conn;
+    private ConnsChecker checker;
+
+    @BeforeEach
+    public void beforeEach() throws SQLException {
+        driver = new MockDriver();
+        DriverManager.registerDriver(driver);
+        conn = new Conn("flaky", "flaky", "8812", "qdb", "admin", "quest");
+        conn.open();
+        checker = new ConnsChecker(() -> List.of(conn), (source, event, data) -> {
+            ConnsChecker.EventType type = (ConnsChecker.EventType) event;
+            if (type != ConnsChecker.EventType.CONNECTION_PROBED) {
+                events.add(type);
+            }
+        }, SEC_MILLIS);
+    }
+
+    @AfterEach
+    public void afterEach() throws SQLException {
+        checker.close();
+        conn.close();
+        DriverManager.deregisterDriver(driver);
+    }
+
+    @Test
+    public void test_backoff() {
+        assertThat(ConnsChecker.backoffSecs(1), is(1L));
+        assertThat(ConnsChecker.backoffSecs(2), is(2L));
+        assertThat(ConnsChecker.backoffSecs(4), is(8L));
+        assertThat(ConnsChecker.backoffSecs(6), is(30L));
+        assertThat(ConnsChecker.backoffSecs(20), is(30L));
+    }
+
+    @Test
+    public void test_lost_conn_is_reopened_backing_off() throws InterruptedException {
+        checker.start();
+        assertThat(events.poll(10L, TimeUnit.SECONDS), is(ConnsChecker.EventType.CONNECTIONS_LOST));
+        assertThat(events.poll(10L, TimeUnit.SECONDS), is(ConnsChecker.EventType.CONNECTION_REESTABLISHED));
+        assertThat(conn.isOpen(), is(true));
+
+        // the open by the test, the immediate attempt, then one after each backoff
+        assertThat(connectNanos.size(), is(FAILED_RECONNECTS + 2));
+        for (int attempt = 1; attempt <= FAILED_RECONNECTS; attempt++) {
+            long gapMillis = TimeUnit.NANOSECONDS.toMillis(connectNanos.get(attempt + 1) - connectNanos.get(attempt));
+            assertThat(gapMillis >= ConnsChecker.backoffSecs(attempt) * SEC_MILLIS, is(true));
+        }
+    }
+
+    @Test
+    public void test_conn_closed_by_its_user_is_not_checked() throws InterruptedException {
+        checker.start();
+        conn.close();
+        Thread.sleep(40L * SEC_MILLIS); // past the first probe
+        assertThat(probes.get(), is(0));
+        assertThat(events.isEmpty(), is(true));
+        assertThat(connectNanos.size(), is(1));
+    }
+
+    /**
+     * The first connection is found not valid, the next attempts to reconnect fail,
+     * then a valid connection is handed out.
+     */
+    private class MockDriver implements Driver {
+
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            connectNanos.add(System.nanoTime());
+            int attempt = connectNanos.size() - 1;
+            if (attempt > 0 && attempt <= FAILED_RECONNECTS) {
+                throw new SQLException("connection refused");
+            }
+            boolean valid = attempt > 0;
+            Connection connection = mock(Connection.class);
+            when(connection.isValid(anyInt())).thenAnswer(invocation -> {
+                probes.incrementAndGet();
+                return valid;
+            });
+            return connection;
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith(URL_PREFIX);
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return null;
+        }
+    }
+}
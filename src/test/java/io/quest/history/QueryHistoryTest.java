@@ -0,0 +1,135 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.history;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+public class QueryHistoryTest {
+
+    private File folder;
+
+    private static QueryHistory.Entry entry(int i) {
+        return new QueryHistory.Entry(
+                1_700_000_000_000L + i,
+                "QuestDB admin@localhost:8812/main",
+                "select * from trades where id = " + i,
+                i % 3 == 0 ? QueryHistory.Status.FAILED : QueryHistory.Status.COMPLETED,
+                i * 10L,
+                i,
+                i * 2L,
+                i * 3L);
+    }
+
+    private static QueryHistory open(File folder, long maxBytes) {
+        return new QueryHistory(folder, maxBytes, (source, event, data) -> {
+        });
+    }
+
+    @BeforeEach
+    public void beforeEach() throws IOException {
+        folder = Files.createTempDirectory("query-history").toFile();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                assertThat("delete", file.delete());
+            }
+        }
+        assertThat("delete", folder.delete());
+    }
+
+    @Test
+    public void test_entries_persist() {
+        try (QueryHistory history = open(folder, QueryHistory.DEFAULT_MAX_BYTES)) {
+            for (int i = 0; i < 5; i++) {
+                history.append(entry(i));
+            }
+        }
+        try (QueryHistory history = open(folder, QueryHistory.DEFAULT_MAX_BYTES)) {
+            List<QueryHistory.Entry> entries = history.entries();
+            assertThat(entries.size(), is(5));
+            for (int i = 0; i < 5; i++) {
+                assertThat(entries.get(i), is(entry(i)));
+            }
+        }
+    }
+
+    @Test
+    public void test_size_is_capped() {
+        long maxBytes = 4096L;
+        try (QueryHistory history = open(folder, maxBytes)) {
+            for (int i = 0; i < 500; i++) {
+                history.append(entry(i));
+            }
+        }
+        long size = new File(folder, QueryHistory.FILE_NAME + ".0").length() + new File(folder, QueryHistory.FILE_NAME + ".1").length();
+        assertThat(size <= maxBytes, is(true));
+        try (QueryHistory history = open(folder, maxBytes)) {
+            List<QueryHistory.Entry> entries = history.entries();
+            assertThat(entries.size(), lessThan(500));
+            assertThat(entries.get(entries.size() - 1), is(entry(499)));
+            for (int i = 1; i < entries.size(); i++) {
+                assertThat(entries.get(i).timestamp() - entries.get(i - 1).timestamp(), is(1L));
+            }
+            history.append(entry(500));
+        }
+        try (QueryHistory history = open(folder, maxBytes)) {
+            List<QueryHistory.Entry> entries = history.entries();
+            assertThat(entries.get(entries.size() - 1), is(entry(500)));
+        }
+    }
+
+    @Test
+    public void test_torn_tail_is_cut() throws IOException {
+        try (QueryHistory history = open(folder, QueryHistory.DEFAULT_MAX_BYTES)) {
+            history.append(entry(0));
+            history.append(entry(1));
+        }
+        File segment = new File(folder, QueryHistory.FILE_NAME + ".0");
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(raf.length());
+            raf.writeInt(200); // length of a record never written whole
+            raf.writeInt(42);
+            raf.write(new byte[50]);
+        }
+        try (QueryHistory history = open(folder, QueryHistory.DEFAULT_MAX_BYTES)) {
+            assertThat(history.entries().size(), is(2));
+            history.append(entry(2));
+        }
+        try (QueryHistory history = open(folder, QueryHistory.DEFAULT_MAX_BYTES)) {
+            List<QueryHistory.Entry> entries = history.entries();
+            assertThat(entries.size(), is(3));
+            assertThat(entries.get(2), is(entry(2)));
+        }
+    }
+}
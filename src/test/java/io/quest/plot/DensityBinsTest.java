@@ -0,0 +1,149 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.plot;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import io.quest.sql.Table;
+
+
+public class DensityBinsTest {
+
+    @Test
+    public void test_histogram_counts_every_value_once() throws SQLException {
+        Table table = table(new double[][]{{1.0}, {2.0}, {2.0}, {Double.NaN}, {10.0}});
+        DensityBins bins = new DensityBins(table, 1, -1, 10, 0);
+        bins.update(true);
+        DensityBins.Snapshot snapshot = bins.getSnapshot();
+        assertThat(bins.isHistogram(), is(true));
+        assertThat(snapshot.total(), is(4L)); // NaN is skipped
+        assertThat(snapshot.maxCount(), is(2L));
+        assertThat(snapshot.grid().xLow(), is(1.0));
+        assertThat(snapshot.grid().xHigh() > 10.0, is(true));
+        assertThat(snapshot.counts()[0], is(1L));
+        assertThat(snapshot.counts()[1], is(2L));
+        assertThat(snapshot.counts()[9], is(1L));
+    }
+
+    @Test
+    public void test_heatmap_matches_sequential_binning() throws SQLException {
+        Random rnd = new Random(42);
+        double[][] rows = new double[100_000][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new double[]{rnd.nextGaussian(), rnd.nextDouble() * 100.0};
+        }
+        DensityBins bins = new DensityBins(table(rows), 1, 2, 32, 16);
+        bins.update(true);
+        DensityBins.Snapshot snapshot = bins.getSnapshot();
+        assertThat(snapshot.total(), is((long) rows.length));
+        assertThat(snapshot.counts(), is(binSequentially(rows, snapshot.grid())));
+    }
+
+    @Test
+    public void test_incremental_updates_match_a_single_update() throws SQLException {
+        double[][] rows = new double[1_000][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new double[]{i < 500 ? i : i * 10.0}; // the second half falls outside the first grid
+        }
+        Table table = table(rows);
+        DensityBins incremental = new DensityBins(new GrowingTable(table, 500), 1, -1, 20, 0);
+        incremental.update(false);
+        assertThat(incremental.getSnapshot().total(), is(500L));
+        ((GrowingTable) incremental.getTable()).size = rows.length;
+        incremental.update(false);
+        incremental.update(true);
+        DensityBins single = new DensityBins(table, 1, -1, 20, 0);
+        single.update(true);
+        assertThat(incremental.getSnapshot().grid(), is(single.getSnapshot().grid()));
+        assertThat(incremental.getSnapshot().counts(), is(single.getSnapshot().counts()));
+    }
+
+    private static long[] binSequentially(double[][] rows, DensityBins.Grid grid) {
+        long[] counts = new long[grid.xBins() * grid.yBins()];
+        for (double[] row : rows) {
+            int xb = Math.min(grid.xBins() - 1, (int) ((row[0] - grid.xLow()) / grid.xWidth()));
+            int yb = Math.min(grid.yBins() - 1, (int) ((row[1] - grid.yLow()) / grid.yWidth()));
+            counts[yb * grid.xBins() + xb]++;
+        }
+        return counts;
+    }
+
+    private static Table table(double[][] rows) throws SQLException {
+        int colCount = rows[0].length;
+        ResultSetMetaData metadata = mock(ResultSetMetaData.class);
+        when(metadata.getColumnCount()).thenReturn(colCount);
+        for (int c = 1; c <= colCount; c++) {
+            when(metadata.getColumnName(eq(c))).thenReturn("c" + c);
+            when(metadata.getColumnType(eq(c))).thenReturn(Types.DOUBLE);
+        }
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getMetaData()).thenReturn(metadata);
+        for (int c = 1; c <= colCount; c++) {
+            int colIdx = c - 1;
+            Object[] values = Arrays.stream(rows).map(row -> row[colIdx]).toArray();
+            when(rs.getObject(c)).thenReturn(values[0], Arrays.copyOfRange(values, 1, values.length));
+        }
+        Table table = new Table("density");
+        table.setColumnMetadata(rs);
+        for (int i = 0; i < rows.length; i++) {
+            table.addRow(i, rs);
+        }
+        return table;
+    }
+
+    /**
+     * Shows the first rows of a table only, as if they were still being fetched.
+     */
+    private static class GrowingTable extends Table {
+        private final Table table;
+        private int size;
+
+        private GrowingTable(Table table, int size) {
+            super("growing");
+            this.table = table;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int getColumnType(int i) {
+            return table.getColumnType(i);
+        }
+
+        @Override
+        public Object getValueAt(int rowIdx, int colIdx) {
+            return table.getValueAt(rowIdx, colIdx);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.plot;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.awt.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import io.quest.conns.Conn;
+import io.quest.sql.SQLExecutionRequest;
+import io.quest.sql.SQLExecutor;
+
+
+public class LevelOfDetailTest {
+
+    @Test
+    public void test_plan_is_on_the_epoch_tile_grid() {
+        long minX = 1_700_000_123_456L;
+        long maxX = minX + 3_600_000L; // an hour
+        LevelOfDetail.Plan plan = LevelOfDetail.plan(minX, maxX, 1000);
+        assertThat(plan.bucketMillis(), is(2048L)); // highest power of two <= 3600 ms per pixel
+        assertThat(plan.level(), is(11));
+        assertThat(plan.tileSpan(), is(2048L * 512));
+        assertThat(plan.firstTile() * plan.tileSpan() <= minX, is(true));
+        assertThat((plan.lastTile() + 1) * plan.tileSpan() > maxX, is(true));
+        assertThat(plan.firstTile(), is(Math.floorDiv(minX, plan.tileSpan())));
+    }
+
+    @Test
+    public void test_plan_of_a_tiny_range() {
+        LevelOfDetail.Plan plan = LevelOfDetail.plan(10.0, 10.5, 800);
+        assertThat(plan.bucketMillis(), is(1L));
+        assertThat(plan.level(), is(0));
+        assertThat(plan.firstTile(), is(0L));
+        assertThat(plan.lastTile(), is(0L));
+    }
+
+    @Test
+    public void test_query_buckets_are_relative_to_the_first_tile() {
+        LevelOfDetail lod = levelOfDetail();
+        String query = lod.query(1024L * 512, 1024L * 512 * 3, 1024L);
+        assertThat(query, is(
+            "SELECT CAST(524288000 + (CAST(\"ts\" AS LONG) - 524288000) / 1024000 * 1024000 AS TIMESTAMP) \"ts\", avg(\"v\") \"v\"" +
+                " FROM (select ts, v from t) WHERE \"ts\" >= CAST(524288000 AS TIMESTAMP) AND \"ts\" < CAST(1572864000 AS TIMESTAMP) ORDER BY \"ts\""));
+    }
+
+    @Test
+    public void test_points_are_split_into_tiles() {
+        LevelOfDetail lod = levelOfDetail();
+        LevelOfDetail.Plan plan = new LevelOfDetail.Plan(0, 1L, 512L, 1L, 3L);
+        double[] xs = {512, 600, 1100, 1535, 1536};
+        double[] ys = {1, 2, 3, 4, 5};
+        lod.storeTiles(xs, ys, xs.length, new LevelOfDetail.Plan(0, 1L, 512L, 1L, 2L), 1L, 2L);
+        AtomicReference<Column[]> delivered = new AtomicReference<>();
+        AtomicReference<String> error = new AtomicReference<>();
+        lod.deliver(plan, "boom", (x, y, e) -> {
+            delivered.set(new Column[]{x, y});
+            error.set(e);
+        });
+        // tile 3 is missing, and 1536 belongs to it, so it is not cached
+        assertThat(delivered.get()[0].size(), is(4));
+        assertThat(delivered.get()[1].get(3), is(4.0));
+        assertThat(error.get(), is("boom"));
+    }
+
+    @Test
+    public void test_cached_tiles_are_delivered_without_fetching() {
+        LevelOfDetail lod = levelOfDetail(); // its executor is not started, submitting would throw
+        LevelOfDetail.Plan plan = LevelOfDetail.plan(0.0, 1000.0, 1000);
+        lod.storeTiles(new double[]{0, 100, 999}, new double[]{1, 2, 3}, 3, plan, plan.firstTile(), plan.lastTile());
+        AtomicReference<Column> delivered = new AtomicReference<>();
+        lod.fetch(0.0, 1000.0, 1000, (x, y, e) -> delivered.set(y));
+        assertThat(delivered.get().size(), is(3));
+        assertThat(delivered.get().get(2), is(3.0));
+    }
+
+    private static LevelOfDetail levelOfDetail() {
+        SQLExecutionRequest source = new SQLExecutionRequest("test", (Conn) null, "select ts, v from t;");
+        return new LevelOfDetail(new SQLExecutor(), source, "ts", "v", Color.WHITE);
+    }
+}
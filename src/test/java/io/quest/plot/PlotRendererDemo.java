@@ -0,0 +1,68 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.plot;
+
+import java.awt.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Renders a batch of plots headless, in parallel, and reports the rendering cost
+ * per format. Run with -Djava.awt.headless=true.
+ */
+public class PlotRendererDemo {
+    private static final int NUM_PLOTS = 32;
+    private static final int NUM_POINTS = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        Path folder = Files.createDirectories(Path.of(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), "plots"));
+        try (PlotRenderer renderer = new PlotRenderer()) {
+            for (PlotRenderer.Format format : PlotRenderer.Format.values()) {
+                List<CompletableFuture<PlotRenderer.Result>> results = new ArrayList<>(NUM_PLOTS);
+                long start = System.nanoTime();
+                for (int i = 0; i < NUM_PLOTS; i++) {
+                    Column x = new BasicColumn("x");
+                    Column y = new BasicColumn("y", Color.YELLOW);
+                    double frequency = 1.0 + i;
+                    for (int j = 0; j < NUM_POINTS; j++) {
+                        double t = 2.0 * Math.PI * j / NUM_POINTS;
+                        x.append(t);
+                        y.append(Math.sin(frequency * t) * Math.exp(-t / 4.0));
+                    }
+                    Path target = folder.resolve("plot-" + i + format.getExtension());
+                    results.add(renderer.submit("Damped sine " + i, x, y, PlotRenderer.DEFAULT_WIDTH, PlotRenderer.DEFAULT_HEIGHT, format, target));
+                }
+                long renderNanos = 0L;
+                for (CompletableFuture<PlotRenderer.Result> result : results) {
+                    renderNanos += result.join().renderNanos();
+                }
+                System.out.printf("%s: %d plots of %d points, %d ms wall, %d ms mean render%n",
+                    format,
+                    NUM_PLOTS,
+                    NUM_POINTS,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    TimeUnit.NANOSECONDS.toMillis(renderNanos / NUM_PLOTS));
+            }
+        }
+        System.out.printf("written to %s%n", folder);
+    }
+}
@@ -0,0 +1,256 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.plot;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.quest.conns.Conn;
+
+
+public class PlotRendererTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    private final AtomicInteger queriesInFlight = new AtomicInteger();
+    private final AtomicInteger maxQueriesInFlight = new AtomicInteger();
+    private final Set<String> queryThreads = ConcurrentHashMap.newKeySet();
+    private File folder;
+    private Driver driver;
+
+    @BeforeEach
+    public void beforeEach() throws IOException, SQLException {
+        folder = Files.createTempDirectory("plot-renderer").toFile();
+        driver = new MockDriver(connection());
+        DriverManager.registerDriver(driver);
+    }
+
+    @AfterEach
+    public void afterEach() throws SQLException {
+        DriverManager.deregisterDriver(driver);
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                assertThat("delete", file.delete());
+            }
+        }
+        assertThat("delete", folder.delete());
+    }
+
+    @Test
+    public void test_batch_of_columns_is_split_across_workers() throws IOException {
+        int numPlots = 9;
+        int numWorkers = 3;
+        Set<String> renderThreads = ConcurrentHashMap.newKeySet();
+        CountDownLatch allWorkersBusy = new CountDownLatch(numWorkers);
+        List<CompletableFuture<PlotRenderer.Result>> results = new ArrayList<>(numPlots);
+        try (PlotRenderer renderer = new PlotRenderer(numWorkers)) {
+            for (int i = 0; i < numPlots; i++) {
+                Column x = new BasicColumn("x");
+                Column y = new BasicColumn("y", Color.YELLOW) {
+                    @Override
+                    public void snapshot(long sequence) {
+                        // taken by the rendering thread, which waits for the others to be busy too
+                        if (renderThreads.add(Thread.currentThread().getName())) {
+                            allWorkersBusy.countDown();
+                            try {
+                                allWorkersBusy.await(5L, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    }
+                };
+                for (int j = 0; j < 1000; j++) {
+                    x.append(j);
+                    y.append(Math.sin(j * (i + 1) / 100.0));
+                }
+                Path target = folder.toPath().resolve("plot-" + i + PlotRenderer.Format.PNG.getExtension());
+                results.add(renderer.submit("plot " + i, x, y, WIDTH, HEIGHT, PlotRenderer.Format.PNG, target));
+            }
+            Set<Path> paths = new HashSet<>();
+            for (CompletableFuture<PlotRenderer.Result> result : results) {
+                paths.add(result.join().path());
+            }
+            assertThat(paths.size(), is(numPlots));
+            assertThat(renderThreads.size(), is(numWorkers));
+            assertThat(renderThreads.stream().noneMatch(name -> name.endsWith("-fetcher")), is(true));
+            for (Path path : paths) {
+                BufferedImage image = ImageIO.read(path.toFile());
+                assertThat(image.getWidth(), is(WIDTH));
+                assertThat(image.getHeight(), is(HEIGHT));
+            }
+        }
+    }
+
+    @Test
+    public void test_svg_follows_the_plot_layout() throws IOException {
+        Column x = new BasicColumn("x");
+        Column y = new BasicColumn("y", Color.YELLOW);
+        for (int i = 0; i < 10; i++) {
+            x.append(i);
+            y.append(i * i);
+        }
+        Path target = folder.toPath().resolve("plot.svg");
+        PlotRenderer.render("squares", x, y, WIDTH, HEIGHT, PlotRenderer.Format.SVG, target);
+        String svg = Files.readString(target, StandardCharsets.UTF_8);
+        assertThat(svg.startsWith("<?xml"), is(true));
+        assertThat(svg.contains("width=\"" + WIDTH + "\" height=\"" + HEIGHT + "\""), is(true));
+        assertThat(svg.contains("<path fill=\"none\""), is(true));
+        assertThat(svg.split("<circle ", -1).length - 1, is(10));
+        assertThat(svg.trim().endsWith("</svg>"), is(true));
+    }
+
+    @Test
+    public void test_render_all_runs_queries_one_at_a_time() throws IOException {
+        Map<String, String> queries = new LinkedHashMap<>();
+        queries.put("trades", "select ts, price from trades");
+        queries.put("a/b", "select ts, price from ab");
+        queries.put("a_b", "select ts, price from a_b");
+        queries.put("quotes", "select ts, bid from quotes");
+        Conn conn = new Conn("plots", "localhost", "8812", "qdb", "admin", "quest");
+        try (PlotRenderer renderer = new PlotRenderer(4)) {
+            List<CompletableFuture<PlotRenderer.Result>> results = renderer.renderAll(
+                conn, queries, folder.toPath(), WIDTH, HEIGHT, PlotRenderer.Format.PNG);
+            Set<String> fileNames = new HashSet<>();
+            for (CompletableFuture<PlotRenderer.Result> result : results) {
+                fileNames.add(result.join().path().getFileName().toString());
+            }
+            assertThat(fileNames, is(Set.of("trades.png", "a_b.png", "a_b-2.png", "quotes.png")));
+        } finally {
+            conn.close();
+        }
+        assertThat(maxQueriesInFlight.get(), is(1));
+        assertThat(queryThreads, is(Set.of("PlotRenderer-fetcher")));
+    }
+
+    private Connection connection() throws SQLException {
+        Statement stmt = mock(Statement.class);
+        when(stmt.executeQuery(anyString())).thenAnswer(invocation -> {
+            maxQueriesInFlight.accumulateAndGet(queriesInFlight.incrementAndGet(), Math::max);
+            try {
+                queryThreads.add(Thread.currentThread().getName());
+                Thread.sleep(20L);
+                return resultSet();
+            } finally {
+                queriesInFlight.decrementAndGet();
+            }
+        });
+        Connection connection = mock(Connection.class);
+        when(connection.createStatement()).thenReturn(stmt);
+        return connection;
+    }
+
+    private static ResultSet resultSet() throws SQLException {
+        ResultSetMetaData metadata = mock(ResultSetMetaData.class);
+        when(metadata.getColumnCount()).thenReturn(2);
+        when(metadata.getColumnType(eq(1))).thenReturn(Types.DOUBLE);
+        when(metadata.getColumnType(eq(2))).thenReturn(Types.DOUBLE);
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getMetaData()).thenReturn(metadata);
+        when(rs.next()).thenReturn(true, true, true, false);
+        when(rs.getObject(1)).thenReturn(1.0, 2.0, 3.0);
+        when(rs.getObject(2)).thenReturn(10.0, 5.0, 20.0);
+        return rs;
+    }
+
+    /**
+     * Hands out the same mocked connection for any url.
+     */
+    private static class MockDriver implements Driver {
+        private final Connection connection;
+
+        private MockDriver(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Connection connect(String url, Properties info) {
+            return acceptsURL(url) ? connection : null;
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:postgresql://");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return null;
+        }
+    }
+}
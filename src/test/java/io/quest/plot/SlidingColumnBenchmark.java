@@ -0,0 +1,92 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.plot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A producer appends 1M points/sec to a pair of {@link SlidingColumn}s while a painter
+ * takes snapshots at 60 fps, as {@link PlotCanvas} does. Reports achieved rates, the
+ * cost of a snapshot, and checks that x and y stay paired (y == -x).
+ */
+public class SlidingColumnBenchmark {
+
+    private static final int WINDOW_SIZE = 100_000;
+    private static final long APPENDS_PER_SEC = 1_000_000L;
+    private static final long FRAME_NANOS = TimeUnit.SECONDS.toNanos(1L) / 60;
+    private static final long DURATION_NANOS = TimeUnit.SECONDS.toNanos(10L);
+
+    public static void main(String[] args) throws InterruptedException {
+        SlidingColumn x = new SlidingColumn("x", WINDOW_SIZE);
+        SlidingColumn y = new SlidingColumn("y", WINDOW_SIZE);
+        AtomicBoolean running = new AtomicBoolean(true);
+        long[] appends = new long[1];
+        Thread producer = new Thread(() -> {
+            long start = System.nanoTime();
+            long i = 0;
+            while (running.get()) {
+                long due = (System.nanoTime() - start) * APPENDS_PER_SEC / TimeUnit.SECONDS.toNanos(1L);
+                for (; i < due; i++) {
+                    x.append(i);
+                    y.append(-i);
+                }
+            }
+            appends[0] = i;
+        }, "producer");
+        producer.setDaemon(true);
+        producer.start();
+
+        long frames = 0;
+        long snapshotNanos = 0;
+        long maxSnapshotNanos = 0;
+        long mismatches = 0;
+        double checksum = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < DURATION_NANOS) {
+            long frameStart = System.nanoTime();
+            long sequence = Math.min(x.sequence(), y.sequence());
+            x.snapshot(sequence);
+            y.snapshot(sequence);
+            long elapsed = System.nanoTime() - frameStart;
+            snapshotNanos += elapsed;
+            maxSnapshotNanos = Math.max(maxSnapshotNanos, elapsed);
+            int n = Math.min(x.size(), y.size());
+            int xOffset = x.size() - n;
+            int yOffset = y.size() - n;
+            for (int i = 0; i < n; i++) {
+                double px = x.get(xOffset + i);
+                double py = y.get(yOffset + i);
+                if (px != -py) {
+                    mismatches++;
+                }
+                checksum += px;
+            }
+            frames++;
+            LockSupport.parkNanos(FRAME_NANOS - (System.nanoTime() - frameStart));
+        }
+        running.set(false);
+        producer.join();
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("appends/sec: %,.0f%n", appends[0] / secs);
+        System.out.printf("frames/sec: %,.1f%n", frames / secs);
+        System.out.printf("snapshot avg: %,d ns, max: %,d ns (window: %,d)%n", snapshotNanos / Math.max(1, frames), maxSnapshotNanos, WINDOW_SIZE);
+        System.out.printf("mismatches: %d (checksum: %.0f)%n", mismatches, checksum);
+    }
+}
@@ -30,25 +30,21 @@ public class SlidingPlotDemo extends JPanel {
 
         int windowSize = 360;
         int refreshRateMillis = 135;
-        Column xValues = new SlidingColumn("a", plot, windowSize);
-        Column yValues = new SlidingColumn("sin", plot, windowSize);
+        Column xValues = new SlidingColumn("a", windowSize);
+        Column yValues = new SlidingColumn("sin", windowSize);
         plot.setDataSet("Sin(∂) in stepts of π/4", xValues, yValues);
         Thread thread = new Thread(() -> {
             final double step = Math.PI / 90; // degrees to radians
             double angle = Math.PI;
-            synchronized (plot) {
-                for (int i = 0; i < windowSize; i++) {
-                    xValues.append(angle);
-                    yValues.append(Math.sin(angle));
-                    angle += step;
-                }
+            for (int i = 0; i < windowSize; i++) {
+                xValues.append(angle);
+                yValues.append(Math.sin(angle));
+                angle += step;
             }
             long ticks = 0;
             while (!Thread.currentThread().isInterrupted()) {
-                synchronized (plot) {
-                    xValues.append(angle);
-                    yValues.append(Math.sin(angle));
-                }
+                xValues.append(angle);
+                yValues.append(Math.sin(angle));
                 angle += step;
                 if ((ticks + 1) % refreshRateMillis == 0) {
                     GTk.invokeLater(plot::repaint);
@@ -0,0 +1,84 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.results;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.TimeZone;
+
+import org.junit.jupiter.api.Test;
+
+
+public class CellFormatterTest {
+    private final CellFormatter formatter = new CellFormatter(TimeZone.getTimeZone("UTC"));
+
+    @Test
+    public void test_timestamp() {
+        Timestamp ts = new Timestamp(1674920241123L);
+        assertThat(format(ts, Types.TIMESTAMP), is("2023-01-28T15:37:21.123000"));
+        ts.setNanos(123456789);
+        assertThat(format(ts, Types.TIMESTAMP), is("2023-01-28T15:37:21.123456789"));
+        assertThat(format(new Timestamp(-1L), Types.TIMESTAMP), is("1969-12-31T23:59:59.999000"));
+        assertThat(format(new Timestamp(951782400000L), Types.TIMESTAMP_WITH_TIMEZONE), is("2000-02-29T00:00:00.000000"));
+    }
+
+    @Test
+    public void test_timestamp_in_time_zone() {
+        CellFormatter madrid = new CellFormatter(TimeZone.getTimeZone("Europe/Madrid"));
+        assertThat(madrid.format(new StringBuilder(), new Timestamp(1674920241123L), Types.TIMESTAMP).toString(), is("2023-01-28T16:37:21.123000"));
+    }
+
+    @Test
+    public void test_double() {
+        assertThat(format(0.0, Types.DOUBLE), is("0.000000"));
+        assertThat(format(-1.5, Types.DOUBLE), is("-1.500000"));
+        assertThat(format(1234567.0000004, Types.DOUBLE), is("1234567.000000"));
+        assertThat(format(-0.0000004, Types.DOUBLE), is("-4.0E-7"));
+        assertThat(format(0.1F, Types.REAL), is("0.100000"));
+        assertThat(format(1e13, Types.DOUBLE), is("1.0E13"));
+        assertThat(format(Double.NaN, Types.DOUBLE), is("NaN"));
+    }
+
+    @Test
+    public void test_other() {
+        assertThat(format(42, Types.INTEGER), is("42"));
+        assertThat(format("42", Types.DOUBLE), is("42"));
+    }
+
+    @Test
+    public void test_cache() {
+        FormattedCellCache cache = new FormattedCellCache(4);
+        assertThat(cache.capacity(), is(4));
+        cache.put(0, 1, "a");
+        assertThat(cache.get(0, 1), is("a"));
+        assertThat(cache.get(1, 0), nullValue());
+        for (int i = 0; i < 16; i++) {
+            cache.put(i, 2, "b" + i);
+        }
+        assertThat(cache.get(15, 2), is("b15"));
+        cache.clear();
+        assertThat(cache.get(15, 2), nullValue());
+    }
+
+    private String format(Object value, int sqlType) {
+        return formatter.format(new StringBuilder(), value, sqlType).toString();
+    }
+}
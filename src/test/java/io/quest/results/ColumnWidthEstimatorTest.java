@@ -0,0 +1,170 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.results;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.quest.sql.Row;
+import io.quest.sql.Table;
+
+
+public class ColumnWidthEstimatorTest {
+    private static final String[] HEADERS = {Table.ROWID_COL_NAME, "value"};
+    private static final String SHORT = "x".repeat(10);
+    private static final String LONG = "x".repeat(40);
+
+    private final BlockingQueue<int[]> widths = new ArrayBlockingQueue<>(16);
+    private FontMetrics metrics;
+    private ColumnWidthEstimator estimator;
+
+    @BeforeEach
+    public void beforeEach() {
+        Graphics2D g2 = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+        try {
+            metrics = g2.getFontMetrics(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        } finally {
+            g2.dispose();
+        }
+        estimator = new ColumnWidthEstimator((table, colWidths) -> widths.add(colWidths));
+    }
+
+    @Test
+    public void test_widths_are_clamped() throws Exception {
+        assertThat(estimate(table(rows(100, "a", 0, null)))[1], is(widthOf(HEADERS[1])));
+        assertThat(estimate(table(rows(100, "", 0, null)))[1], is(widthOf(HEADERS[1])));
+        assertThat(estimate(table(rows(100, "x".repeat(200), 0, null)))[1], is(ColumnWidthEstimator.MAX_WIDTH));
+    }
+
+    @Test
+    public void test_a_few_long_values_do_not_widen_the_column() throws Exception {
+        String[] values = rows(1000, SHORT, 10, LONG); // 1% long
+        assertThat(estimate(table(values))[1], is(widthOf(SHORT)));
+    }
+
+    @Test
+    public void test_sample_spans_all_rows() throws Exception {
+        String[] values = new String[10_000];
+        Arrays.fill(values, 0, 256, SHORT); // what a sample of the first rows would see
+        Arrays.fill(values, 256, values.length, LONG);
+        assertThat(estimate(table(values))[1], is(widthOf(LONG)));
+    }
+
+    @Test
+    public void test_estimate_is_refined_as_rows_stream_in() throws Exception {
+        String[] values = new String[2000];
+        Arrays.fill(values, 0, 1000, SHORT);
+        Arrays.fill(values, 1000, values.length, LONG);
+        Table table = table(values);
+        GrowingTable growing = new GrowingTable(table, 1000);
+        assertThat(estimate(growing)[1], is(widthOf(SHORT)));
+        growing.size = values.length;
+        assertThat(estimate(growing)[1], is(widthOf(LONG)));
+    }
+
+    private int[] estimate(Table table) throws InterruptedException {
+        estimator.update(table, HEADERS, metrics, metrics);
+        int[] colWidths = widths.poll(10L, TimeUnit.SECONDS);
+        assertThat(colWidths != null, is(true));
+        return colWidths;
+    }
+
+    private int widthOf(String text) {
+        return Math.max(ColumnWidthEstimator.MIN_WIDTH, Math.min(ColumnWidthEstimator.MAX_WIDTH, metrics.stringWidth(text) + 16));
+    }
+
+    /**
+     * @return n values, numOther of them, evenly spread, being other
+     */
+    private static String[] rows(int n, String value, int numOther, String other) {
+        String[] values = new String[n];
+        Arrays.fill(values, value);
+        for (int i = 0; i < numOther; i++) {
+            values[i * (n / numOther)] = other;
+        }
+        return values;
+    }
+
+    private static Table table(String[] values) throws SQLException {
+        ResultSetMetaData metadata = mock(ResultSetMetaData.class);
+        when(metadata.getColumnCount()).thenReturn(1);
+        when(metadata.getColumnName(eq(1))).thenReturn(HEADERS[1]);
+        when(metadata.getColumnType(eq(1))).thenReturn(Types.VARCHAR);
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getMetaData()).thenReturn(metadata);
+        when(rs.getObject(1)).thenReturn(values[0], Arrays.copyOfRange(values, 1, values.length));
+        Table table = new Table("widths");
+        table.setColumnMetadata(rs);
+        for (int i = 0; i < values.length; i++) {
+            table.addRow(i, rs);
+        }
+        return table;
+    }
+
+    /**
+     * Shows the first rows of a table only, as if they were still being fetched.
+     */
+    private static class GrowingTable extends Table {
+        private final Table table;
+        private int size;
+
+        private GrowingTable(Table table, int size) {
+            super("growing");
+            this.table = table;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int[] getColumnTypes() {
+            return table.getColumnTypes();
+        }
+
+        @Override
+        public long getVersion() {
+            return table.getVersion();
+        }
+
+        @Override
+        public Row getRow(int idx) {
+            return table.getRow(idx);
+        }
+    }
+}
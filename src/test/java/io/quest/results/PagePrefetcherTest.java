@@ -0,0 +1,164 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.results;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.quest.sql.Table;
+
+
+public class PagePrefetcherTest {
+    private static final int NUM_ROWS = 1000;
+    private static final int ROWS_PER_PAGE = 20;
+    private static final int[] COLS = {1, 2};
+
+    private final BlockingQueue<PagePrefetcher.Page> pages = new ArrayBlockingQueue<>(16);
+    private Table table;
+    private SQLTableModel model;
+
+    @BeforeEach
+    public void beforeEach() throws SQLException {
+        table = table();
+        model = new SQLTableModel(() -> table);
+        model.fireTableDataChanged();
+    }
+
+    @Test
+    public void test_page_ahead_then_page_behind() throws InterruptedException {
+        PagePrefetcher prefetcher = new PagePrefetcher(10_000, pages::add);
+        prefetcher.onViewMoved(table, model, 0, ROWS_PER_PAGE, COLS);
+        assertPage(next(), range(20, 40));
+
+        prefetcher.onViewMoved(table, model, 100, ROWS_PER_PAGE, COLS);
+        assertPage(next(), concat(range(120, 140), range(80, 100)));
+
+        // moving up, the page above is ahead
+        prefetcher.onViewMoved(table, model, 50, ROWS_PER_PAGE, COLS);
+        assertPage(next(), concat(range(30, 50), range(70, 90)));
+
+        // near the end, only the rows there are
+        prefetcher.onViewMoved(table, model, NUM_ROWS - ROWS_PER_PAGE, ROWS_PER_PAGE, COLS);
+        assertPage(next(), range(NUM_ROWS - 2 * ROWS_PER_PAGE, NUM_ROWS - ROWS_PER_PAGE));
+    }
+
+    @Test
+    public void test_same_view_is_not_prefetched_twice() throws InterruptedException {
+        PagePrefetcher prefetcher = new PagePrefetcher(10_000, pages::add);
+        prefetcher.onViewMoved(table, model, 0, ROWS_PER_PAGE, COLS);
+        assertPage(next(), range(20, 40));
+        prefetcher.onViewMoved(table, model, 0, ROWS_PER_PAGE, COLS);
+        assertThat(pages.poll(100L, TimeUnit.MILLISECONDS) == null, is(true));
+        prefetcher.reset();
+        prefetcher.onViewMoved(table, model, 0, ROWS_PER_PAGE, COLS);
+        assertPage(next(), range(20, 40));
+    }
+
+    @Test
+    public void test_cells_are_capped_to_the_cache_size() throws InterruptedException {
+        PagePrefetcher prefetcher = new PagePrefetcher(40, pages::add); // 10 rows of 2 columns per page
+        prefetcher.onViewMoved(table, model, 0, ROWS_PER_PAGE, COLS);
+        assertPage(next(), range(20, 30));
+        prefetcher.onViewMoved(table, model, 100, ROWS_PER_PAGE, COLS);
+        assertPage(next(), concat(range(120, 130), range(90, 100)));
+    }
+
+    @Test
+    public void test_view_rows_are_resolved_through_the_model() throws InterruptedException {
+        model.toggleSort(1);
+        model.toggleSort(1); // descending
+        long deadline = System.currentTimeMillis() + 10_000L;
+        while (model.toTableRowIdx(0) != NUM_ROWS - 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertThat(model.toTableRowIdx(0), is(NUM_ROWS - 1));
+        PagePrefetcher prefetcher = new PagePrefetcher(10_000, pages::add);
+        prefetcher.onViewMoved(table, model, 0, ROWS_PER_PAGE, COLS);
+        assertPage(next(), IntStream.range(20, 40).map(i -> NUM_ROWS - 1 - i).toArray());
+    }
+
+    private PagePrefetcher.Page next() throws InterruptedException {
+        PagePrefetcher.Page page = pages.poll(10L, TimeUnit.SECONDS);
+        assertThat(page != null, is(true));
+        return page;
+    }
+
+    private void assertPage(PagePrefetcher.Page page, int[] tableRows) {
+        assertThat(page.table() == table, is(true));
+        assertThat(page.tableRows(), is(tableRows));
+        assertThat(page.modelCols(), is(COLS));
+        assertThat(page.texts().length, is(tableRows.length * COLS.length));
+        CellFormatter formatter = new CellFormatter();
+        for (int i = 0, k = 0; i < tableRows.length; i++) {
+            for (int colIdx : COLS) {
+                Object value = table.getValueAt(tableRows[i], colIdx);
+                assertThat(page.texts()[k++], is(formatter.format(new StringBuilder(), value, table.getColumnType(colIdx)).toString()));
+            }
+        }
+    }
+
+    private static int[] range(int from, int to) {
+        return IntStream.range(from, to).toArray();
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+    private static Table table() throws SQLException {
+        ResultSetMetaData metadata = mock(ResultSetMetaData.class);
+        when(metadata.getColumnCount()).thenReturn(2);
+        when(metadata.getColumnName(eq(1))).thenReturn("id");
+        when(metadata.getColumnName(eq(2))).thenReturn("price");
+        when(metadata.getColumnType(eq(1))).thenReturn(Types.INTEGER);
+        when(metadata.getColumnType(eq(2))).thenReturn(Types.DOUBLE);
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getMetaData()).thenReturn(metadata);
+        Object[] ids = new Object[NUM_ROWS];
+        Object[] prices = new Object[NUM_ROWS];
+        for (int i = 0; i < NUM_ROWS; i++) {
+            ids[i] = i;
+            prices[i] = i * 1.25;
+        }
+        when(rs.getObject(1)).thenReturn(ids[0], Arrays.copyOfRange(ids, 1, NUM_ROWS));
+        when(rs.getObject(2)).thenReturn(prices[0], Arrays.copyOfRange(prices, 1, NUM_ROWS));
+        Table table = new Table("prefetch");
+        table.setColumnMetadata(rs);
+        for (int i = 0; i < NUM_ROWS; i++) {
+            table.addRow(i, rs);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,188 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.results;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.quest.conns.Conn;
+import io.quest.sql.SQLExecutionRequest;
+import io.quest.sql.SQLExecutionResponse;
+import io.quest.sql.SQLExecutor;
+
+
+public class ResultsTabsTest {
+    private static final int MAX_TABS = 12;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final BlockingQueue<Object[]> events = new LinkedBlockingQueue<>(); // {event, response}
+    private final List<String> closed = new ArrayList<>();
+    private Driver driver;
+    private Conn conn;
+    private SQLExecutor executor;
+    private ResultsTabs tabs;
+
+    @BeforeEach
+    public void beforeEach() throws SQLException {
+        Statement stmt = mock(Statement.class);
+        when(stmt.execute(anyString())).thenAnswer(invocation -> {
+            release.await(10L, TimeUnit.SECONDS);
+            throw new SQLException("canceling statement due to user request"); // as the driver does
+        });
+        Connection connection = mock(Connection.class);
+        when(connection.createStatement()).thenReturn(stmt);
+        when(connection.isValid(anyInt())).thenReturn(true);
+        driver = new MockDriver(connection);
+        DriverManager.registerDriver(driver);
+        conn = new Conn("tabs", "localhost", "8812", "qdb", "admin", "quest");
+        conn.open();
+        executor = new SQLExecutor();
+        executor.start();
+        tabs = new ResultsTabs(executor, table -> false, 800, 600);
+    }
+
+    @AfterEach
+    public void afterEach() throws SQLException {
+        release.countDown();
+        tabs.close();
+        executor.close();
+        conn.close();
+        DriverManager.deregisterDriver(driver);
+    }
+
+    @Test
+    public void test_oldest_idle_tab_is_evicted() {
+        for (int i = 0; i < MAX_TABS; i++) {
+            open("t" + i);
+        }
+        assertThat(tabs.getTabCount(), is(MAX_TABS));
+        open("t" + MAX_TABS);
+        assertThat(tabs.getTabCount(), is(MAX_TABS));
+        assertThat(closed, is(List.of("t0")));
+        open("t" + (MAX_TABS + 1));
+        assertThat(closed, is(List.of("t0", "t1")));
+    }
+
+    @Test
+    public void test_fetching_tabs_are_not_evicted() throws InterruptedException {
+        // more requests than executor threads, the last are still queued
+        List<SQLExecutionRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            SQLExecutionRequest req = new SQLExecutionRequest("test", conn, "select " + i);
+            requests.add(req);
+            tabs.submit(req, (source, event, res) -> events.add(new Object[]{event, res}));
+        }
+        for (int i = requests.size(); i < MAX_TABS; i++) {
+            open("t" + i);
+        }
+        open("t" + MAX_TABS);
+        assertThat(closed, is(List.of("t6")));
+        for (SQLExecutionRequest req : requests) {
+            assertThat(executor.isRunning(req), is(true));
+        }
+
+        // closing the tabs cancels their requests, including those queued
+        tabs.close();
+        release.countDown();
+        int cancelled = 0;
+        while (cancelled < requests.size()) {
+            Object[] event = events.poll(10L, TimeUnit.SECONDS);
+            assertThat(event != null, is(true));
+            SQLExecutionResponse res = (SQLExecutionResponse) event[1];
+            assertThat(tabs.onExecutorEvent((SQLExecutor.EventType) event[0], res), is(false));
+            if (event[0] == SQLExecutor.EventType.CANCELLED) {
+                cancelled++;
+            }
+        }
+        for (SQLExecutionRequest req : requests) {
+            assertThat(executor.isRunning(req), is(false));
+        }
+    }
+
+    private void open(String title) {
+        tabs.open(title, () -> closed.add(title));
+    }
+
+    /**
+     * Hands out the same mocked connection for any url.
+     */
+    private static class MockDriver implements Driver {
+        private final Connection connection;
+
+        private MockDriver(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Connection connect(String url, Properties info) {
+            return acceptsURL(url) ? connection : null;
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:postgresql://");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.results;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import io.quest.sql.Row;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+public class RowIndexTest {
+    private static final int[] colTypes = {Types.ROWID, Types.VARCHAR, Types.DOUBLE};
+
+    private Row[] rows;
+
+    @BeforeEach
+    public void beforeEach() {
+        rows = new Row[]{
+            new Row(0, new Object[]{0L, "Mallorca", 3.5}),
+            new Row(1, new Object[]{1L, "madrid", null}),
+            new Row(2, new Object[]{2L, null, -1.0}),
+            new Row(3, new Object[]{3L, "Lisboa", 3.5}),
+            new Row(4, new Object[]{4L, "Oporto", 0.0})
+        };
+    }
+
+    @Test
+    public void test_no_criteria_keeps_table_order() {
+        assertThat(RowIndex.compute(rows, colTypes, -1, true, null, () -> false), is(new int[]{0, 1, 2, 3, 4}));
+    }
+
+    @Test
+    public void test_sort_timestamps_within_the_same_millisecond() {
+        int[] types = {Types.ROWID, Types.TIMESTAMP};
+        Row[] tsRows = new Row[]{
+            new Row(0, new Object[]{0L, micros(1_700_000_000_123_002L)}),
+            new Row(1, new Object[]{1L, null}),
+            new Row(2, new Object[]{2L, micros(1_700_000_000_123_000L)}),
+            new Row(3, new Object[]{3L, micros(1_700_000_000_123_999L)}),
+            new Row(4, new Object[]{4L, micros(1_700_000_000_122_999L)}),
+            new Row(5, new Object[]{5L, micros(-1_500L)})
+        };
+        assertThat(RowIndex.compute(tsRows, types, 1, true, null, () -> false), is(new int[]{5, 4, 2, 0, 3, 1}));
+        assertThat(RowIndex.compute(tsRows, types, 1, false, null, () -> false), is(new int[]{3, 0, 2, 4, 5, 1}));
+    }
+
+    @Test
+    public void test_sort_large_longs() {
+        int[] types = {Types.ROWID, Types.BIGINT};
+        long big = 1L << 53;
+        Row[] longRows = new Row[]{
+            new Row(0, new Object[]{0L, big + 1L}),
+            new Row(1, new Object[]{1L, Long.MAX_VALUE}),
+            new Row(2, new Object[]{2L, big}),
+            new Row(3, new Object[]{3L, null}),
+            new Row(4, new Object[]{4L, big + 2L}),
+            new Row(5, new Object[]{5L, Long.MIN_VALUE}),
+            new Row(6, new Object[]{6L, Long.MAX_VALUE - 1L})
+        };
+        assertThat(RowIndex.compute(longRows, types, 1, true, null, () -> false), is(new int[]{5, 2, 0, 4, 6, 1, 3}));
+        assertThat(RowIndex.compute(longRows, types, 1, false, null, () -> false), is(new int[]{1, 6, 4, 0, 2, 5, 3}));
+    }
+
+    private static Timestamp micros(long epochMicros) {
+        Timestamp ts = new Timestamp(Math.floorDiv(epochMicros, 1000L));
+        ts.setNanos((int) Math.floorMod(epochMicros, 1_000_000L) * 1000);
+        return ts;
+    }
+
+    @Test
+    public void test_sort_numeric_is_stable_with_nulls_last() {
+        assertThat(RowIndex.compute(rows, colTypes, 2, true, "", () -> false), is(new int[]{2, 4, 0, 3, 1}));
+        assertThat(RowIndex.compute(rows, colTypes, 2, false, "", () -> false), is(new int[]{0, 3, 4, 2, 1}));
+    }
+
+    @Test
+    public void test_sort_text_with_nulls_last() {
+        assertThat(RowIndex.compute(rows, colTypes, 1, true, null, () -> false), is(new int[]{3, 0, 4, 1, 2}));
+        assertThat(RowIndex.compute(rows, colTypes, 0, false, null, () -> false), is(new int[]{4, 3, 2, 1, 0}));
+    }
+
+    @Test
+    public void test_filter_ignores_case_then_sorts() {
+        assertThat(RowIndex.compute(rows, colTypes, -1, true, "MA", () -> false), is(new int[]{0, 1}));
+        assertThat(RowIndex.compute(rows, colTypes, 1, false, "o", () -> false), is(new int[]{4, 0, 3}));
+        assertThat(RowIndex.compute(rows, colTypes, -1, true, "3.5", () -> false), is(new int[]{0, 3}));
+    }
+
+    @Test
+    public void test_sort_many_rows_in_parallel() {
+        Random rand = new Random(1969);
+        int n = 100_000;
+        Row[] many = new Row[n];
+        for (int i = 0; i < n; i++) {
+            many[i] = new Row(i, new Object[]{(long) i, null, (double) rand.nextInt(1000)});
+        }
+        int[] index = RowIndex.compute(many, colTypes, 2, true, null, () -> false);
+        assertThat(index.length, is(n));
+        for (int i = 1; i < n; i++) {
+            double prev = (double) many[index[i - 1]].getValueAt(2);
+            double curr = (double) many[index[i]].getValueAt(2);
+            assertThat(prev < curr || (prev == curr && index[i - 1] < index[i]), is(true));
+        }
+    }
+
+    @Test
+    public void test_cancel() {
+        assertThrows(CancellationException.class, () -> RowIndex.compute(rows, colTypes, 2, true, null, () -> true));
+    }
+}
@@ -0,0 +1,114 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.sql;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.sql.Types;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+
+public class ColumnStatsTest {
+
+    @Test
+    public void test_numeric_column() {
+        ColumnStats stats = new ColumnStats("x", Types.BIGINT);
+        for (long i = 1; i <= 10_000; i++) {
+            stats.add(i);
+        }
+        stats.add(null);
+        assertThat(stats.getCount(), is(10_001L));
+        assertThat(stats.getNulls(), is(1L));
+        assertThat(stats.getMin(), is(1.0));
+        assertThat(stats.getMax(), is(10_000.0));
+        assertThat(stats.getMean(), closeTo(5000.5, 1e-9));
+        assertThat(stats.getStdDev(), closeTo(2886.8956799071675, 1e-6));
+        assertThat((double) stats.getDistinctCount(), closeTo(10_000.0, 500.0));
+        assertThat(stats.getQuantile(0.5), closeTo(5000.0, 50.0));
+        assertThat(stats.getQuantile(0.99), closeTo(9900.0, 10.0));
+    }
+
+    @Test
+    public void test_nan_counts_as_null() {
+        ColumnStats stats = new ColumnStats("d", Types.DOUBLE);
+        for (Double d : new Double[]{1.0, Double.NaN, 2.0, null, 3.0, Double.NaN, 6.0}) {
+            stats.add(d);
+        }
+        assertThat(stats.getCount(), is(7L));
+        assertThat(stats.getNulls(), is(3L));
+        assertThat(stats.getMin(), is(1.0));
+        assertThat(stats.getMax(), is(6.0));
+        assertThat(stats.getMean(), closeTo(3.0, 1e-9));
+        assertThat(stats.getStdDev(), closeTo(Math.sqrt(14.0 / 3.0), 1e-9));
+        assertThat(stats.getDistinctCount(), is(4L));
+    }
+
+    @Test
+    public void test_text_column() {
+        ColumnStats stats = new ColumnStats("s", Types.VARCHAR);
+        for (String s : new String[]{"b", "a", null, "c", "a"}) {
+            stats.add(s);
+        }
+        assertThat(stats.getCount(), is(5L));
+        assertThat(stats.getNulls(), is(1L));
+        assertThat(stats.getMin(), is("a"));
+        assertThat(stats.getMax(), is("c"));
+        assertThat(stats.getDistinctCount(), is(3L));
+        assertThat(Double.isNaN(stats.getMean()), is(true));
+        assertThat(Double.isNaN(stats.getQuantile(0.5)), is(true));
+    }
+
+    @Test
+    public void test_empty_column() {
+        ColumnStats stats = new ColumnStats("x", Types.DOUBLE);
+        assertThat(stats.getMin(), nullValue());
+        assertThat(stats.getMax(), nullValue());
+        assertThat(stats.getDistinctCount(), is(0L));
+        assertThat(Double.isNaN(stats.getStdDev()), is(true));
+        assertThat(Double.isNaN(stats.getQuantile(0.5)), is(true));
+    }
+
+    @Test
+    public void test_hyper_log_log() {
+        HyperLogLog hll = new HyperLogLog();
+        for (int round = 0; round < 3; round++) {
+            for (long i = 0; i < 1_000_000; i++) {
+                hll.add(i);
+            }
+        }
+        assertThat((double) hll.estimate(), closeTo(1_000_000.0, 50_000.0));
+    }
+
+    @Test
+    public void test_t_digest() {
+        TDigest digest = new TDigest();
+        Random rand = new Random(1974);
+        for (int i = 0; i < 1_000_000; i++) {
+            digest.add(rand.nextGaussian());
+        }
+        assertThat(digest.size(), is(1_000_000L));
+        assertThat(digest.quantile(0.5), closeTo(0.0, 0.01));
+        assertThat(digest.quantile(0.9), closeTo(1.2816, 0.01));
+        assertThat(digest.quantile(0.99), closeTo(2.3263, 0.02));
+        assertThat(digest.quantile(0.01), closeTo(-2.3263, 0.02));
+    }
+}
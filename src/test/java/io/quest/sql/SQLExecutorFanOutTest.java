@@ -0,0 +1,260 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.sql;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.quest.conns.Conn;
+
+
+public class SQLExecutorFanOutTest {
+    private static final String URL_PREFIX = "jdbc:postgresql://";
+
+    private final Map<String, Connection> connectionsByHost = new HashMap<>();
+    private final List<Conn> conns = new ArrayList<>();
+    private Driver driver;
+    private SQLExecutor executor;
+
+    @BeforeEach
+    public void beforeEach() throws SQLException {
+        connectionsByHost.put("eu", connection(Types.VARCHAR, new Object[][]{{1, "a"}, {2, "b"}, {3, "c"}}));
+        connectionsByHost.put("us", connection(Types.VARCHAR, new Object[][]{{4, "d"}, {5, "e"}}));
+        connectionsByHost.put("ap", connection(Types.DOUBLE, new Object[][]{{6, 0.5}}));
+        connectionsByHost.put("down", connection(Types.VARCHAR, null));
+        driver = new MockDriver();
+        DriverManager.registerDriver(driver);
+        executor = new SQLExecutor();
+        executor.start();
+    }
+
+    @AfterEach
+    public void afterEach() throws SQLException {
+        executor.close();
+        conns.forEach(Conn::close);
+        DriverManager.deregisterDriver(driver);
+    }
+
+    @Test
+    public void test_rows_are_merged_tagged_by_node() throws Exception {
+        SQLExecutionResponse res = execute(open("eu"), open("us"));
+        assertThat(res.getError() == null, is(true));
+        Table table = res.getTable();
+        assertThat(table.getColumnName(1), is(SQLExecutor.NODE_COL_NAME));
+        assertThat(table.getColumnName(2), is("id"));
+        assertThat(table.size(), is(5));
+        int euRows = 0;
+        for (int i = 0; i < table.size(); i++) {
+            int id = (Integer) table.getValueAt(i, 2);
+            assertThat(table.getValueAt(i, 0), is((long) i));
+            assertThat(table.getValueAt(i, 1), is(id <= 3 ? "eu" : "us"));
+            assertThat(table.getValueAt(i, 3), is(String.valueOf((char) ('a' + id - 1))));
+            euRows += "eu".equals(table.getValueAt(i, 1)) ? 1 : 0;
+        }
+        assertThat(euRows, is(3));
+        List<SQLExecutionResponse.NodeResult> nodes = res.getNodeResults();
+        assertThat(nodes.size(), is(2));
+        assertThat(nodes.get(0).node(), is("eu"));
+        assertThat(nodes.get(0).rows(), is(3L));
+        assertThat(nodes.get(1).node(), is("us"));
+        assertThat(nodes.get(1).rows(), is(2L));
+    }
+
+    @Test
+    public void test_partial_failure() throws Exception {
+        SQLExecutionResponse res = execute(open("eu"), open("down"), open("ap"));
+        List<SQLExecutionResponse.NodeResult> nodes = res.getNodeResults();
+        assertThat(res.getError() == null, is(true));
+        assertThat(nodes.get(1).isFailed(), is(true));
+        // the columns are set by whichever of the other two returns rows first
+        assertThat(nodes.get(0).isFailed() != nodes.get(2).isFailed(), is(true));
+        assertThat(res.getTable().size(), is(nodes.get(0).isFailed() ? 1 : 3));
+    }
+
+    @Test
+    public void test_all_nodes_failed() throws Exception {
+        SQLExecutionResponse res = execute(open("down"), new Conn("never-opened"));
+        assertThat(res.getError() != null, is(true));
+        assertThat(res.getNodeResults().stream().allMatch(SQLExecutionResponse.NodeResult::isFailed), is(true));
+    }
+
+    @Test
+    public void test_memory_cap() throws Exception {
+        executor.setFanOutMaxBytes(1L);
+        SQLExecutionResponse res = execute(open("eu"), open("us"));
+        assertThat(res.getError() == null, is(true));
+        assertThat(res.getTable().size(), is(1));
+        assertThat(res.getNodeResults().stream().allMatch(SQLExecutionResponse.NodeResult::truncated), is(true));
+    }
+
+    @Test
+    public void test_paused_nodes_hold_no_threads() throws Exception {
+        BlockingQueue<SQLExecutionResponse> done = new ArrayBlockingQueue<>(1);
+        SQLExecutionRequest req = new SQLExecutionRequest("test", List.of(open("eu"), open("us")), "select * from t");
+        executor.submit(req, (source, event, res) -> {
+            switch ((SQLExecutor.EventType) event) {
+                case FIRST_ROW_AVAILABLE -> executor.pause(req);
+                case COMPLETED, CANCELLED, FAILURE -> done.add(res);
+            }
+        });
+        assertThat(done.poll(300L, TimeUnit.MILLISECONDS) == null, is(true));
+        assertThat(executor.isRunning(req), is(true));
+        for (Map.Entry<Thread, StackTraceElement[]> thread : Thread.getAllStackTraces().entrySet()) {
+            if (thread.getKey().getName().endsWith("-fanout")) {
+                for (StackTraceElement frame : thread.getValue()) {
+                    assertThat(frame.getClassName().contains("FanOut"), is(false));
+                }
+            }
+        }
+        assertThat(executor.resume(req), is(true));
+        SQLExecutionResponse res = done.poll(10L, TimeUnit.SECONDS);
+        assertThat(res != null && res.getError() == null, is(true));
+        assertThat(res.getTable().size(), is(5));
+        assertThat(res.getNodeResults().get(0).rows(), is(3L));
+        assertThat(res.getNodeResults().get(1).rows(), is(2L));
+    }
+
+    private Conn open(String host) throws SQLException {
+        Conn conn = new Conn(host, host, "8812", "qdb", "admin", "quest");
+        conn.open();
+        conns.add(conn);
+        return conn;
+    }
+
+    private SQLExecutionResponse execute(Conn... targets) throws InterruptedException {
+        BlockingQueue<SQLExecutionResponse> done = new ArrayBlockingQueue<>(1);
+        SQLExecutionRequest req = new SQLExecutionRequest("test", List.of(targets), "select * from t");
+        executor.submit(req, (source, event, res) -> {
+            switch ((SQLExecutor.EventType) event) {
+                case COMPLETED, CANCELLED, FAILURE -> done.add(res);
+            }
+        });
+        SQLExecutionResponse res = done.poll(10L, TimeUnit.SECONDS);
+        assertThat(res != null, is(true));
+        return res;
+    }
+
+    /**
+     * @param valueType type of the second column, the first is an integer id
+     * @param rows      rows of the result set, null for a statement that fails
+     */
+    private static Connection connection(int valueType, Object[][] rows) throws SQLException {
+        Statement stmt = mock(Statement.class);
+        if (rows == null) {
+            when(stmt.execute(anyString())).thenThrow(new SQLException("table does not exist [table=t]"));
+        } else {
+            ResultSetMetaData metadata = mock(ResultSetMetaData.class);
+            when(metadata.getColumnCount()).thenReturn(2);
+            when(metadata.getColumnName(eq(1))).thenReturn("id");
+            when(metadata.getColumnName(eq(2))).thenReturn("value");
+            when(metadata.getColumnType(eq(1))).thenReturn(Types.INTEGER);
+            when(metadata.getColumnType(eq(2))).thenReturn(valueType);
+            ResultSet rs = mock(ResultSet.class);
+            when(rs.getMetaData()).thenReturn(metadata);
+            Boolean[] hasNext = new Boolean[rows.length];
+            Object[] ids = new Object[rows.length];
+            Object[] values = new Object[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                hasNext[i] = i + 1 < rows.length;
+                ids[i] = rows[i][0];
+                values[i] = rows[i][1];
+            }
+            when(rs.next()).thenReturn(true, hasNext);
+            when(rs.getObject(1)).thenReturn(ids[0], Arrays.copyOfRange(ids, 1, ids.length));
+            when(rs.getObject(2)).thenReturn(values[0], Arrays.copyOfRange(values, 1, values.length));
+            when(stmt.execute(anyString())).thenReturn(true);
+            when(stmt.getResultSet()).thenReturn(rs);
+        }
+        Connection connection = mock(Connection.class);
+        when(connection.createStatement()).thenReturn(stmt);
+        when(connection.isValid(anyInt())).thenReturn(true);
+        return connection;
+    }
+
+    /**
+     * Hands out the mocked connection of the host in the url.
+     */
+    private class MockDriver implements Driver {
+
+        @Override
+        public Connection connect(String url, Properties info) {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            return connectionsByHost.get(url.substring(URL_PREFIX.length(), url.indexOf(':', URL_PREFIX.length())));
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith(URL_PREFIX);
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return null;
+        }
+    }
+}
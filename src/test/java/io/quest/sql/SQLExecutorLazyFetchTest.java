@@ -0,0 +1,272 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.sql;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.quest.EventConsumer;
+import io.quest.conns.Conn;
+
+
+public class SQLExecutorLazyFetchTest {
+    private static final int NUM_ROWS = 1000;
+
+    private final AtomicInteger connects = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private Driver driver;
+    private Conn conn;
+    private SQLExecutor executor;
+
+    @BeforeEach
+    public void beforeEach() throws SQLException {
+        driver = new MockDriver();
+        DriverManager.registerDriver(driver);
+        conn = new Conn("lazy", "localhost", "8812", "qdb", "admin", "quest");
+        conn.open();
+        executor = new SQLExecutor();
+        executor.start();
+    }
+
+    @AfterEach
+    public void afterEach() throws SQLException {
+        release.countDown();
+        executor.close();
+        conn.close();
+        DriverManager.deregisterDriver(driver);
+    }
+
+    @Test
+    public void test_fetch_stops_at_the_limit_until_more_rows_are_requested() throws Exception {
+        SQLExecutionRequest req = new SQLExecutionRequest("test", conn, "select * from t");
+        Events events = new Events();
+        executor.submit(req, events, 100L);
+        assertThat(events.awaitRows(100), is(100));
+        assertThat(executor.isRunning(req), is(true));
+        assertThat(connects.get(), is(2)); // a connection of its own, for the cursor
+
+        assertThat(executor.requestRows(req, 300L), is(true));
+        assertThat(events.awaitRows(300), is(300));
+        assertThat(executor.isRunning(req), is(true));
+
+        assertThat(executor.requestRows(req, SQLExecutor.FETCH_ALL), is(true));
+        SQLExecutionResponse res = events.awaitEnd();
+        assertThat(events.last, is(SQLExecutor.EventType.COMPLETED));
+        assertThat(res.getTable().size(), is(NUM_ROWS));
+        for (int i = 0; i < NUM_ROWS; i++) {
+            assertThat(res.getTable().getValueAt(i, 1), is(i));
+        }
+        assertThat(executor.requestRows(req, SQLExecutor.FETCH_ALL), is(false));
+    }
+
+    @Test
+    public void test_fetches_waiting_for_demand_hold_no_thread() throws Exception {
+        List<SQLExecutionRequest> waiting = new ArrayList<>();
+        List<Events> waitingEvents = new ArrayList<>();
+        for (int i = 0; i < 10; i++) { // more than the executor has threads
+            SQLExecutionRequest req = new SQLExecutionRequest("test", conn, "select * from t");
+            Events events = new Events();
+            executor.submit(req, events, 10L);
+            waiting.add(req);
+            waitingEvents.add(events);
+        }
+        for (Events events : waitingEvents) {
+            assertThat(events.awaitRows(10), is(10));
+        }
+
+        // a request fetching all rows still gets a thread
+        Events events = new Events();
+        executor.submit(new SQLExecutionRequest("test", conn, "select * from t"), events);
+        assertThat(events.awaitEnd().getTable().size(), is(NUM_ROWS));
+        assertThat(events.last, is(SQLExecutor.EventType.COMPLETED));
+
+        for (int i = 0; i < waiting.size(); i++) {
+            executor.cancelExistingRequest(waiting.get(i));
+            SQLExecutionResponse res = waitingEvents.get(i).awaitEnd();
+            assertThat(waitingEvents.get(i).last, is(SQLExecutor.EventType.CANCELLED));
+            assertThat(res.getTable().size(), is(10));
+        }
+    }
+
+    @Test
+    public void test_pause_and_resume() throws Exception {
+        SQLExecutionRequest req = new SQLExecutionRequest("test", conn, "select * from slow");
+        Events events = new Events();
+        executor.submit(req, events);
+        assertThat(executor.pause(req), is(true));
+        release.countDown();
+        assertThat(events.awaitRows(1), is(1)); // the first row is always fetched
+        Thread.sleep(50L);
+        assertThat(events.rows, is(1));
+        assertThat(executor.isRunning(req), is(true));
+        assertThat(executor.resume(req), is(true));
+        assertThat(events.awaitEnd().getTable().size(), is(NUM_ROWS));
+        assertThat(events.last, is(SQLExecutor.EventType.COMPLETED));
+    }
+
+    /**
+     * Collects the events of a request, for the test's thread to wait on.
+     */
+    private static class Events implements EventConsumer<SQLExecutor, SQLExecutionResponse> {
+        private final BlockingQueue<Object[]> queue = new LinkedBlockingQueue<>();
+        private volatile int rows;
+        private SQLExecutor.EventType last;
+
+        @Override
+        public void onSourceEvent(SQLExecutor source, Enum<?> event, SQLExecutionResponse res) {
+            rows = res.getTable().size();
+            queue.add(new Object[]{event, res});
+        }
+
+        private int awaitRows(int expected) throws InterruptedException {
+            while (rows < expected) {
+                if (next() == null) {
+                    break;
+                }
+            }
+            return rows;
+        }
+
+        private SQLExecutionResponse awaitEnd() throws InterruptedException {
+            while (true) {
+                SQLExecutionResponse res = next();
+                assertThat(res != null, is(true));
+                switch (last) {
+                    case COMPLETED, CANCELLED, FAILURE -> {
+                        return res;
+                    }
+                }
+            }
+        }
+
+        private SQLExecutionResponse next() throws InterruptedException {
+            Object[] event = queue.poll(10L, TimeUnit.SECONDS);
+            if (event == null) {
+                return null;
+            }
+            last = (SQLExecutor.EventType) event[0];
+            return (SQLExecutionResponse) event[1];
+        }
+    }
+
+    private Connection connection() throws SQLException {
+        Connection connection = mock(Connection.class);
+        when(connection.isValid(anyInt())).thenReturn(true);
+        when(connection.createStatement()).thenAnswer(invocation -> statement());
+        return connection;
+    }
+
+    private Statement statement() throws SQLException {
+        Statement stmt = mock(Statement.class);
+        when(stmt.execute(eq("select * from t"))).thenReturn(true);
+        when(stmt.execute(eq("select * from slow"))).thenAnswer(invocation -> release.await(10L, TimeUnit.SECONDS));
+        when(stmt.getResultSet()).thenAnswer(invocation -> resultSet());
+        return stmt;
+    }
+
+    private static ResultSet resultSet() throws SQLException {
+        ResultSetMetaData metadata = mock(ResultSetMetaData.class);
+        when(metadata.getColumnCount()).thenReturn(1);
+        when(metadata.getColumnName(eq(1))).thenReturn("id");
+        when(metadata.getColumnType(eq(1))).thenReturn(Types.INTEGER);
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getMetaData()).thenReturn(metadata);
+        Boolean[] hasNext = new Boolean[NUM_ROWS];
+        Object[] ids = new Object[NUM_ROWS];
+        for (int i = 0; i < NUM_ROWS; i++) {
+            hasNext[i] = i + 1 < NUM_ROWS;
+            ids[i] = i;
+        }
+        when(rs.next()).thenReturn(true, hasNext);
+        when(rs.getObject(1)).thenReturn(ids[0], Arrays.copyOfRange(ids, 1, ids.length));
+        return rs;
+    }
+
+    /**
+     * Hands out a new mocked connection for each connect.
+     */
+    private class MockDriver implements Driver {
+
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            connects.incrementAndGet();
+            return connection();
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:postgresql://");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return null;
+        }
+    }
+}
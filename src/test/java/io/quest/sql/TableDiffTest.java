@@ -0,0 +1,111 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2019 - 2023, Miguel Arregui a.k.a. marregui
+ */
+
+package io.quest.sql;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.sql.Types;
+
+import org.junit.jupiter.api.Test;
+
+
+public class TableDiffTest {
+
+    @Test
+    public void test_identical_tables() {
+        Table before = table(new Object[][]{{1, "a"}, {2, "b"}, {2, "b"}});
+        Table after = table(new Object[][]{{2, "b"}, {1, "a"}, {2, "b"}});
+        TableDiff diff = TableDiff.diff(before, after, () -> false);
+        assertThat(diff.getUnchangedCount(), is(3));
+        assertThat(diff.getAddedCount(), is(0));
+        assertThat(diff.getRemovedCount(), is(0));
+        assertThat(diff.getChangedCount(), is(0));
+        assertThat(diff.toTable("diff").size(), is(0));
+    }
+
+    @Test
+    public void test_added_removed_changed() {
+        Table before = table(new Object[][]{{1, "a"}, {2, "b"}, {3, "c"}, {4, null}});
+        Table after = table(new Object[][]{{1, "a"}, {3, "C"}, {4, null}, {5, "e"}, {5, "e"}});
+        TableDiff diff = TableDiff.diff(before, after, () -> false);
+        assertThat(diff.getUnchangedCount(), is(2));
+        assertThat(diff.getChangedCount(), is(1));
+        assertThat(diff.getRemovedCount(), is(1));
+        assertThat(diff.getAddedCount(), is(2));
+        Table table = diff.toTable("diff");
+        assertThat(table.getColumnName(1), is(TableDiff.DIFF_COL_NAME));
+        assertThat(table.getColumnName(2), is("id"));
+        assertThat(table.size(), is(5));
+        assertRow(table, 0, TableDiff.CHANGED_BEFORE, 3, "c");
+        assertRow(table, 1, TableDiff.CHANGED_AFTER, 3, "C");
+        assertRow(table, 2, TableDiff.REMOVED, 2, "b");
+        assertRow(table, 3, TableDiff.ADDED, 5, "e");
+        assertRow(table, 4, TableDiff.ADDED, 5, "e");
+    }
+
+    @Test
+    public void test_closing_the_diff_leaves_the_tables() {
+        Table before = table(new Object[][]{{1, "a"}});
+        Table after = table(new Object[][]{{1, "b"}});
+        TableDiff.diff(before, after, () -> false).toTable("diff").close();
+        assertThat(before.getValueAt(0, 2), is("a"));
+        assertThat(after.getValueAt(0, 2), is("b"));
+    }
+
+    @Test
+    public void test_large_tables() {
+        int size = 200_000;
+        Object[][] beforeRows = new Object[size][];
+        Object[][] afterRows = new Object[size][];
+        for (int i = 0; i < size; i++) {
+            beforeRows[i] = new Object[]{i, "v" + i % 1000};
+            afterRows[size - 1 - i] = new Object[]{i, "v" + (i % 10 == 0 ? i : i % 1000)};
+        }
+        TableDiff diff = TableDiff.diff(table(beforeRows), table(afterRows), () -> false);
+        assertThat(diff.getChangedCount(), is(size / 10 - 100)); // but for 0, 10, .., 990
+        assertThat(diff.getUnchangedCount(), is(size - size / 10 + 100));
+        assertThat(diff.getAddedCount(), is(0));
+        assertThat(diff.getRemovedCount(), is(0));
+    }
+
+    @Test
+    public void test_different_columns() {
+        Table other = new Table("other");
+        other.setColumnMetadata(new String[]{Table.ROWID_COL_NAME, "id"}, new int[]{Types.ROWID, Types.INTEGER});
+        Table table = table(new Object[][]{{1, "a"}});
+        assertThrows(IllegalArgumentException.class, () -> TableDiff.diff(table, other, () -> false));
+    }
+
+    private static Table table(Object[][] rows) {
+        Table table = new Table("t");
+        table.setColumnMetadata(
+            new String[]{Table.ROWID_COL_NAME, "id", "value"},
+            new int[]{Types.ROWID, Types.INTEGER, Types.VARCHAR});
+        for (int i = 0; i < rows.length; i++) {
+            table.addRow(new Row(i, new Object[]{(long) i, rows[i][0], rows[i][1]}));
+        }
+        return table;
+    }
+
+    private static void assertRow(Table table, int rowIdx, String diff, int id, String value) {
+        assertThat(table.getValueAt(rowIdx, 1), is(diff));
+        assertThat(table.getValueAt(rowIdx, 2), is(id));
+        assertThat(table.getValueAt(rowIdx, 3), is(value));
+    }
+}